@@ -0,0 +1,39 @@
+package com.kar.mediaservice.benchmark;
+
+import com.kar.mediaservice.views.VideoFrameLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VideoFrameLayout}'s aspect ratio check, which runs on every measure pass of the video
+ * view, over a mix of common view sizes and video aspect ratios.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AspectRatioBenchmark {
+
+    private static final int[] VIEW_WIDTHS = new int[] {1080, 1920, 720, 1280, 2560, 1440};
+    private static final int[] VIEW_HEIGHTS = new int[] {1920, 1080, 1280, 720, 1440, 1080};
+    private static final float[] VIDEO_ASPECT_RATIOS = new float[] {16f / 9, 4f / 3, 2.39f, 1f};
+
+    @Benchmark
+    public float aspectDeformation() {
+        float sum = 0;
+        for (int i = 0; i < VIEW_WIDTHS.length; i++) {
+            for (float videoAspectRatio : VIDEO_ASPECT_RATIOS) {
+                sum += VideoFrameLayout.getAspectDeformation(videoAspectRatio, VIEW_WIDTHS[i],
+                        VIEW_HEIGHTS[i]);
+            }
+        }
+        return sum;
+    }
+
+}
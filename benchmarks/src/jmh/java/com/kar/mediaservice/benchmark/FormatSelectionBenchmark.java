@@ -0,0 +1,76 @@
+package com.kar.mediaservice.benchmark;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.kar.mediaservice.utils.LadderEvaluator;
+import com.kar.mediaservice.utils.MaxFixedEvaluator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-cap format selection per chunk: {@link MaxFixedEvaluator}'s linear scan against
+ * {@link LadderEvaluator}'s binary search, on multi-codec ladders of increasing size.
+ * <p/>
+ * The cap is just above the lowest rendition, which is the worst case for the linear scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatSelectionBenchmark {
+
+    private static final String[] CODECS = new String[] {"avc1.640028", "hev1.1.6.L93.B0",
+            "vp09.00.31.08"};
+
+    @Param({"6", "24", "96"})
+    public int ladderSize;
+
+    private final List<MediaChunk> mQueue = Collections.emptyList();
+    private final FormatEvaluator.Evaluation mEvaluation = new FormatEvaluator.Evaluation();
+
+    private Format[] mFormats;
+    private FormatEvaluator mMaxFixedEvaluator;
+    private FormatEvaluator mLadderEvaluator;
+
+    @Setup
+    public void setUp() {
+        mFormats = new Format[ladderSize];
+        for (int i = 0; i < ladderSize; i++) {
+            int height = 144 + (i / CODECS.length) * 1936 / Math.max(ladderSize / CODECS.length, 1);
+            mFormats[i] = new Format(Integer.toString(i), "video/mp4", height * 16 / 9, height, 30,
+                    -1, -1, 200000 + i * 150000, null, CODECS[i % CODECS.length]);
+        }
+        // Chunk sources pass formats in order of decreasing bandwidth, as MaxFixedEvaluator needs.
+        Arrays.sort(mFormats, new Format.DecreasingBandwidthComparator());
+        long maxBitrate = 250000;
+        mMaxFixedEvaluator = new MaxFixedEvaluator(maxBitrate);
+        mLadderEvaluator = new LadderEvaluator(maxBitrate, 1920, 1080, 30);
+        mMaxFixedEvaluator.enable();
+        mLadderEvaluator.enable();
+    }
+
+    @Benchmark
+    public Format maxFixedEvaluator() {
+        mMaxFixedEvaluator.evaluate(mQueue, 0, mFormats, mEvaluation);
+        return mEvaluation.format;
+    }
+
+    @Benchmark
+    public Format ladderEvaluator() {
+        mLadderEvaluator.evaluate(mQueue, 0, mFormats, mEvaluation);
+        return mEvaluation.format;
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.kar.mediaservice.benchmark;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+import com.kar.mediaservice.InfoEventDispatcher;
+import com.kar.mediaservice.MediaSDKService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The main thread cost of one frame's worth of info events during fast segment loads: a load
+ * started, a load completed and a bandwidth sample per segment. Compares calling every listener
+ * per event, as MediaSDKService used to, against {@link InfoEventDispatcher}'s batches.
+ * <p/>
+ * Run with {@code -prof gc} to compare allocation rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InfoDispatchBenchmark {
+
+    @Param({"1", "4"})
+    public int listenerCount;
+
+    @Param({"4", "32"})
+    public int segmentsPerFrame;
+
+    private final Format mFormat = new Format("0", "video/mp4", 1280, 720, 30, -1, -1, 2500000);
+
+    private CopyOnWriteArrayList<MediaSDKService.InfoListener> mListeners;
+    private InfoEventDispatcher mDispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mListeners = new CopyOnWriteArrayList<>();
+        // No handler: batches are delivered by the explicit flush at the end of each frame.
+        mDispatcher = new InfoEventDispatcher(null);
+        for (int i = 0; i < listenerCount; i++) {
+            ConsumingListener listener = new ConsumingListener(blackhole);
+            mListeners.add(listener);
+            mDispatcher.addListener(listener);
+        }
+    }
+
+    @Benchmark
+    public void perEventFanOut() {
+        for (int i = 0; i < segmentsPerFrame; i++) {
+            for (MediaSDKService.InfoListener listener : mListeners) {
+                listener.onLoadStarted(0, 500000, 1, 0, mFormat, i * 2000, i * 2000 + 2000);
+            }
+            for (MediaSDKService.InfoListener listener : mListeners) {
+                listener.onLoadCompleted(0, 500000, 1, 0, mFormat, i * 2000, i * 2000 + 2000,
+                        i, 40);
+            }
+            for (MediaSDKService.InfoListener listener : mListeners) {
+                listener.onBandwidthSample(40, 500000, 100000000);
+            }
+        }
+    }
+
+    @Benchmark
+    public void batchedDispatch() {
+        for (int i = 0; i < segmentsPerFrame; i++) {
+            mDispatcher.onLoadStarted(0, 500000, 1, 0, mFormat, i * 2000, i * 2000 + 2000);
+            mDispatcher.onLoadCompleted(0, 500000, 1, 0, mFormat, i * 2000, i * 2000 + 2000, i,
+                    40);
+            mDispatcher.onBandwidthSample(40, 500000, 100000000);
+        }
+        mDispatcher.flush();
+    }
+
+    private static final class ConsumingListener implements MediaSDKService.InfoListener {
+
+        private final Blackhole mBlackhole;
+
+        public ConsumingListener(Blackhole blackhole) {
+            mBlackhole = blackhole;
+        }
+
+        @Override
+        public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            mBlackhole.consume(mediaTimeMs);
+        }
+
+        @Override
+        public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            mBlackhole.consume(mediaTimeMs);
+        }
+
+        @Override
+        public void onDroppedFrames(int count, long elapsed) {
+            mBlackhole.consume(count);
+        }
+
+        @Override
+        public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+            mBlackhole.consume(bitrateEstimate);
+        }
+
+        @Override
+        public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                                  long mediaStartTimeMs, long mediaEndTimeMs) {
+            mBlackhole.consume(mediaStartTimeMs);
+        }
+
+        @Override
+        public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                                    Format format, long mediaStartTimeMs, long mediaEndTimeMs,
+                                    long elapsedRealtimeMs, long loadDurationMs) {
+            mBlackhole.consume(loadDurationMs);
+        }
+
+        @Override
+        public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                         long initializationDurationMs) {
+            mBlackhole.consume(initializationDurationMs);
+        }
+
+        @Override
+        public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+            mBlackhole.consume(availableRange);
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.kar.mediaservice.benchmark;
+
+import java.nio.charset.Charset;
+
+/**
+ * Generates large DASH, HLS and SmoothStreaming manifests, the shape of a long VOD title with
+ * explicitly listed segments. The output depends only on the arguments, so that results stay
+ * comparable across commits.
+ */
+/* package */ final class ManifestFixtures {
+
+    public static final long SEGMENT_DURATION_MS = 4000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int[] VIDEO_HEIGHTS = new int[] {240, 360, 480, 720, 1080, 1440};
+    private static final int[] VIDEO_BITRATES = new int[] {300000, 750000, 1200000, 2500000,
+            5000000, 9000000};
+    private static final String AVC_CODEC_PRIVATE_DATA =
+            "00000001674D401FDA014016EC04400000030040000007A3C60CA8000000000168EF3880";
+
+    private ManifestFixtures() {}
+
+    /**
+     * An MPD with one period holding six video and two audio representations, each with its own
+     * {@code SegmentList} of {@code segmentCount} URLs.
+     */
+    public static byte[] dash(int segmentCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\"")
+                .append(" profiles=\"urn:mpeg:dash:profile:isoff-on-demand:2011\"")
+                .append(" minBufferTime=\"PT2S\" mediaPresentationDuration=\"PT")
+                .append(segmentCount * SEGMENT_DURATION_MS / 1000).append("S\">\n")
+                .append("<Period id=\"0\" start=\"PT0S\">\n")
+                .append("<AdaptationSet mimeType=\"video/mp4\" segmentAlignment=\"true\">\n");
+        for (int i = 0; i < VIDEO_HEIGHTS.length; i++) {
+            builder.append("<Representation id=\"video").append(i)
+                    .append("\" codecs=\"avc1.4d401f\"")
+                    .append(" width=\"").append(VIDEO_HEIGHTS[i] * 16 / 9).append("\" height=\"")
+                    .append(VIDEO_HEIGHTS[i]).append("\" frameRate=\"30\" bandwidth=\"")
+                    .append(VIDEO_BITRATES[i]).append("\">\n");
+            appendSegmentList(builder, "video" + i, segmentCount);
+            builder.append("</Representation>\n");
+        }
+        builder.append("</AdaptationSet>\n")
+                .append("<AdaptationSet mimeType=\"audio/mp4\" lang=\"en\">\n");
+        for (int i = 0; i < 2; i++) {
+            builder.append("<Representation id=\"audio").append(i)
+                    .append("\" codecs=\"mp4a.40.2\"")
+                    .append(" audioSamplingRate=\"48000\" bandwidth=\"").append(64000 * (i + 1))
+                    .append("\">\n")
+                    .append("<AudioChannelConfiguration")
+                    .append(" schemeIdUri=\"urn:mpeg:dash:23003:3:")
+                    .append("audio_channel_configuration:2011\"")
+                    .append(" value=\"2\"/>\n");
+            appendSegmentList(builder, "audio" + i, segmentCount);
+            builder.append("</Representation>\n");
+        }
+        builder.append("</AdaptationSet>\n</Period>\n</MPD>\n");
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * An HLS media playlist of {@code segmentCount} segments.
+     */
+    public static byte[] hls(int segmentCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-TARGETDURATION:").append(SEGMENT_DURATION_MS / 1000).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < segmentCount; i++) {
+            builder.append("#EXTINF:").append(SEGMENT_DURATION_MS / 1000).append(".000,\n")
+                    .append("segment").append(i).append(".ts\n");
+        }
+        builder.append("#EXT-X-ENDLIST\n");
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * A SmoothStreaming manifest with six video and one audio quality levels over
+     * {@code segmentCount} chunks.
+     */
+    public static byte[] smoothStreaming(int segmentCount) {
+        long chunkDuration = SEGMENT_DURATION_MS * 10000;
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<SmoothStreamingMedia MajorVersion=\"2\" MinorVersion=\"0\"")
+                .append(" TimeScale=\"10000000\" Duration=\"").append(segmentCount * chunkDuration)
+                .append("\">\n")
+                .append("<StreamIndex Type=\"video\" Name=\"video\" Chunks=\"").append(segmentCount)
+                .append("\" QualityLevels=\"").append(VIDEO_HEIGHTS.length)
+                .append("\" Url=\"QualityLevels({bitrate})/Fragments(video={start time})\">\n");
+        for (int i = 0; i < VIDEO_HEIGHTS.length; i++) {
+            builder.append("<QualityLevel Index=\"").append(i).append("\" Bitrate=\"")
+                    .append(VIDEO_BITRATES[i]).append("\" FourCC=\"H264\" MaxWidth=\"")
+                    .append(VIDEO_HEIGHTS[i] * 16 / 9).append("\" MaxHeight=\"")
+                    .append(VIDEO_HEIGHTS[i]).append("\" CodecPrivateData=\"")
+                    .append(AVC_CODEC_PRIVATE_DATA).append("\"/>\n");
+        }
+        appendChunks(builder, segmentCount, chunkDuration);
+        builder.append("</StreamIndex>\n")
+                .append("<StreamIndex Type=\"audio\" Name=\"audio\" Chunks=\"").append(segmentCount)
+                .append("\" QualityLevels=\"1\"")
+                .append(" Url=\"QualityLevels({bitrate})/Fragments(audio={start time})\">\n")
+                .append("<QualityLevel Index=\"0\" Bitrate=\"128000\" FourCC=\"AACL\"")
+                .append(" SamplingRate=\"48000\" Channels=\"2\" BitsPerSample=\"16\"")
+                .append(" PacketSize=\"4\" AudioTag=\"255\" CodecPrivateData=\"1190\"/>\n");
+        appendChunks(builder, segmentCount, chunkDuration);
+        builder.append("</StreamIndex>\n</SmoothStreamingMedia>\n");
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    private static void appendSegmentList(StringBuilder builder, String representationId,
+                                          int segmentCount) {
+        builder.append("<SegmentList timescale=\"1000\" duration=\"").append(SEGMENT_DURATION_MS)
+                .append("\">\n")
+                .append("<Initialization sourceURL=\"").append(representationId)
+                .append("/init.mp4\"/>\n");
+        for (int i = 0; i < segmentCount; i++) {
+            builder.append("<SegmentURL media=\"").append(representationId).append("/segment")
+                    .append(i).append(".m4s\"/>\n");
+        }
+        builder.append("</SegmentList>\n");
+    }
+
+    private static void appendChunks(StringBuilder builder, int segmentCount, long chunkDuration) {
+        for (int i = 0; i < segmentCount; i++) {
+            builder.append("<c d=\"").append(chunkDuration).append("\"/>\n");
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.kar.mediaservice.benchmark;
+
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of large DASH, HLS and SmoothStreaming manifests from {@link ManifestFixtures}, as done
+ * on the builder thread before any renderer can be built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManifestParserBenchmark {
+
+    private static final String MANIFEST_URL = "http://localhost/manifest";
+
+    /** 100 segments is a short clip; 2700 is a three hour title at four seconds per segment. */
+    @Param({"100", "2700"})
+    public int segmentCount;
+
+    private final MediaPresentationDescriptionParser mDashParser =
+            new MediaPresentationDescriptionParser();
+    private final HlsPlaylistParser mHlsParser = new HlsPlaylistParser();
+    private final SmoothStreamingManifestParser mSmoothStreamingParser =
+            new SmoothStreamingManifestParser();
+
+    private byte[] mDashManifest;
+    private byte[] mHlsPlaylist;
+    private byte[] mSmoothStreamingManifest;
+
+    @Setup
+    public void setUp() {
+        mDashManifest = ManifestFixtures.dash(segmentCount);
+        mHlsPlaylist = ManifestFixtures.hls(segmentCount);
+        mSmoothStreamingManifest = ManifestFixtures.smoothStreaming(segmentCount);
+    }
+
+    @Benchmark
+    public MediaPresentationDescription parseMpd() throws IOException {
+        return mDashParser.parse(MANIFEST_URL, new ByteArrayInputStream(mDashManifest));
+    }
+
+    @Benchmark
+    public HlsPlaylist parseM3u8() throws IOException {
+        return mHlsParser.parse(MANIFEST_URL, new ByteArrayInputStream(mHlsPlaylist));
+    }
+
+    @Benchmark
+    public SmoothStreamingManifest parseIsm() throws IOException {
+        return mSmoothStreamingParser.parse(MANIFEST_URL,
+                new ByteArrayInputStream(mSmoothStreamingManifest));
+    }
+
+}
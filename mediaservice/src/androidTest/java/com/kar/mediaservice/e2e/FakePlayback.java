@@ -0,0 +1,249 @@
+package com.kar.mediaservice.e2e;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.MediaFormatHolder;
+import com.google.android.exoplayer.SampleHolder;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.SampleSource.SampleSourceReader;
+import com.google.android.exoplayer.util.MimeTypes;
+import com.kar.mediaservice.MediaSDKService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fake renderers for the video and audio sample sources a {@link MediaSDKService.RendererBuilder}
+ * built: they read every sample out of the sample sources without decoding, and advance the
+ * playback position to the last sample read, so that media plays out as fast as it is loaded.
+ * <p/>
+ * All sample source calls happen on a dedicated playback thread, as ExoPlayer's do, so that the
+ * sources' loaders deliver their results there.
+ */
+/* package */ final class FakePlayback implements Handler.Callback {
+
+    private static final int MSG_PREPARE = 0;
+    private static final int MSG_DO_SOME_WORK = 1;
+    private static final long RETRY_INTERVAL_MS = 10;
+
+    private final List<SampleSource> mVideoSources;
+    private final List<SampleSource> mAudioSources;
+    // Sources shared between video and audio, as HLS does, are registered once.
+    private final Map<SampleSource, SampleSourceReader> mReaders;
+    private final HandlerThread mPlaybackThread;
+    private final Handler mHandler;
+    private final CountDownLatch mEndedLatch;
+    private final List<FakeTrack> mTracks;
+    private final MediaFormatHolder mFormatHolder;
+    private final SampleHolder mSampleHolder;
+
+    private long mStartTimeMs;
+    private volatile long mEndTimeMs;
+    private volatile long mSampleCount;
+    private volatile long mSampleBytes;
+    private volatile Exception mError;
+
+    /**
+     * @param videoSources The sample sources the video renderer was built with.
+     * @param audioSources The sample sources the audio renderer was built with.
+     */
+    public FakePlayback(List<SampleSource> videoSources, List<SampleSource> audioSources) {
+        mVideoSources = videoSources;
+        mAudioSources = audioSources;
+        mReaders = new IdentityHashMap<>();
+        mPlaybackThread = new HandlerThread("FakePlayback");
+        mPlaybackThread.start();
+        mHandler = new Handler(mPlaybackThread.getLooper(), this);
+        mEndedLatch = new CountDownLatch(1);
+        mTracks = new ArrayList<>();
+        mFormatHolder = new MediaFormatHolder();
+        mSampleHolder = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+    }
+
+    public void start() {
+        mHandler.sendEmptyMessage(MSG_PREPARE);
+    }
+
+    /**
+     * Waits until every played track has ended or failed. Returns false on timeout.
+     */
+    public boolean awaitEnded(long timeoutMs) throws InterruptedException {
+        return mEndedLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public Exception getError() {
+        return mError;
+    }
+
+    public int getTrackCount() {
+        return mTracks.size();
+    }
+
+    /**
+     * Returns the time from the tracks being enabled until the last one ended.
+     */
+    public long getPlaybackDurationMs() {
+        return mEndTimeMs - mStartTimeMs;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getSampleBytes() {
+        return mSampleBytes;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        try {
+            switch (msg.what) {
+                case MSG_PREPARE:
+                    prepare();
+                    return true;
+                case MSG_DO_SOME_WORK:
+                    doSomeWork();
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (Exception e) {
+            mError = e;
+            end();
+            return true;
+        }
+    }
+
+    private void prepare() throws IOException {
+        if (mReaders.isEmpty()) {
+            register(mVideoSources);
+            register(mAudioSources);
+        }
+        boolean prepared = true;
+        for (SampleSourceReader reader : mReaders.values()) {
+            reader.maybeThrowError();
+            prepared &= reader.prepare(0);
+        }
+        if (!prepared) {
+            mHandler.sendEmptyMessageDelayed(MSG_PREPARE, RETRY_INTERVAL_MS);
+            return;
+        }
+        // A source may be shared between renderers, as HLS does, with one track for each.
+        selectTrack(mVideoSources, true);
+        selectTrack(mAudioSources, false);
+        if (mTracks.isEmpty()) {
+            throw new IllegalStateException("No audio or video tracks");
+        }
+        mStartTimeMs = SystemClock.elapsedRealtime();
+        for (FakeTrack track : mTracks) {
+            track.reader.enable(track.index, 0);
+        }
+        mHandler.sendEmptyMessage(MSG_DO_SOME_WORK);
+    }
+
+    private void register(List<SampleSource> sources) {
+        for (SampleSource source : sources) {
+            if (!mReaders.containsKey(source)) {
+                mReaders.put(source, source.register());
+            }
+        }
+    }
+
+    private void selectTrack(List<SampleSource> sources, boolean video) {
+        for (SampleSource source : sources) {
+            SampleSourceReader reader = mReaders.get(source);
+            for (int i = 0; i < reader.getTrackCount(); i++) {
+                MediaFormat format = reader.getFormat(i);
+                boolean matches = video ? MimeTypes.isVideo(format.mimeType)
+                        : MimeTypes.isAudio(format.mimeType);
+                if (matches) {
+                    mTracks.add(new FakeTrack(reader, i));
+                    return;
+                }
+            }
+        }
+    }
+
+    private void doSomeWork() throws IOException {
+        long positionUs = Long.MAX_VALUE;
+        boolean readAny = false;
+        for (FakeTrack track : mTracks) {
+            if (track.ended) {
+                continue;
+            }
+            track.reader.continueBuffering(track.index, track.positionUs);
+            track.reader.readDiscontinuity(track.index);
+            int result;
+            while ((result = track.reader.readData(track.index, track.positionUs, mFormatHolder,
+                    mSampleHolder)) != SampleSource.NOTHING_READ) {
+                if (result == SampleSource.SAMPLE_READ) {
+                    track.lastSampleTimeUs = Math.max(track.lastSampleTimeUs,
+                            mSampleHolder.timeUs);
+                    mSampleCount++;
+                    mSampleBytes += mSampleHolder.size;
+                    mSampleHolder.clearData();
+                    readAny = true;
+                } else if (result == SampleSource.END_OF_STREAM) {
+                    track.ended = true;
+                    break;
+                }
+            }
+            track.reader.maybeThrowError();
+            if (!track.ended) {
+                positionUs = Math.min(positionUs, track.lastSampleTimeUs);
+            }
+        }
+        if (positionUs == Long.MAX_VALUE) {
+            end();
+            return;
+        }
+        // Play out everything read, but no track beyond what the others have buffered.
+        for (FakeTrack track : mTracks) {
+            track.positionUs = positionUs;
+        }
+        if (readAny) {
+            mHandler.sendEmptyMessage(MSG_DO_SOME_WORK);
+        } else {
+            mHandler.sendEmptyMessageDelayed(MSG_DO_SOME_WORK, RETRY_INTERVAL_MS);
+        }
+    }
+
+    private void end() {
+        mEndTimeMs = SystemClock.elapsedRealtime();
+        mHandler.removeCallbacksAndMessages(null);
+        for (FakeTrack track : mTracks) {
+            track.reader.disable(track.index);
+        }
+        for (SampleSourceReader reader : mReaders.values()) {
+            reader.release();
+        }
+        mPlaybackThread.quit();
+        mEndedLatch.countDown();
+    }
+
+    private static final class FakeTrack {
+
+        public final SampleSourceReader reader;
+        public final int index;
+
+        public long positionUs;
+        public long lastSampleTimeUs;
+        public boolean ended;
+
+        public FakeTrack(SampleSourceReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+
+    }
+
+}
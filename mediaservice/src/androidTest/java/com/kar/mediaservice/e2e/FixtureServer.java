@@ -0,0 +1,236 @@
+package com.kar.mediaservice.e2e;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal in-process HTTP/1.1 server on the loopback interface, serving fixed byte arrays by
+ * path.
+ * <p/>
+ * It supports what the library's data sources use: GET requests, keep-alive connections and
+ * single {@code Range} requests. Everything else is answered with an error status.
+ */
+public final class FixtureServer {
+
+    private static final String TAG = "FixtureServer";
+
+    private final Map<String, byte[]> mResources;
+    private final ExecutorService mExecutor;
+    private final AtomicLong mRequestCount;
+    private final AtomicLong mBytesServed;
+
+    private ServerSocket mServerSocket;
+
+    public FixtureServer() {
+        mResources = Collections.synchronizedMap(new HashMap<String, byte[]>());
+        mExecutor = Executors.newCachedThreadPool();
+        mRequestCount = new AtomicLong();
+        mBytesServed = new AtomicLong();
+    }
+
+    /**
+     * Serves {@code data} at {@code path}, which must start with a slash.
+     */
+    public void put(String path, byte[] data) {
+        mResources.put(path, data);
+    }
+
+    public void putAll(Map<String, byte[]> resources) {
+        mResources.putAll(resources);
+    }
+
+    /**
+     * Starts listening on an ephemeral port of the loopback interface.
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Returns the absolute URL of {@code path}.
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    public void stop() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Do nothing.
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // The server was stopped.
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            });
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            while (serveRequest(input, output)) {
+                // Keep serving requests on this connection.
+            }
+        } catch (SocketException e) {
+            // The client closed the connection.
+        } catch (IOException e) {
+            Log.w(TAG, "Connection failed", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Do nothing.
+            }
+        }
+    }
+
+    /**
+     * Serves one request. Returns whether the connection may be reused.
+     */
+    private boolean serveRequest(InputStream input, OutputStream output) throws IOException {
+        String requestLine = readLine(input);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return false;
+        }
+        String range = null;
+        boolean keepAlive = true;
+        String header;
+        while ((header = readLine(input)) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = header.substring(colon + 1).trim();
+            if (name.equals("range")) {
+                range = value;
+            } else if (name.equals("connection")) {
+                keepAlive = !value.equalsIgnoreCase("close");
+            }
+        }
+        mRequestCount.incrementAndGet();
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !parts[0].equals("GET")) {
+            writeHeaders(output, "405 Method Not Allowed", 0, null);
+            return keepAlive;
+        }
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        byte[] data = mResources.get(path);
+        if (data == null) {
+            writeHeaders(output, "404 Not Found", 0, null);
+            return keepAlive;
+        }
+
+        int start = 0;
+        int end = data.length - 1;
+        String status = "200 OK";
+        String contentRange = null;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Integer.parseInt(bounds[0].trim());
+            if (bounds.length > 1 && !bounds[1].trim().isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1].trim()));
+            }
+            if (start > end) {
+                writeHeaders(output, "416 Range Not Satisfiable", 0, "bytes */" + data.length);
+                return keepAlive;
+            }
+            status = "206 Partial Content";
+            contentRange = "bytes " + start + "-" + end + "/" + data.length;
+        }
+        int length = end - start + 1;
+        writeHeaders(output, status, length, contentRange);
+        output.write(data, start, length);
+        output.flush();
+        mBytesServed.addAndGet(length);
+        return keepAlive;
+    }
+
+    private static void writeHeaders(OutputStream output, String status, int contentLength,
+                                     String contentRange) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        headers.append("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Content-Length: ").append(contentLength).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Connection: keep-alive\r\n");
+        if (contentRange != null) {
+            headers.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        headers.append("\r\n");
+        output.write(headers.toString().getBytes("US-ASCII"));
+        output.flush();
+    }
+
+    /**
+     * Reads a CRLF terminated line, without the terminator, or returns null at end of stream.
+     */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, "US-ASCII");
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : new String(line.toByteArray(), "US-ASCII");
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.kar.mediaservice.e2e;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.google.android.exoplayer.DummyTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.util.Util;
+import com.kar.mediaservice.MediaSDKService;
+import com.kar.mediaservice.metrics.MetricsRegistry;
+import com.kar.mediaservice.metrics.StartupTimeline;
+import com.kar.mediaservice.upstream.SegmentPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plays DASH, HLS and SmoothStreaming presentations end to end, from manifest request to the last
+ * sample, against a {@link FixtureServer} on the loopback interface, and reports startup latency,
+ * load throughput and allocator peak.
+ * <p/>
+ * The player's renderers are replaced by a {@link FakePlayback}, so that results measure the
+ * library's loading path rather than the device's decoders. Run on an emulator with
+ * {@code ./gradlew :mediaservice:connectedAndroidTest}; results are logged under {@link #TAG} and
+ * sent as instrumentation status.
+ */
+public class StreamingBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "StreamingBenchmark";
+
+    private static final int SEGMENT_COUNT = 60;
+    // 1 Mbps.
+    private static final int FRAME_SIZE = 2667;
+    private static final long TIMEOUT_MS = 60000;
+
+    private StreamingFixtures mFixtures;
+    private FixtureServer mServer;
+    private BenchmarkPlayer mPlayer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFixtures = new StreamingFixtures(SEGMENT_COUNT, FRAME_SIZE);
+        mServer = new FixtureServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mPlayer != null) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mPlayer.release();
+                }
+            });
+            mPlayer = null;
+        }
+        mServer.stop();
+        super.tearDown();
+    }
+
+    public void testDash() throws Exception {
+        runBenchmark("dash", Util.TYPE_DASH, StreamingFixtures.DASH_MANIFEST_PATH,
+                mFixtures.dash());
+    }
+
+    public void testHls() throws Exception {
+        runBenchmark("hls", Util.TYPE_HLS, StreamingFixtures.HLS_PLAYLIST_PATH, mFixtures.hls());
+    }
+
+    public void testSmoothStreaming() throws Exception {
+        runBenchmark("ss", Util.TYPE_SS, StreamingFixtures.SMOOTH_STREAMING_MANIFEST_PATH,
+                mFixtures.smoothStreaming());
+    }
+
+    private void runBenchmark(String name, final int contentType, String path,
+                              Map<String, byte[]> resources) throws Exception {
+        mServer.putAll(resources);
+        final Uri uri = Uri.parse(mServer.getUrl(path));
+        final Context context = getInstrumentation().getTargetContext();
+        SegmentPool.getInstance().resetPeak();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPlayer = new BenchmarkPlayer(context);
+                mPlayer.setDataSource(contentType, uri, null);
+                mPlayer.prepare();
+            }
+        });
+
+        FakePlayback playback = mPlayer.awaitPlayback(TIMEOUT_MS);
+        assertNotNull("Renderers not built", playback);
+        assertTrue("Playback timed out", playback.awaitEnded(TIMEOUT_MS));
+        if (playback.getError() != null) {
+            throw playback.getError();
+        }
+        // Let load events queued for the main thread reach the metrics.
+        getInstrumentation().waitForIdleSync();
+
+        StartupTimeline timeline = mPlayer.getStartupTimeline();
+        MetricsRegistry.Snapshot metrics = mPlayer.getMetrics().snapshot();
+        long loads = metrics.getCounter(MetricsRegistry.COUNTER_LOADS_COMPLETED);
+        long bytesLoaded = metrics.getCounter(MetricsRegistry.COUNTER_BYTES_LOADED);
+        long durationMs = Math.max(1, playback.getPlaybackDurationMs());
+
+        Bundle results = new Bundle();
+        results.putLong(name + ".manifestToRenderersMs",
+                timeline.getStageTimeMs(StartupTimeline.STAGE_RENDERERS_BUILT)
+                - timeline.getStageTimeMs(StartupTimeline.STAGE_MANIFEST_LOADED));
+        results.putLong(name + ".prepareToRenderersMs",
+                timeline.getStageDelayMs(StartupTimeline.STAGE_RENDERERS_BUILT));
+        results.putLong(name + ".playbackMs", durationMs);
+        results.putLong(name + ".chunksPerSecond", loads * 1000 / durationMs);
+        results.putLong(name + ".bytesPerSecond", bytesLoaded * 1000 / durationMs);
+        results.putLong(name + ".allocatorPeakBytes", SegmentPool.getInstance().getPeakBytes());
+        results.putLong(name + ".requests", mServer.getRequestCount());
+        Log.i(TAG, results.toString());
+        getInstrumentation().sendStatus(0, results);
+
+        assertEquals(1, playback.getTrackCount());
+        assertEquals(mFixtures.getSampleCount(), playback.getSampleCount());
+        assertTrue(loads >= mFixtures.getSegmentCount());
+        assertEquals(0, metrics.getCounter(MetricsRegistry.COUNTER_LOAD_ERRORS));
+    }
+
+    /**
+     * Hands the sample sources of the video and audio renderers to a {@link FakePlayback} instead
+     * of ExoPlayer.
+     */
+    private static final class BenchmarkPlayer extends MediaSDKService {
+
+        private final Object mLock = new Object();
+        private final List<SampleSource> mVideoSources = new ArrayList<>();
+        private final List<SampleSource> mAudioSources = new ArrayList<>();
+
+        private FakePlayback mPlayback;
+
+        public BenchmarkPlayer(Context ctx) {
+            super(ctx);
+        }
+
+        @Override
+        public TrackRenderer createVideoRenderer(SampleSource sampleSource,
+                                                 DrmSessionManager drmSessionManager) {
+            synchronized (mLock) {
+                mVideoSources.add(sampleSource);
+            }
+            return new DummyTrackRenderer();
+        }
+
+        @Override
+        public TrackRenderer createAudioRenderer(SampleSource[] sampleSources,
+                                                 DrmSessionManager drmSessionManager) {
+            synchronized (mLock) {
+                mAudioSources.addAll(Arrays.asList(sampleSources));
+            }
+            return new DummyTrackRenderer();
+        }
+
+        @Override
+        public void onRenderers(TrackRenderer[] renderers, BandwidthMeter bandwidthMeter) {
+            onStartupStage(StartupTimeline.STAGE_RENDERERS_BUILT);
+            synchronized (mLock) {
+                mPlayback = new FakePlayback(new ArrayList<>(mVideoSources),
+                        new ArrayList<>(mAudioSources));
+                mPlayback.start();
+                mLock.notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the renderers to be built, returning their playback or null on timeout.
+         */
+        public FakePlayback awaitPlayback(long timeoutMs) throws InterruptedException {
+            long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+            synchronized (mLock) {
+                long remainingMs = timeoutMs;
+                while (mPlayback == null && remainingMs > 0) {
+                    mLock.wait(remainingMs);
+                    remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+                }
+                return mPlayback;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,490 @@
+package com.kar.mediaservice.e2e;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates small, self consistent DASH, HLS and SmoothStreaming presentations to serve from a
+ * {@link FixtureServer}: the manifests plus their segments, keyed by path.
+ * <p/>
+ * Each presentation holds a single AAC-LC stereo audio track at 48 kHz, split into segments of
+ * {@link #SEGMENT_DURATION_MS}. DASH segments are fragmented MP4 with an initialization segment,
+ * SmoothStreaming fragments are bare {@code moof}/{@code mdat} pairs described by the manifest,
+ * and HLS segments are ADTS streams. The access units are filler bytes: they parse as valid
+ * containers but are not meant to be decoded, which the benchmark's fake renderers never do.
+ * Everything depends only on the arguments, so runs are reproducible.
+ */
+public final class StreamingFixtures {
+
+    public static final String DASH_MANIFEST_PATH = "/dash/manifest.mpd";
+    public static final String HLS_PLAYLIST_PATH = "/hls/playlist.m3u8";
+    public static final String SMOOTH_STREAMING_MANIFEST_PATH = "/ss/Manifest";
+
+    public static final long SEGMENT_DURATION_MS = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int SAMPLES_PER_FRAME = 1024;
+    private static final int ADTS_SAMPLING_FREQUENCY_INDEX = 3;
+    // AAC-LC, 48 kHz, stereo.
+    private static final byte[] AUDIO_SPECIFIC_CONFIG = new byte[] {0x11, (byte) 0x90};
+    private static final long SMOOTH_STREAMING_TIMESCALE = 10000000;
+
+    private final int mSegmentCount;
+    private final int mFrameSize;
+    private final int mFramesPerSegment;
+
+    /**
+     * @param segmentCount The number of segments of each presentation.
+     * @param frameSize    The size of each AAC access unit in bytes, which sets the bitrate. 256
+     *                     bytes per 1024 samples at 48 kHz is 96 kbps.
+     */
+    public StreamingFixtures(int segmentCount, int frameSize) {
+        mSegmentCount = segmentCount;
+        mFrameSize = frameSize;
+        mFramesPerSegment = (int) ((SEGMENT_DURATION_MS * SAMPLE_RATE / 1000
+                + SAMPLES_PER_FRAME - 1) / SAMPLES_PER_FRAME);
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * Returns the number of access units in each presentation.
+     */
+    public long getSampleCount() {
+        return (long) mSegmentCount * mFramesPerSegment;
+    }
+
+    /**
+     * Returns the bitrate of the audio track, in bits per second.
+     */
+    public int getBitrate() {
+        return (int) ((long) mFrameSize * 8 * SAMPLE_RATE / SAMPLES_PER_FRAME);
+    }
+
+    public Map<String, byte[]> dash() throws IOException {
+        Map<String, byte[]> resources = new HashMap<>();
+        resources.put(DASH_MANIFEST_PATH, dashManifest().getBytes(UTF_8));
+        resources.put("/dash/audio/init.mp4", initSegment());
+        for (int i = 0; i < mSegmentCount; i++) {
+            resources.put("/dash/audio/" + i + ".m4s", mediaSegment(i, SAMPLE_RATE));
+        }
+        return resources;
+    }
+
+    public Map<String, byte[]> hls() {
+        Map<String, byte[]> resources = new HashMap<>();
+        resources.put(HLS_PLAYLIST_PATH, hlsPlaylist().getBytes(UTF_8));
+        for (int i = 0; i < mSegmentCount; i++) {
+            resources.put("/hls/" + i + ".aac", adtsSegment());
+        }
+        return resources;
+    }
+
+    public Map<String, byte[]> smoothStreaming() throws IOException {
+        Map<String, byte[]> resources = new HashMap<>();
+        resources.put(SMOOTH_STREAMING_MANIFEST_PATH,
+                smoothStreamingManifest().getBytes(UTF_8));
+        long chunkDuration = SEGMENT_DURATION_MS * SMOOTH_STREAMING_TIMESCALE / 1000;
+        for (int i = 0; i < mSegmentCount; i++) {
+            resources.put("/ss/QualityLevels(" + getBitrate() + ")/Fragments(audio="
+                    + i * chunkDuration + ")", mediaSegment(i, SMOOTH_STREAMING_TIMESCALE));
+        }
+        return resources;
+    }
+
+    private String dashManifest() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\""
+                + " profiles=\"urn:mpeg:dash:profile:isoff-live:2011\" minBufferTime=\"PT2S\""
+                + " mediaPresentationDuration=\"PT" + getDurationSeconds() + "S\">\n"
+                + "<Period id=\"0\" start=\"PT0S\">\n"
+                + "<AdaptationSet mimeType=\"audio/mp4\" lang=\"en\">\n"
+                + "<SegmentTemplate timescale=\"1000\" duration=\"" + SEGMENT_DURATION_MS + "\""
+                + " startNumber=\"0\" initialization=\"audio/init.mp4\""
+                + " media=\"audio/$Number$.m4s\"/>\n"
+                + "<Representation id=\"audio\" codecs=\"mp4a.40.2\""
+                + " audioSamplingRate=\"" + SAMPLE_RATE + "\" bandwidth=\"" + getBitrate()
+                + "\">\n"
+                + "<AudioChannelConfiguration"
+                + " schemeIdUri=\"urn:mpeg:dash:23003:3:audio_channel_configuration:2011\""
+                + " value=\"" + CHANNEL_COUNT + "\"/>\n"
+                + "</Representation>\n"
+                + "</AdaptationSet>\n"
+                + "</Period>\n"
+                + "</MPD>\n";
+    }
+
+    private String hlsPlaylist() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append(SEGMENT_DURATION_MS / 1000).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < mSegmentCount; i++) {
+            builder.append("#EXTINF:").append(SEGMENT_DURATION_MS / 1000.0).append(",\n")
+                    .append(i).append(".aac\n");
+        }
+        builder.append("#EXT-X-ENDLIST\n");
+        return builder.toString();
+    }
+
+    private String smoothStreamingManifest() {
+        long chunkDuration = SEGMENT_DURATION_MS * SMOOTH_STREAMING_TIMESCALE / 1000;
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<SmoothStreamingMedia MajorVersion=\"2\" MinorVersion=\"0\"")
+                .append(" TimeScale=\"").append(SMOOTH_STREAMING_TIMESCALE)
+                .append("\" Duration=\"").append(mSegmentCount * chunkDuration).append("\">\n")
+                .append("<StreamIndex Type=\"audio\" Name=\"audio\" Language=\"en\" Chunks=\"")
+                .append(mSegmentCount).append("\" QualityLevels=\"1\"")
+                .append(" Url=\"QualityLevels({bitrate})/Fragments(audio={start time})\">\n")
+                .append("<QualityLevel Index=\"0\" Bitrate=\"").append(getBitrate())
+                .append("\" FourCC=\"AACL\" SamplingRate=\"").append(SAMPLE_RATE)
+                .append("\" Channels=\"").append(CHANNEL_COUNT)
+                .append("\" BitsPerSample=\"16\" PacketSize=\"4\" AudioTag=\"255\"")
+                .append(" CodecPrivateData=\"1190\"/>\n");
+        for (int i = 0; i < mSegmentCount; i++) {
+            builder.append("<c d=\"").append(chunkDuration).append("\"/>\n");
+        }
+        builder.append("</StreamIndex>\n</SmoothStreamingMedia>\n");
+        return builder.toString();
+    }
+
+    private long getDurationSeconds() {
+        return mSegmentCount * SEGMENT_DURATION_MS / 1000;
+    }
+
+    /**
+     * Returns an {@code ftyp} and a {@code moov} describing the audio track as track 1, with an
+     * {@code mvex} so that the samples follow in fragments.
+     */
+    private byte[] initSegment() throws IOException {
+        Box ftyp = new Box("ftyp");
+        ftyp.writeFourCc("iso6");
+        ftyp.writeInt(0);
+        ftyp.writeFourCc("iso6");
+        ftyp.writeFourCc("dash");
+
+        Box mvhd = new Box("mvhd", 0, 0);
+        mvhd.writeInt(0); // Creation time.
+        mvhd.writeInt(0); // Modification time.
+        mvhd.writeInt(1000); // Timescale.
+        mvhd.writeInt(0); // Duration.
+        mvhd.writeInt(0x00010000); // Rate.
+        mvhd.writeShort(0x0100); // Volume.
+        mvhd.writeZeros(10);
+        writeUnityMatrix(mvhd);
+        mvhd.writeZeros(24);
+        mvhd.writeInt(2); // Next track ID.
+
+        Box tkhd = new Box("tkhd", 0, 7);
+        tkhd.writeInt(0); // Creation time.
+        tkhd.writeInt(0); // Modification time.
+        tkhd.writeInt(1); // Track ID.
+        tkhd.writeInt(0);
+        tkhd.writeInt(0); // Duration.
+        tkhd.writeZeros(8);
+        tkhd.writeShort(0); // Layer.
+        tkhd.writeShort(0); // Alternate group.
+        tkhd.writeShort(0x0100); // Volume.
+        tkhd.writeShort(0);
+        writeUnityMatrix(tkhd);
+        tkhd.writeInt(0); // Width.
+        tkhd.writeInt(0); // Height.
+
+        Box mdhd = new Box("mdhd", 0, 0);
+        mdhd.writeInt(0); // Creation time.
+        mdhd.writeInt(0); // Modification time.
+        mdhd.writeInt(SAMPLE_RATE); // Timescale.
+        mdhd.writeInt(0); // Duration.
+        mdhd.writeShort(0x55C4); // Language "und".
+        mdhd.writeShort(0);
+
+        Box hdlr = new Box("hdlr", 0, 0);
+        hdlr.writeInt(0);
+        hdlr.writeFourCc("soun");
+        hdlr.writeZeros(12);
+        hdlr.write("SoundHandler\0".getBytes(UTF_8));
+
+        Box smhd = new Box("smhd", 0, 0);
+        smhd.writeShort(0); // Balance.
+        smhd.writeShort(0);
+
+        Box url = new Box("url ", 0, 1);
+        Box dref = new Box("dref", 0, 0);
+        dref.writeInt(1);
+        dref.writeBox(url);
+        Box dinf = new Box("dinf");
+        dinf.writeBox(dref);
+
+        Box esds = new Box("esds", 0, 0);
+        byte[] decoderSpecificInfo = descriptor(0x05, AUDIO_SPECIFIC_CONFIG);
+        ByteArrayOutputStream decoderConfig = new ByteArrayOutputStream();
+        decoderConfig.write(0x40); // Object type: MPEG-4 audio.
+        decoderConfig.write(0x15); // Stream type: audio.
+        decoderConfig.write(new byte[3]); // Buffer size.
+        decoderConfig.write(new byte[] {0, 0, 0, 0}); // Max bitrate.
+        decoderConfig.write(new byte[] {0, 0, 0, 0}); // Average bitrate.
+        decoderConfig.write(decoderSpecificInfo);
+        ByteArrayOutputStream esDescriptor = new ByteArrayOutputStream();
+        esDescriptor.write(new byte[] {0, 1}); // ES ID.
+        esDescriptor.write(0); // Flags.
+        esDescriptor.write(descriptor(0x04, decoderConfig.toByteArray()));
+        esDescriptor.write(descriptor(0x06, new byte[] {0x02}));
+        esds.write(descriptor(0x03, esDescriptor.toByteArray()));
+
+        Box mp4a = new Box("mp4a");
+        mp4a.writeZeros(6);
+        mp4a.writeShort(1); // Data reference index.
+        mp4a.writeZeros(8);
+        mp4a.writeShort(CHANNEL_COUNT);
+        mp4a.writeShort(16); // Sample size.
+        mp4a.writeZeros(4);
+        mp4a.writeInt(SAMPLE_RATE << 16);
+        mp4a.writeBox(esds);
+
+        Box stsd = new Box("stsd", 0, 0);
+        stsd.writeInt(1);
+        stsd.writeBox(mp4a);
+        Box stts = new Box("stts", 0, 0);
+        stts.writeInt(0);
+        Box stsc = new Box("stsc", 0, 0);
+        stsc.writeInt(0);
+        Box stsz = new Box("stsz", 0, 0);
+        stsz.writeInt(0);
+        stsz.writeInt(0);
+        Box stco = new Box("stco", 0, 0);
+        stco.writeInt(0);
+        Box stbl = new Box("stbl");
+        stbl.writeBox(stsd);
+        stbl.writeBox(stts);
+        stbl.writeBox(stsc);
+        stbl.writeBox(stsz);
+        stbl.writeBox(stco);
+
+        Box minf = new Box("minf");
+        minf.writeBox(smhd);
+        minf.writeBox(dinf);
+        minf.writeBox(stbl);
+        Box mdia = new Box("mdia");
+        mdia.writeBox(mdhd);
+        mdia.writeBox(hdlr);
+        mdia.writeBox(minf);
+        Box trak = new Box("trak");
+        trak.writeBox(tkhd);
+        trak.writeBox(mdia);
+
+        Box trex = new Box("trex", 0, 0);
+        trex.writeInt(1); // Track ID.
+        trex.writeInt(1); // Default sample description index.
+        trex.writeInt(0); // Default sample duration.
+        trex.writeInt(0); // Default sample size.
+        trex.writeInt(0); // Default sample flags: sync samples.
+        Box mvex = new Box("mvex");
+        mvex.writeBox(trex);
+
+        Box moov = new Box("moov");
+        moov.writeBox(mvhd);
+        moov.writeBox(trak);
+        moov.writeBox(mvex);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(ftyp.toByteArray());
+        output.write(moov.toByteArray());
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns a {@code moof} and {@code mdat} holding segment {@code index} of track 1, with
+     * sample durations in {@code timescale} that add up to exactly one segment duration.
+     */
+    private byte[] mediaSegment(int index, long timescale) throws IOException {
+        long segmentDuration = SEGMENT_DURATION_MS * timescale / 1000;
+
+        Box mfhd = new Box("mfhd", 0, 0);
+        mfhd.writeInt(index + 1); // Sequence number.
+
+        // The base data offset is the start of the moof.
+        Box tfhd = new Box("tfhd", 0, 0x020000);
+        tfhd.writeInt(1); // Track ID.
+
+        Box tfdt = new Box("tfdt", 1, 0);
+        tfdt.writeLong(index * segmentDuration);
+
+        // Data offset, sample duration and sample size present.
+        Box trun = new Box("trun", 0, 0x000301);
+        trun.writeInt(mFramesPerSegment);
+        int dataOffsetPosition = trun.size();
+        trun.writeInt(0); // Data offset, set below.
+        long previousEnd = 0;
+        for (int i = 0; i < mFramesPerSegment; i++) {
+            long end = (i + 1) * segmentDuration / mFramesPerSegment;
+            trun.writeInt((int) (end - previousEnd));
+            trun.writeInt(mFrameSize);
+            previousEnd = end;
+        }
+
+        Box traf = new Box("traf");
+        traf.writeBox(tfhd);
+        traf.writeBox(tfdt);
+        int trunPosition = traf.size();
+        traf.writeBox(trun);
+        Box moof = new Box("moof");
+        moof.writeBox(mfhd);
+        int trafPosition = moof.size();
+        moof.writeBox(traf);
+
+        byte[] moofBytes = moof.toByteArray();
+        // The samples start right after the moof and the mdat header.
+        int dataOffset = moofBytes.length + 8;
+        int position = 8 + trafPosition + 8 + trunPosition + 8 + dataOffsetPosition;
+        moofBytes[position] = (byte) (dataOffset >>> 24);
+        moofBytes[position + 1] = (byte) (dataOffset >>> 16);
+        moofBytes[position + 2] = (byte) (dataOffset >>> 8);
+        moofBytes[position + 3] = (byte) dataOffset;
+
+        Box mdat = new Box("mdat");
+        for (int i = 0; i < mFramesPerSegment; i++) {
+            mdat.write(fillerAccessUnit(index, i));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(moofBytes);
+        output.write(mdat.toByteArray());
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns an ADTS stream of one segment's access units.
+     */
+    private byte[] adtsSegment() {
+        int frameLength = 7 + mFrameSize;
+        byte[] segment = new byte[mFramesPerSegment * frameLength];
+        for (int i = 0; i < mFramesPerSegment; i++) {
+            int offset = i * frameLength;
+            // Sync word, MPEG-4, layer 0, no CRC.
+            segment[offset] = (byte) 0xFF;
+            segment[offset + 1] = (byte) 0xF1;
+            // Profile AAC-LC, sampling frequency index, channel configuration.
+            segment[offset + 2] = (byte) ((1 << 6) | (ADTS_SAMPLING_FREQUENCY_INDEX << 2)
+                    | (CHANNEL_COUNT >> 2));
+            segment[offset + 3] = (byte) (((CHANNEL_COUNT & 3) << 6) | (frameLength >> 11));
+            segment[offset + 4] = (byte) (frameLength >> 3);
+            segment[offset + 5] = (byte) (((frameLength & 7) << 5) | 0x1F);
+            segment[offset + 6] = (byte) 0xFC;
+            byte[] accessUnit = fillerAccessUnit(0, i);
+            System.arraycopy(accessUnit, 0, segment, offset + 7, mFrameSize);
+        }
+        return segment;
+    }
+
+    private byte[] fillerAccessUnit(int segmentIndex, int frameIndex) {
+        byte[] accessUnit = new byte[mFrameSize];
+        // Avoid 0xFF, so that no filler byte can be mistaken for the start of an ADTS header.
+        Arrays.fill(accessUnit, (byte) ((segmentIndex + frameIndex) % 0x7F));
+        return accessUnit;
+    }
+
+    private static void writeUnityMatrix(Box box) throws IOException {
+        box.writeInt(0x00010000);
+        box.writeInt(0);
+        box.writeInt(0);
+        box.writeInt(0);
+        box.writeInt(0x00010000);
+        box.writeInt(0);
+        box.writeInt(0);
+        box.writeInt(0);
+        box.writeInt(0x40000000);
+    }
+
+    /**
+     * Returns an MPEG-4 descriptor, with a single byte size as all of these fit in 127 bytes.
+     */
+    private static byte[] descriptor(int tag, byte[] payload) {
+        byte[] descriptor = new byte[2 + payload.length];
+        descriptor[0] = (byte) tag;
+        descriptor[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, descriptor, 2, payload.length);
+        return descriptor;
+    }
+
+    /**
+     * An ISO base media file format box under construction.
+     */
+    private static final class Box {
+
+        private final String mType;
+        private final ByteArrayOutputStream mPayload;
+        private final DataOutputStream mOutput;
+
+        public Box(String type) {
+            mType = type;
+            mPayload = new ByteArrayOutputStream();
+            mOutput = new DataOutputStream(mPayload);
+        }
+
+        /**
+         * Creates a full box, whose payload starts with a version and flags.
+         */
+        public Box(String type, int version, int flags) throws IOException {
+            this(type);
+            mOutput.writeInt((version << 24) | flags);
+        }
+
+        /**
+         * Returns the size of the payload written so far.
+         */
+        public int size() {
+            return mOutput.size();
+        }
+
+        public void writeShort(int value) throws IOException {
+            mOutput.writeShort(value);
+        }
+
+        public void writeInt(int value) throws IOException {
+            mOutput.writeInt(value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            mOutput.writeLong(value);
+        }
+
+        public void writeFourCc(String fourCc) throws IOException {
+            mOutput.write(fourCc.getBytes(UTF_8));
+        }
+
+        public void writeZeros(int count) throws IOException {
+            mOutput.write(new byte[count]);
+        }
+
+        public void write(byte[] data) throws IOException {
+            mOutput.write(data);
+        }
+
+        public void writeBox(Box box) throws IOException {
+            mOutput.write(box.toByteArray());
+        }
+
+        public byte[] toByteArray() throws IOException {
+            byte[] payload = mPayload.toByteArray();
+            ByteArrayOutputStream box = new ByteArrayOutputStream(8 + payload.length);
+            DataOutputStream output = new DataOutputStream(box);
+            output.writeInt(8 + payload.length);
+            output.write(mType.getBytes(UTF_8));
+            output.write(payload);
+            return box.toByteArray();
+        }
+
+    }
+
+}
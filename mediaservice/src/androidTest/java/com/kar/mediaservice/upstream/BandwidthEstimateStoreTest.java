@@ -0,0 +1,112 @@
+package com.kar.mediaservice.upstream;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * Tests {@link BandwidthEstimateStore} on the device's shared preferences.
+ */
+public class BandwidthEstimateStoreTest extends InstrumentationTestCase {
+
+    private static final String PREFS_NAME = "test_bandwidth_estimates";
+    private static final String KEY = "WIFI|cdn.example.com";
+    private static final long BITRATE = 4000000;
+    private static final long ELAPSED_REALTIME_MS = 10 * 60 * 60 * 1000;
+    private static final long TIME_MS = 1500000000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private Context mContext;
+    private BandwidthEstimateStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        mStore = new BandwidthEstimateStore(mContext, PREFS_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testStoresEstimatePerKey() {
+        mStore.putEstimate(KEY, BITRATE, ELAPSED_REALTIME_MS, TIME_MS);
+        mStore.putEstimate(KEY, BandwidthMeter.NO_ESTIMATE, ELAPSED_REALTIME_MS, TIME_MS);
+        assertEquals(BITRATE, mStore.getEstimate(KEY, ELAPSED_REALTIME_MS, TIME_MS));
+        assertEquals(BandwidthMeter.NO_ESTIMATE,
+                mStore.getEstimate("WIFI|origin.example.com", ELAPSED_REALTIME_MS, TIME_MS));
+    }
+
+    public void testEstimateExpiresByElapsedRealtime() {
+        mStore.putEstimate(KEY, BITRATE, ELAPSED_REALTIME_MS, TIME_MS);
+        long expiryElapsedRealtimeMs =
+                ELAPSED_REALTIME_MS + BandwidthEstimateStore.MAX_ESTIMATE_AGE_MS;
+        // The wall clock is ignored, e.g. if the user sets it back.
+        assertEquals(BITRATE, mStore.getEstimate(KEY, expiryElapsedRealtimeMs, 0));
+        assertEquals(BandwidthMeter.NO_ESTIMATE,
+                mStore.getEstimate(KEY, expiryElapsedRealtimeMs + 1, TIME_MS));
+    }
+
+    public void testRestoresFlushedEstimate() {
+        mStore.putEstimate(KEY, BITRATE, ELAPSED_REALTIME_MS, TIME_MS);
+        mStore.putEstimate(KEY, 2 * BITRATE, ELAPSED_REALTIME_MS + 1000, TIME_MS + 1000);
+        mStore.flush(ELAPSED_REALTIME_MS + 2000, TIME_MS + 2000);
+
+        BandwidthEstimateStore restored = new BandwidthEstimateStore(mContext, PREFS_NAME);
+        assertEquals(2 * BITRATE,
+                restored.getEstimate(KEY, ELAPSED_REALTIME_MS + HOUR_MS, TIME_MS + HOUR_MS));
+        long expiryElapsedRealtimeMs =
+                ELAPSED_REALTIME_MS + 1000 + BandwidthEstimateStore.MAX_ESTIMATE_AGE_MS + 1;
+        assertEquals(BandwidthMeter.NO_ESTIMATE, restored.getEstimate(KEY,
+                expiryElapsedRealtimeMs, TIME_MS + expiryElapsedRealtimeMs - ELAPSED_REALTIME_MS));
+    }
+
+    public void testRestoredEstimateExpiresByWallClockAfterReboot() {
+        mStore.putEstimate(KEY, BITRATE, ELAPSED_REALTIME_MS, TIME_MS);
+        mStore.flush(ELAPSED_REALTIME_MS, TIME_MS);
+
+        BandwidthEstimateStore restored = new BandwidthEstimateStore(mContext, PREFS_NAME);
+        assertEquals(BITRATE, restored.getEstimate(KEY, HOUR_MS, TIME_MS + 2 * HOUR_MS));
+        assertEquals(BandwidthMeter.NO_ESTIMATE, restored.getEstimate(KEY, HOUR_MS,
+                TIME_MS + BandwidthEstimateStore.MAX_ESTIMATE_AGE_MS + 1));
+        // The wall clock was set back, so the age is unknown.
+        assertEquals(BandwidthMeter.NO_ESTIMATE,
+                restored.getEstimate(KEY, HOUR_MS, TIME_MS - HOUR_MS));
+    }
+
+    public void testRestoresSegmentKey() {
+        String manifestKey = "WIFI|origin.example.com";
+        assertEquals(manifestKey, mStore.getSegmentKey(manifestKey));
+        mStore.putSegmentKey(manifestKey, KEY);
+        assertEquals(KEY, mStore.getSegmentKey(manifestKey));
+        mStore.flush();
+
+        BandwidthEstimateStore restored = new BandwidthEstimateStore(mContext, PREFS_NAME);
+        assertEquals(KEY, restored.getSegmentKey(manifestKey));
+    }
+
+    public void testMeterSeedsFromSegmentHost() {
+        String manifestUrl = "https://origin.example.com/manifest.mpd";
+        String manifestKey = mStore.getKey(manifestUrl);
+        String segmentKey = mStore.getHostKey("cdn.example.com");
+        mStore.putEstimate(manifestKey, BITRATE);
+        mStore.putEstimate(segmentKey, 2 * BITRATE);
+        mStore.putSegmentKey(manifestKey, segmentKey);
+
+        WarmStartBandwidthMeter meter = new WarmStartBandwidthMeter(mStore, manifestUrl,
+                new Handler(Looper.getMainLooper()), null);
+        assertEquals(2 * BITRATE, meter.getBitrateEstimate());
+
+        meter.onTransferHost("other-cdn.example.com");
+        assertEquals(mStore.getHostKey("other-cdn.example.com"),
+                mStore.getSegmentKey(manifestKey));
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.kar.mediaservice.MediaSDKService;
+import com.kar.mediaservice.e2e.FixtureServer;
+import com.kar.mediaservice.e2e.StreamingFixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that segments {@link DashPeriodPrefetcher} loads, as the DASH renderer builder does at
+ * startup, are read back intact by requests shaped like the chunk sources'.
+ */
+public class DashPeriodPrefetcherTest extends InstrumentationTestCase {
+
+    private static final String INIT_PATH = "/dash/audio/init.mp4";
+    private static final String FIRST_SEGMENT_PATH = "/dash/audio/0.m4s";
+    private static final long TIMEOUT_MS = 10000;
+
+    private Map<String, byte[]> mResources;
+    private FixtureServer mServer;
+    private MediaSDKService mPlayer;
+    private SegmentCache mSegmentCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResources = new StreamingFixtures(3, 256).dash();
+        mServer = new FixtureServer();
+        mServer.putAll(mResources);
+        mServer.start();
+        mSegmentCache = SegmentCache.getInstance(getInstrumentation().getTargetContext());
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPlayer = new MediaSDKService(getInstrumentation().getTargetContext());
+                mPlayer.setSegmentCacheEnabled(true);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Cache cache = mSegmentCache.getCache();
+        for (String path : mResources.keySet()) {
+            String key = SegmentCache.getCacheKey(Uri.parse(mServer.getUrl(path)));
+            for (CacheSpan span : cache.getCachedSpans(key)) {
+                cache.removeSpan(span);
+            }
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPlayer.release();
+            }
+        });
+        mServer.stop();
+        super.tearDown();
+    }
+
+    public void testPrefetchedSegmentsAreReadBackIntact() throws Exception {
+        String manifestUrl = mServer.getUrl(StreamingFixtures.DASH_MANIFEST_PATH);
+        MediaPresentationDescription manifest = new MediaPresentationDescriptionParser().parse(
+                manifestUrl, new ByteArrayInputStream(
+                        mResources.get(StreamingFixtures.DASH_MANIFEST_PATH)));
+        Period period = manifest.getPeriod(0);
+        String cacheKey = period.adaptationSets.get(0).representations.get(0).getCacheKey();
+
+        final CountDownLatch prefetched = new CountDownLatch(1);
+        DashPeriodPrefetcher prefetcher = new DashPeriodPrefetcher(null, mPlayer, null,
+                new Handler(Looper.getMainLooper()), DashPeriodPrefetcher.DEFAULT_LOOKAHEAD_MS);
+        prefetcher.prefetch(period, manifest.getPeriodDuration(0) * 1000, 0,
+                BandwidthMeter.NO_ESTIMATE, new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetched.countDown();
+                    }
+                });
+        assertTrue(prefetched.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long requestCount = mServer.getRequestCount();
+
+        // Both segments start at position 0 and carry the representation's cache key, as the
+        // chunk source's requests do.
+        DataSource dataSource = mPlayer.getDataSourceFactory().createDataSource(null);
+        for (String path : new String[] {INIT_PATH, FIRST_SEGMENT_PATH}) {
+            byte[] expected = mResources.get(path);
+            DataSpec dataSpec = new DataSpec(Uri.parse(mServer.getUrl(path)), 0, expected.length,
+                    cacheKey);
+            assertTrue(path, Arrays.equals(expected, readFully(dataSource, dataSpec)));
+        }
+        assertEquals("Segments were not read from the cache", requestCount,
+                mServer.getRequestCount());
+    }
+
+    private static byte[] readFully(DataSource dataSource, DataSpec dataSpec) throws IOException {
+        dataSource.open(dataSpec);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = dataSource.read(buffer, 0, buffer.length))
+                    != C.RESULT_END_OF_INPUT) {
+                output.write(buffer, 0, bytesRead);
+            }
+            return output.toByteArray();
+        } finally {
+            dataSource.close();
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Tests which source {@link HedgedDataSource} reads from, with fake sources that respond after a
+ * delay.
+ */
+public class HedgedDataSourceTest extends InstrumentationTestCase {
+
+    private static final int TRACK_TYPE = 0;
+    private static final long THRESHOLD_MS = 50;
+    private static final long SLOW_MS = 10000;
+    private static final DataSpec DATA_SPEC =
+            new DataSpec(Uri.parse("http://cdn.example.com/segment.m4s"));
+
+    private LoadLatencyTracker mTracker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTracker = new LoadLatencyTracker(1);
+        recordLoads(THRESHOLD_MS);
+    }
+
+    public void testPrimaryWins() throws IOException {
+        byte[] data = newData(3 * HedgedDataSource.FIRST_READ_SIZE + 1, 1);
+        FakeDataSource primary = new FakeDataSource(0, data, null);
+        FakeDataSource backup = new FakeDataSource(0, newData(16, 2), null);
+        HedgedDataSource dataSource = new HedgedDataSource(primary, backup, mTracker, TRACK_TYPE,
+                0.9f);
+
+        assertEquals(data.length, dataSource.open(DATA_SPEC));
+        // Only the first read is buffered, the rest is streamed from the primary.
+        assertEquals(HedgedDataSource.FIRST_READ_SIZE, primary.position);
+        assertTrue(Arrays.equals(data, readToEnd(dataSource)));
+        dataSource.close();
+        assertTrue(primary.closed);
+        assertEquals(0, backup.openCount);
+        assertEquals(0, dataSource.getHedgeCount());
+    }
+
+    public void testBackupWins() throws IOException, InterruptedException {
+        FakeDataSource primary = new FakeDataSource(SLOW_MS, newData(16, 1), null);
+        byte[] data = newData(2 * HedgedDataSource.FIRST_READ_SIZE, 2);
+        FakeDataSource backup = new FakeDataSource(0, data, null);
+        HedgedDataSource dataSource = new HedgedDataSource(primary, backup, mTracker, TRACK_TYPE,
+                0.9f);
+
+        long startTimeMs = SystemClock.elapsedRealtime();
+        assertEquals(data.length, dataSource.open(DATA_SPEC));
+        assertTrue(SystemClock.elapsedRealtime() - startTimeMs < SLOW_MS);
+        assertTrue(Arrays.equals(data, readToEnd(dataSource)));
+        dataSource.close();
+        assertEquals(1, dataSource.getHedgeCount());
+        assertEquals(1, dataSource.getBackupWinCount());
+        // The primary is interrupted and closed.
+        assertTrue(primary.awaitClosed(1000));
+    }
+
+    public void testBothFail() {
+        IOException primaryError = new IOException("primary");
+        FakeDataSource primary = new FakeDataSource(4 * THRESHOLD_MS, null, primaryError);
+        FakeDataSource backup = new FakeDataSource(0, null, new IOException("backup"));
+        HedgedDataSource dataSource = new HedgedDataSource(primary, backup, mTracker, TRACK_TYPE,
+                0.9f);
+        try {
+            dataSource.open(DATA_SPEC);
+            fail();
+        } catch (IOException e) {
+            // The primary's error is reported, after the backup failed first.
+            assertSame(primaryError, e);
+        }
+        assertTrue(primary.closed);
+        assertTrue(backup.closed);
+        assertEquals(1, dataSource.getHedgeCount());
+        assertEquals(0, dataSource.getBackupWinCount());
+    }
+
+    public void testZeroThresholdHedgesImmediately() throws IOException {
+        mTracker.reset();
+        recordLoads(0);
+        FakeDataSource primary = new FakeDataSource(SLOW_MS, newData(16, 1), null);
+        byte[] data = newData(16, 2);
+        FakeDataSource backup = new FakeDataSource(0, data, null);
+        HedgedDataSource dataSource = new HedgedDataSource(primary, backup, mTracker, TRACK_TYPE,
+                0.9f);
+
+        long startTimeMs = SystemClock.elapsedRealtime();
+        dataSource.open(DATA_SPEC);
+        assertTrue(SystemClock.elapsedRealtime() - startTimeMs < SLOW_MS);
+        assertTrue(Arrays.equals(data, readToEnd(dataSource)));
+        dataSource.close();
+    }
+
+    public void testWithoutThresholdReadsPrimary() throws IOException {
+        mTracker.reset();
+        byte[] data = newData(16, 1);
+        FakeDataSource primary = new FakeDataSource(0, data, null);
+        FakeDataSource backup = new FakeDataSource(0, newData(16, 2), null);
+        HedgedDataSource dataSource = new HedgedDataSource(primary, backup, mTracker, TRACK_TYPE,
+                0.9f);
+        dataSource.open(DATA_SPEC);
+        assertTrue(Arrays.equals(data, readToEnd(dataSource)));
+        dataSource.close();
+        assertEquals(0, backup.openCount);
+    }
+
+    private void recordLoads(long durationMs) {
+        for (int i = 0; i < LoadLatencyTracker.MIN_SAMPLES; i++) {
+            mTracker.onLoadCompleted(TRACK_TYPE, durationMs);
+        }
+    }
+
+    private static byte[] newData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] readToEnd(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            output.write(buffer, 0, bytesRead);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Responds with {@code data} or fails with {@code error} once {@code delayMs} has passed.
+     */
+    private static final class FakeDataSource implements DataSource {
+
+        private final long mDelayMs;
+        private final byte[] mData;
+        private final IOException mError;
+
+        public volatile int openCount;
+        public volatile boolean closed;
+        public int position;
+
+        public FakeDataSource(long delayMs, byte[] data, IOException error) {
+            mDelayMs = delayMs;
+            mData = data;
+            mError = error;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            openCount++;
+            try {
+                Thread.sleep(mDelayMs);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (mError != null) {
+                throw mError;
+            }
+            position = 0;
+            return mData.length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (position == mData.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(readLength, mData.length - position);
+            System.arraycopy(mData, position, buffer, offset, bytesRead);
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        public synchronized boolean awaitClosed(long timeoutMs) throws InterruptedException {
+            long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+            long remainingMs = timeoutMs;
+            while (!closed && remainingMs > 0) {
+                wait(remainingMs);
+                remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+            }
+            return closed;
+        }
+
+    }
+
+}
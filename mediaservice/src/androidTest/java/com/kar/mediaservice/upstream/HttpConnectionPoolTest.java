@@ -0,0 +1,129 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.kar.mediaservice.e2e.FixtureServer;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests {@link HttpConnectionPool}'s limits, and that {@link PooledHttpDataSource} only holds a
+ * permit while connecting.
+ */
+public class HttpConnectionPoolTest extends InstrumentationTestCase {
+
+    private static final String HOST = "cdn.example.com";
+    private static final String OTHER_HOST = "origin.example.com";
+    private static final int TIMEOUT_MS = 200;
+
+    public void testSaturatedHostTimesOut() throws InterruptedException {
+        HttpConnectionPool pool = new HttpConnectionPool(2, 3);
+        assertTrue(pool.acquire(HOST, TIMEOUT_MS));
+        assertTrue(pool.acquire(HOST, TIMEOUT_MS));
+        long startTimeMs = SystemClock.elapsedRealtime();
+        assertFalse(pool.acquire(HOST, TIMEOUT_MS));
+        assertTrue(SystemClock.elapsedRealtime() - startTimeMs >= TIMEOUT_MS);
+
+        // Another host is only limited by the global limit.
+        assertTrue(pool.acquire(OTHER_HOST, TIMEOUT_MS));
+        assertFalse(pool.acquire(OTHER_HOST, TIMEOUT_MS));
+
+        pool.release(HOST);
+        assertTrue(pool.acquire(OTHER_HOST, TIMEOUT_MS));
+        assertEquals(4, pool.getRequestCount());
+    }
+
+    public void testReleaseWakesWaitingConnect() throws InterruptedException {
+        final HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+        assertTrue(pool.acquire(HOST, TIMEOUT_MS));
+        final AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(pool.acquire(OTHER_HOST, 10 * TIMEOUT_MS));
+                } catch (InterruptedException e) {
+                    // Fail below.
+                }
+            }
+        });
+        thread.start();
+        thread.join(TIMEOUT_MS / 2);
+        assertTrue(thread.isAlive());
+        pool.release(HOST);
+        thread.join(TIMEOUT_MS);
+        assertTrue(acquired.get());
+    }
+
+    public void testIdleHostsAreEvicted() throws InterruptedException {
+        HttpConnectionPool pool = new HttpConnectionPool(2, 4);
+        pool.acquire(HOST, TIMEOUT_MS);
+        pool.acquire(HOST, TIMEOUT_MS);
+        pool.acquire(OTHER_HOST, TIMEOUT_MS);
+        assertEquals(2, pool.getConnectingHostCount());
+        pool.release(HOST);
+        pool.release(OTHER_HOST);
+        assertEquals(1, pool.getConnectingHostCount());
+        pool.release(HOST);
+        assertEquals(0, pool.getConnectingHostCount());
+    }
+
+    public void testOpenTimesOutWhileHostIsSaturated() throws InterruptedException {
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+        assertTrue(pool.acquire(HOST, TIMEOUT_MS));
+        PooledHttpDataSource dataSource = new PooledHttpDataSource(pool, "test", null, TIMEOUT_MS,
+                TIMEOUT_MS);
+        try {
+            dataSource.open(new DataSpec(Uri.parse("http://" + HOST + "/segment.m4s")));
+            fail();
+        } catch (HttpDataSource.HttpDataSourceException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(pool.getWaitTimeMs() >= TIMEOUT_MS);
+    }
+
+    public void testOpenStreamsDoNotHoldPermits() throws IOException {
+        FixtureServer server = new FixtureServer();
+        server.put("/segment.m4s", new byte[64 * 1024]);
+        server.start();
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+        PooledHttpDataSource[] dataSources = new PooledHttpDataSource[3];
+        try {
+            for (int i = 0; i < dataSources.length; i++) {
+                dataSources[i] = new PooledHttpDataSource(pool, "test", null, TIMEOUT_MS,
+                        TIMEOUT_MS);
+                dataSources[i].open(new DataSpec(Uri.parse(server.getUrl("/segment.m4s"))));
+            }
+            assertEquals(0, pool.getConnectingHostCount());
+        } finally {
+            for (PooledHttpDataSource dataSource : dataSources) {
+                if (dataSource != null) {
+                    dataSource.close();
+                }
+            }
+            server.stop();
+        }
+    }
+
+    public void testFailedConnectReleasesPermit() throws InterruptedException {
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1);
+        PooledHttpDataSource dataSource = new PooledHttpDataSource(pool, "test", null, TIMEOUT_MS,
+                TIMEOUT_MS);
+        try {
+            // Nothing listens on the discard port of the loopback interface.
+            dataSource.open(new DataSpec(Uri.parse("http://127.0.0.1:9/segment.m4s")));
+            fail();
+        } catch (HttpDataSource.HttpDataSourceException e) {
+            // Expected.
+        }
+        assertEquals(0, pool.getConnectingHostCount());
+        assertTrue(pool.acquire("127.0.0.1", 0));
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ParallelRangeDataSource} against fake HTTP sources serving one stream.
+ */
+public class ParallelRangeDataSourceTest extends InstrumentationTestCase {
+
+    private static final Uri URI = Uri.parse("http://cdn.example.com/video.mp4");
+    private static final int BLOCK_SIZE = 1000;
+    private static final int CONNECTION_COUNT = 3;
+
+    private FakeServer mServer;
+    private FakeUriDataSource mFallback;
+    private DefaultAllocator mAllocator;
+    private ParallelRangeDataSource mDataSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeServer(newData(10 * BLOCK_SIZE + 123));
+        mFallback = new FakeUriDataSource(mServer.data);
+        mAllocator = new DefaultAllocator(256);
+        DataSourceFactory factory = new DataSourceFactory(
+                getInstrumentation().getTargetContext(), "test") {
+            @Override
+            public HttpDataSource createHttpDataSource(TransferListener listener,
+                                                       int poolTimeoutMillis) {
+                return new FakeHttpDataSource(mServer, poolTimeoutMillis != 0);
+            }
+        };
+        mDataSource = new ParallelRangeDataSource(factory, null, mFallback, mAllocator,
+                CONNECTION_COUNT, BLOCK_SIZE);
+    }
+
+    public void testProbeRequestsFirstBlock() throws IOException {
+        DataSpec dataSpec = new DataSpec(URI, 100, C.LENGTH_UNBOUNDED, null);
+        assertEquals(mServer.data.length - 100, mDataSource.open(dataSpec));
+        DataSpec probe = mServer.requests.get(0);
+        assertEquals(100, probe.position);
+        assertEquals(BLOCK_SIZE, probe.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(mServer.data, 100, mServer.data.length),
+                readToEnd(mDataSource)));
+        mDataSource.close();
+        assertFalse(mFallback.opened);
+    }
+
+    public void testStreamWithinProbeIsReadFromProbe() throws IOException {
+        assertEquals(500, mDataSource.open(new DataSpec(URI, 0, 500, null)));
+        assertTrue(Arrays.equals(Arrays.copyOf(mServer.data, 500), readToEnd(mDataSource)));
+        mDataSource.close();
+        assertEquals(1, mServer.requests.size());
+    }
+
+    public void testWithoutContentRangeReadsFallback() throws IOException {
+        mServer.rangesSupported = false;
+        DataSpec dataSpec = new DataSpec(URI);
+        assertEquals(mServer.data.length, mDataSource.open(dataSpec));
+        assertSame(dataSpec, mFallback.dataSpec);
+        assertTrue(Arrays.equals(mServer.data, readToEnd(mDataSource)));
+        mDataSource.close();
+        assertTrue(mFallback.closed);
+        // Only the probe was requested, and it was closed.
+        assertEquals(1, mServer.sources.size());
+        assertTrue(mServer.sources.get(0).closed);
+    }
+
+    public void testReassemblesBlocksInOrder() throws IOException {
+        // Every third block responds late, so that later blocks complete first.
+        mServer.slowBlockDelayMs = 30;
+        mDataSource.open(new DataSpec(URI));
+        assertTrue(Arrays.equals(mServer.data, readToEnd(mDataSource)));
+        assertEquals(0, mAllocator.getTotalBytesAllocated());
+        mDataSource.close();
+        assertEquals(11, mServer.requests.size());
+    }
+
+    public void testFailedRangeIsResumed() throws IOException {
+        mServer.failurePosition = 2 * BLOCK_SIZE + 100;
+        mServer.failuresLeft.set(1);
+        mDataSource.open(new DataSpec(URI));
+        assertTrue(Arrays.equals(mServer.data, readToEnd(mDataSource)));
+        mDataSource.close();
+        assertTrue(mServer.hasRequest(2 * BLOCK_SIZE + 100, BLOCK_SIZE - 100));
+    }
+
+    public void testFallsBackToOneConnectionWithoutPoolRoom() throws IOException {
+        mServer.refuseWithoutWaiting = true;
+        mDataSource.open(new DataSpec(URI));
+        assertTrue(Arrays.equals(mServer.data, readToEnd(mDataSource)));
+        mDataSource.close();
+        for (FakeHttpDataSource source : mServer.sources) {
+            assertTrue(source.waitsForPool || source.openCount == 0);
+        }
+    }
+
+    public void testRepeatedFailuresFailStream() throws IOException {
+        mServer.failurePosition = 2 * BLOCK_SIZE + 100;
+        mServer.failuresLeft.set(Integer.MAX_VALUE);
+        mDataSource.open(new DataSpec(URI));
+        try {
+            readToEnd(mDataSource);
+            fail();
+        } catch (HttpDataSource.HttpDataSourceException e) {
+            // Expected.
+        }
+        mDataSource.close();
+        // The first request, and a retry of each connection left once the others stopped.
+        assertEquals(CONNECTION_COUNT + ParallelRangeDataSource.MAX_RETRY_COUNT,
+                mServer.failureCount.get());
+    }
+
+    private static byte[] newData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / BLOCK_SIZE);
+        }
+        return data;
+    }
+
+    private static byte[] readToEnd(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[700];
+        int bytesRead;
+        while ((bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            output.write(buffer, 0, bytesRead);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * The stream and behavior shared by the fake HTTP sources.
+     */
+    private static final class FakeServer {
+
+        public final byte[] data;
+        public final List<DataSpec> requests;
+        public final List<FakeHttpDataSource> sources;
+        public final AtomicInteger failuresLeft;
+        public final AtomicInteger failureCount;
+
+        public volatile boolean rangesSupported;
+        public volatile boolean refuseWithoutWaiting;
+        public volatile long slowBlockDelayMs;
+        public volatile long failurePosition;
+
+        public FakeServer(byte[] data) {
+            this.data = data;
+            requests = Collections.synchronizedList(new ArrayList<DataSpec>());
+            sources = Collections.synchronizedList(new ArrayList<FakeHttpDataSource>());
+            failuresLeft = new AtomicInteger();
+            failureCount = new AtomicInteger();
+            rangesSupported = true;
+            failurePosition = -1;
+        }
+
+        public boolean hasRequest(long position, long length) {
+            synchronized (requests) {
+                for (DataSpec request : requests) {
+                    if (request.position == position && request.length == length) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+    }
+
+    /**
+     * Serves ranges of the server's stream, failing where the server says so.
+     */
+    private static final class FakeHttpDataSource implements HttpDataSource {
+
+        private final FakeServer mServer;
+
+        public final boolean waitsForPool;
+        public volatile int openCount;
+        public volatile boolean closed;
+
+        private DataSpec mDataSpec;
+        private long mPosition;
+        private long mEndPosition;
+
+        public FakeHttpDataSource(FakeServer server, boolean waitsForPool) {
+            mServer = server;
+            this.waitsForPool = waitsForPool;
+            server.sources.add(this);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws HttpDataSourceException {
+            if (!waitsForPool && mServer.refuseWithoutWaiting) {
+                throw new HttpDataSourceException(new SocketTimeoutException(), dataSpec,
+                        HttpDataSourceException.TYPE_OPEN);
+            }
+            openCount++;
+            closed = false;
+            mServer.requests.add(dataSpec);
+            if (mServer.slowBlockDelayMs > 0 && (dataSpec.position / BLOCK_SIZE) % 3 == 0) {
+                try {
+                    Thread.sleep(mServer.slowBlockDelayMs);
+                } catch (InterruptedException e) {
+                    throw new HttpDataSourceException(new InterruptedIOException(), dataSpec,
+                            HttpDataSourceException.TYPE_OPEN);
+                }
+            }
+            mDataSpec = dataSpec;
+            mPosition = dataSpec.position;
+            mEndPosition = dataSpec.length == C.LENGTH_UNBOUNDED ? mServer.data.length
+                    : Math.min(mServer.data.length, dataSpec.position + dataSpec.length);
+            return mEndPosition - mPosition;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+            if (mPosition == mEndPosition) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            long failurePosition = mServer.failurePosition;
+            if (failurePosition >= mPosition && failurePosition < mEndPosition) {
+                if (mPosition == failurePosition
+                        && mServer.failuresLeft.getAndDecrement() > 0) {
+                    mServer.failureCount.incrementAndGet();
+                    throw new HttpDataSourceException(new IOException(), mDataSpec,
+                            HttpDataSourceException.TYPE_READ);
+                }
+                if (mPosition < failurePosition) {
+                    readLength = (int) Math.min(readLength, failurePosition - mPosition);
+                }
+            }
+            int bytesRead = (int) Math.min(readLength, mEndPosition - mPosition);
+            System.arraycopy(mServer.data, (int) mPosition, buffer, offset, bytesRead);
+            mPosition += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public String getUri() {
+            return mDataSpec == null ? null : mDataSpec.uri.toString();
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            Map<String, List<String>> headers = new HashMap<>();
+            if (mServer.rangesSupported) {
+                headers.put("Content-Range", Collections.singletonList("bytes " + mPosition + "-"
+                        + (mEndPosition - 1) + "/" + mServer.data.length));
+            }
+            return headers;
+        }
+
+        @Override
+        public void setRequestProperty(String name, String value) {
+            // Ignored.
+        }
+
+        @Override
+        public void clearRequestProperty(String name) {
+            // Ignored.
+        }
+
+        @Override
+        public void clearAllRequestProperties() {
+            // Ignored.
+        }
+
+    }
+
+    /**
+     * Serves the whole stream, as a source for servers without range support.
+     */
+    private static final class FakeUriDataSource implements UriDataSource {
+
+        private final byte[] mData;
+
+        public DataSpec dataSpec;
+        public boolean opened;
+        public boolean closed;
+
+        private int mPosition;
+
+        public FakeUriDataSource(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            this.dataSpec = dataSpec;
+            opened = true;
+            mPosition = (int) dataSpec.position;
+            return mData.length - mPosition;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (mPosition == mData.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(readLength, mData.length - mPosition);
+            System.arraycopy(mData, mPosition, buffer, offset, bytesRead);
+            mPosition += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public String getUri() {
+            return dataSpec == null ? null : dataSpec.uri.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link SegmentCache} on the device's cache directory.
+ */
+public class SegmentCacheTest extends InstrumentationTestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // DASH chunk sources use one key for all segments of a representation.
+    private static final String REPRESENTATION_KEY = "video.1000000";
+
+    private SegmentCache mSegmentCache;
+    private List<Uri> mUris;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSegmentCache = SegmentCache.getInstance(getInstrumentation().getTargetContext());
+        mUris = new ArrayList<>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Cache cache = mSegmentCache.getCache();
+        for (Uri uri : mUris) {
+            for (CacheSpan span : cache.getCachedSpans(SegmentCache.getCacheKey(uri))) {
+                cache.removeSpan(span);
+            }
+        }
+        super.tearDown();
+    }
+
+    public void testKeyIsUriNotChunkSourceKey() {
+        Uri first = newSegmentUri("1.m4s");
+        Uri second = newSegmentUri("2.m4s");
+        DataSpec firstSpec = new DataSpec(first, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY);
+        DataSpec secondSpec = new DataSpec(second, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY);
+        assertFalse(SegmentCache.getCacheKey(firstSpec).equals(
+                SegmentCache.getCacheKey(secondSpec)));
+    }
+
+    public void testSegmentsSharingChunkSourceKeyAreCachedApart() throws IOException {
+        Map<Uri, byte[]> segments = new HashMap<>();
+        segments.put(newSegmentUri("init.mp4"), "init segment".getBytes(UTF_8));
+        segments.put(newSegmentUri("1.m4s"), "first media segment".getBytes(UTF_8));
+        segments.put(newSegmentUri("2.m4s"), "second media segment".getBytes(UTF_8));
+
+        DataSource loading = mSegmentCache.createDataSource(new MapDataSource(segments));
+        for (Uri uri : segments.keySet()) {
+            readFully(loading, new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY));
+        }
+
+        // Reads back from the cache only, as the upstream no longer serves anything.
+        DataSource cached = mSegmentCache.createDataSource(
+                new MapDataSource(new HashMap<Uri, byte[]>()));
+        for (Map.Entry<Uri, byte[]> segment : segments.entrySet()) {
+            DataSpec dataSpec = new DataSpec(segment.getKey(), 0, segment.getValue().length,
+                    REPRESENTATION_KEY);
+            assertEquals(new String(segment.getValue(), UTF_8),
+                    new String(readFully(cached, dataSpec), UTF_8));
+        }
+    }
+
+    public void testCompleteSegmentIsServedToUnboundedRequests() throws IOException {
+        Uri uri = newSegmentUri("1.m4s");
+        Map<Uri, byte[]> segments = new HashMap<>();
+        segments.put(uri, "first media segment".getBytes(UTF_8));
+        readFully(mSegmentCache.createDataSource(new MapDataSource(segments)),
+                new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY));
+
+        DataSource cached = mSegmentCache.createDataSource(
+                new MapDataSource(new HashMap<Uri, byte[]>()));
+        assertEquals("first media segment", new String(readFully(cached,
+                new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY)), UTF_8));
+        assertEquals("media segment", new String(readFully(cached,
+                new DataSpec(uri, 6, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY)), UTF_8));
+    }
+
+    public void testPartlyCachedSegmentIsNotTruncated() throws IOException {
+        Uri uri = newSegmentUri("1.m4s");
+        Map<Uri, byte[]> segments = new HashMap<>();
+        segments.put(uri, "first media segment".getBytes(UTF_8));
+        DataSource dataSource = mSegmentCache.createDataSource(new MapDataSource(segments));
+        readFully(dataSource, new DataSpec(uri, 0, 5, REPRESENTATION_KEY));
+
+        assertEquals("first media segment", new String(readFully(dataSource,
+                new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, REPRESENTATION_KEY)), UTF_8));
+    }
+
+    public void testGzipRequestsAreNotCached() throws IOException {
+        Uri uri = newSegmentUri("media.m3u8");
+        Map<Uri, byte[]> playlists = new HashMap<>();
+        playlists.put(uri, "#EXTM3U first".getBytes(UTF_8));
+        DataSource dataSource = mSegmentCache.createDataSource(new MapDataSource(playlists));
+        DataSpec dataSpec = new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, null,
+                DataSpec.FLAG_ALLOW_GZIP);
+        readFully(dataSource, dataSpec);
+
+        // A live playlist refreshed at the same URI.
+        playlists.put(uri, "#EXTM3U second".getBytes(UTF_8));
+        assertEquals("#EXTM3U second", new String(readFully(dataSource, dataSpec), UTF_8));
+        assertTrue(mSegmentCache.getCache().getCachedSpans(SegmentCache.getCacheKey(uri))
+                .isEmpty());
+    }
+
+    public void testUnboundedRequestsAreNotCachedForMixedSources() throws IOException {
+        Uri uri = newSegmentUri("key");
+        Map<Uri, byte[]> bodies = new HashMap<>();
+        bodies.put(uri, "first".getBytes(UTF_8));
+        DataSource dataSource = mSegmentCache.createDataSource(new MapDataSource(bodies), false);
+        DataSpec dataSpec = new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, null);
+        readFully(dataSource, dataSpec);
+
+        bodies.put(uri, "second".getBytes(UTF_8));
+        assertEquals("second", new String(readFully(dataSource, dataSpec), UTF_8));
+    }
+
+    private Uri newSegmentUri(String name) {
+        Uri uri = Uri.parse("http://127.0.0.1/" + getName() + "/" + System.nanoTime() + "/" + name);
+        mUris.add(uri);
+        return uri;
+    }
+
+    private static byte[] readFully(DataSource dataSource, DataSpec dataSpec) throws IOException {
+        dataSource.open(dataSpec);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8];
+            int bytesRead;
+            while ((bytesRead = dataSource.read(buffer, 0, buffer.length))
+                    != C.RESULT_END_OF_INPUT) {
+                output.write(buffer, 0, bytesRead);
+            }
+            return output.toByteArray();
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Serves fixed bodies by URI, and fails requests for anything else.
+     */
+    private static final class MapDataSource implements DataSource {
+
+        private final Map<Uri, byte[]> mBodies;
+
+        private byte[] mBody;
+        private int mReadPosition;
+
+        public MapDataSource(Map<Uri, byte[]> bodies) {
+            mBodies = bodies;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            mBody = mBodies.get(dataSpec.uri);
+            if (mBody == null) {
+                throw new IOException("Not found: " + dataSpec.uri);
+            }
+            mReadPosition = (int) dataSpec.position;
+            return mBody.length - mReadPosition;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (mReadPosition == mBody.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(readLength, mBody.length - mReadPosition);
+            System.arraycopy(mBody, mReadPosition, buffer, offset, bytesRead);
+            mReadPosition += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() {
+            mBody = null;
+        }
+
+    }
+
+}
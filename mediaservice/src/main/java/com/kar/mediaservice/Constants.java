@@ -9,6 +9,7 @@ public class Constants {
         int SUCCESS = 0;
         int INVALID_PARAM = -1;
         int UNKNOWN_ERROR = -2;
+        int INVALID_STATE = -3;
     }
 
 }
@@ -0,0 +1,345 @@
+package com.kar.mediaservice;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+
+import java.util.Arrays;
+
+/**
+ * Delivers {@link MediaSDKService.InfoListener} events to any number of listeners in batches,
+ * once per {@link #DEFAULT_BATCH_INTERVAL_MS} (about a display frame) rather than once per event.
+ * <p/>
+ * Events are queued in reused objects and delivered in the order they were posted. Dropped frame
+ * counts and bandwidth samples posted within one batch are merged into a single event, since fast
+ * segment loads can produce many of them per frame. Listeners are kept in an array that is only
+ * replaced when listeners are added or removed, so delivery neither copies nor allocates.
+ * <p/>
+ * All methods must be called on the thread of the handler passed to the constructor. If no
+ * handler is given, events are only delivered when {@link #flush()} is called.
+ */
+public final class InfoEventDispatcher implements Runnable {
+
+    public static final long DEFAULT_BATCH_INTERVAL_MS = 16;
+
+    private static final MediaSDKService.InfoListener[] NO_LISTENERS =
+            new MediaSDKService.InfoListener[0];
+    private static final int INITIAL_QUEUE_CAPACITY = 16;
+
+    private static final int EVENT_VIDEO_FORMAT_ENABLED = 0;
+    private static final int EVENT_AUDIO_FORMAT_ENABLED = 1;
+    private static final int EVENT_DROPPED_FRAMES = 2;
+    private static final int EVENT_BANDWIDTH_SAMPLE = 3;
+    private static final int EVENT_LOAD_STARTED = 4;
+    private static final int EVENT_LOAD_COMPLETED = 5;
+    private static final int EVENT_DECODER_INITIALIZED = 6;
+    private static final int EVENT_AVAILABLE_RANGE_CHANGED = 7;
+
+    private final Handler mHandler;
+    private final long mBatchIntervalMs;
+
+    private MediaSDKService.InfoListener[] mListeners;
+    private Event[] mQueue;
+    private int mQueueSize;
+    private Event mPendingDroppedFrames;
+    private Event mPendingBandwidthSample;
+    private boolean mFlushScheduled;
+    private int mClearCount;
+
+    public InfoEventDispatcher(Handler handler) {
+        this(handler, DEFAULT_BATCH_INTERVAL_MS);
+    }
+
+    /**
+     * @param handler         The handler on which batches are delivered, or null to deliver them
+     *                        only from {@link #flush()}.
+     * @param batchIntervalMs How long after the first event of a batch the batch is delivered.
+     */
+    public InfoEventDispatcher(Handler handler, long batchIntervalMs) {
+        mHandler = handler;
+        mBatchIntervalMs = batchIntervalMs;
+        mListeners = NO_LISTENERS;
+        mQueue = new Event[INITIAL_QUEUE_CAPACITY];
+        for (int i = 0; i < mQueue.length; i++) {
+            mQueue[i] = new Event();
+        }
+    }
+
+    public void addListener(MediaSDKService.InfoListener listener) {
+        for (MediaSDKService.InfoListener existing : mListeners) {
+            if (existing == listener) {
+                return;
+            }
+        }
+        MediaSDKService.InfoListener[] listeners = Arrays.copyOf(mListeners,
+                mListeners.length + 1);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    public void removeListener(MediaSDKService.InfoListener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                MediaSDKService.InfoListener[] listeners =
+                        new MediaSDKService.InfoListener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all listeners and discards any undelivered events.
+     */
+    public void clearListeners() {
+        mListeners = NO_LISTENERS;
+        clear();
+    }
+
+    public boolean hasListeners() {
+        return mListeners.length > 0;
+    }
+
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_VIDEO_FORMAT_ENABLED);
+            event.format = format;
+            event.trigger = trigger;
+            event.long0 = mediaTimeMs;
+        }
+    }
+
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_AUDIO_FORMAT_ENABLED);
+            event.format = format;
+            event.trigger = trigger;
+            event.long0 = mediaTimeMs;
+        }
+    }
+
+    public void onDroppedFrames(int count, long elapsed) {
+        if (!hasListeners()) {
+            return;
+        }
+        if (mPendingDroppedFrames == null) {
+            mPendingDroppedFrames = obtain(EVENT_DROPPED_FRAMES);
+        }
+        mPendingDroppedFrames.int0 += count;
+        mPendingDroppedFrames.long0 += elapsed;
+    }
+
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        if (!hasListeners()) {
+            return;
+        }
+        if (mPendingBandwidthSample == null) {
+            mPendingBandwidthSample = obtain(EVENT_BANDWIDTH_SAMPLE);
+        }
+        mPendingBandwidthSample.int0 += elapsedMs;
+        mPendingBandwidthSample.long0 += bytes;
+        mPendingBandwidthSample.long1 = bitrateEstimate;
+    }
+
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_LOAD_STARTED);
+            event.sourceId = sourceId;
+            event.long0 = length;
+            event.int0 = type;
+            event.trigger = trigger;
+            event.format = format;
+            event.long1 = mediaStartTimeMs;
+            event.long2 = mediaEndTimeMs;
+        }
+    }
+
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                                Format format, long mediaStartTimeMs, long mediaEndTimeMs,
+                                long elapsedRealtimeMs, long loadDurationMs) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_LOAD_COMPLETED);
+            event.sourceId = sourceId;
+            event.long0 = bytesLoaded;
+            event.int0 = type;
+            event.trigger = trigger;
+            event.format = format;
+            event.long1 = mediaStartTimeMs;
+            event.long2 = mediaEndTimeMs;
+            event.long3 = elapsedRealtimeMs;
+            event.long4 = loadDurationMs;
+        }
+    }
+
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_DECODER_INITIALIZED);
+            event.decoderName = decoderName;
+            event.long0 = elapsedRealtimeMs;
+            event.long1 = initializationDurationMs;
+        }
+    }
+
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        if (hasListeners()) {
+            Event event = obtain(EVENT_AVAILABLE_RANGE_CHANGED);
+            event.sourceId = sourceId;
+            event.availableRange = availableRange;
+        }
+    }
+
+    /**
+     * Delivers all queued events now.
+     */
+    public void flush() {
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(this);
+        }
+        MediaSDKService.InfoListener[] listeners = mListeners;
+        // Merged events posted by the listeners themselves start a new batch.
+        mPendingDroppedFrames = null;
+        mPendingBandwidthSample = null;
+        int size = mQueueSize;
+        int clearCount = mClearCount;
+        for (int i = 0; i < size; i++) {
+            Event event = mQueue[i];
+            for (MediaSDKService.InfoListener listener : listeners) {
+                dispatch(event, listener);
+                if (clearCount != mClearCount) {
+                    // A listener reset the player; the rest of the batch was discarded.
+                    return;
+                }
+            }
+            event.clear();
+        }
+        // Events posted during delivery were queued behind this batch; move them to the front.
+        int remaining = mQueueSize - size;
+        for (int i = 0; i < remaining; i++) {
+            Event event = mQueue[i];
+            mQueue[i] = mQueue[size + i];
+            mQueue[size + i] = event;
+        }
+        mQueueSize = remaining;
+        if (remaining > 0) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Discards any undelivered events.
+     */
+    public void clear() {
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(this);
+        }
+        for (int i = 0; i < mQueueSize; i++) {
+            mQueue[i].clear();
+        }
+        mQueueSize = 0;
+        mPendingDroppedFrames = null;
+        mPendingBandwidthSample = null;
+        mClearCount++;
+    }
+
+    @Override
+    public void run() {
+        mFlushScheduled = false;
+        flush();
+    }
+
+    private Event obtain(int type) {
+        if (mQueueSize == mQueue.length) {
+            int oldLength = mQueue.length;
+            mQueue = Arrays.copyOf(mQueue, oldLength * 2);
+            for (int i = oldLength; i < mQueue.length; i++) {
+                mQueue[i] = new Event();
+            }
+        }
+        Event event = mQueue[mQueueSize++];
+        event.type = type;
+        scheduleFlush();
+        return event;
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled && mHandler != null) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(this, mBatchIntervalMs);
+        }
+    }
+
+    private static void dispatch(Event event, MediaSDKService.InfoListener listener) {
+        switch (event.type) {
+            case EVENT_VIDEO_FORMAT_ENABLED:
+                listener.onVideoFormatEnabled(event.format, event.trigger, event.long0);
+                break;
+            case EVENT_AUDIO_FORMAT_ENABLED:
+                listener.onAudioFormatEnabled(event.format, event.trigger, event.long0);
+                break;
+            case EVENT_DROPPED_FRAMES:
+                listener.onDroppedFrames(event.int0, event.long0);
+                break;
+            case EVENT_BANDWIDTH_SAMPLE:
+                listener.onBandwidthSample(event.int0, event.long0, event.long1);
+                break;
+            case EVENT_LOAD_STARTED:
+                listener.onLoadStarted(event.sourceId, event.long0, event.int0, event.trigger,
+                        event.format, event.long1, event.long2);
+                break;
+            case EVENT_LOAD_COMPLETED:
+                listener.onLoadCompleted(event.sourceId, event.long0, event.int0, event.trigger,
+                        event.format, event.long1, event.long2, event.long3, event.long4);
+                break;
+            case EVENT_DECODER_INITIALIZED:
+                listener.onDecoderInitialized(event.decoderName, event.long0, event.long1);
+                break;
+            case EVENT_AVAILABLE_RANGE_CHANGED:
+                listener.onAvailableRangeChanged(event.sourceId, event.availableRange);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected event type: " + event.type);
+        }
+    }
+
+    /**
+     * A queued event. Which fields are used depends on the type; see {@link #dispatch}.
+     */
+    private static final class Event {
+
+        public int type;
+        public int sourceId;
+        public int trigger;
+        public int int0;
+        public long long0;
+        public long long1;
+        public long long2;
+        public long long3;
+        public long long4;
+        public Format format;
+        public String decoderName;
+        public TimeRange availableRange;
+
+        public void clear() {
+            sourceId = 0;
+            trigger = 0;
+            int0 = 0;
+            long0 = 0;
+            long1 = 0;
+            long2 = 0;
+            long3 = 0;
+            long4 = 0;
+            format = null;
+            decoderName = null;
+            availableRange = null;
+        }
+
+    }
+
+}
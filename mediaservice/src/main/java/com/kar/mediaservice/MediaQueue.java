@@ -0,0 +1,376 @@
+package com.kar.mediaservice;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Plays a list of items one after the other.
+ * <p/>
+ * While an item plays, the next one is prepared in a second {@link MediaSDKService} that does not
+ * play: its manifest is loaded, its DRM session opened and its first chunks buffered, up to
+ * {@link #PRELOAD_BUFFER_SIZE} bytes. When the current item ends, the surface is handed to the
+ * prepared player, which starts playing straight away instead of being built from scratch.
+ * <p/>
+ * Must be used from the main thread.
+ */
+public class MediaQueue {
+
+    /**
+     * An item in the queue.
+     */
+    public static final class Item {
+
+        public final int contentType;
+        public final Uri contentUri;
+        public final MediaDrmCallback drmCallback;
+
+        /**
+         * @param contentType One of the {@code Util.TYPE_*} constants.
+         * @param contentUri  The URI of the content.
+         * @param drmCallback The DRM callback, or null if the content is not protected.
+         */
+        public Item(int contentType, Uri contentUri, MediaDrmCallback drmCallback) {
+            this.contentType = contentType;
+            this.contentUri = contentUri;
+            this.drmCallback = drmCallback;
+        }
+
+    }
+
+    /**
+     * A listener for queue events.
+     */
+    public interface Listener {
+        /**
+         * Invoked when an item becomes the current item. Per-player configuration such as the
+         * caption listener or the controls' anchor view should be applied to {@code player} here.
+         */
+        void onItemChanged(int index, MediaSDKService player);
+
+        void onQueueEnded();
+    }
+
+    public static final long DEFAULT_PRELOAD_THRESHOLD_MS = 15000;
+
+    /**
+     * The number of bytes the next item buffers while the current one plays.
+     */
+    public static final int PRELOAD_BUFFER_SIZE = 2 * 1024 * 1024;
+
+    private final Context mCtx;
+    private final Handler mHandler;
+    private final List<Item> mItems;
+    private final CopyOnWriteArrayList<MediaSDKService.Listener> mPlayerListeners;
+    private final Runnable mPreloadRunnable;
+
+    private Listener mListener;
+    private long mPreloadThresholdMs;
+    private Surface mSurface;
+    private boolean mPlayWhenReady;
+    private int mCurrentIndex;
+    private MediaSDKService mCurrentPlayer;
+    private PlayerListener mCurrentPlayerListener;
+    private MediaSDKService mNextPlayer;
+    private PlayerListener mNextPlayerListener;
+    private boolean mNextPlayerFailed;
+
+    public MediaQueue(Context ctx) {
+        mCtx = ctx;
+        mHandler = new Handler();
+        mItems = new ArrayList<>();
+        mPlayerListeners = new CopyOnWriteArrayList<>();
+        mPreloadThresholdMs = DEFAULT_PRELOAD_THRESHOLD_MS;
+        mPlayWhenReady = true;
+        mCurrentIndex = -1;
+        mPreloadRunnable = new Runnable() {
+            @Override
+            public void run() {
+                maybePreloadNext();
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Adds a listener to the player of every item.
+     */
+    public void addPlayerListener(MediaSDKService.Listener listener) {
+        mPlayerListeners.add(listener);
+        if (mCurrentPlayer != null) {
+            mCurrentPlayer.addListener(listener);
+        }
+    }
+
+    public void removePlayerListener(MediaSDKService.Listener listener) {
+        mPlayerListeners.remove(listener);
+        if (mCurrentPlayer != null) {
+            mCurrentPlayer.removeListener(listener);
+        }
+    }
+
+    /**
+     * Sets how long before the end of the current item the next one is prepared.
+     */
+    public int setPreloadThresholdMs(long preloadThresholdMs) {
+        if (preloadThresholdMs < 0) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mPreloadThresholdMs = preloadThresholdMs;
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    public int add(Item item) {
+        if (item == null || item.contentUri == null) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mItems.add(item);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    /**
+     * Returns the player of the current item, or null if the queue has not been started.
+     */
+    public MediaSDKService getCurrentPlayer() {
+        return mCurrentPlayer;
+    }
+
+    public void setVideoSurface(Surface surface) {
+        mSurface = surface;
+        if (mCurrentPlayer != null) {
+            mCurrentPlayer.setVideoSurface(surface);
+        }
+    }
+
+    public void setPlayWhenReady(boolean playWhenReady) {
+        mPlayWhenReady = playWhenReady;
+        if (mCurrentPlayer != null) {
+            mCurrentPlayer.setPlayWhenReady(playWhenReady);
+        }
+    }
+
+    /**
+     * Starts playback at the item at {@code index}, releasing any current and prepared players.
+     * Returns the error of {@link MediaSDKService#prepare()} if the item cannot be prepared, in
+     * which case the queue is stopped.
+     */
+    public int start(int index) {
+        if (index < 0 || index >= mItems.size()) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        releaseNextPlayer();
+        releaseCurrentPlayer();
+        mCurrentIndex = index;
+        mCurrentPlayer = createPlayer(mItems.get(index));
+        mCurrentPlayerListener = new PlayerListener(mCurrentPlayer);
+        mCurrentPlayer.addListener(mCurrentPlayerListener);
+        return activateCurrentPlayer();
+    }
+
+    /**
+     * Skips to the next item, using the prepared player if there is one. Fails like
+     * {@link #start(int)} if the item cannot be prepared.
+     */
+    public int next() {
+        if (mCurrentIndex + 1 >= mItems.size()) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        if (mNextPlayer == null) {
+            return start(mCurrentIndex + 1);
+        }
+        releaseCurrentPlayer();
+        mCurrentIndex++;
+        mCurrentPlayer = mNextPlayer;
+        mCurrentPlayerListener = mNextPlayerListener;
+        mNextPlayer = null;
+        mNextPlayerListener = null;
+        return activateCurrentPlayer();
+    }
+
+    public void release() {
+        mHandler.removeCallbacks(mPreloadRunnable);
+        releaseNextPlayer();
+        releaseCurrentPlayer();
+        mCurrentIndex = -1;
+    }
+
+    private MediaSDKService createPlayer(Item item) {
+        MediaSDKService player = new MediaSDKService(mCtx);
+        player.setDataSource(item.contentType, item.contentUri, item.drmCallback);
+        return player;
+    }
+
+    private int activateCurrentPlayer() {
+        mHandler.removeCallbacks(mPreloadRunnable);
+        mNextPlayerFailed = false;
+        mCurrentPlayer.setBufferLimit(MediaSDKService.NO_BUFFER_LIMIT);
+        if (mCurrentPlayer.getPlaybackState() == MediaSDKService.STATE_IDLE) {
+            int result = mCurrentPlayer.prepare();
+            if (result != Constants.ErrorCodes.SUCCESS) {
+                releaseCurrentPlayer();
+                mCurrentIndex = -1;
+                return result;
+            }
+        }
+        for (MediaSDKService.Listener listener : mPlayerListeners) {
+            mCurrentPlayer.addListener(listener);
+        }
+        mCurrentPlayer.setVideoSurface(mSurface);
+        mCurrentPlayer.setPlayWhenReady(mPlayWhenReady);
+        if (mListener != null) {
+            mListener.onItemChanged(mCurrentIndex, mCurrentPlayer);
+        }
+        maybePreloadNext();
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Prepares the next item if the current one is within the preload threshold of its end, or
+     * schedules the check for when it can be at the earliest. The check is also repeated whenever
+     * the current player's state changes, which covers seeks and the duration becoming known.
+     */
+    private void maybePreloadNext() {
+        mHandler.removeCallbacks(mPreloadRunnable);
+        if (mCurrentPlayer == null || mNextPlayer != null || mNextPlayerFailed
+                || mCurrentIndex + 1 >= mItems.size()) {
+            return;
+        }
+        long delayMs = getPreloadDelayMs(mCurrentPlayer.getDuration(),
+                mCurrentPlayer.getCurrentPosition(), mPreloadThresholdMs);
+        if (delayMs == ExoPlayer.UNKNOWN_TIME) {
+            return;
+        }
+        if (delayMs > 0) {
+            // Playback cannot get there sooner, and is checked again if it gets there later.
+            mHandler.postDelayed(mPreloadRunnable, delayMs);
+            return;
+        }
+        // Without a surface the video decoder is not initialized, but everything up to it is.
+        mNextPlayer = createPlayer(mItems.get(mCurrentIndex + 1));
+        mNextPlayerListener = new PlayerListener(mNextPlayer);
+        mNextPlayer.addListener(mNextPlayerListener);
+        mNextPlayer.setBufferLimit(PRELOAD_BUFFER_SIZE);
+        mNextPlayer.setPlayWhenReady(false);
+        if (mNextPlayer.prepare() != Constants.ErrorCodes.SUCCESS) {
+            onNextPlayerFailed();
+        }
+    }
+
+    /**
+     * Returns how long playback takes at least to get within {@code thresholdMs} of the end, 0 if
+     * it is already, or {@link ExoPlayer#UNKNOWN_TIME} if the duration is unknown.
+     */
+    /* package */ static long getPreloadDelayMs(long durationMs, long positionMs,
+                                                long thresholdMs) {
+        if (durationMs == ExoPlayer.UNKNOWN_TIME) {
+            return ExoPlayer.UNKNOWN_TIME;
+        }
+        return Math.max(0, durationMs - thresholdMs - positionMs);
+    }
+
+    private void onPlayerStateChanged(MediaSDKService player, int playbackState) {
+        if (player != mCurrentPlayer) {
+            return;
+        }
+        if (playbackState != MediaSDKService.STATE_ENDED) {
+            maybePreloadNext();
+            return;
+        }
+        if (mCurrentIndex + 1 < mItems.size()) {
+            // Not from within the ending player's own listener callback, since it is released.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    next();
+                }
+            });
+        } else {
+            mHandler.removeCallbacks(mPreloadRunnable);
+            if (mListener != null) {
+                mListener.onQueueEnded();
+            }
+        }
+    }
+
+    private void onPlayerError(MediaSDKService player) {
+        if (player == mNextPlayer) {
+            onNextPlayerFailed();
+        }
+    }
+
+    private void onNextPlayerFailed() {
+        // Build it again when it is needed, so the error surfaces on the current item.
+        releaseNextPlayer();
+        mNextPlayerFailed = true;
+    }
+
+    private void releaseCurrentPlayer() {
+        if (mCurrentPlayer == null) {
+            return;
+        }
+        mCurrentPlayer.removeListener(mCurrentPlayerListener);
+        for (MediaSDKService.Listener listener : mPlayerListeners) {
+            mCurrentPlayer.removeListener(listener);
+        }
+        mCurrentPlayer.blockingClearSurface();
+        mCurrentPlayer.release();
+        mCurrentPlayer = null;
+        mCurrentPlayerListener = null;
+    }
+
+    private void releaseNextPlayer() {
+        if (mNextPlayer == null) {
+            return;
+        }
+        mNextPlayer.removeListener(mNextPlayerListener);
+        mNextPlayer.release();
+        mNextPlayer = null;
+        mNextPlayerListener = null;
+    }
+
+    private final class PlayerListener implements MediaSDKService.Listener {
+
+        private final MediaSDKService mPlayer;
+
+        public PlayerListener(MediaSDKService player) {
+            mPlayer = player;
+        }
+
+        @Override
+        public void onStateChanged(boolean playWhenReady, int playbackState) {
+            onPlayerStateChanged(mPlayer, playbackState);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            onPlayerError(mPlayer);
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+            // Do nothing.
+        }
+
+    }
+
+}
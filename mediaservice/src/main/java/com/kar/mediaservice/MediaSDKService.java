@@ -1,30 +1,39 @@
 package com.kar.mediaservice;
 
 import android.content.Context;
+import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Surface;
 import android.view.View;
 import android.widget.MediaController;
 
 import com.google.android.exoplayer.CodecCounters;
+import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.DummyTrackRenderer;
 import com.google.android.exoplayer.ExoPlaybackException;
 import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecTrackRenderer;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.SingleSampleSource;
 import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioTrack;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
@@ -33,16 +42,39 @@ import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.text.Cue;
 import com.google.android.exoplayer.text.TextRenderer;
+import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.util.DebugTextViewHelper;
 import com.google.android.exoplayer.util.PlayerControl;
 import com.google.android.exoplayer.util.Util;
+import com.kar.mediaservice.drm.LicensePrefetcher;
+import com.kar.mediaservice.drm.OfflineLicenseCache;
+import com.kar.mediaservice.metrics.EventTrace;
+import com.kar.mediaservice.metrics.MetricsRegistry;
+import com.kar.mediaservice.metrics.QoeReport;
+import com.kar.mediaservice.metrics.QoeSession;
+import com.kar.mediaservice.metrics.StartupTimeline;
 import com.kar.mediaservice.renderers.DashRendererBuilder;
 import com.kar.mediaservice.renderers.ExtractorRendererBuilder;
 import com.kar.mediaservice.renderers.HlsRendererBuilder;
 import com.kar.mediaservice.renderers.SmoothStreamingRendererBuilder;
-
+import com.kar.mediaservice.upstream.BandwidthEstimateStore;
+import com.kar.mediaservice.upstream.BufferLimitLoadControl;
+import com.kar.mediaservice.upstream.DataSourceFactory;
+import com.kar.mediaservice.upstream.PooledAllocator;
+import com.kar.mediaservice.upstream.SegmentCache;
+import com.kar.mediaservice.upstream.SegmentPool;
+import com.kar.mediaservice.upstream.UpstreamExecutor;
+import com.kar.mediaservice.upstream.WarmStartBandwidthMeter;
+import com.kar.mediaservice.utils.AbrSettings;
+import com.kar.mediaservice.utils.BuilderExecutor;
+import com.kar.mediaservice.utils.CappedBandwidthMeter;
+import com.kar.mediaservice.utils.DeviceCapabilities;
+import com.kar.mediaservice.utils.SwitchableFormatEvaluator;
+
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.CookieHandler;
 import java.net.CookieManager;
@@ -77,7 +109,9 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
          *
          * @param player The mExoPlayer for which renderers are being built. {@link MediaSDKService#onRenderers}
          *               should be invoked once the renderers have been built. If building fails,
-         *               {@link MediaSDKService#onRenderersError} should be invoked.
+         *               {@link MediaSDKService#onRenderersError} should be invoked. Either must be
+         *               invoked on the main thread; any manifest loading should happen on
+         *               {@link MediaSDKService#getBuilderLooper()}.
          */
         void buildRenderers(MediaSDKService player);
 
@@ -166,6 +200,28 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
         void onId3Metadata(List<Id3Frame> id3Frames);
     }
 
+    /**
+     * A listener for the startup timeline of each prepared session.
+     */
+    public interface StartupListener {
+        /**
+         * Invoked once per {@link #prepare()}, when the first frame has been rendered.
+         *
+         * @param timeline A snapshot of the session's startup timeline.
+         */
+        void onStartupTimeline(StartupTimeline timeline);
+    }
+
+    /**
+     * A listener for the quality of experience report of each session.
+     */
+    public interface QoeListener {
+        /**
+         * Invoked when a session ends: when the player is prepared again, reset or released.
+         */
+        void onQoeReport(QoeReport report);
+    }
+
     // Constants pulled into this class for convenience.
     public static final int STATE_IDLE = ExoPlayer.STATE_IDLE;
     public static final int STATE_PREPARING = ExoPlayer.STATE_PREPARING;
@@ -174,6 +230,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     public static final int STATE_ENDED = ExoPlayer.STATE_ENDED;
     public static final int TRACK_DISABLED = ExoPlayer.TRACK_DISABLED;
     public static final int TRACK_DEFAULT = ExoPlayer.TRACK_DEFAULT;
+    public static final int NO_BUFFER_LIMIT = PooledAllocator.NO_BUFFER_LIMIT;
 
     public static final int RENDERER_COUNT = 4;
     public static final int TYPE_VIDEO = 0;
@@ -181,6 +238,11 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     public static final int TYPE_TEXT = 2;
     public static final int TYPE_METADATA = 3;
 
+    public static final int ABR_THROUGHPUT = 0;
+    public static final int ABR_BUFFER_BASED = 1;
+
+    private static final String TAG = "MediaSDKService";
+
     private static final int RENDERER_BUILDING_STATE_IDLE = 1;
     private static final int RENDERER_BUILDING_STATE_BUILDING = 2;
     private static final int RENDERER_BUILDING_STATE_BUILT = 3;
@@ -214,19 +276,37 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     private CaptionListener mCaptionListener;
     private Id3MetadataListener mId3MetadataListener;
     private InternalErrorListener mInternalErrorListener;
-    private InfoListener mInfoListener;
+    private final InfoEventDispatcher mInfoDispatcher;
+    private StartupListener mStartupListener;
+    private QoeListener mQoeListener;
     private MediaController mMediaController;
     private Context mCtx;
-    private boolean mIsAdaptable = true;
-    private long mMaxBitrate;
+    private final String mUserAgent;
+    private final DataSourceFactory mDataSourceFactory;
+    private final PooledAllocator mAllocator;
+    private final AbrSettings mAbrSettings = new AbrSettings();
+    private final StartupTimeline mStartupTimeline = new StartupTimeline();
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final QoeSession mQoeSession = new QoeSession();
+    private final EventTrace mEventTrace = new EventTrace();
+    private final Object mEventTraceDumpLock = new Object();
+    private volatile File mEventTraceDumpFile;
+    private boolean mStartupReported;
+    private volatile boolean mPersistentLicensesEnabled;
 
     public MediaSDKService(Context ctx) {
         mCtx = ctx;
+        mUserAgent = Util.getUserAgent(ctx, "MediaSDKService");
+        mDataSourceFactory = new DataSourceFactory(ctx, mUserAgent);
+        mAllocator = new PooledAllocator(SegmentPool.getInstance());
+        // Starts the probe, so that it has completed by the time renderers are built.
+        DeviceCapabilities.getInstance(ctx);
         mExoPlayer = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
         mExoPlayer.addListener(this);
         mPlayerControl = new PlayerControl(mExoPlayer);
         mMainHandler = new Handler();
         mListeners = new CopyOnWriteArrayList<>();
+        mInfoDispatcher = new InfoEventDispatcher(mMainHandler);
         mLastReportedPlaybackState = STATE_IDLE;
         mCurrRendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         // Disable text initially.
@@ -280,8 +360,33 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
         mInternalErrorListener = listener;
     }
 
+    /**
+     * Replaces all info listeners with {@code listener}, or removes them all if null.
+     */
     public void setInfoListener(InfoListener listener) {
-        mInfoListener = listener;
+        mInfoDispatcher.clearListeners();
+        if (listener != null) {
+            mInfoDispatcher.addListener(listener);
+        }
+    }
+
+    /**
+     * Adds an info listener. Info events are delivered in batches, about once per frame.
+     */
+    public void addInfoListener(InfoListener listener) {
+        mInfoDispatcher.addListener(listener);
+    }
+
+    public void removeInfoListener(InfoListener listener) {
+        mInfoDispatcher.removeListener(listener);
+    }
+
+    public void setStartupListener(StartupListener listener) {
+        mStartupListener = listener;
+    }
+
+    public void setQoeListener(QoeListener listener) {
+        mQoeListener = listener;
     }
 
     public void setCaptionListener(CaptionListener listener) {
@@ -343,16 +448,28 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
         }
     }
 
-    public void prepare() {
+    /**
+     * Prepares playback of the data source set with {@link #setDataSource}. Returns
+     * {@link Constants.ErrorCodes#INVALID_STATE} if there is none, e.g. after {@link #reset()}.
+     */
+    public int prepare() {
+        if (mCurrRendererBuilder == null) {
+            return Constants.ErrorCodes.INVALID_STATE;
+        }
         if (mCurrRendererBuildingState == RENDERER_BUILDING_STATE_BUILT) {
             mExoPlayer.stop();
         }
         mCurrRendererBuilder.cancel();
+        endQoeSession();
+        mQoeSession.start(SystemClock.elapsedRealtime());
+        mStartupTimeline.reset(SystemClock.elapsedRealtime());
+        mStartupReported = false;
         VvideoFormat = null;
         mVideoRenderer = null;
         mCurrRendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
         maybeReportPlayerState();
         mCurrRendererBuilder.buildRenderers(this);
+        return Constants.ErrorCodes.SUCCESS;
     }
 
     /**
@@ -376,6 +493,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
                 : renderers[TYPE_AUDIO] instanceof MediaCodecTrackRenderer
                 ? ((MediaCodecTrackRenderer) renderers[TYPE_AUDIO]).codecCounters : null;
         this.mBandwidthMeter = bandwidthMeter;
+        onStartupStage(StartupTimeline.STAGE_RENDERERS_BUILT);
         pushSurface(false);
         mExoPlayer.prepare(renderers);
         mCurrRendererBuildingState = RENDERER_BUILDING_STATE_BUILT;
@@ -387,6 +505,8 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
      * @param e Describes the error.
      */
     public  void onRenderersError(Exception e) {
+        mEventTrace.record(EventTrace.EVENT_RENDERERS_ERROR);
+        dumpEventTrace();
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onRendererInitializationError(e);
         }
@@ -402,14 +522,73 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     }
 
     public void seekTo(long positionMs) {
+        mEventTrace.record(EventTrace.EVENT_SEEK, 0, 0, positionMs, 0, 0);
+        mQoeSession.onSeek(SystemClock.elapsedRealtime());
         mExoPlayer.seekTo(positionMs);
     }
 
+    /**
+     * Stops playback and returns the player to the state it was constructed in, so that it can be
+     * given a new data source and prepared again. Unlike {@link #release()}, the underlying
+     * {@link ExoPlayer} and its playback thread are kept. All listeners are removed, and the
+     * adaptive, upstream, DRM and event trace settings restored to their defaults, as is the
+     * anchor of the controls. What the player has measured, such as its bandwidth and load
+     * statistics and its warm connections, is kept.
+     */
+    public void reset() {
+        if (mCurrRendererBuilder != null) {
+            mCurrRendererBuilder.cancel();
+            mCurrRendererBuilder = null;
+        }
+        mCurrRendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        endQoeSession();
+        mListeners.clear();
+        mInternalErrorListener = null;
+        mInfoDispatcher.clearListeners();
+        mStartupListener = null;
+        mQoeListener = null;
+        mCaptionListener = null;
+        mId3MetadataListener = null;
+        mExoPlayer.stop();
+        mExoPlayer.setPlayWhenReady(false);
+        mExoPlayer.seekTo(0);
+        for (int i = 0; i < RENDERER_COUNT; i++) {
+            mExoPlayer.setSelectedTrack(i, i == TYPE_TEXT ? TRACK_DISABLED : TRACK_DEFAULT);
+        }
+        mSurface = null;
+        mVideoRenderer = null;
+        mCodecCounters = null;
+        VvideoFormat = null;
+        mBandwidthMeter = null;
+        mBackgrounded = false;
+        mStartupReported = false;
+        mLastReportedPlaybackState = STATE_IDLE;
+        mLastReportedPlayWhenReady = false;
+        mAbrSettings.setAdaptive(true);
+        mAbrSettings.setMaxBitrate(0);
+        mAbrSettings.setAlgorithm(ABR_THROUGHPUT);
+        mDataSourceFactory.resetConfiguration();
+        mPersistentLicensesEnabled = false;
+        mEventTraceDumpFile = null;
+        mEventTrace.clear();
+        if (mMediaController != null) {
+            mMediaController.hide();
+            // The anchor is often a recycled list item that belongs to the previous user.
+            mMediaController.setAnchorView(null);
+        }
+    }
+
     public void release() {
-        mCurrRendererBuilder.cancel();
+        if (mCurrRendererBuilder != null) {
+            mCurrRendererBuilder.cancel();
+        }
         mCurrRendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        endQoeSession();
+        mInfoDispatcher.clear();
         mSurface = null;
         mExoPlayer.release();
+        mAllocator.release();
+        BandwidthEstimateStore.getInstance(mCtx).flush();
     }
 
     public int getPlaybackState() {
@@ -465,13 +644,128 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
         return mMainHandler;
     }
 
+    /**
+     * Returns the looper on which renderer builders load manifests and construct renderers. The
+     * results must be handed back through {@link #getMainHandler()}.
+     */
+    public Looper getBuilderLooper() {
+        return BuilderExecutor.getLooper();
+    }
+
+    /**
+     * Returns the allocator that renderer builders should use for sample buffers. Segments are
+     * leased from the process wide {@link SegmentPool} and returned to it when the renderers are
+     * released.
+     */
+    public Allocator getAllocator() {
+        return mAllocator;
+    }
+
+    /**
+     * Creates the load control that renderer builders should use for chunk sample sources, which
+     * honors the limit set by {@link #setBufferLimit(int)}.
+     */
+    public LoadControl createLoadControl() {
+        return new BufferLimitLoadControl(new DefaultLoadControl(mAllocator), mAllocator);
+    }
+
+    /**
+     * Limits the bytes this player buffers, e.g. while it is prepared ahead of playing, or lifts
+     * the limit if {@code bufferLimit} is {@link #NO_BUFFER_LIMIT}. Applies to the current and
+     * later sessions. May be called from any thread.
+     */
+    public int setBufferLimit(int bufferLimit) {
+        if (bufferLimit < 0) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mAllocator.setBufferLimit(bufferLimit);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Records that the current session reached a {@link StartupTimeline} stage. May be called
+     * from any thread, typically by renderer builders.
+     */
+    public void onStartupStage(int stage) {
+        mStartupTimeline.markStage(stage, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Returns a snapshot of the current session's startup timeline, including stages not reached
+     * yet. May be called from any thread.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return mStartupTimeline.snapshot();
+    }
+
+    /**
+     * Returns the counters and histograms of this player's loads, bandwidth samples, dropped
+     * frames and audio underruns, accumulated across sessions until
+     * {@link MetricsRegistry#reset()}. Snapshots may be taken from any thread.
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns the trace of this player's recent events, which may be dumped at any time.
+     */
+    public EventTrace getEventTrace() {
+        return mEventTrace;
+    }
+
+    /**
+     * Sets a file to which the event trace is written, in the background, whenever a player or
+     * load error occurs, replacing the previous dump. Null disables dumping.
+     */
+    public int setEventTraceDumpFile(File file) {
+        mEventTraceDumpFile = file;
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Returns the quality of experience figures of the current session so far, or of the last
+     * session if none is active. May be called from any thread.
+     */
+    public QoeReport getQoeReport() {
+        return mQoeSession.getReport(SystemClock.elapsedRealtime());
+    }
+
+    public DataSourceFactory getDataSourceFactory() {
+        return mDataSourceFactory;
+    }
+
+    /**
+     * Returns whether renderer builders should request persistent licenses and keep them in
+     * {@link #getOfflineLicenseCache()}.
+     */
+    public boolean isPersistentLicensesEnabled() {
+        return mPersistentLicensesEnabled;
+    }
+
+    public OfflineLicenseCache getOfflineLicenseCache() {
+        return OfflineLicenseCache.getInstance(mCtx);
+    }
+
+    /**
+     * Returns the process wide device capabilities, which renderer builders read instead of
+     * probing the device.
+     */
+    public DeviceCapabilities getDeviceCapabilities() {
+        return DeviceCapabilities.getInstance(mCtx);
+    }
+
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int state) {
+        mEventTrace.record(EventTrace.EVENT_STATE_CHANGED, playWhenReady ? 1 : 0, state, 0, 0, 0);
+        mQoeSession.onPlayerStateChanged(playWhenReady, state, SystemClock.elapsedRealtime());
         maybeReportPlayerState();
     }
 
     @Override
     public void onPlayerError(ExoPlaybackException exception) {
+        mEventTrace.record(EventTrace.EVENT_PLAYER_ERROR);
+        dumpEventTrace();
         mCurrRendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         for (Listener listener : mListeners) {
             listener.onError(exception);
@@ -488,39 +782,47 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onDroppedFrames(int count, long elapsed) {
-        if (mInfoListener != null) {
-            mInfoListener.onDroppedFrames(count, elapsed);
-        }
+        mEventTrace.record(EventTrace.EVENT_DROPPED_FRAMES, count, 0, elapsed, 0, 0);
+        mMetrics.onDroppedFrames(count);
+        mQoeSession.onDroppedFrames(count);
+        mInfoDispatcher.onDroppedFrames(count, elapsed);
     }
 
     @Override
     public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-        if (mInfoListener != null) {
-            mInfoListener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
-        }
+        mEventTrace.record(EventTrace.EVENT_BANDWIDTH_SAMPLE, elapsedMs, 0, bytes, bitrateEstimate,
+                0);
+        mMetrics.onBandwidthSample(elapsedMs, bytes);
+        mInfoDispatcher.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
     }
 
     @Override
     public void onDownstreamFormatChanged(int sourceId, Format format, int trigger,
                                           long mediaTimeMs) {
-        if (mInfoListener == null) {
-            return;
-        }
+        mEventTrace.record(EventTrace.EVENT_FORMAT_CHANGED, sourceId, trigger,
+                format == null ? 0 : format.bitrate, mediaTimeMs,
+                format == null ? 0 : format.height);
         if (sourceId == TYPE_VIDEO) {
+            if (format != null) {
+                mQoeSession.onVideoFormatChanged(format.id, format.bitrate,
+                        SystemClock.elapsedRealtime());
+            }
             VvideoFormat = format;
-            mInfoListener.onVideoFormatEnabled(format, trigger, mediaTimeMs);
+            mInfoDispatcher.onVideoFormatEnabled(format, trigger, mediaTimeMs);
         } else if (sourceId == TYPE_AUDIO) {
-            mInfoListener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+            mInfoDispatcher.onAudioFormatEnabled(format, trigger, mediaTimeMs);
         }
     }
 
     @Override
     public void onDrmKeysLoaded() {
-        // Do nothing.
+        mEventTrace.record(EventTrace.EVENT_DRM_KEYS_LOADED);
+        onStartupStage(StartupTimeline.STAGE_DRM_KEYS_LOADED);
     }
 
     @Override
     public void onDrmSessionManagerError(Exception e) {
+        mEventTrace.record(EventTrace.EVENT_DRM_ERROR);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onDrmSessionManagerError(e);
         }
@@ -528,6 +830,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onDecoderInitializationError(MediaCodecTrackRenderer.DecoderInitializationException e) {
+        mEventTrace.record(EventTrace.EVENT_DECODER_ERROR);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onDecoderInitializationError(e);
         }
@@ -535,6 +838,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+        mEventTrace.record(EventTrace.EVENT_AUDIO_TRACK_ERROR);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onAudioTrackInitializationError(e);
         }
@@ -542,6 +846,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+        mEventTrace.record(EventTrace.EVENT_AUDIO_TRACK_ERROR);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onAudioTrackWriteError(e);
         }
@@ -549,6 +854,9 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        mEventTrace.record(EventTrace.EVENT_AUDIO_UNDERRUN, bufferSize, 0, bufferSizeMs,
+                elapsedSinceLastFeedMs, 0);
+        mMetrics.onAudioTrackUnderrun(elapsedSinceLastFeedMs);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
         }
@@ -556,6 +864,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onCryptoError(MediaCodec.CryptoException e) {
+        mEventTrace.record(EventTrace.EVENT_CRYPTO_ERROR);
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onCryptoError(e);
         }
@@ -564,13 +873,19 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                      long initializationDurationMs) {
-        if (mInfoListener != null) {
-            mInfoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
-        }
+        mEventTrace.record(EventTrace.EVENT_DECODER_INITIALIZED, 0, 0, initializationDurationMs, 0,
+                0);
+        mStartupTimeline.markStageLatest(StartupTimeline.STAGE_DECODER_INITIALIZED,
+                elapsedRealtimeMs);
+        mInfoDispatcher.onDecoderInitialized(decoderName, elapsedRealtimeMs,
+                initializationDurationMs);
     }
 
     @Override
     public void onLoadError(int sourceId, IOException e) {
+        mEventTrace.record(EventTrace.EVENT_LOAD_ERROR, sourceId);
+        dumpEventTrace();
+        mMetrics.onLoadError();
         if (mInternalErrorListener != null) {
             mInternalErrorListener.onLoadError(sourceId, e);
         }
@@ -585,6 +900,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onMetadata(List<Id3Frame> id3Frames) {
+        mEventTrace.record(EventTrace.EVENT_ID3_METADATA, id3Frames.size());
         if (mId3MetadataListener != null && getSelectedTrack(TYPE_METADATA) != TRACK_DISABLED) {
             mId3MetadataListener.onId3Metadata(id3Frames);
         }
@@ -592,9 +908,7 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
-        if (mInfoListener != null) {
-            mInfoListener.onAvailableRangeChanged(sourceId, availableRange);
-        }
+        mInfoDispatcher.onAvailableRangeChanged(sourceId, availableRange);
     }
 
     @Override
@@ -604,35 +918,78 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     @Override
     public void onDrawnToSurface(Surface surface) {
-        // Do nothing.
+        mEventTrace.record(EventTrace.EVENT_DRAWN_TO_SURFACE);
+        onStartupStage(StartupTimeline.STAGE_FIRST_FRAME);
+        if (!mStartupReported && mStartupListener != null) {
+            mStartupReported = true;
+            mStartupListener.onStartupTimeline(mStartupTimeline.snapshot());
+        }
     }
 
     @Override
     public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
                               long mediaStartTimeMs, long mediaEndTimeMs) {
-        if (mInfoListener != null) {
-            mInfoListener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
-                    mediaEndTimeMs);
-        }
+        mEventTrace.record(EventTrace.EVENT_LOAD_STARTED, sourceId, type, length, mediaStartTimeMs,
+                mediaEndTimeMs);
+        mStartupTimeline.markLoadStarted(sourceId, SystemClock.elapsedRealtime());
+        mInfoDispatcher.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
+                mediaEndTimeMs);
     }
 
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
                                 long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
-        if (mInfoListener != null) {
-            mInfoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
-                    mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
-        }
+        mEventTrace.record(EventTrace.EVENT_LOAD_COMPLETED, sourceId, type, bytesLoaded,
+                loadDurationMs, mediaStartTimeMs);
+        mStartupTimeline.markLoadCompleted(sourceId, elapsedRealtimeMs);
+        mMetrics.onLoadCompleted(bytesLoaded, loadDurationMs);
+        mQoeSession.onLoadCompleted(sourceId, bytesLoaded);
+        mInfoDispatcher.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
+                mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
     }
 
     @Override
     public void onLoadCanceled(int sourceId, long bytesLoaded) {
-        // Do nothing.
+        mEventTrace.record(EventTrace.EVENT_LOAD_CANCELED, sourceId, 0, bytesLoaded, 0, 0);
     }
 
     @Override
     public void onUpstreamDiscarded(int sourceId, long mediaStartTimeMs, long mediaEndTimeMs) {
-        // Do nothing.
+        mEventTrace.record(EventTrace.EVENT_UPSTREAM_DISCARDED, sourceId, 0, mediaStartTimeMs,
+                mediaEndTimeMs, 0);
+    }
+
+    private void dumpEventTrace() {
+        final File file = mEventTraceDumpFile;
+        if (file == null) {
+            return;
+        }
+        final byte[] data = mEventTrace.toByteArray();
+        UpstreamExecutor.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                // Dumps may be posted back to back, e.g. on retried loads; keep them whole.
+                synchronized (mEventTraceDumpLock) {
+                    try {
+                        FileOutputStream outputStream = new FileOutputStream(file);
+                        try {
+                            outputStream.write(data);
+                        } finally {
+                            outputStream.close();
+                        }
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to write event trace to " + file, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void endQoeSession() {
+        QoeReport report = mQoeSession.end(SystemClock.elapsedRealtime());
+        if (report != null && mQoeListener != null) {
+            mQoeListener.onQoeReport(report);
+        }
     }
 
     private void maybeReportPlayerState() {
@@ -663,20 +1020,14 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
 
     // Internal methods
     private RendererBuilder getRendererBuilder(Context ctx, int contentType, Uri contentUri, MediaDrmCallback mediaDrmCallback) {
-        String userAgent = Util.getUserAgent(ctx, "MediaSDKService");
+        String userAgent = mUserAgent;
         switch (contentType) {
             case Util.TYPE_SS:
                 return new SmoothStreamingRendererBuilder(ctx, userAgent, contentUri.toString(),
                         mediaDrmCallback);
             case Util.TYPE_DASH:
-                if(mIsAdaptable) {
-                    return new DashRendererBuilder(ctx, userAgent, contentUri.toString(),
-                            mediaDrmCallback);
-                }
-                else {
-                    return new DashRendererBuilder(ctx, userAgent, contentUri.toString(),
-                            mediaDrmCallback, mMaxBitrate);
-                }
+                return new DashRendererBuilder(ctx, userAgent, contentUri.toString(),
+                        mediaDrmCallback);
             case Util.TYPE_HLS:
                 return new HlsRendererBuilder(ctx, userAgent, contentUri.toString());
             case Util.TYPE_OTHER:
@@ -716,17 +1067,175 @@ public class MediaSDKService implements ExoPlayer.Listener, ChunkSampleSource.Ev
     }
 
     public int setDataSource(int contentType, Uri contentUri, MediaDrmCallback mediaDrmCallback) {
+        if (mCurrRendererBuilder != null) {
+            // Stops its background work, e.g. period prefetching, which would otherwise go on.
+            mCurrRendererBuilder.cancel();
+        }
         mCurrRendererBuilder = getRendererBuilder(mCtx, contentType, contentUri, mediaDrmCallback);
         return Constants.ErrorCodes.SUCCESS;
     }
 
+    /**
+     * Enables or disables adaptive playback. When disabled, the highest format within the bitrate
+     * set by {@link #setBitrate(long)} is played. Takes effect on the next chunk, for DASH,
+     * SmoothStreaming and HLS alike. May be called from any thread.
+     */
     public int setAdaptiveEnabled(boolean enabled) {
-        mIsAdaptable = enabled;
+        mAbrSettings.setAdaptive(enabled);
         return Constants.ErrorCodes.SUCCESS;
     }
 
+    /**
+     * Caps the bitrate of the selected video format, in bits per second, or removes the cap if
+     * {@code bitrate} is 0. Takes effect on the next chunk. May be called from any thread.
+     */
     public int setBitrate(long bitrate) {
-        mMaxBitrate = bitrate;
+        if (bitrate < 0) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mAbrSettings.setMaxBitrate(bitrate);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Selects the algorithm used for adaptive DASH and SmoothStreaming playback, one of
+     * {@link #ABR_THROUGHPUT} and {@link #ABR_BUFFER_BASED}. Takes effect on the next chunk.
+     */
+    public int setAbrAlgorithm(int algorithm) {
+        if (algorithm != ABR_THROUGHPUT && algorithm != ABR_BUFFER_BASED) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mAbrSettings.setAlgorithm(algorithm);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Creates the bandwidth meter for the chunk data sources of a session. Until it has measured a
+     * transfer, it reports the last estimate persisted for the current network type and the host
+     * that the media of {@code url}'s host was last loaded from, so that the first format
+     * selection does not start from nothing.
+     *
+     * @param url The manifest URL of the session.
+     */
+    public BandwidthMeter createBandwidthMeter(String url) {
+        return new WarmStartBandwidthMeter(BandwidthEstimateStore.getInstance(mCtx), url,
+                mMainHandler, this);
+    }
+
+    /**
+     * Creates the {@link FormatEvaluator} for an adaptive video track. The evaluator follows the
+     * adaptive settings of this player for as long as it is used.
+     *
+     * @param bandwidthMeter The bandwidth meter of the track's data source.
+     */
+    public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+        return new SwitchableFormatEvaluator(mAbrSettings, bandwidthMeter);
+    }
+
+    /**
+     * Creates the {@link BandwidthMeter} that an HLS chunk source should select variants with, so
+     * that it follows the adaptive settings of this player.
+     *
+     * @param bandwidthMeter The bandwidth meter of the chunk source's data source.
+     */
+    public BandwidthMeter createHlsBandwidthMeter(BandwidthMeter bandwidthMeter) {
+        return new CappedBandwidthMeter(bandwidthMeter, mAbrSettings,
+                CappedBandwidthMeter.HLS_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * Creates the video renderer that renderer builders should use for {@code sampleSource}.
+     * Overridden by benchmarks to play the sample source without decoding it.
+     *
+     * @param drmSessionManager The session manager of protected content, or null.
+     */
+    public TrackRenderer createVideoRenderer(SampleSource sampleSource,
+                                             DrmSessionManager drmSessionManager) {
+        return new MediaCodecVideoTrackRenderer(mCtx, sampleSource, MediaCodecSelector.DEFAULT,
+                MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000, drmSessionManager, true,
+                mMainHandler, this, 50);
+    }
+
+    /**
+     * Creates the audio renderer that renderer builders should use for {@code sampleSources}.
+     * Overridden by benchmarks to play the sample sources without decoding them.
+     *
+     * @param drmSessionManager The session manager of protected content, or null.
+     */
+    public TrackRenderer createAudioRenderer(SampleSource[] sampleSources,
+                                             DrmSessionManager drmSessionManager) {
+        return new MediaCodecAudioTrackRenderer(sampleSources, MediaCodecSelector.DEFAULT,
+                drmSessionManager, true, mMainHandler, this,
+                getDeviceCapabilities().getAudioCapabilities(), AudioManager.STREAM_MUSIC);
+    }
+
+    /**
+     * Enables or disables the process wide on-disk segment cache. Takes effect on the next
+     * {@link #prepare()}. The cache is also required for the first segments of upcoming DASH
+     * periods to be loaded ahead of the period boundary.
+     */
+    public int setSegmentCacheEnabled(boolean enabled) {
+        mDataSourceFactory.setSegmentCache(enabled ? SegmentCache.getInstance(mCtx) : null);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Enables or disables hedged chunk requests for a track type: a chunk request that takes
+     * longer to start responding than most recent requests of the track is repeated on a second
+     * connection, and whichever responds first is used. Takes effect on the next
+     * {@link #prepare()}.
+     *
+     * @param trackType One of {@link #TYPE_VIDEO}, {@link #TYPE_AUDIO} and {@link #TYPE_TEXT}.
+     */
+    public int setHedgedRequestsEnabled(int trackType, boolean enabled) {
+        if (trackType < 0 || trackType >= RENDERER_COUNT) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mDataSourceFactory.setHedgingEnabled(trackType, enabled);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Sets the number of connections that progressive streams are downloaded over in parallel,
+     * as consecutive byte ranges. Defaults to 1, a single connection. Takes effect on the next
+     * {@link #prepare()}.
+     */
+    public int setProgressiveConnectionCount(int connectionCount) {
+        if (connectionCount < 1) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        mDataSourceFactory.setProgressiveConnectionCount(connectionCount);
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Enables or disables persistent licenses for protected DASH and SmoothStreaming content.
+     * When enabled, licenses are requested as persistent and kept in a process wide cache, so that
+     * later sessions for the same content restore their keys without a license request. The
+     * license server must grant persistent licenses. Takes effect on the next {@link #prepare()}.
+     */
+    public int setPersistentLicensesEnabled(boolean enabled) {
+        mPersistentLicensesEnabled = enabled;
+        return Constants.ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Loads the persistent licenses of an upcoming DASH or SmoothStreaming title in the background,
+     * so that its playback starts without a license request. Only has an effect on playback if
+     * persistent licenses are enabled, see {@link #setPersistentLicensesEnabled(boolean)}.
+     */
+    public int prefetchDrmLicense(int contentType, Uri contentUri,
+                                  MediaDrmCallback mediaDrmCallback) {
+        if ((contentType != Util.TYPE_DASH && contentType != Util.TYPE_SS) || contentUri == null
+                || mediaDrmCallback == null) {
+            return Constants.ErrorCodes.INVALID_PARAM;
+        }
+        if (Util.SDK_INT < 18) {
+            return Constants.ErrorCodes.UNKNOWN_ERROR;
+        }
+        UpstreamExecutor.getExecutor().execute(new LicensePrefetcher(contentType,
+                contentUri.toString(), mDataSourceFactory.createManifestDataSource(),
+                mediaDrmCallback, getOfflineLicenseCache()));
         return Constants.ErrorCodes.SUCCESS;
     }
 
@@ -0,0 +1,141 @@
+package com.kar.mediaservice;
+
+import android.content.Context;
+
+import java.util.ArrayDeque;
+
+/**
+ * A pool of {@link MediaSDKService} instances, for screens that start and stop many short
+ * playbacks, such as autoplaying previews in a scrolling feed.
+ * <p/>
+ * Players handed back with {@link #release(MediaSDKService)} are {@link MediaSDKService#reset()}
+ * rather than released, and handed out again by {@link #acquire()}. This saves constructing the
+ * {@link com.google.android.exoplayer.ExoPlayer} with its playback thread, the controls and the
+ * upstream state, and keeps the player's data source factory with its warm connections and load
+ * statistics.
+ * <p/>
+ * Must be used from the main thread.
+ */
+public final class MediaSDKServicePool {
+
+    /**
+     * A listener for acquisitions, e.g. to report the startup time the pool saves.
+     */
+    public interface AcquireListener {
+        /**
+         * @param player      The acquired player.
+         * @param recycled    Whether the player was taken from the pool.
+         * @param acquireUs   The time the acquisition took.
+         * @param timeSavedUs The average construction time minus {@code acquireUs} for a recycled
+         *                    player, or 0.
+         */
+        void onAcquired(MediaSDKService player, boolean recycled, long acquireUs, long timeSavedUs);
+    }
+
+    public static final int DEFAULT_MAX_IDLE_PLAYERS = 3;
+
+    private final Context mCtx;
+    private final int mMaxIdlePlayers;
+    private final ArrayDeque<MediaSDKService> mIdlePlayers;
+
+    private AcquireListener mAcquireListener;
+    private int mCreatedCount;
+    private long mTotalCreateUs;
+    private int mRecycledCount;
+    private long mTotalTimeSavedUs;
+
+    public MediaSDKServicePool(Context ctx) {
+        this(ctx, DEFAULT_MAX_IDLE_PLAYERS);
+    }
+
+    /**
+     * @param ctx            The context players are created with.
+     * @param maxIdlePlayers The maximum number of released players kept for reuse.
+     */
+    public MediaSDKServicePool(Context ctx, int maxIdlePlayers) {
+        mCtx = ctx;
+        mMaxIdlePlayers = maxIdlePlayers;
+        mIdlePlayers = new ArrayDeque<>();
+    }
+
+    public void setAcquireListener(AcquireListener listener) {
+        mAcquireListener = listener;
+    }
+
+    /**
+     * Returns an idle player from the pool, or a new one if there is none. The player has no data
+     * source set.
+     */
+    public MediaSDKService acquire() {
+        long startNs = System.nanoTime();
+        MediaSDKService player = mIdlePlayers.pollFirst();
+        boolean recycled = player != null;
+        if (!recycled) {
+            player = new MediaSDKService(mCtx);
+        }
+        long acquireUs = (System.nanoTime() - startNs) / 1000;
+        long timeSavedUs = 0;
+        if (recycled) {
+            mRecycledCount++;
+            timeSavedUs = Math.max(0, getAverageCreateUs() - acquireUs);
+            mTotalTimeSavedUs += timeSavedUs;
+        } else {
+            mCreatedCount++;
+            mTotalCreateUs += acquireUs;
+        }
+        if (mAcquireListener != null) {
+            mAcquireListener.onAcquired(player, recycled, acquireUs, timeSavedUs);
+        }
+        return player;
+    }
+
+    /**
+     * Stops {@code player} and keeps it for reuse, or releases it if the pool is full. The caller
+     * must not use the player afterwards.
+     */
+    public void release(MediaSDKService player) {
+        if (mIdlePlayers.size() < mMaxIdlePlayers) {
+            player.reset();
+            mIdlePlayers.addFirst(player);
+        } else {
+            player.release();
+        }
+    }
+
+    /**
+     * Releases all idle players.
+     */
+    public void clear() {
+        MediaSDKService player;
+        while ((player = mIdlePlayers.pollFirst()) != null) {
+            player.release();
+        }
+    }
+
+    public int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    public int getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    public int getRecycledCount() {
+        return mRecycledCount;
+    }
+
+    /**
+     * Returns the average time taken to construct a player, or 0 if none has been constructed.
+     */
+    public long getAverageCreateUs() {
+        return mCreatedCount == 0 ? 0 : mTotalCreateUs / mCreatedCount;
+    }
+
+    /**
+     * Returns the construction time saved by all recycled acquisitions.
+     */
+    public long getTotalTimeSavedUs() {
+        return mTotalTimeSavedUs;
+    }
+
+}
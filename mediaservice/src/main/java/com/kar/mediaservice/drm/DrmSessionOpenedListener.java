@@ -0,0 +1,13 @@
+package com.kar.mediaservice.drm;
+
+/**
+ * Notified when a DRM session has been opened, before its keys are loaded.
+ */
+public interface DrmSessionOpenedListener {
+
+    /**
+     * Called at most once per session, on the thread that opened it.
+     */
+    void onDrmSessionOpened();
+
+}
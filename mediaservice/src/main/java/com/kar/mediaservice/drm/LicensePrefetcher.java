@@ -0,0 +1,127 @@
+package com.kar.mediaservice.drm;
+
+import android.util.Log;
+
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.extractor.mp4.PsshAtomUtil;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.util.MimeTypes;
+import com.google.android.exoplayer.util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Loads the persistent licenses of a DASH or SmoothStreaming title into an
+ * {@link OfflineLicenseCache} before it is played, using the scheme init data in its manifest.
+ * <p/>
+ * DASH manifests that only carry their PSSH boxes in the initialization segments cannot be
+ * prefetched this way.
+ */
+public final class LicensePrefetcher implements Runnable {
+
+    private static final String TAG = "LicensePrefetcher";
+
+    private final int mContentType;
+    private final String mUrl;
+    private final UriDataSource mManifestDataSource;
+    private final MediaDrmCallback mCallback;
+    private final OfflineLicenseCache mLicenseCache;
+
+    /**
+     * @param contentType        {@link Util#TYPE_DASH} or {@link Util#TYPE_SS}.
+     * @param url                The manifest url.
+     * @param manifestDataSource The data source from which to load the manifest.
+     * @param callback           Performs key and provisioning requests.
+     * @param licenseCache       The cache to load the licenses into.
+     */
+    public LicensePrefetcher(int contentType, String url, UriDataSource manifestDataSource,
+                             MediaDrmCallback callback, OfflineLicenseCache licenseCache) {
+        mContentType = contentType;
+        mUrl = url;
+        mManifestDataSource = manifestDataSource;
+        mCallback = callback;
+        mLicenseCache = licenseCache;
+    }
+
+    /**
+     * Loads the manifest and then each license not already cached. Blocks until done, so must be
+     * called on a background thread.
+     */
+    @Override
+    public void run() {
+        UUID uuid;
+        List<DrmInitData.SchemeInitData> schemeInitDatas = new ArrayList<>();
+        try {
+            if (mContentType == Util.TYPE_DASH) {
+                uuid = OfflineDrmSessionManager.WIDEVINE_UUID;
+                UriLoadable<MediaPresentationDescription> loadable = new UriLoadable<>(mUrl,
+                        mManifestDataSource, new MediaPresentationDescriptionParser());
+                loadable.load();
+                addSchemeInitDatas(loadable.getResult(), uuid, schemeInitDatas);
+            } else {
+                UriLoadable<SmoothStreamingManifest> loadable = new UriLoadable<>(mUrl,
+                        mManifestDataSource, new SmoothStreamingManifestParser());
+                loadable.load();
+                SmoothStreamingManifest.ProtectionElement protectionElement =
+                        loadable.getResult().protectionElement;
+                if (protectionElement == null) {
+                    return;
+                }
+                uuid = protectionElement.uuid;
+                schemeInitDatas.add(new DrmInitData.SchemeInitData(MimeTypes.VIDEO_MP4,
+                        PsshAtomUtil.buildPsshAtom(uuid, protectionElement.data)));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to load manifest: " + mUrl, e);
+            return;
+        }
+
+        MediaDrmLicenseLoader loader = new MediaDrmLicenseLoader(uuid, mCallback, null);
+        for (DrmInitData.SchemeInitData schemeInitData : schemeInitDatas) {
+            try {
+                mLicenseCache.getOrLoadKeySetId(schemeInitData.data, schemeInitData.mimeType,
+                        loader);
+            } catch (Exception e) {
+                Log.w(TAG, "License prefetch failed: " + mUrl, e);
+            }
+        }
+    }
+
+    private static void addSchemeInitDatas(MediaPresentationDescription manifest, UUID uuid,
+                                           List<DrmInitData.SchemeInitData> schemeInitDatas) {
+        for (int i = 0; i < manifest.getPeriodCount(); i++) {
+            Period period = manifest.getPeriod(i);
+            for (AdaptationSet adaptationSet : period.adaptationSets) {
+                for (ContentProtection contentProtection : adaptationSet.contentProtections) {
+                    if (uuid.equals(contentProtection.uuid) && contentProtection.data != null
+                            && !contains(schemeInitDatas, contentProtection.data.data)) {
+                        schemeInitDatas.add(contentProtection.data);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean contains(List<DrmInitData.SchemeInitData> schemeInitDatas,
+                                    byte[] data) {
+        for (DrmInitData.SchemeInitData schemeInitData : schemeInitDatas) {
+            if (Arrays.equals(schemeInitData.data, data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
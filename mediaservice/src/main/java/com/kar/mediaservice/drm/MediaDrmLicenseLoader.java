@@ -0,0 +1,133 @@
+package com.kar.mediaservice.drm;
+
+import android.annotation.TargetApi;
+import android.media.MediaDrm;
+import android.media.NotProvisionedException;
+
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Loads and releases persistent licenses through a {@link MediaDrmCallback}, with a
+ * {@link MediaDrm} of its own. Licenses are loaded in a session that is closed once the license is
+ * stored by the CDM.
+ */
+@TargetApi(18)
+public final class MediaDrmLicenseLoader implements OfflineLicenseCache.LicenseLoader {
+
+    private static final String PROPERTY_LICENSE_DURATION_REMAINING = "LicenseDurationRemaining";
+
+    private final UUID mUuid;
+    private final MediaDrmCallback mCallback;
+    private final HashMap<String, String> mOptionalKeyRequestParameters;
+
+    /**
+     * @param uuid                          The UUID of the DRM scheme.
+     * @param callback                      Performs key and provisioning requests.
+     * @param optionalKeyRequestParameters  Passed to {@link MediaDrm#getKeyRequest}. May be null.
+     */
+    public MediaDrmLicenseLoader(UUID uuid, MediaDrmCallback callback,
+                                 HashMap<String, String> optionalKeyRequestParameters) {
+        mUuid = uuid;
+        mCallback = callback;
+        mOptionalKeyRequestParameters = optionalKeyRequestParameters;
+    }
+
+    @Override
+    public OfflineLicenseCache.License loadLicense(byte[] initData, String mimeType)
+            throws Exception {
+        MediaDrm mediaDrm = new MediaDrm(mUuid);
+        byte[] sessionId = null;
+        try {
+            sessionId = openSession(mediaDrm, mUuid, mCallback);
+            OfflineLicenseCache.License license = requestLicense(mediaDrm, sessionId, mUuid,
+                    mCallback, initData, mimeType, mOptionalKeyRequestParameters);
+            if (license == null) {
+                throw new IllegalStateException("License server returned a streaming license");
+            }
+            return license;
+        } finally {
+            if (sessionId != null) {
+                mediaDrm.closeSession(sessionId);
+            }
+            mediaDrm.release();
+        }
+    }
+
+    @Override
+    public void releaseLicense(byte[] keySetId) throws Exception {
+        MediaDrm mediaDrm = new MediaDrm(mUuid);
+        try {
+            releaseLicense(mediaDrm, mUuid, mCallback, keySetId, mOptionalKeyRequestParameters);
+        } finally {
+            mediaDrm.release();
+        }
+    }
+
+    /**
+     * Opens a session, provisioning the device first if necessary.
+     */
+    /* package */ static byte[] openSession(MediaDrm mediaDrm, UUID uuid,
+                                            MediaDrmCallback callback) throws Exception {
+        try {
+            return mediaDrm.openSession();
+        } catch (NotProvisionedException e) {
+            MediaDrm.ProvisionRequest request = mediaDrm.getProvisionRequest();
+            mediaDrm.provideProvisionResponse(callback.executeProvisionRequest(uuid, request));
+            return mediaDrm.openSession();
+        }
+    }
+
+    /**
+     * Requests a persistent license into an open session, whose keys are then usable by the session.
+     *
+     * @return The license, or null if the server returned a license that cannot be persisted.
+     */
+    /* package */ static OfflineLicenseCache.License requestLicense(MediaDrm mediaDrm,
+            byte[] sessionId, UUID uuid, MediaDrmCallback callback, byte[] initData,
+            String mimeType, HashMap<String, String> optionalKeyRequestParameters)
+            throws Exception {
+        MediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, initData, mimeType,
+                MediaDrm.KEY_TYPE_OFFLINE, optionalKeyRequestParameters);
+        byte[] keySetId = mediaDrm.provideKeyResponse(sessionId,
+                callback.executeKeyRequest(uuid, request));
+        if (keySetId == null || keySetId.length == 0) {
+            return null;
+        }
+        return new OfflineLicenseCache.License(keySetId, getExpiryTimeMs(mediaDrm, sessionId));
+    }
+
+    /**
+     * Asks the license server to release a persistent license, and removes its keys from the CDM.
+     */
+    /* package */ static void releaseLicense(MediaDrm mediaDrm, UUID uuid,
+            MediaDrmCallback callback, byte[] keySetId,
+            HashMap<String, String> optionalKeyRequestParameters) throws Exception {
+        MediaDrm.KeyRequest request = mediaDrm.getKeyRequest(keySetId, null, null,
+                MediaDrm.KEY_TYPE_RELEASE, optionalKeyRequestParameters);
+        mediaDrm.provideKeyResponse(keySetId, callback.executeKeyRequest(uuid, request));
+    }
+
+    private static long getExpiryTimeMs(MediaDrm mediaDrm, byte[] sessionId) {
+        Map<String, String> keyStatus = mediaDrm.queryKeyStatus(sessionId);
+        String remaining = keyStatus == null ? null
+                : keyStatus.get(PROPERTY_LICENSE_DURATION_REMAINING);
+        long remainingSeconds;
+        try {
+            remainingSeconds = remaining == null ? 0 : Long.parseLong(remaining);
+        } catch (NumberFormatException e) {
+            remainingSeconds = 0;
+        }
+        long nowMs = System.currentTimeMillis();
+        if (remainingSeconds >= (Long.MAX_VALUE - nowMs) / 1000) {
+            // Unlimited, or too far ahead to matter.
+            return Long.MAX_VALUE;
+        }
+        // A license without a known duration expires at once, so it is never reused.
+        return nowMs + Math.max(remainingSeconds, 0) * 1000;
+    }
+
+}
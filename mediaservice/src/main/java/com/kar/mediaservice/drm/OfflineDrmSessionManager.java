@@ -0,0 +1,321 @@
+package com.kar.mediaservice.drm;
+
+import android.annotation.TargetApi;
+import android.media.MediaCrypto;
+import android.media.MediaDrm;
+import android.media.UnsupportedSchemeException;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.KeysExpiredException;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.UnsupportedDrmException;
+import com.kar.mediaservice.upstream.UpstreamExecutor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * A {@link DrmSessionManager} that requests persistent licenses and keeps them in an
+ * {@link OfflineLicenseCache}, so that later sessions for the same content restore their keys
+ * from the CDM instead of requesting them from the license server.
+ * <p/>
+ * If a cached license can no longer be restored it is dropped and a new one is requested. If the
+ * license server only grants streaming licenses, playback proceeds as with
+ * {@link StreamingDrmSessionManager} and nothing is cached. As with
+ * {@link StreamingDrmSessionManager}, keys are requested again when the CDM requires them, and
+ * expired keys are reported as a {@link KeysExpiredException}, in which case the cached license is
+ * dropped.
+ */
+@TargetApi(18)
+public final class OfflineDrmSessionManager implements DrmSessionManager {
+
+    private static final String TAG = "OfflineDrmSessionManager";
+
+    public static final UUID WIDEVINE_UUID = StreamingDrmSessionManager.WIDEVINE_UUID;
+
+    private final UUID mUuid;
+    private final MediaDrm mMediaDrm;
+    private final MediaDrmCallback mCallback;
+    private final HashMap<String, String> mOptionalKeyRequestParameters;
+    private final OfflineLicenseCache mLicenseCache;
+    private final MediaDrmLicenseLoader mLicenseLoader;
+    private final Handler mEventHandler;
+    private final StreamingDrmSessionManager.EventListener mEventListener;
+
+    private volatile DrmSessionOpenedListener mSessionOpenedListener;
+    private int mOpenCount;
+    private int mOpenGeneration;
+    private volatile int mState;
+    private volatile MediaCrypto mMediaCrypto;
+    private volatile Exception mError;
+    private byte[] mSessionId;
+    private DrmInitData.SchemeInitData mSchemeInitData;
+
+    /**
+     * Instantiates a new instance using the Widevine scheme.
+     *
+     * @see #OfflineDrmSessionManager(UUID, MediaDrmCallback, HashMap, OfflineLicenseCache,
+     * Handler, StreamingDrmSessionManager.EventListener)
+     */
+    public static OfflineDrmSessionManager newWidevineInstance(MediaDrmCallback callback,
+            HashMap<String, String> optionalKeyRequestParameters, OfflineLicenseCache licenseCache,
+            Handler eventHandler, StreamingDrmSessionManager.EventListener eventListener)
+            throws UnsupportedDrmException {
+        return new OfflineDrmSessionManager(WIDEVINE_UUID, callback, optionalKeyRequestParameters,
+                licenseCache, eventHandler, eventListener);
+    }
+
+    /**
+     * @param uuid                         The UUID of the DRM scheme.
+     * @param callback                     Performs key and provisioning requests.
+     * @param optionalKeyRequestParameters Passed to {@link MediaDrm#getKeyRequest}. May be null.
+     * @param licenseCache                 The cache in which licenses are kept.
+     * @param eventHandler                 A handler to use when delivering events to
+     *                                     {@code eventListener}. May be null if delivery of
+     *                                     events is not required.
+     * @param eventListener                A listener of events. May be null.
+     * @throws UnsupportedDrmException If the scheme is not supported by the device.
+     */
+    public OfflineDrmSessionManager(UUID uuid, MediaDrmCallback callback,
+            HashMap<String, String> optionalKeyRequestParameters, OfflineLicenseCache licenseCache,
+            Handler eventHandler, StreamingDrmSessionManager.EventListener eventListener)
+            throws UnsupportedDrmException {
+        mUuid = uuid;
+        mCallback = callback;
+        mOptionalKeyRequestParameters = optionalKeyRequestParameters;
+        mLicenseCache = licenseCache;
+        mLicenseLoader = new MediaDrmLicenseLoader(uuid, callback, optionalKeyRequestParameters);
+        mEventHandler = eventHandler;
+        mEventListener = eventListener;
+        try {
+            mMediaDrm = new MediaDrm(uuid);
+        } catch (UnsupportedSchemeException e) {
+            throw new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME, e);
+        } catch (Exception e) {
+            throw new UnsupportedDrmException(UnsupportedDrmException.REASON_INSTANTIATION_ERROR, e);
+        }
+        mMediaDrm.setOnEventListener(new MediaDrmEventListener());
+        mState = STATE_CLOSED;
+    }
+
+    /**
+     * Sets a listener that is notified on a background thread once the session is open, before
+     * its license is restored or requested. Must be set before the session is opened.
+     */
+    public void setSessionOpenedListener(DrmSessionOpenedListener listener) {
+        mSessionOpenedListener = listener;
+    }
+
+    /**
+     * Provides access to {@link MediaDrm#getPropertyString(String)}.
+     */
+    public String getPropertyString(String key) {
+        return mMediaDrm.getPropertyString(key);
+    }
+
+    @Override
+    public synchronized void open(DrmInitData drmInitData) {
+        if (++mOpenCount != 1) {
+            return;
+        }
+        mError = null;
+        mState = STATE_OPENING;
+        final DrmInitData.SchemeInitData schemeInitData = drmInitData.get(mUuid);
+        if (schemeInitData == null) {
+            onError(mOpenGeneration,
+                    new IllegalStateException("Media does not support uuid: " + mUuid));
+            return;
+        }
+        mSchemeInitData = schemeInitData;
+        final int generation = mOpenGeneration;
+        UpstreamExecutor.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                openSessionAndLoadKeys(generation, schemeInitData);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        if (--mOpenCount != 0) {
+            return;
+        }
+        mOpenGeneration++;
+        mState = STATE_CLOSED;
+        mMediaCrypto = null;
+        mError = null;
+        mSchemeInitData = null;
+        if (mSessionId != null) {
+            mMediaDrm.closeSession(mSessionId);
+            mSessionId = null;
+        }
+    }
+
+    @Override
+    public int getState() {
+        return mState;
+    }
+
+    @Override
+    public MediaCrypto getMediaCrypto() {
+        if (mState != STATE_OPENED && mState != STATE_OPENED_WITH_KEYS) {
+            throw new IllegalStateException();
+        }
+        return mMediaCrypto;
+    }
+
+    @Override
+    public boolean requiresSecureDecoderComponent(String mimeType) {
+        if (mState != STATE_OPENED && mState != STATE_OPENED_WITH_KEYS) {
+            throw new IllegalStateException();
+        }
+        return mMediaCrypto.requiresSecureDecoderComponent(mimeType);
+    }
+
+    @Override
+    public Exception getError() {
+        return mState == STATE_ERROR ? mError : null;
+    }
+
+    private void openSessionAndLoadKeys(int generation, DrmInitData.SchemeInitData schemeInitData) {
+        byte[] sessionId;
+        try {
+            sessionId = MediaDrmLicenseLoader.openSession(mMediaDrm, mUuid, mCallback);
+            MediaCrypto mediaCrypto = new MediaCrypto(mUuid, sessionId);
+            synchronized (this) {
+                if (generation != mOpenGeneration) {
+                    mMediaDrm.closeSession(sessionId);
+                    return;
+                }
+                mSessionId = sessionId;
+                mMediaCrypto = mediaCrypto;
+                mState = STATE_OPENED;
+            }
+        } catch (Exception e) {
+            onError(generation, e);
+            return;
+        }
+        DrmSessionOpenedListener sessionOpenedListener = mSessionOpenedListener;
+        if (sessionOpenedListener != null) {
+            sessionOpenedListener.onDrmSessionOpened();
+        }
+
+        byte[] initData = schemeInitData.data;
+        byte[] keySetId = mLicenseCache.getKeySetId(initData, mLicenseLoader);
+        if (keySetId != null) {
+            try {
+                mMediaDrm.restoreKeys(sessionId, keySetId);
+                onKeysLoaded(generation);
+                return;
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to restore cached license", e);
+                mLicenseCache.removeLicense(initData, mLicenseLoader);
+            }
+        }
+        requestKeys(generation, sessionId, schemeInitData);
+    }
+
+    /**
+     * Requests a license into the open session, caching it if it is persistent.
+     */
+    private void requestKeys(int generation, byte[] sessionId,
+                             DrmInitData.SchemeInitData schemeInitData) {
+        try {
+            OfflineLicenseCache.License license = MediaDrmLicenseLoader.requestLicense(mMediaDrm,
+                    sessionId, mUuid, mCallback, schemeInitData.data, schemeInitData.mimeType,
+                    mOptionalKeyRequestParameters);
+            if (license != null) {
+                mLicenseCache.putLicense(schemeInitData.data, license, mLicenseLoader);
+            }
+            onKeysLoaded(generation);
+        } catch (Exception e) {
+            onError(generation, e);
+        }
+    }
+
+    private void onKeysLoaded(int generation) {
+        synchronized (this) {
+            if (generation != mOpenGeneration) {
+                return;
+            }
+            mState = STATE_OPENED_WITH_KEYS;
+        }
+        if (mEventHandler != null && mEventListener != null) {
+            mEventHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mEventListener.onDrmKeysLoaded();
+                }
+            });
+        }
+    }
+
+    private void onError(int generation, final Exception e) {
+        synchronized (this) {
+            if (generation != mOpenGeneration) {
+                return;
+            }
+            mError = e;
+            mState = STATE_ERROR;
+        }
+        if (mEventHandler != null && mEventListener != null) {
+            mEventHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mEventListener.onDrmSessionManagerError(e);
+                }
+            });
+        }
+    }
+
+    private final class MediaDrmEventListener implements MediaDrm.OnEventListener {
+
+        @Override
+        public void onEvent(MediaDrm mediaDrm, byte[] sessionId, int event, int extra,
+                            byte[] data) {
+            if (event != MediaDrm.EVENT_KEY_REQUIRED && event != MediaDrm.EVENT_KEY_EXPIRED) {
+                return;
+            }
+            final int generation;
+            final byte[] openSessionId;
+            final DrmInitData.SchemeInitData schemeInitData;
+            synchronized (OfflineDrmSessionManager.this) {
+                if (mOpenCount == 0
+                        || (mState != STATE_OPENED && mState != STATE_OPENED_WITH_KEYS)
+                        || (sessionId != null && !Arrays.equals(sessionId, mSessionId))) {
+                    return;
+                }
+                generation = mOpenGeneration;
+                openSessionId = mSessionId;
+                schemeInitData = mSchemeInitData;
+                if (event == MediaDrm.EVENT_KEY_EXPIRED) {
+                    mState = STATE_OPENED;
+                }
+            }
+            if (event == MediaDrm.EVENT_KEY_REQUIRED) {
+                UpstreamExecutor.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestKeys(generation, openSessionId, schemeInitData);
+                    }
+                });
+            } else {
+                onError(generation, new KeysExpiredException());
+                UpstreamExecutor.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLicenseCache.removeLicense(schemeInitData.data, mLicenseLoader);
+                    }
+                });
+            }
+        }
+
+    }
+
+}
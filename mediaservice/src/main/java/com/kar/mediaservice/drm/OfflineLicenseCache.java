@@ -0,0 +1,351 @@
+package com.kar.mediaservice.drm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.kar.mediaservice.upstream.UpstreamExecutor;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A cache of persistent (offline) DRM licenses, keyed by the scheme init data (PSSH box) of the
+ * content they unlock, that lets protected playback restore its keys without a round trip to the
+ * license server.
+ * <p/>
+ * Each entry holds the key set id returned by {@link android.media.MediaDrm#provideKeyResponse}
+ * and the wall clock time at which the license expires. Entries that expire within
+ * {@link #MIN_REMAINING_MS} are not returned. Concurrent requests for the same init data share a
+ * single license load.
+ * <p/>
+ * Licenses that are dropped, because they expire, are replaced or are removed, are released with
+ * their {@link LicenseLoader} so that the CDM does not keep their keys.
+ */
+public final class OfflineLicenseCache {
+
+    /**
+     * Persists cache entries as strings.
+     */
+    public interface Store {
+
+        String get(String key);
+
+        void put(String key, String value);
+
+        void remove(String key);
+
+    }
+
+    /**
+     * Loads persistent licenses from the license server, and releases them.
+     */
+    public interface LicenseLoader {
+
+        /**
+         * Requests a persistent license for the given init data. Called on a background thread.
+         */
+        License loadLicense(byte[] initData, String mimeType) throws Exception;
+
+        /**
+         * Releases the persistent license with the given key set id. Called on the thread that
+         * dropped the license.
+         */
+        void releaseLicense(byte[] keySetId) throws Exception;
+
+    }
+
+    /**
+     * A persistent license.
+     */
+    public static final class License {
+
+        public final byte[] keySetId;
+        public final long expiryTimeMs;
+
+        /**
+         * @param keySetId     The key set id with which the keys can be restored.
+         * @param expiryTimeMs The {@link System#currentTimeMillis()} time at which the license
+         *                     expires, or {@link Long#MAX_VALUE} if it does not.
+         */
+        public License(byte[] keySetId, long expiryTimeMs) {
+            this.keySetId = keySetId;
+            this.expiryTimeMs = expiryTimeMs;
+        }
+
+    }
+
+    private static final String TAG = "OfflineLicenseCache";
+
+    public static final long MIN_REMAINING_MS = 60000;
+
+    private static final String PREFS_NAME = "media_offline_licenses";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static OfflineLicenseCache sInstance;
+
+    private final Store mStore;
+    private final Map<String, License> mLicenses;
+    private final Map<String, FutureTask<License>> mPendingLoads;
+
+    public OfflineLicenseCache(Store store) {
+        mStore = store;
+        mLicenses = new HashMap<>();
+        mPendingLoads = new HashMap<>();
+    }
+
+    /**
+     * Returns the process wide cache, persisted to {@link SharedPreferences}, creating it if
+     * necessary.
+     *
+     * @param ctx Any context. Only the application context is retained.
+     */
+    public static synchronized OfflineLicenseCache getInstance(Context ctx) {
+        if (sInstance == null) {
+            final SharedPreferences prefs = ctx.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            sInstance = new OfflineLicenseCache(new Store() {
+                @Override
+                public String get(String key) {
+                    return prefs.getString(key, null);
+                }
+
+                @Override
+                public void put(String key, String value) {
+                    prefs.edit().putString(key, value).apply();
+                }
+
+                @Override
+                public void remove(String key) {
+                    prefs.edit().remove(key).apply();
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the key set id of a usable license for {@code initData}, or null if there is none.
+     * If a license for {@code initData} is being loaded, waits for the load to finish.
+     *
+     * @param loader Releases the stored license if it has expired.
+     */
+    public byte[] getKeySetId(byte[] initData, LicenseLoader loader) {
+        String key = getKey(initData);
+        FutureTask<License> pendingLoad;
+        synchronized (this) {
+            pendingLoad = mPendingLoads.get(key);
+        }
+        if (pendingLoad != null) {
+            try {
+                pendingLoad.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Fall through to the stored entry, if any.
+            }
+        }
+        List<License> droppedLicenses = new ArrayList<>();
+        License license;
+        synchronized (this) {
+            license = getLicense(key, droppedLicenses);
+        }
+        releaseLicenses(droppedLicenses, loader);
+        return license == null ? null : license.keySetId;
+    }
+
+    /**
+     * Stores a license for {@code initData}, replacing and releasing any previous one.
+     */
+    public void putLicense(byte[] initData, License license, LicenseLoader loader) {
+        String key = getKey(initData);
+        License previousLicense;
+        synchronized (this) {
+            previousLicense = getStoredLicense(key);
+            mLicenses.put(key, license);
+            mStore.put(key, license.expiryTimeMs + ":" + toHex(license.keySetId));
+        }
+        if (previousLicense != null
+                && !Arrays.equals(previousLicense.keySetId, license.keySetId)) {
+            releaseLicense(previousLicense, loader);
+        }
+    }
+
+    /**
+     * Removes and releases the license for {@code initData}, for example because its keys could
+     * not be restored or have expired.
+     */
+    public void removeLicense(byte[] initData, LicenseLoader loader) {
+        String key = getKey(initData);
+        License license;
+        synchronized (this) {
+            license = getStoredLicense(key);
+            mLicenses.remove(key);
+            mStore.remove(key);
+        }
+        if (license != null) {
+            releaseLicense(license, loader);
+        }
+    }
+
+    /**
+     * Returns the key set id of a usable license for {@code initData}, loading the license with
+     * {@code loader} and storing it if necessary. Blocks until the license is available.
+     *
+     * @throws Exception If the license could not be loaded.
+     */
+    public byte[] getOrLoadKeySetId(final byte[] initData, final String mimeType,
+                                    final LicenseLoader loader) throws Exception {
+        String key = getKey(initData);
+        FutureTask<License> load;
+        boolean loadOnThisThread = false;
+        List<License> droppedLicenses = new ArrayList<>();
+        synchronized (this) {
+            License license = getLicense(key, droppedLicenses);
+            if (license != null) {
+                return license.keySetId;
+            }
+            load = mPendingLoads.get(key);
+            if (load == null) {
+                load = new FutureTask<>(new Callable<License>() {
+                    @Override
+                    public License call() throws Exception {
+                        License license = loader.loadLicense(initData, mimeType);
+                        putLicense(initData, license, loader);
+                        return license;
+                    }
+                });
+                mPendingLoads.put(key, load);
+                loadOnThisThread = true;
+            }
+        }
+        releaseLicenses(droppedLicenses, loader);
+        if (loadOnThisThread) {
+            try {
+                load.run();
+            } finally {
+                synchronized (this) {
+                    mPendingLoads.remove(key);
+                }
+            }
+        }
+        try {
+            return load.get().keySetId;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Loads and stores a license for {@code initData} in the background, unless a usable one is
+     * already stored. Used to remove the license round trip from the start of upcoming titles.
+     */
+    public Future<?> prefetch(final byte[] initData, final String mimeType,
+                              final LicenseLoader loader) {
+        return UpstreamExecutor.getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getOrLoadKeySetId(initData, mimeType, loader);
+                } catch (Exception e) {
+                    Log.w(TAG, "License prefetch failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the usable license stored for {@code key}, or null. A license that expires too soon
+     * is removed and added to {@code droppedLicenses}, to be released outside the lock.
+     */
+    private synchronized License getLicense(String key, List<License> droppedLicenses) {
+        License license = getStoredLicense(key);
+        if (license != null
+                && license.expiryTimeMs - System.currentTimeMillis() < MIN_REMAINING_MS) {
+            mLicenses.remove(key);
+            mStore.remove(key);
+            droppedLicenses.add(license);
+            return null;
+        }
+        return license;
+    }
+
+    private synchronized License getStoredLicense(String key) {
+        License license = mLicenses.get(key);
+        if (license == null) {
+            license = parseLicense(mStore.get(key));
+            if (license != null) {
+                mLicenses.put(key, license);
+            }
+        }
+        return license;
+    }
+
+    private static void releaseLicenses(List<License> licenses, LicenseLoader loader) {
+        for (int i = 0; i < licenses.size(); i++) {
+            releaseLicense(licenses.get(i), loader);
+        }
+    }
+
+    private static void releaseLicense(License license, LicenseLoader loader) {
+        try {
+            loader.releaseLicense(license.keySetId);
+        } catch (Exception e) {
+            // The keys stay in the CDM's storage until it purges them, nothing else to do.
+            Log.w(TAG, "Failed to release license", e);
+        }
+    }
+
+    private static License parseLicense(String value) {
+        int separator = value == null ? -1 : value.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new License(fromHex(value.substring(separator + 1)),
+                    Long.parseLong(value.substring(0, separator)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String getKey(byte[] initData) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(initData));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new NumberFormatException(hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.kar.mediaservice.drm;
+
+import android.media.MediaCrypto;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+
+/**
+ * Wraps a {@link DrmSessionManager} that opens its session synchronously, such as
+ * {@link com.google.android.exoplayer.drm.StreamingDrmSessionManager}, and notifies a
+ * {@link DrmSessionOpenedListener} the first time the session is seen open.
+ * <p/>
+ * The state is checked when the session is opened and whenever it is queried, which renderers do
+ * on every iteration of their work loop, so sessions that are only opened after provisioning are
+ * reported too.
+ */
+public final class OpenNotifyingDrmSessionManager implements DrmSessionManager {
+
+    private final DrmSessionManager mDrmSessionManager;
+    private final DrmSessionOpenedListener mListener;
+
+    private volatile boolean mNotified;
+
+    public OpenNotifyingDrmSessionManager(DrmSessionManager drmSessionManager,
+            DrmSessionOpenedListener listener) {
+        mDrmSessionManager = drmSessionManager;
+        mListener = listener;
+    }
+
+    @Override
+    public void open(DrmInitData drmInitData) {
+        mDrmSessionManager.open(drmInitData);
+        maybeNotifyOpened(mDrmSessionManager.getState());
+    }
+
+    @Override
+    public void close() {
+        mDrmSessionManager.close();
+    }
+
+    @Override
+    public int getState() {
+        int state = mDrmSessionManager.getState();
+        maybeNotifyOpened(state);
+        return state;
+    }
+
+    @Override
+    public MediaCrypto getMediaCrypto() {
+        return mDrmSessionManager.getMediaCrypto();
+    }
+
+    @Override
+    public boolean requiresSecureDecoderComponent(String mimeType) {
+        return mDrmSessionManager.requiresSecureDecoderComponent(mimeType);
+    }
+
+    @Override
+    public Exception getError() {
+        return mDrmSessionManager.getError();
+    }
+
+    private void maybeNotifyOpened(int state) {
+        if (!mNotified && (state == STATE_OPENED || state == STATE_OPENED_WITH_KEYS)) {
+            mNotified = true;
+            mListener.onDrmSessionOpened();
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.kar.mediaservice.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A fixed size ring buffer of player events, kept as primitives so that recording neither formats
+ * strings nor allocates, and dumped in a compact binary form when something goes wrong.
+ * <p/>
+ * Each entry holds an EVENT_* type, a {@link System#nanoTime()} timestamp, two int fields and
+ * three long fields whose meaning depends on the type, as documented on each constant. Once full,
+ * the oldest entries are overwritten.
+ * <p/>
+ * The dump starts with the {@link #MAGIC} int, a version byte and the entry count as an int,
+ * followed by the entries from oldest to newest, each as a type byte, the timestamp long, the two
+ * ints and the three longs, all big endian.
+ */
+public final class EventTrace {
+
+    public static final int MAGIC = 0x4D535452;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** ints: playWhenReady (0 or 1), state. */
+    public static final int EVENT_STATE_CHANGED = 1;
+    /** ints: sourceId, type. longs: length, mediaStartTimeMs, mediaEndTimeMs. */
+    public static final int EVENT_LOAD_STARTED = 2;
+    /** ints: sourceId, type. longs: bytesLoaded, loadDurationMs, mediaStartTimeMs. */
+    public static final int EVENT_LOAD_COMPLETED = 3;
+    /** ints: sourceId. longs: bytesLoaded. */
+    public static final int EVENT_LOAD_CANCELED = 4;
+    /** ints: sourceId. */
+    public static final int EVENT_LOAD_ERROR = 5;
+    /** ints: sourceId, trigger. longs: bitrate, mediaTimeMs, height. */
+    public static final int EVENT_FORMAT_CHANGED = 6;
+    /** ints: elapsedMs. longs: bytes, bitrateEstimate. */
+    public static final int EVENT_BANDWIDTH_SAMPLE = 7;
+    /** ints: bufferSize. longs: bufferSizeMs, elapsedSinceLastFeedMs. */
+    public static final int EVENT_AUDIO_UNDERRUN = 8;
+    /** ints: count. longs: elapsedMs. */
+    public static final int EVENT_DROPPED_FRAMES = 9;
+    /** longs: positionMs. */
+    public static final int EVENT_SEEK = 10;
+    /** ints: sourceId. longs: mediaStartTimeMs, mediaEndTimeMs. */
+    public static final int EVENT_UPSTREAM_DISCARDED = 11;
+    /** longs: initializationDurationMs. */
+    public static final int EVENT_DECODER_INITIALIZED = 12;
+    public static final int EVENT_DRM_KEYS_LOADED = 13;
+    public static final int EVENT_DRM_ERROR = 14;
+    public static final int EVENT_CRYPTO_ERROR = 15;
+    public static final int EVENT_DECODER_ERROR = 16;
+    public static final int EVENT_AUDIO_TRACK_ERROR = 17;
+    public static final int EVENT_RENDERERS_ERROR = 18;
+    public static final int EVENT_PLAYER_ERROR = 19;
+    /** ints: frameCount. */
+    public static final int EVENT_ID3_METADATA = 20;
+    public static final int EVENT_DRAWN_TO_SURFACE = 21;
+
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 1 + 8 + 2 * 4 + 3 * 8;
+
+    private final int mCapacity;
+    private final byte[] mTypes;
+    private final long[] mTimesNs;
+    private final int[] mInts;
+    private final long[] mLongs;
+
+    private int mNextIndex;
+    private int mSize;
+
+    public EventTrace() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EventTrace(int capacity) {
+        mCapacity = capacity;
+        mTypes = new byte[capacity];
+        mTimesNs = new long[capacity];
+        mInts = new int[capacity * 2];
+        mLongs = new long[capacity * 3];
+    }
+
+    public void record(int type) {
+        record(type, 0, 0, 0, 0, 0);
+    }
+
+    public void record(int type, int int0) {
+        record(type, int0, 0, 0, 0, 0);
+    }
+
+    public synchronized void record(int type, int int0, int int1, long long0, long long1,
+                                    long long2) {
+        int index = mNextIndex;
+        mTypes[index] = (byte) type;
+        mTimesNs[index] = System.nanoTime();
+        mInts[index * 2] = int0;
+        mInts[index * 2 + 1] = int1;
+        mLongs[index * 3] = long0;
+        mLongs[index * 3 + 1] = long1;
+        mLongs[index * 3 + 2] = long2;
+        mNextIndex = index + 1 == mCapacity ? 0 : index + 1;
+        if (mSize < mCapacity) {
+            mSize++;
+        }
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized void clear() {
+        mNextIndex = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Writes the entries, oldest first, in the format described in the class documentation.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(toByteArray());
+    }
+
+    /**
+     * Returns the entries, oldest first, in the format described in the class documentation.
+     */
+    public synchronized byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9 + mSize * ENTRY_SIZE);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(mSize);
+            int index = mSize < mCapacity ? 0 : mNextIndex;
+            for (int i = 0; i < mSize; i++) {
+                output.writeByte(mTypes[index]);
+                output.writeLong(mTimesNs[index]);
+                output.writeInt(mInts[index * 2]);
+                output.writeInt(mInts[index * 2 + 1]);
+                output.writeLong(mLongs[index * 3]);
+                output.writeLong(mLongs[index * 3 + 1]);
+                output.writeLong(mLongs[index * 3 + 2]);
+                index = index + 1 == mCapacity ? 0 : index + 1;
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+}
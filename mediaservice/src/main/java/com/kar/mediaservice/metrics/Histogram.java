@@ -0,0 +1,161 @@
+package com.kar.mediaservice.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram over fixed buckets that can be recorded into from any thread without locking or
+ * allocating, and read as a {@link Snapshot}.
+ * <p/>
+ * Bucket {@code i} counts values {@code v} with {@code upperBounds[i - 1] < v <= upperBounds[i]}.
+ * A final overflow bucket counts values above the last bound. Percentiles are estimated as the
+ * upper bound of the bucket in which they fall, or the maximum recorded value for the overflow
+ * bucket.
+ */
+public final class Histogram {
+
+    private final long[] mUpperBounds;
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mSum;
+    private final AtomicLong mMax;
+
+    /**
+     * @param upperBounds The inclusive upper bound of each bucket, in increasing order.
+     */
+    public Histogram(long[] upperBounds) {
+        mUpperBounds = upperBounds.clone();
+        mCounts = new AtomicLongArray(upperBounds.length + 1);
+        mSum = new AtomicLong();
+        mMax = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns a histogram whose bucket bounds start at {@code firstBound} and grow by
+     * {@code factor}.
+     */
+    public static Histogram exponential(long firstBound, double factor, int bucketCount) {
+        long[] upperBounds = new long[bucketCount];
+        double bound = firstBound;
+        for (int i = 0; i < bucketCount; i++) {
+            upperBounds[i] = i == 0 ? firstBound : Math.max((long) bound, upperBounds[i - 1] + 1);
+            bound *= factor;
+        }
+        return new Histogram(upperBounds);
+    }
+
+    public void record(long value) {
+        int index = Arrays.binarySearch(mUpperBounds, value);
+        mCounts.incrementAndGet(index >= 0 ? index : -index - 1);
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns a copy of the histogram's current state. Values recorded while the copy is taken may
+     * be partially included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(mUpperBounds, counts, mSum.get(), mMax.get());
+    }
+
+    /**
+     * An immutable copy of a {@link Histogram}.
+     */
+    public static final class Snapshot {
+
+        private final long[] mUpperBounds;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Snapshot(long[] upperBounds, long[] counts, long sum, long max) {
+            mUpperBounds = upperBounds;
+            mCounts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * Returns the largest recorded value, or 0 if none was recorded.
+         */
+        public long getMax() {
+            return mCount == 0 ? 0 : mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * Returns an estimate of the given percentile, e.g. 0.95, or 0 if no value was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(percentile * mCount), 1);
+            long cumulative = 0;
+            for (int i = 0; i < mUpperBounds.length; i++) {
+                cumulative += mCounts[i];
+                if (cumulative >= rank) {
+                    return Math.min(mUpperBounds[i], getMax());
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Returns the number of values in bucket {@code index}, where the last index is the
+         * overflow bucket.
+         */
+        public long getCountInBucket(int index) {
+            return mCounts[index];
+        }
+
+        public int getBucketCount() {
+            return mCounts.length;
+        }
+
+        public long getUpperBound(int index) {
+            return index < mUpperBounds.length ? mUpperBounds[index] : Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", p50=" + getPercentile(0.5) + ", p95="
+                    + getPercentile(0.95) + ", p99=" + getPercentile(0.99) + ", max=" + getMax();
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and {@link Histogram}s of playback hot path events, updated from
+ * {@link MediaSDKService}'s callbacks without locking or allocating, and readable as a
+ * {@link Snapshot} from any thread.
+ */
+public final class MetricsRegistry {
+
+    public static final int COUNTER_LOADS_COMPLETED = 0;
+    public static final int COUNTER_LOAD_ERRORS = 1;
+    public static final int COUNTER_BYTES_LOADED = 2;
+    public static final int COUNTER_DROPPED_FRAMES = 3;
+    public static final int COUNTER_AUDIO_UNDERRUNS = 4;
+
+    /** Chunk load durations, in milliseconds. */
+    public static final int HISTOGRAM_LOAD_DURATION_MS = 0;
+    /** Bandwidth samples, in kilobits per second. */
+    public static final int HISTOGRAM_THROUGHPUT_KBPS = 1;
+    /** Loaded chunk sizes, in bytes. */
+    public static final int HISTOGRAM_CHUNK_SIZE_BYTES = 2;
+    /** Frames dropped per report from the video renderer. */
+    public static final int HISTOGRAM_DROPPED_FRAMES = 3;
+    /** Time since the audio track was last fed when it underran, in milliseconds. */
+    public static final int HISTOGRAM_UNDERRUN_GAP_MS = 4;
+
+    private static final int COUNTER_COUNT = 5;
+    private static final int HISTOGRAM_COUNT = 5;
+    private static final String[] COUNTER_NAMES = new String[] {"loadsCompleted", "loadErrors",
+            "bytesLoaded", "droppedFrames", "audioUnderruns"};
+    private static final String[] HISTOGRAM_NAMES = new String[] {"loadDurationMs",
+            "throughputKbps", "chunkSizeBytes", "droppedFrames", "underrunGapMs"};
+
+    private final AtomicLongArray mCounters;
+    private final Histogram[] mHistograms;
+
+    public MetricsRegistry() {
+        mCounters = new AtomicLongArray(COUNTER_COUNT);
+        mHistograms = new Histogram[HISTOGRAM_COUNT];
+        mHistograms[HISTOGRAM_LOAD_DURATION_MS] = Histogram.exponential(10, 1.5, 20);
+        mHistograms[HISTOGRAM_THROUGHPUT_KBPS] = Histogram.exponential(100, 1.5, 24);
+        mHistograms[HISTOGRAM_CHUNK_SIZE_BYTES] = Histogram.exponential(4 * 1024, 2, 14);
+        mHistograms[HISTOGRAM_DROPPED_FRAMES] = Histogram.exponential(1, 2, 10);
+        mHistograms[HISTOGRAM_UNDERRUN_GAP_MS] = Histogram.exponential(10, 2, 12);
+    }
+
+    public void onLoadCompleted(long bytesLoaded, long loadDurationMs) {
+        mCounters.incrementAndGet(COUNTER_LOADS_COMPLETED);
+        mCounters.addAndGet(COUNTER_BYTES_LOADED, bytesLoaded);
+        mHistograms[HISTOGRAM_LOAD_DURATION_MS].record(loadDurationMs);
+        mHistograms[HISTOGRAM_CHUNK_SIZE_BYTES].record(bytesLoaded);
+    }
+
+    public void onLoadError() {
+        mCounters.incrementAndGet(COUNTER_LOAD_ERRORS);
+    }
+
+    public void onBandwidthSample(int elapsedMs, long bytes) {
+        if (elapsedMs > 0) {
+            mHistograms[HISTOGRAM_THROUGHPUT_KBPS].record(bytes * 8 / elapsedMs);
+        }
+    }
+
+    public void onDroppedFrames(int count) {
+        mCounters.addAndGet(COUNTER_DROPPED_FRAMES, count);
+        mHistograms[HISTOGRAM_DROPPED_FRAMES].record(count);
+    }
+
+    public void onAudioTrackUnderrun(long elapsedSinceLastFeedMs) {
+        mCounters.incrementAndGet(COUNTER_AUDIO_UNDERRUNS);
+        mHistograms[HISTOGRAM_UNDERRUN_GAP_MS].record(elapsedSinceLastFeedMs);
+    }
+
+    /**
+     * Clears all counters and histograms.
+     */
+    public void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            mCounters.set(i, 0);
+        }
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns a copy of the registry's current state.
+     */
+    public Snapshot snapshot() {
+        long[] counters = new long[COUNTER_COUNT];
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        Histogram.Snapshot[] histograms = new Histogram.Snapshot[HISTOGRAM_COUNT];
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histograms[i] = mHistograms[i].snapshot();
+        }
+        return new Snapshot(counters, histograms);
+    }
+
+    /**
+     * An immutable copy of a {@link MetricsRegistry}.
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounters;
+        private final Histogram.Snapshot[] mHistograms;
+
+        private Snapshot(long[] counters, Histogram.Snapshot[] histograms) {
+            mCounters = counters;
+            mHistograms = histograms;
+        }
+
+        /**
+         * @param counter One of the COUNTER_* constants.
+         */
+        public long getCounter(int counter) {
+            return mCounters[counter];
+        }
+
+        /**
+         * @param histogram One of the HISTOGRAM_* constants.
+         */
+        public Histogram.Snapshot getHistogram(int histogram) {
+            return mHistograms[histogram];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Metrics[");
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                builder.append(COUNTER_NAMES[i]).append('=').append(mCounters[i]).append(", ");
+            }
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                builder.append(HISTOGRAM_NAMES[i]).append("={").append(mHistograms[i])
+                        .append("}, ");
+            }
+            builder.setLength(builder.length() - 2);
+            return builder.append(']').toString();
+        }
+
+    }
+
+}
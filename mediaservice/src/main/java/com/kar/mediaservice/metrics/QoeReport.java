@@ -0,0 +1,153 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The quality of experience figures of one playback session, as aggregated by
+ * {@link QoeSession}, with compact JSON and binary encodings for upload.
+ */
+public final class QoeReport {
+
+    public static final long TIME_UNSET = -1;
+
+    private static final int BINARY_VERSION = 1;
+
+    /** The time from {@link MediaSDKService#prepare()} to the end of the session. */
+    public final long sessionDurationMs;
+    /** The time from {@link MediaSDKService#prepare()} until playback started, or TIME_UNSET. */
+    public final long joinTimeMs;
+    /** The time spent playing. */
+    public final long playTimeMs;
+    /** The number of times playback stalled, excluding joining and seeking. */
+    public final int rebufferCount;
+    /** The time spent stalled, excluding joining and seeking. */
+    public final long rebufferTimeMs;
+    /** The average bitrate of the video played, weighted by the time each format played. */
+    public final long averageBitrate;
+    /** The number of video format switches. */
+    public final int switchCount;
+    /** The number of video frames dropped. */
+    public final long droppedFrames;
+    /** The bytes loaded, indexed by {@link MediaSDKService} TYPE_* constants. */
+    public final long[] bytesLoaded;
+
+    public QoeReport(long sessionDurationMs, long joinTimeMs, long playTimeMs, int rebufferCount,
+                     long rebufferTimeMs, long averageBitrate, int switchCount,
+                     long droppedFrames, long[] bytesLoaded) {
+        this.sessionDurationMs = sessionDurationMs;
+        this.joinTimeMs = joinTimeMs;
+        this.playTimeMs = playTimeMs;
+        this.rebufferCount = rebufferCount;
+        this.rebufferTimeMs = rebufferTimeMs;
+        this.averageBitrate = averageBitrate;
+        this.switchCount = switchCount;
+        this.droppedFrames = droppedFrames;
+        this.bytesLoaded = bytesLoaded;
+    }
+
+    /**
+     * Returns the fraction of the time after joining spent stalled rather than playing.
+     */
+    public float getRebufferRatio() {
+        long totalMs = playTimeMs + rebufferTimeMs;
+        return totalMs == 0 ? 0 : (float) rebufferTimeMs / totalMs;
+    }
+
+    /**
+     * Returns the number of frames dropped per minute of playback.
+     */
+    public float getDroppedFramesPerMinute() {
+        return playTimeMs == 0 ? 0 : droppedFrames * 60000f / playTimeMs;
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("{\"sessionMs\":").append(sessionDurationMs)
+                .append(",\"joinMs\":").append(joinTimeMs)
+                .append(",\"playMs\":").append(playTimeMs)
+                .append(",\"rebuffers\":").append(rebufferCount)
+                .append(",\"rebufferMs\":").append(rebufferTimeMs)
+                .append(",\"rebufferRatio\":")
+                .append(String.format(Locale.US, "%.4f", getRebufferRatio()))
+                .append(",\"avgBitrate\":").append(averageBitrate)
+                .append(",\"switches\":").append(switchCount)
+                .append(",\"droppedFrames\":").append(droppedFrames)
+                .append(",\"droppedPerMin\":")
+                .append(String.format(Locale.US, "%.2f", getDroppedFramesPerMinute()))
+                .append(",\"bytes\":[");
+        for (int i = 0; i < bytesLoaded.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(bytesLoaded[i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    /**
+     * Returns the report in a versioned binary encoding, readable by {@link #fromByteArray}.
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * bytesLoaded.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeByte(BINARY_VERSION);
+            output.writeLong(sessionDurationMs);
+            output.writeLong(joinTimeMs);
+            output.writeLong(playTimeMs);
+            output.writeInt(rebufferCount);
+            output.writeLong(rebufferTimeMs);
+            output.writeLong(averageBitrate);
+            output.writeInt(switchCount);
+            output.writeLong(droppedFrames);
+            output.writeByte(bytesLoaded.length);
+            for (long trackBytes : bytesLoaded) {
+                output.writeLong(trackBytes);
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a report encoded by {@link #toByteArray()}.
+     *
+     * @throws IOException If the data is truncated or of an unknown version.
+     */
+    public static QoeReport fromByteArray(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        int version = input.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        long sessionDurationMs = input.readLong();
+        long joinTimeMs = input.readLong();
+        long playTimeMs = input.readLong();
+        int rebufferCount = input.readInt();
+        long rebufferTimeMs = input.readLong();
+        long averageBitrate = input.readLong();
+        int switchCount = input.readInt();
+        long droppedFrames = input.readLong();
+        long[] bytesLoaded = new long[input.readUnsignedByte()];
+        for (int i = 0; i < bytesLoaded.length; i++) {
+            bytesLoaded[i] = input.readLong();
+        }
+        return new QoeReport(sessionDurationMs, joinTimeMs, playTimeMs, rebufferCount,
+                rebufferTimeMs, averageBitrate, switchCount, droppedFrames, bytesLoaded);
+    }
+
+    @Override
+    public String toString() {
+        return "QoeReport" + toJson();
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the quality of experience of a playback session from the player's state, format,
+ * dropped frame and load events into a {@link QoeReport}.
+ * <p/>
+ * All times are {@link android.os.SystemClock#elapsedRealtime()} milliseconds, passed in by the
+ * caller. Playing time is time in the ready state with play when ready set. A stall is time in the
+ * buffering state with play when ready set after playback has started, other than the buffering
+ * that follows a seek.
+ */
+public final class QoeSession {
+
+    private static final int BITRATE_UNSET = -1;
+
+    private final long[] mBytesLoaded;
+
+    private boolean mActive;
+    private long mPrepareTimeMs;
+    private long mEndTimeMs;
+    private long mLastUpdateTimeMs;
+    private long mJoinTimeMs;
+    private boolean mPlaying;
+    private boolean mRebuffering;
+    private boolean mSeeking;
+    private long mPlayTimeMs;
+    private long mRebufferTimeMs;
+    private int mRebufferCount;
+    private String mVideoFormatId;
+    private int mVideoBitrate;
+    private long mBitrateTimeProduct;
+    private long mBitrateTimeMs;
+    private int mSwitchCount;
+    private long mDroppedFrames;
+
+    public QoeSession() {
+        mBytesLoaded = new long[MediaSDKService.RENDERER_COUNT];
+    }
+
+    /**
+     * Starts a new session, discarding the figures of any previous one.
+     */
+    public synchronized void start(long nowMs) {
+        mActive = true;
+        mPrepareTimeMs = nowMs;
+        mLastUpdateTimeMs = nowMs;
+        mJoinTimeMs = QoeReport.TIME_UNSET;
+        mPlaying = false;
+        mRebuffering = false;
+        mSeeking = false;
+        mPlayTimeMs = 0;
+        mRebufferTimeMs = 0;
+        mRebufferCount = 0;
+        mVideoFormatId = null;
+        mVideoBitrate = BITRATE_UNSET;
+        mBitrateTimeProduct = 0;
+        mBitrateTimeMs = 0;
+        mSwitchCount = 0;
+        mDroppedFrames = 0;
+        Arrays.fill(mBytesLoaded, 0);
+    }
+
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    public synchronized void onPlayerStateChanged(boolean playWhenReady, int state, long nowMs) {
+        if (!mActive) {
+            return;
+        }
+        accumulate(nowMs);
+        mPlaying = playWhenReady && state == MediaSDKService.STATE_READY;
+        if (mPlaying && mJoinTimeMs == QoeReport.TIME_UNSET) {
+            mJoinTimeMs = nowMs - mPrepareTimeMs;
+        }
+        if (state == MediaSDKService.STATE_READY) {
+            mSeeking = false;
+        }
+        boolean rebuffering = playWhenReady && state == MediaSDKService.STATE_BUFFERING
+                && mJoinTimeMs != QoeReport.TIME_UNSET && !mSeeking;
+        if (rebuffering && !mRebuffering) {
+            mRebufferCount++;
+        }
+        mRebuffering = rebuffering;
+    }
+
+    public synchronized void onSeek(long nowMs) {
+        if (!mActive) {
+            return;
+        }
+        accumulate(nowMs);
+        mSeeking = true;
+        mRebuffering = false;
+    }
+
+    public synchronized void onVideoFormatChanged(String formatId, int bitrate, long nowMs) {
+        if (!mActive) {
+            return;
+        }
+        accumulate(nowMs);
+        if (mVideoFormatId != null && !mVideoFormatId.equals(formatId)) {
+            mSwitchCount++;
+        }
+        mVideoFormatId = formatId;
+        mVideoBitrate = bitrate;
+    }
+
+    public synchronized void onDroppedFrames(int count) {
+        mDroppedFrames += count;
+    }
+
+    /**
+     * @param trackType One of the {@link MediaSDKService} TYPE_* constants.
+     */
+    public synchronized void onLoadCompleted(int trackType, long bytesLoaded) {
+        if (trackType >= 0 && trackType < mBytesLoaded.length) {
+            mBytesLoaded[trackType] += bytesLoaded;
+        }
+    }
+
+    /**
+     * Returns the figures of the active session up to {@code nowMs}, or of the last session if
+     * none is active.
+     */
+    public synchronized QoeReport getReport(long nowMs) {
+        accumulate(nowMs);
+        long endTimeMs = mActive ? nowMs : mEndTimeMs;
+        return new QoeReport(endTimeMs - mPrepareTimeMs, mJoinTimeMs, mPlayTimeMs,
+                mRebufferCount, mRebufferTimeMs,
+                mBitrateTimeMs == 0 ? 0 : mBitrateTimeProduct / mBitrateTimeMs, mSwitchCount,
+                mDroppedFrames, mBytesLoaded.clone());
+    }
+
+    /**
+     * Ends the session and returns its figures, or null if no session was active.
+     */
+    public synchronized QoeReport end(long nowMs) {
+        if (!mActive) {
+            return null;
+        }
+        QoeReport report = getReport(nowMs);
+        mActive = false;
+        mEndTimeMs = nowMs;
+        return report;
+    }
+
+    private void accumulate(long nowMs) {
+        if (!mActive) {
+            return;
+        }
+        long elapsedMs = nowMs - mLastUpdateTimeMs;
+        if (mPlaying) {
+            mPlayTimeMs += elapsedMs;
+            if (mVideoBitrate != BITRATE_UNSET) {
+                mBitrateTimeProduct += (long) mVideoBitrate * elapsedMs;
+                mBitrateTimeMs += elapsedMs;
+            }
+        } else if (mRebuffering) {
+            mRebufferTimeMs += elapsedMs;
+        }
+        mLastUpdateTimeMs = nowMs;
+    }
+
+}
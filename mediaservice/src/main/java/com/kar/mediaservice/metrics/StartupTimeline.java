@@ -0,0 +1,153 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import java.util.Arrays;
+
+/**
+ * Timestamps of the stages a playback session goes through between
+ * {@link MediaSDKService#prepare()} and the first rendered frame.
+ * <p/>
+ * All times are {@link android.os.SystemClock#elapsedRealtime()} milliseconds, or
+ * {@link #TIME_UNSET} if the stage was not reached (e.g. there is no DRM). Stages may be marked
+ * from any thread.
+ */
+public final class StartupTimeline {
+
+    public static final int STAGE_PREPARE = 0;
+    public static final int STAGE_MANIFEST_LOADED = 1;
+    public static final int STAGE_UTC_TIMING_RESOLVED = 2;
+    public static final int STAGE_DRM_SESSION_OPENED = 3;
+    public static final int STAGE_DRM_KEYS_LOADED = 4;
+    public static final int STAGE_RENDERERS_BUILT = 5;
+    public static final int STAGE_DECODER_INITIALIZED = 6;
+    public static final int STAGE_FIRST_FRAME = 7;
+
+    public static final long TIME_UNSET = -1;
+
+    private static final int STAGE_COUNT = 8;
+    private static final String[] STAGE_NAMES = new String[] {"prepare", "manifest",
+            "utcTiming", "drmSession", "drmKeys", "renderers", "decoder", "firstFrame"};
+    private static final String[] TRACK_NAMES = new String[] {"video", "audio", "text",
+            "metadata"};
+
+    private final long[] mStageTimesMs;
+    private final long[] mFirstLoadStartedMs;
+    private final long[] mFirstLoadCompletedMs;
+
+    public StartupTimeline() {
+        mStageTimesMs = new long[STAGE_COUNT];
+        mFirstLoadStartedMs = new long[MediaSDKService.RENDERER_COUNT];
+        mFirstLoadCompletedMs = new long[MediaSDKService.RENDERER_COUNT];
+        reset(TIME_UNSET);
+    }
+
+    private StartupTimeline(StartupTimeline other) {
+        mStageTimesMs = other.mStageTimesMs.clone();
+        mFirstLoadStartedMs = other.mFirstLoadStartedMs.clone();
+        mFirstLoadCompletedMs = other.mFirstLoadCompletedMs.clone();
+    }
+
+    /**
+     * Clears all stages and starts a new timeline at {@code prepareTimeMs}.
+     */
+    public synchronized void reset(long prepareTimeMs) {
+        Arrays.fill(mStageTimesMs, TIME_UNSET);
+        Arrays.fill(mFirstLoadStartedMs, TIME_UNSET);
+        Arrays.fill(mFirstLoadCompletedMs, TIME_UNSET);
+        mStageTimesMs[STAGE_PREPARE] = prepareTimeMs;
+    }
+
+    /**
+     * Records the first time {@code stage} is reached. Later calls for the same stage are ignored.
+     */
+    public synchronized void markStage(int stage, long timeMs) {
+        if (mStageTimesMs[stage] == TIME_UNSET) {
+            mStageTimesMs[stage] = timeMs;
+        }
+    }
+
+    /**
+     * Records {@code stage} as reached at {@code timeMs}, overwriting any earlier time as long as
+     * the first frame has not been rendered. Used for stages that happen once per track, such as
+     * decoder initialization, where the last one is what gates the first frame.
+     */
+    public synchronized void markStageLatest(int stage, long timeMs) {
+        if (mStageTimesMs[STAGE_FIRST_FRAME] == TIME_UNSET) {
+            mStageTimesMs[stage] = timeMs;
+        }
+    }
+
+    public synchronized void markLoadStarted(int trackType, long timeMs) {
+        if (trackType >= 0 && trackType < mFirstLoadStartedMs.length
+                && mFirstLoadStartedMs[trackType] == TIME_UNSET) {
+            mFirstLoadStartedMs[trackType] = timeMs;
+        }
+    }
+
+    public synchronized void markLoadCompleted(int trackType, long timeMs) {
+        if (trackType >= 0 && trackType < mFirstLoadCompletedMs.length
+                && mFirstLoadCompletedMs[trackType] == TIME_UNSET) {
+            mFirstLoadCompletedMs[trackType] = timeMs;
+        }
+    }
+
+    public synchronized long getStageTimeMs(int stage) {
+        return mStageTimesMs[stage];
+    }
+
+    /**
+     * Returns the time from {@link #STAGE_PREPARE} to {@code stage}, or {@link #TIME_UNSET}.
+     */
+    public synchronized long getStageDelayMs(int stage) {
+        return toDelay(mStageTimesMs[stage]);
+    }
+
+    /**
+     * Returns the time from {@link #STAGE_PREPARE} until the first chunk load started for the
+     * track of the given {@link MediaSDKService} TYPE_* constant, or {@link #TIME_UNSET}.
+     */
+    public synchronized long getFirstLoadStartedDelayMs(int trackType) {
+        return toDelay(mFirstLoadStartedMs[trackType]);
+    }
+
+    /**
+     * Returns the time from {@link #STAGE_PREPARE} until the first chunk load completed for the
+     * track of the given {@link MediaSDKService} TYPE_* constant, or {@link #TIME_UNSET}.
+     */
+    public synchronized long getFirstLoadCompletedDelayMs(int trackType) {
+        return toDelay(mFirstLoadCompletedMs[trackType]);
+    }
+
+    /**
+     * Returns a copy of the timeline in its current state.
+     */
+    public synchronized StartupTimeline snapshot() {
+        return new StartupTimeline(this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("StartupTimeline[");
+        for (int i = 1; i < STAGE_COUNT; i++) {
+            builder.append(STAGE_NAMES[i]).append('=').append(toDelay(mStageTimesMs[i]))
+                    .append(", ");
+        }
+        for (int i = 0; i < mFirstLoadStartedMs.length; i++) {
+            if (mFirstLoadStartedMs[i] != TIME_UNSET) {
+                builder.append(TRACK_NAMES[i]).append("Load=")
+                        .append(toDelay(mFirstLoadStartedMs[i])).append('-')
+                        .append(toDelay(mFirstLoadCompletedMs[i])).append(", ");
+            }
+        }
+        builder.setLength(builder.length() - 2);
+        return builder.append(']').toString();
+    }
+
+    private long toDelay(long timeMs) {
+        long prepareTimeMs = mStageTimesMs[STAGE_PREPARE];
+        return timeMs == TIME_UNSET || prepareTimeMs == TIME_UNSET ? TIME_UNSET
+                : timeMs - prepareTimeMs;
+    }
+
+}
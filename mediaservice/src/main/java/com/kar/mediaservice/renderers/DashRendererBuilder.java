@@ -16,44 +16,53 @@
 package com.kar.mediaservice.renderers;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.MediaCodec;
+import android.media.MediaCrypto;
 import android.os.Handler;
 import android.util.Log;
 
-import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.ExoPlayer;
 import com.google.android.exoplayer.LoadControl;
-import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
 import com.google.android.exoplayer.chunk.FormatEvaluator;
-import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
 import com.google.android.exoplayer.dash.mpd.Period;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver.UtcTimingCallback;
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.upstream.UriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 import com.kar.mediaservice.MediaSDKService;
-import com.kar.mediaservice.utils.MaxFixedEvaluator;
+import com.kar.mediaservice.drm.DrmSessionOpenedListener;
+import com.kar.mediaservice.drm.OfflineDrmSessionManager;
+import com.kar.mediaservice.drm.OpenNotifyingDrmSessionManager;
+import com.kar.mediaservice.metrics.StartupTimeline;
+import com.kar.mediaservice.upstream.ConditionalManifestDataSource;
+import com.kar.mediaservice.upstream.DashPeriodPrefetcher;
+import com.kar.mediaservice.upstream.DataSourceFactory;
+import com.kar.mediaservice.upstream.SegmentPool;
+import com.kar.mediaservice.utils.AbrSettings;
+import com.kar.mediaservice.utils.BuilderExecutor;
+import com.kar.mediaservice.utils.DeviceCapabilities;
+import com.kar.mediaservice.utils.SwitchableFormatEvaluator;
 
 import java.io.IOException;
 
@@ -64,12 +73,14 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
 
   private static final String TAG = "DashRendererBuilder";
 
-  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  private static final int BUFFER_SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
   private static final int VIDEO_BUFFER_SEGMENTS = 200;
   private static final int AUDIO_BUFFER_SEGMENTS = 54;
   private static final int TEXT_BUFFER_SEGMENTS = 2;
   private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
+  private static final long SETUP_TIMEOUT_MS = 5000;
+
   private static final int SECURITY_LEVEL_UNKNOWN = -1;
   private static final int SECURITY_LEVEL_1 = 1;
   private static final int SECURITY_LEVEL_3 = 3;
@@ -78,35 +89,44 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
   private final String userAgent;
   private final String url;
   private final MediaDrmCallback drmCallback;
+  private final AbrSettings fixedAbrSettings;
 
   private AsyncRendererBuilder currentAsyncBuilder;
-  private long mMaxBitrate;
-  private boolean mIsAdaptive;
 
   public DashRendererBuilder(Context context, String userAgent, String url,
       MediaDrmCallback drmCallback) {
+    this(context, userAgent, url, drmCallback, null);
+  }
+
+  /**
+   * Creates a builder that always plays the highest video format within {@code maxBitrate},
+   * regardless of the adaptive settings of the player.
+   */
+  public DashRendererBuilder(Context context, String userAgent, String url,
+      MediaDrmCallback drmCallback, long maxBitrate) {
+    this(context, userAgent, url, drmCallback, newFixedAbrSettings(maxBitrate));
+  }
+
+  private DashRendererBuilder(Context context, String userAgent, String url,
+      MediaDrmCallback drmCallback, AbrSettings fixedAbrSettings) {
     this.context = context;
     this.userAgent = userAgent;
     this.url = url;
     this.drmCallback = drmCallback;
-    mIsAdaptive = true;
+    this.fixedAbrSettings = fixedAbrSettings;
   }
 
-  public DashRendererBuilder(Context context, String userAgent, String url,
-                              MediaDrmCallback drmCallback, long maxBitrate) {
-    this(context, userAgent, url, drmCallback);
-    mMaxBitrate = maxBitrate;
-    mIsAdaptive = false;
+  private static AbrSettings newFixedAbrSettings(long maxBitrate) {
+    AbrSettings abrSettings = new AbrSettings();
+    abrSettings.setAdaptive(false);
+    abrSettings.setMaxBitrate(maxBitrate);
+    return abrSettings;
   }
 
   @Override
   public void buildRenderers(MediaSDKService player) {
-    if(mIsAdaptive) {
-      currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
-    }
-    else {
-      currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player, mMaxBitrate);
-    }
+    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player,
+        fixedAbrSettings);
     currentAsyncBuilder.init();
   }
 
@@ -123,43 +143,101 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
 
     private final Context context;
     private final String userAgent;
+    private final String url;
     private final MediaDrmCallback drmCallback;
     private final MediaSDKService player;
+    private final AbrSettings fixedAbrSettings;
     private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
-    private final UriDataSource manifestDataSource;
-
-    private boolean canceled;
+    private final UriDataSource utcTimingDataSource;
+    private final Handler builderHandler;
+    private final Handler playbackHandler;
+    private final Runnable setupTaskDoneRunnable;
+    private final Runnable setupTimeoutRunnable;
+
+    private volatile boolean canceled;
+    private volatile DashPeriodPrefetcher periodPrefetcher;
+    private volatile DrmSessionManager drmSessionManager;
     private MediaPresentationDescription manifest;
     private long elapsedRealtimeOffset;
-    private long mMaxBitrate;
-    private boolean mIsAdaptive;
-
+    private BandwidthMeter bandwidthMeter;
+    private boolean filterHdContent;
+    private int pendingSetupTasks;
+    private boolean timingResolved;
+    private boolean setupTimedOut;
+    private boolean renderersBuilt;
+    // Accessed only on the playback thread.
+    private boolean drmSessionPreopened;
 
     public AsyncRendererBuilder(Context context, String userAgent, String url,
-                                MediaDrmCallback drmCallback, MediaSDKService player) {
+                                MediaDrmCallback drmCallback, MediaSDKService player,
+                                AbrSettings fixedAbrSettings) {
       this.context = context;
       this.userAgent = userAgent;
+      this.url = url;
       this.drmCallback = drmCallback;
       this.player = player;
+      this.fixedAbrSettings = fixedAbrSettings;
       MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-      manifestDataSource = new DefaultUriDataSource(context, userAgent);
-      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
-      mIsAdaptive = true;
+      DataSourceFactory dataSourceFactory = player.getDataSourceFactory();
+      ConditionalManifestDataSource manifestHttpDataSource =
+          new ConditionalManifestDataSource(dataSourceFactory.createHttpDataSource(null));
+      UriDataSource manifestDataSource = new DefaultUriDataSource(context, null,
+          manifestHttpDataSource);
+      utcTimingDataSource = dataSourceFactory.createManifestDataSource();
+      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource,
+          manifestHttpDataSource.createParser(parser));
+      builderHandler = BuilderExecutor.getHandler();
+      playbackHandler = new Handler(player.getPlaybackLooper());
+      setupTaskDoneRunnable = new Runnable() {
+        @Override
+        public void run() {
+          pendingSetupTasks--;
+          maybeBuildRenderers();
+        }
+      };
+      setupTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+          Log.w(TAG, "Building renderers before DRM and segment prefetch completed");
+          setupTimedOut = true;
+          maybeBuildRenderers();
+        }
+      };
     }
 
-    public AsyncRendererBuilder(Context context, String userAgent, String url,
-                                MediaDrmCallback drmCallback, MediaSDKService player, long maxBitrate) {
-      this(context, userAgent, url, drmCallback, player);
-      mIsAdaptive = false;
-      mMaxBitrate = maxBitrate;
-     }
-
     public void init() {
-      manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+      manifestFetcher.singleLoad(player.getBuilderLooper(), this);
     }
 
     public void cancel() {
       canceled = true;
+      if (periodPrefetcher != null) {
+        periodPrefetcher.release();
+      }
+      postClosePreopenedDrmSession();
+    }
+
+    /**
+     * Closes the session opened ahead of the renderers, if it is still open, on the playback
+     * thread.
+     */
+    private void postClosePreopenedDrmSession() {
+      if (drmSessionManager != null) {
+        playbackHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            closePreopenedDrmSession();
+          }
+        });
+      }
+    }
+
+    // Called on the playback thread.
+    private void closePreopenedDrmSession() {
+      if (drmSessionPreopened) {
+        drmSessionPreopened = false;
+        drmSessionManager.close();
+      }
     }
 
     @Override
@@ -169,11 +247,24 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
       }
 
       this.manifest = manifest;
+      player.onStartupStage(StartupTimeline.STAGE_MANIFEST_LOADED);
+      bandwidthMeter = player.createBandwidthMeter(url);
+      periodPrefetcher = new DashPeriodPrefetcher(manifestFetcher, player, bandwidthMeter,
+          builderHandler, DashPeriodPrefetcher.DEFAULT_LOOKAHEAD_MS);
+
+      // License acquisition and the first segment loads run while the UtcTiming element is
+      // resolved, and are joined before the renderers are built.
+      if (!startDrmSession()) {
+        return;
+      }
+      startSegmentPrefetch();
+      builderHandler.postDelayed(setupTimeoutRunnable, SETUP_TIMEOUT_MS);
+
       if (manifest.dynamic && manifest.utcTiming != null) {
-        UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
+        UtcTimingElementResolver.resolveTimingElement(utcTimingDataSource, manifest.utcTiming,
             manifestFetcher.getManifestLoadCompleteTimestamp(), this);
       } else {
-        buildRenderers();
+        onTimingResolved();
       }
     }
 
@@ -183,7 +274,7 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
         return;
       }
 
-      player.onRenderersError(e);
+      onRenderersError(e);
     }
 
     @Override
@@ -193,7 +284,8 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
       }
 
       this.elapsedRealtimeOffset = elapsedRealtimeOffset;
-      buildRenderers();
+      player.onStartupStage(StartupTimeline.STAGE_UTC_TIMING_RESOLVED);
+      onTimingResolved();
     }
 
     @Override
@@ -204,69 +296,184 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
 
       Log.e(TAG, "Failed to resolve UtcTiming element [" + utcTiming + "]", e);
       // Be optimistic and continue in the hope that the device clock is correct.
-      buildRenderers();
+      onTimingResolved();
     }
 
-    private void buildRenderers() {
-      Period period = manifest.getPeriod(0);
-      Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
-
+    /**
+     * Creates the DRM session manager if any period is protected, and opens its session with the
+     * scheme init data in the manifest if there is any, so that keys are requested without
+     * waiting for the first chunk. Returns false if protected content cannot be played.
+     */
+    private boolean startDrmSession() {
+      // Any period may be protected, e.g. the content between clear ad breaks.
       boolean hasContentProtection = false;
-      for (int i = 0; i < period.adaptationSets.size(); i++) {
-        AdaptationSet adaptationSet = period.adaptationSets.get(i);
-        if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN) {
-          hasContentProtection |= adaptationSet.hasContentProtection();
+      for (int i = 0; i < manifest.getPeriodCount(); i++) {
+        Period period = manifest.getPeriod(i);
+        for (int j = 0; j < period.adaptationSets.size(); j++) {
+          AdaptationSet adaptationSet = period.adaptationSets.get(j);
+          if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN) {
+            hasContentProtection |= adaptationSet.hasContentProtection();
+          }
         }
       }
+      if (!hasContentProtection) {
+        return true;
+      }
+
+      // Check drm support.
+      if (Util.SDK_INT < 18) {
+        onRenderersError(
+                new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
+        return false;
+      }
+      DrmEventListener drmEventListener = new DrmEventListener();
+      final DrmSessionManager drmSessionManager;
+      try {
+        // The security level is probed once per OS build, and only read here if that failed.
+        DeviceCapabilities deviceCapabilities = player.getDeviceCapabilities();
+        String securityLevel = deviceCapabilities.getWidevineSecurityLevel();
+        if (player.isPersistentLicensesEnabled()) {
+          OfflineDrmSessionManager offlineDrmSessionManager =
+              OfflineDrmSessionManager.newWidevineInstance(drmCallback, null,
+                  player.getOfflineLicenseCache(), player.getMainHandler(), drmEventListener);
+          offlineDrmSessionManager.setSessionOpenedListener(drmEventListener);
+          if (securityLevel == null) {
+            securityLevel = offlineDrmSessionManager.getPropertyString("securityLevel");
+          }
+          drmSessionManager = offlineDrmSessionManager;
+        } else {
+          StreamingDrmSessionManager streamingDrmSessionManager =
+              StreamingDrmSessionManager.newWidevineInstance(player.getPlaybackLooper(),
+                  drmCallback, null, player.getMainHandler(), drmEventListener);
+          if (securityLevel == null) {
+            securityLevel = streamingDrmSessionManager.getPropertyString("securityLevel");
+          }
+          drmSessionManager = new OpenNotifyingDrmSessionManager(streamingDrmSessionManager,
+              drmEventListener);
+        }
+        deviceCapabilities.setWidevineSecurityLevel(securityLevel);
+        filterHdContent = getWidevineSecurityLevel(securityLevel) != SECURITY_LEVEL_1;
+      } catch (UnsupportedDrmException e) {
+        onRenderersError(e);
+        return false;
+      }
+      this.drmSessionManager = drmSessionManager;
+
+      final DrmInitData drmInitData = getManifestDrmInitData(manifest.getPeriod(0));
+      if (drmInitData == null) {
+        // The init data is only in the initialization segments, so keys are requested once the
+        // renderers have loaded them.
+        return true;
+      }
+      // The renderers open the same session again, which shares the keys requested here, and then
+      // this open is closed. The session manager is used on the playback thread only.
+      pendingSetupTasks++;
+      drmEventListener.joinKeysLoaded = true;
+      playbackHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            drmSessionPreopened = true;
+            drmSessionManager.open(drmInitData);
+          }
+        }
+      });
+      return true;
+    }
+
+    /**
+     * Loads the initialization segments and the first media segments of a static manifest into
+     * the segment cache, if enabled. The live edge of a dynamic manifest is only known once the
+     * UtcTiming element is resolved, so for those nothing is loaded.
+     */
+    private void startSegmentPrefetch() {
+      if (manifest.dynamic || player.getDataSourceFactory().getSegmentCache() == null) {
+        return;
+      }
+      Period period = manifest.getPeriod(0);
+      long periodDurationMs = manifest.getPeriodDuration(0);
+      long positionMs = Math.max(player.getCurrentPosition() - period.startMs, 0);
+      pendingSetupTasks++;
+      periodPrefetcher.prefetch(period,
+          periodDurationMs == ExoPlayer.UNKNOWN_TIME ? C.UNKNOWN_TIME_US : periodDurationMs * 1000,
+          positionMs * 1000, bandwidthMeter.getBitrateEstimate(), new Runnable() {
+            @Override
+            public void run() {
+              builderHandler.post(setupTaskDoneRunnable);
+            }
+          });
+    }
+
+    private void onTimingResolved() {
+      timingResolved = true;
+      maybeBuildRenderers();
+    }
+
+    private void maybeBuildRenderers() {
+      if (canceled || renderersBuilt || !timingResolved
+          || (pendingSetupTasks > 0 && !setupTimedOut)) {
+        return;
+      }
+      renderersBuilt = true;
+      builderHandler.removeCallbacks(setupTimeoutRunnable);
+      buildRenderers();
+    }
 
-      // Check drm support if necessary.
-      boolean filterHdContent = false;
-      StreamingDrmSessionManager drmSessionManager = null;
-      if (hasContentProtection) {
-        if (Util.SDK_INT < 18) {
-          player.onRenderersError(
-                  new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
-          return;
+    private static DrmInitData getManifestDrmInitData(Period period) {
+      for (int i = 0; i < period.adaptationSets.size(); i++) {
+        AdaptationSet adaptationSet = period.adaptationSets.get(i);
+        if (adaptationSet.type != AdaptationSet.TYPE_VIDEO) {
+          continue;
         }
-        try {
-          drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
-                  player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-          filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
-        } catch (UnsupportedDrmException e) {
-          player.onRenderersError(e);
-          return;
+        for (ContentProtection contentProtection : adaptationSet.contentProtections) {
+          if (StreamingDrmSessionManager.WIDEVINE_UUID.equals(contentProtection.uuid)
+              && contentProtection.data != null) {
+            DrmInitData.Mapped drmInitData = new DrmInitData.Mapped();
+            drmInitData.put(contentProtection.uuid, contentProtection.data);
+            return drmInitData;
+          }
         }
       }
+      return null;
+    }
+
+    private void buildRenderers() {
+      Handler mainHandler = player.getMainHandler();
+      LoadControl loadControl = player.createLoadControl();
+      DrmSessionManager drmSessionManager = this.drmSessionManager == null ? null
+          : new RendererDrmSessionManager(this.drmSessionManager);
 
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource videoDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_VIDEO);
+      FormatEvaluator videoFormatEvaluator = fixedAbrSettings != null
+          ? new SwitchableFormatEvaluator(fixedAbrSettings, bandwidthMeter)
+          : player.createFormatEvaluator(bandwidthMeter);
       ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
               DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-              videoDataSource, (mIsAdaptive) ? new AdaptiveEvaluator(bandwidthMeter) : new MaxFixedEvaluator(mMaxBitrate), LIVE_EDGE_LATENCY_MS,
+              videoDataSource, videoFormatEvaluator, LIVE_EDGE_LATENCY_MS,
               elapsedRealtimeOffset, mainHandler, player, MediaSDKService.TYPE_VIDEO);
       ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
               VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               MediaSDKService.TYPE_VIDEO);
-      TrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, videoSampleSource,
-              MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-              drmSessionManager, true, mainHandler, player, 50);
+      TrackRenderer videoRenderer = player.createVideoRenderer(videoSampleSource,
+              drmSessionManager);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource audioDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_AUDIO);
       ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
               DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null, LIVE_EDGE_LATENCY_MS,
               elapsedRealtimeOffset, mainHandler, player, MediaSDKService.TYPE_AUDIO);
       ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
               AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               MediaSDKService.TYPE_AUDIO);
-      TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
-              MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
-              AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+      TrackRenderer audioRenderer = player.createAudioRenderer(
+              new SampleSource[] {audioSampleSource}, drmSessionManager);
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource textDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_TEXT);
       ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
               DefaultDashTrackSelector.newTextInstance(), textDataSource, null, LIVE_EDGE_LATENCY_MS,
               elapsedRealtimeOffset, mainHandler, player, MediaSDKService.TYPE_TEXT);
@@ -281,13 +488,130 @@ public class DashRendererBuilder implements MediaSDKService.RendererBuilder {
       renderers[MediaSDKService.TYPE_VIDEO] = videoRenderer;
       renderers[MediaSDKService.TYPE_AUDIO] = audioRenderer;
       renderers[MediaSDKService.TYPE_TEXT] = textRenderer;
-      player.onRenderers(renderers, bandwidthMeter);
+      onRenderers(renderers, bandwidthMeter);
+
+      // Live streams may gain periods on refresh, e.g. server side inserted ad breaks.
+      if (!canceled && (manifest.dynamic || manifest.getPeriodCount() > 1)) {
+        periodPrefetcher.start();
+      }
+    }
+
+    private static int getWidevineSecurityLevel(String securityLevelProperty) {
+      return DeviceCapabilities.SECURITY_LEVEL_1.equals(securityLevelProperty) ? SECURITY_LEVEL_1
+          : DeviceCapabilities.SECURITY_LEVEL_3.equals(securityLevelProperty) ? SECURITY_LEVEL_3
+          : SECURITY_LEVEL_UNKNOWN;
     }
 
-    private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
-      String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
-      return securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1 : securityLevelProperty
-          .equals("L3") ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+    /**
+     * Forwards DRM events to the player until the builder is canceled, and joins the first key
+     * load with the rest of the setup.
+     */
+    private final class DrmEventListener
+        implements StreamingDrmSessionManager.EventListener, DrmSessionOpenedListener {
+
+      // Accessed only on the main thread, except before the session is opened.
+      public boolean joinKeysLoaded;
+
+      @Override
+      public void onDrmSessionOpened() {
+        if (!canceled) {
+          player.onStartupStage(StartupTimeline.STAGE_DRM_SESSION_OPENED);
+        }
+      }
+
+      @Override
+      public void onDrmKeysLoaded() {
+        if (!canceled) {
+          player.onDrmKeysLoaded();
+        }
+        maybeJoin();
+      }
+
+      @Override
+      public void onDrmSessionManagerError(Exception e) {
+        if (!canceled) {
+          player.onDrmSessionManagerError(e);
+        }
+        maybeJoin();
+      }
+
+      private void maybeJoin() {
+        if (joinKeysLoaded) {
+          joinKeysLoaded = false;
+          builderHandler.post(setupTaskDoneRunnable);
+        }
+      }
+
+    }
+
+    /**
+     * The session manager given to the renderers, which closes the session opened ahead of them
+     * once they have opened it themselves.
+     */
+    private final class RendererDrmSessionManager implements DrmSessionManager {
+
+      private final DrmSessionManager drmSessionManager;
+
+      public RendererDrmSessionManager(DrmSessionManager drmSessionManager) {
+        this.drmSessionManager = drmSessionManager;
+      }
+
+      @Override
+      public void open(DrmInitData drmInitData) {
+        drmSessionManager.open(drmInitData);
+        closePreopenedDrmSession();
+      }
+
+      @Override
+      public void close() {
+        drmSessionManager.close();
+      }
+
+      @Override
+      public int getState() {
+        return drmSessionManager.getState();
+      }
+
+      @Override
+      public MediaCrypto getMediaCrypto() {
+        return drmSessionManager.getMediaCrypto();
+      }
+
+      @Override
+      public boolean requiresSecureDecoderComponent(String mimeType) {
+        return drmSessionManager.requiresSecureDecoderComponent(mimeType);
+      }
+
+      @Override
+      public Exception getError() {
+        return drmSessionManager.getError();
+      }
+
+    }
+
+    private void onRenderers(final TrackRenderer[] renderers,
+        final BandwidthMeter bandwidthMeter) {
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderers(renderers, bandwidthMeter);
+          }
+        }
+      });
+    }
+
+    private void onRenderersError(final Exception e) {
+      // The build is over, so no renderer will take over the session opened ahead of them.
+      postClosePreopenedDrmSession();
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderersError(e);
+          }
+        }
+      });
     }
 
   }
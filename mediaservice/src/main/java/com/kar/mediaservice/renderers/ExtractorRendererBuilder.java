@@ -1,32 +1,26 @@
 package com.kar.mediaservice.renderers;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.MediaCodec;
 import android.net.Uri;
 import android.os.Handler;
 
-import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.extractor.Extractor;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.kar.mediaservice.MediaSDKService;
+import com.kar.mediaservice.upstream.SegmentPool;
 
 /**
  * A {@link RendererBuilder} for streams that can be read using an {@link Extractor}.
  */
 public class ExtractorRendererBuilder implements MediaSDKService.RendererBuilder {
 
-  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  private static final int BUFFER_SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
   private static final int BUFFER_SEGMENT_COUNT = 256;
 
   private final Context context;
@@ -41,20 +35,18 @@ public class ExtractorRendererBuilder implements MediaSDKService.RendererBuilder
 
   @Override
   public void buildRenderers(MediaSDKService player) {
-    Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+    Allocator allocator = player.getAllocator();
     Handler mainHandler = player.getMainHandler();
 
     // Build the video and audio renderers.
     DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, null);
-    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+    DataSource dataSource =
+        player.getDataSourceFactory().createProgressiveDataSource(bandwidthMeter, allocator);
     ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
         BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE, mainHandler, player, 0);
-    MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
-        sampleSource, MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-        mainHandler, player, 50);
-    MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
-        MediaCodecSelector.DEFAULT, null, true, mainHandler, player,
-        AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+    TrackRenderer videoRenderer = player.createVideoRenderer(sampleSource, null);
+    TrackRenderer audioRenderer = player.createAudioRenderer(new SampleSource[] {sampleSource},
+        null);
     TrackRenderer textRenderer = new TextTrackRenderer(sampleSource, player,
         mainHandler.getLooper());
 
@@ -16,18 +16,11 @@
 package com.kar.mediaservice.renderers;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.MediaCodec;
 import android.os.Handler;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
-import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
@@ -40,13 +33,13 @@ import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.metadata.id3.Id3Parser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 import com.kar.mediaservice.MediaSDKService;
+import com.kar.mediaservice.metrics.StartupTimeline;
+import com.kar.mediaservice.upstream.SegmentPool;
 
 import java.io.IOException;
 import java.util.List;
@@ -56,7 +49,7 @@ import java.util.List;
  */
 public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
 
-  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  private static final int BUFFER_SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
   private static final int MAIN_BUFFER_SEGMENTS = 254;
   private static final int AUDIO_BUFFER_SEGMENTS = 54;
   private static final int TEXT_BUFFER_SEGMENTS = 2;
@@ -95,7 +88,7 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
     private final MediaSDKService player;
     private final ManifestFetcher<HlsPlaylist> playlistFetcher;
 
-    private boolean canceled;
+    private volatile boolean canceled;
 
     public AsyncRendererBuilder(Context context, String userAgent, String url, MediaSDKService player) {
       this.context = context;
@@ -103,12 +96,12 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
       this.url = url;
       this.player = player;
       HlsPlaylistParser parser = new HlsPlaylistParser();
-      playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
-          parser);
+      playlistFetcher = new ManifestFetcher<>(url,
+          player.getDataSourceFactory().createManifestDataSource(), parser);
     }
 
     public void init() {
-      playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+      playlistFetcher.singleLoad(player.getBuilderLooper(), this);
     }
 
     public void cancel() {
@@ -121,7 +114,7 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
         return;
       }
 
-      player.onRenderersError(e);
+      onRenderersError(e);
     }
 
     @Override
@@ -130,9 +123,12 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
         return;
       }
 
+      player.onStartupStage(StartupTimeline.STAGE_MANIFEST_LOADED);
+
       Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+      LoadControl loadControl = player.createLoadControl();
+      BandwidthMeter bandwidthMeter = player.createBandwidthMeter(url);
+      BandwidthMeter variantBandwidthMeter = player.createHlsBandwidthMeter(bandwidthMeter);
       PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
       boolean haveSubtitles = false;
@@ -144,42 +140,39 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
       }
 
       // Build the video/id3 renderers.
-      DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource dataSource = player.getDataSourceFactory().createHlsDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_VIDEO);
       HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource, url,
-          manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
+          manifest, DefaultHlsTrackSelector.newDefaultInstance(context), variantBandwidthMeter,
           timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
       HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
           MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, MediaSDKService.TYPE_VIDEO);
-      MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
-          sampleSource, MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
-          5000, mainHandler, player, 50);
+      TrackRenderer videoRenderer = player.createVideoRenderer(sampleSource, null);
       MetadataTrackRenderer<List<Id3Frame>> id3Renderer = new MetadataTrackRenderer<>(
           sampleSource, new Id3Parser(), player, mainHandler.getLooper());
 
       // Build the audio renderer.
-      MediaCodecAudioTrackRenderer audioRenderer;
+      TrackRenderer audioRenderer;
       if (haveAudios) {
-        DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource audioDataSource = player.getDataSourceFactory().createHlsDataSource(
+            bandwidthMeter, MediaSDKService.TYPE_AUDIO);
         HlsChunkSource audioChunkSource = new HlsChunkSource(false /* isMaster */, audioDataSource,
             url, manifest, DefaultHlsTrackSelector.newAudioInstance(), bandwidthMeter,
             timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
         HlsSampleSource audioSampleSource = new HlsSampleSource(audioChunkSource, loadControl,
             AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
                 MediaSDKService.TYPE_AUDIO);
-        audioRenderer = new MediaCodecAudioTrackRenderer(
-            new SampleSource[] {sampleSource, audioSampleSource}, MediaCodecSelector.DEFAULT, null,
-            true, player.getMainHandler(), player, AudioCapabilities.getCapabilities(context),
-            AudioManager.STREAM_MUSIC);
+        audioRenderer = player.createAudioRenderer(
+            new SampleSource[] {sampleSource, audioSampleSource}, null);
       } else {
-        audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
-            MediaCodecSelector.DEFAULT, null, true, player.getMainHandler(), player,
-            AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+        audioRenderer = player.createAudioRenderer(new SampleSource[] {sampleSource}, null);
       }
 
       // Build the text renderer.
       TrackRenderer textRenderer;
       if (haveSubtitles) {
-        DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource textDataSource = player.getDataSourceFactory().createHlsDataSource(
+            bandwidthMeter, MediaSDKService.TYPE_TEXT);
         HlsChunkSource textChunkSource = new HlsChunkSource(false /* isMaster */, textDataSource,
             url, manifest, DefaultHlsTrackSelector.newSubtitleInstance(), bandwidthMeter,
             timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
@@ -195,7 +188,30 @@ public class HlsRendererBuilder implements MediaSDKService.RendererBuilder {
       renderers[MediaSDKService.TYPE_AUDIO] = audioRenderer;
       renderers[MediaSDKService.TYPE_METADATA] = id3Renderer;
       renderers[MediaSDKService.TYPE_TEXT] = textRenderer;
-      player.onRenderers(renderers, bandwidthMeter);
+      onRenderers(renderers, bandwidthMeter);
+    }
+
+    private void onRenderers(final TrackRenderer[] renderers,
+        final BandwidthMeter bandwidthMeter) {
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderers(renderers, bandwidthMeter);
+          }
+        }
+      });
+    }
+
+    private void onRenderersError(final Exception e) {
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderersError(e);
+          }
+        }
+      });
     }
 
   }
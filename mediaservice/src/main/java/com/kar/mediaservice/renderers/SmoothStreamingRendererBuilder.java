@@ -16,20 +16,13 @@
 package com.kar.mediaservice.renderers;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.MediaCodec;
 import android.os.Handler;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
-import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
-import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
 import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
@@ -39,14 +32,17 @@ import com.google.android.exoplayer.smoothstreaming.SmoothStreamingChunkSource;
 import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
 import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
 import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 import com.kar.mediaservice.MediaSDKService;
+import com.kar.mediaservice.drm.DrmSessionOpenedListener;
+import com.kar.mediaservice.drm.OfflineDrmSessionManager;
+import com.kar.mediaservice.drm.OpenNotifyingDrmSessionManager;
+import com.kar.mediaservice.metrics.StartupTimeline;
+import com.kar.mediaservice.upstream.ConditionalManifestDataSource;
+import com.kar.mediaservice.upstream.SegmentPool;
 
 import java.io.IOException;
 
@@ -55,7 +51,7 @@ import java.io.IOException;
  */
 public class SmoothStreamingRendererBuilder implements MediaSDKService.RendererBuilder {
 
-  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  private static final int BUFFER_SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
   private static final int VIDEO_BUFFER_SEGMENTS = 200;
   private static final int AUDIO_BUFFER_SEGMENTS = 54;
   private static final int TEXT_BUFFER_SEGMENTS = 2;
@@ -95,25 +91,29 @@ public class SmoothStreamingRendererBuilder implements MediaSDKService.RendererB
 
     private final Context context;
     private final String userAgent;
+    private final String url;
     private final MediaDrmCallback drmCallback;
     private final MediaSDKService player;
     private final ManifestFetcher<SmoothStreamingManifest> manifestFetcher;
 
-    private boolean canceled;
+    private volatile boolean canceled;
 
     public AsyncRendererBuilder(Context context, String userAgent, String url,
                                 MediaDrmCallback drmCallback, MediaSDKService player) {
       this.context = context;
       this.userAgent = userAgent;
+      this.url = url;
       this.drmCallback = drmCallback;
       this.player = player;
       SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
-      manifestFetcher = new ManifestFetcher<>(url, new DefaultHttpDataSource(userAgent, null),
-          parser);
+      ConditionalManifestDataSource manifestDataSource = new ConditionalManifestDataSource(
+          player.getDataSourceFactory().createHttpDataSource(null));
+      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource,
+          manifestDataSource.createParser(parser));
     }
 
     public void init() {
-      manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+      manifestFetcher.singleLoad(player.getBuilderLooper(), this);
     }
 
     public void cancel() {
@@ -126,7 +126,7 @@ public class SmoothStreamingRendererBuilder implements MediaSDKService.RendererB
         return;
       }
 
-      player.onRenderersError(exception);
+      onRenderersError(exception);
     }
 
     @Override
@@ -135,53 +135,68 @@ public class SmoothStreamingRendererBuilder implements MediaSDKService.RendererB
         return;
       }
 
+      player.onStartupStage(StartupTimeline.STAGE_MANIFEST_LOADED);
+
       Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+      LoadControl loadControl = player.createLoadControl();
+      BandwidthMeter bandwidthMeter = player.createBandwidthMeter(url);
 
       // Check drm support if necessary.
       DrmSessionManager drmSessionManager = null;
       if (manifest.protectionElement != null) {
         if (Util.SDK_INT < 18) {
-          player.onRenderersError(
+          onRenderersError(
               new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
           return;
         }
+        // The renderers open the session once they are enabled.
+        DrmEventListener drmEventListener = new DrmEventListener();
         try {
-          drmSessionManager = new StreamingDrmSessionManager(manifest.protectionElement.uuid,
-              player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
+          if (player.isPersistentLicensesEnabled()) {
+            OfflineDrmSessionManager offlineDrmSessionManager = new OfflineDrmSessionManager(
+                manifest.protectionElement.uuid, drmCallback, null,
+                player.getOfflineLicenseCache(), mainHandler, drmEventListener);
+            offlineDrmSessionManager.setSessionOpenedListener(drmEventListener);
+            drmSessionManager = offlineDrmSessionManager;
+          } else {
+            drmSessionManager = new OpenNotifyingDrmSessionManager(
+                new StreamingDrmSessionManager(manifest.protectionElement.uuid,
+                    player.getPlaybackLooper(), drmCallback, null, mainHandler, drmEventListener),
+                drmEventListener);
+          }
         } catch (UnsupportedDrmException e) {
-          player.onRenderersError(e);
+          onRenderersError(e);
           return;
         }
       }
 
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource videoDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_VIDEO);
       ChunkSource videoChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false),
-          videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
+          videoDataSource, player.createFormatEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
       ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
           VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               MediaSDKService.TYPE_VIDEO);
-      TrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, videoSampleSource,
-          MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-          drmSessionManager, true, mainHandler, player, 50);
+      TrackRenderer videoRenderer = player.createVideoRenderer(videoSampleSource,
+          drmSessionManager);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource audioDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_AUDIO);
       ChunkSource audioChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newAudioInstance(),
           audioDataSource, null, LIVE_EDGE_LATENCY_MS);
       ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
           AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
               MediaSDKService.TYPE_AUDIO);
-      TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
-          MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
-          AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+      TrackRenderer audioRenderer = player.createAudioRenderer(
+          new SampleSource[] {audioSampleSource}, drmSessionManager);
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource textDataSource = player.getDataSourceFactory().createDataSource(bandwidthMeter,
+          MediaSDKService.TYPE_TEXT);
       ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newTextInstance(),
           textDataSource, null, LIVE_EDGE_LATENCY_MS);
@@ -196,7 +211,59 @@ public class SmoothStreamingRendererBuilder implements MediaSDKService.RendererB
       renderers[MediaSDKService.TYPE_VIDEO] = videoRenderer;
       renderers[MediaSDKService.TYPE_AUDIO] = audioRenderer;
       renderers[MediaSDKService.TYPE_TEXT] = textRenderer;
-      player.onRenderers(renderers, bandwidthMeter);
+      onRenderers(renderers, bandwidthMeter);
+    }
+
+    /**
+     * Forwards DRM events to the player until the builder is canceled.
+     */
+    private final class DrmEventListener
+        implements StreamingDrmSessionManager.EventListener, DrmSessionOpenedListener {
+
+      @Override
+      public void onDrmSessionOpened() {
+        if (!canceled) {
+          player.onStartupStage(StartupTimeline.STAGE_DRM_SESSION_OPENED);
+        }
+      }
+
+      @Override
+      public void onDrmKeysLoaded() {
+        if (!canceled) {
+          player.onDrmKeysLoaded();
+        }
+      }
+
+      @Override
+      public void onDrmSessionManagerError(Exception e) {
+        if (!canceled) {
+          player.onDrmSessionManagerError(e);
+        }
+      }
+
+    }
+
+    private void onRenderers(final TrackRenderer[] renderers,
+        final BandwidthMeter bandwidthMeter) {
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderers(renderers, bandwidthMeter);
+          }
+        }
+      });
+    }
+
+    private void onRenderersError(final Exception e) {
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            player.onRenderersError(e);
+          }
+        }
+      });
     }
 
   }
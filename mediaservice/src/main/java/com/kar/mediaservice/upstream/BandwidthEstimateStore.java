@@ -0,0 +1,228 @@
+package com.kar.mediaservice.upstream;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process wide store of the last bandwidth estimate per network type and host, persisted across
+ * sessions and process restarts so that playback can start at a sensible bitrate.
+ * <p/>
+ * Estimates are recorded under the host media segments are loaded from, which is often a CDN
+ * rather than the manifest's host. The segment host last seen for a manifest host is stored
+ * alongside, so that the next session can look up the estimate before its first segment load.
+ * <p/>
+ * Estimates are kept in memory and written to {@link SharedPreferences} at most once per
+ * {@link #PERSIST_INTERVAL_MS}, and on {@link #flush()}. Estimates older than
+ * {@link #MAX_ESTIMATE_AGE_MS} are not used. Ages are measured with
+ * {@link SystemClock#elapsedRealtime()}, and with the wall clock only for estimates persisted
+ * before the last reboot.
+ */
+public final class BandwidthEstimateStore {
+
+    public static final long PERSIST_INTERVAL_MS = 10000;
+    public static final long MAX_ESTIMATE_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "media_bandwidth_estimates";
+    private static final String BITRATE_SUFFIX = ".bitrate";
+    private static final String TIME_SUFFIX = ".time";
+    private static final String ELAPSED_REALTIME_SUFFIX = ".elapsedRealtime";
+    private static final String SEGMENT_KEY_SUFFIX = ".segmentKey";
+    // Boot times derived from the two clocks drift apart by this much without a reboot.
+    private static final long BOOT_TIME_TOLERANCE_MS = 60 * 1000;
+
+    private static BandwidthEstimateStore sInstance;
+
+    private final Context mCtx;
+    private final SharedPreferences mPrefs;
+    private final Map<String, Long> mEstimates;
+    private final Map<String, Long> mEstimateElapsedRealtimesMs;
+    private final Map<String, String> mSegmentKeys;
+    private boolean mDirty;
+    private long mLastPersistTimeMs;
+
+    /* package */ BandwidthEstimateStore(Context ctx, String prefsName) {
+        mCtx = ctx;
+        mPrefs = ctx.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+        mEstimates = new HashMap<>();
+        mEstimateElapsedRealtimesMs = new HashMap<>();
+        mSegmentKeys = new HashMap<>();
+        mLastPersistTimeMs = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the process wide store, creating it if necessary.
+     *
+     * @param ctx Any context. Only the application context is retained.
+     */
+    public static synchronized BandwidthEstimateStore getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new BandwidthEstimateStore(ctx.getApplicationContext(), PREFS_NAME);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the key under which estimates for the host of {@code url} on the current network are
+     * stored.
+     */
+    public String getKey(String url) {
+        return getHostKey(url == null ? null : Uri.parse(url).getHost());
+    }
+
+    /**
+     * Returns the key under which estimates for {@code host} on the current network are stored.
+     */
+    public String getHostKey(String host) {
+        return getNetworkType() + "|" + (TextUtils.isEmpty(host) ? "" : host);
+    }
+
+    /**
+     * Returns the key of the segment host last recorded for {@code manifestKey}, or
+     * {@code manifestKey} itself if there is none.
+     */
+    public synchronized String getSegmentKey(String manifestKey) {
+        String segmentKey = mSegmentKeys.get(manifestKey);
+        if (segmentKey == null) {
+            segmentKey = mPrefs.getString(manifestKey + SEGMENT_KEY_SUFFIX, manifestKey);
+        }
+        return segmentKey;
+    }
+
+    /**
+     * Records that the segments of the manifest with {@code manifestKey} are loaded from the host
+     * with {@code segmentKey}.
+     */
+    public synchronized void putSegmentKey(String manifestKey, String segmentKey) {
+        if (segmentKey.equals(getSegmentKey(manifestKey))) {
+            return;
+        }
+        mSegmentKeys.put(manifestKey, segmentKey);
+        onChanged(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the stored estimate for {@code key}, or {@link BandwidthMeter#NO_ESTIMATE} if there is
+     * none or it has expired.
+     */
+    public long getEstimate(String key) {
+        return getEstimate(key, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /* package */ synchronized long getEstimate(String key, long nowElapsedRealtimeMs,
+            long nowTimeMs) {
+        Long bitrate = mEstimates.get(key);
+        long ageMs;
+        if (bitrate != null) {
+            ageMs = nowElapsedRealtimeMs - mEstimateElapsedRealtimesMs.get(key);
+        } else {
+            bitrate = mPrefs.getLong(key + BITRATE_SUFFIX, BandwidthMeter.NO_ESTIMATE);
+            ageMs = getPersistedAgeMs(mPrefs.getLong(key + TIME_SUFFIX, 0),
+                    mPrefs.getLong(key + ELAPSED_REALTIME_SUFFIX, Long.MAX_VALUE),
+                    nowElapsedRealtimeMs, nowTimeMs);
+        }
+        if (bitrate == BandwidthMeter.NO_ESTIMATE || ageMs > MAX_ESTIMATE_AGE_MS) {
+            return BandwidthMeter.NO_ESTIMATE;
+        }
+        return bitrate;
+    }
+
+    /**
+     * Records the latest estimate for {@code key}.
+     */
+    public void putEstimate(String key, long bitrate) {
+        putEstimate(key, bitrate, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /* package */ synchronized void putEstimate(String key, long bitrate,
+            long nowElapsedRealtimeMs, long nowTimeMs) {
+        if (bitrate == BandwidthMeter.NO_ESTIMATE) {
+            return;
+        }
+        mEstimates.put(key, bitrate);
+        mEstimateElapsedRealtimesMs.put(key, nowElapsedRealtimeMs);
+        onChanged(nowElapsedRealtimeMs, nowTimeMs);
+    }
+
+    /**
+     * Writes any estimates recorded since the last write to storage, asynchronously.
+     */
+    public void flush() {
+        flush(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /* package */ synchronized void flush(long nowElapsedRealtimeMs, long nowTimeMs) {
+        if (mDirty) {
+            persist(nowElapsedRealtimeMs, nowTimeMs);
+        }
+    }
+
+    private void onChanged(long nowElapsedRealtimeMs, long nowTimeMs) {
+        mDirty = true;
+        if (mLastPersistTimeMs == Long.MIN_VALUE
+                || nowElapsedRealtimeMs - mLastPersistTimeMs >= PERSIST_INTERVAL_MS) {
+            persist(nowElapsedRealtimeMs, nowTimeMs);
+        }
+    }
+
+    private void persist(long nowElapsedRealtimeMs, long nowTimeMs) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, Long> entry : mEstimates.entrySet()) {
+            String key = entry.getKey();
+            long elapsedRealtimeMs = mEstimateElapsedRealtimesMs.get(key);
+            editor.putLong(key + BITRATE_SUFFIX, entry.getValue());
+            long ageMs = nowElapsedRealtimeMs - elapsedRealtimeMs;
+            editor.putLong(key + TIME_SUFFIX, nowTimeMs - ageMs);
+            editor.putLong(key + ELAPSED_REALTIME_SUFFIX, elapsedRealtimeMs);
+        }
+        for (Map.Entry<String, String> entry : mSegmentKeys.entrySet()) {
+            editor.putString(entry.getKey() + SEGMENT_KEY_SUFFIX, entry.getValue());
+        }
+        editor.apply();
+        mDirty = false;
+        mLastPersistTimeMs = nowElapsedRealtimeMs;
+    }
+
+    /**
+     * Returns the age of an estimate persisted at {@code timeMs} on the wall clock and
+     * {@code elapsedRealtimeMs} since boot. The wall clock may have been changed since, so it is
+     * only used if the device has rebooted, and an estimate from the future is considered expired.
+     */
+    private static long getPersistedAgeMs(long timeMs, long elapsedRealtimeMs,
+            long nowElapsedRealtimeMs, long nowTimeMs) {
+        long bootTimeMs = nowTimeMs - nowElapsedRealtimeMs;
+        if (elapsedRealtimeMs <= nowElapsedRealtimeMs
+                && Math.abs(timeMs - elapsedRealtimeMs - bootTimeMs) < BOOT_TIME_TOLERANCE_MS) {
+            return nowElapsedRealtimeMs - elapsedRealtimeMs;
+        }
+        long ageMs = nowTimeMs - timeMs;
+        return ageMs < 0 ? Long.MAX_VALUE : ageMs;
+    }
+
+    private String getNetworkType() {
+        NetworkInfo info;
+        try {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) mCtx.getSystemService(Context.CONNECTIVITY_SERVICE);
+            info = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+        } catch (SecurityException e) {
+            info = null;
+        }
+        if (info == null) {
+            return "unknown";
+        }
+        // Mobile estimates differ widely between radio technologies, so they are kept apart.
+        return info.getType() == ConnectivityManager.TYPE_MOBILE
+                ? info.getTypeName() + "/" + info.getSubtypeName() : info.getTypeName();
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * A {@link LoadControl} that holds back loads once its {@link PooledAllocator}'s buffer limit is
+ * reached, and otherwise defers to another load control.
+ */
+public final class BufferLimitLoadControl implements LoadControl {
+
+    private final LoadControl mLoadControl;
+    private final PooledAllocator mAllocator;
+
+    /**
+     * @param loadControl The load control that decides while the buffer limit is not reached.
+     * @param allocator   The allocator of {@code loadControl}, whose buffer limit is honored.
+     */
+    public BufferLimitLoadControl(LoadControl loadControl, PooledAllocator allocator) {
+        mLoadControl = loadControl;
+        mAllocator = allocator;
+    }
+
+    @Override
+    public void register(Object loader, int bufferSizeContribution) {
+        mLoadControl.register(loader, bufferSizeContribution);
+    }
+
+    @Override
+    public void unregister(Object loader) {
+        mLoadControl.unregister(loader);
+    }
+
+    @Override
+    public void trimAllocator() {
+        mLoadControl.trimAllocator();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mLoadControl.getAllocator();
+    }
+
+    @Override
+    public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+                          boolean loading) {
+        // The wrapped load control is always updated, so that it tracks every loader's state.
+        boolean shouldLoad = mLoadControl.update(loader, playbackPositionUs, nextLoadPositionUs,
+                loading);
+        return shouldLoad && !mAllocator.isBufferLimitReached();
+    }
+
+}
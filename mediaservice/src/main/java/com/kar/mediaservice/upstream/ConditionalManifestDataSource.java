@@ -0,0 +1,219 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link UriDataSource} for manifests that are reloaded repeatedly, such as live DASH and
+ * SmoothStreaming manifests.
+ * <p/>
+ * The {@code ETag} and {@code Last-Modified} validators of each response are stored together with
+ * its body, and sent as {@code If-None-Match} and {@code If-Modified-Since} on the next request
+ * for the same URI. A {@code 304 Not Modified} response is served from the stored body, and a
+ * parser wrapped with {@link #createParser(UriLoadable.Parser)} returns the previous manifest
+ * without parsing it again. Requests always allow gzip.
+ * <p/>
+ * One instance is meant to serve a single manifest, typically through a
+ * {@link com.google.android.exoplayer.util.ManifestFetcher}. Pass it as the HTTP data source of a
+ * {@link com.google.android.exoplayer.upstream.DefaultUriDataSource} to also support local URIs.
+ */
+public final class ConditionalManifestDataSource implements UriDataSource {
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final HttpDataSource mUpstream;
+
+    private String mCachedUri;
+    private String mCachedETag;
+    private String mCachedLastModified;
+    private byte[] mCachedBody;
+
+    private String mUri;
+    private String mETag;
+    private String mLastModified;
+    private ByteArrayOutputStream mBody;
+    private long mBodyBytesRemaining;
+    private boolean mBodyComplete;
+    private byte[] mNotModifiedBody;
+    private int mNotModifiedReadPosition;
+    private volatile boolean mLastResponseNotModified;
+    private int mNotModifiedCount;
+
+    public ConditionalManifestDataSource(HttpDataSource upstream) {
+        mUpstream = upstream;
+    }
+
+    /**
+     * Wraps {@code parser} so that a manifest that was not modified since the previous load is not
+     * parsed again, and the previous result is returned instead.
+     */
+    public <T> UriLoadable.Parser<T> createParser(final UriLoadable.Parser<T> parser) {
+        return new UriLoadable.Parser<T>() {
+
+            private T mLastManifest;
+
+            @Override
+            public T parse(String connectionUrl, InputStream inputStream) throws IOException {
+                if (mLastResponseNotModified && mLastManifest != null) {
+                    return mLastManifest;
+                }
+                mLastManifest = parser.parse(connectionUrl, inputStream);
+                return mLastManifest;
+            }
+
+        };
+    }
+
+    /**
+     * Returns whether the last response was {@code 304 Not Modified}.
+     */
+    public boolean isLastResponseNotModified() {
+        return mLastResponseNotModified;
+    }
+
+    /**
+     * Returns the number of responses that were {@code 304 Not Modified}.
+     */
+    public synchronized int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    @Override
+    public synchronized long open(DataSpec dataSpec) throws IOException {
+        mUri = String.valueOf(dataSpec.uri);
+        mLastResponseNotModified = false;
+        boolean conditional = mCachedBody != null && mUri.equals(mCachedUri);
+        if (conditional) {
+            if (mCachedETag != null) {
+                mUpstream.setRequestProperty(HEADER_IF_NONE_MATCH, mCachedETag);
+            }
+            if (mCachedLastModified != null) {
+                mUpstream.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mCachedLastModified);
+            }
+        }
+        DataSpec gzipDataSpec = new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition,
+                dataSpec.position, dataSpec.length, dataSpec.key,
+                dataSpec.flags | DataSpec.FLAG_ALLOW_GZIP);
+        try {
+            long length = mUpstream.open(gzipDataSpec);
+            Map<String, List<String>> headers = mUpstream.getResponseHeaders();
+            mETag = getHeader(headers, HEADER_ETAG);
+            mLastModified = getHeader(headers, HEADER_LAST_MODIFIED);
+            mBody = mETag != null || mLastModified != null ? new ByteArrayOutputStream() : null;
+            mBodyBytesRemaining = length;
+            mBodyComplete = length == 0;
+            return length;
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            if (!conditional || e.responseCode != HTTP_NOT_MODIFIED) {
+                throw e;
+            }
+            mLastResponseNotModified = true;
+            mNotModifiedCount++;
+            mNotModifiedBody = mCachedBody;
+            mNotModifiedReadPosition = 0;
+            return mNotModifiedBody.length;
+        } finally {
+            mUpstream.clearRequestProperty(HEADER_IF_NONE_MATCH);
+            mUpstream.clearRequestProperty(HEADER_IF_MODIFIED_SINCE);
+        }
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mNotModifiedBody != null) {
+            int remaining = mNotModifiedBody.length - mNotModifiedReadPosition;
+            if (remaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(remaining, readLength);
+            System.arraycopy(mNotModifiedBody, mNotModifiedReadPosition, buffer, offset, bytesRead);
+            mNotModifiedReadPosition += bytesRead;
+            return bytesRead;
+        }
+        int bytesRead = mUpstream.read(buffer, offset, readLength);
+        if (mBody != null) {
+            onBodyRead(buffer, offset, bytesRead);
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mNotModifiedBody != null) {
+            mNotModifiedBody = null;
+            return;
+        }
+        try {
+            if (mBody != null && !mBodyComplete) {
+                // Parsers stop at the closing tag of the document and close the stream without
+                // reading to its end, which the stored body needs.
+                drainBody();
+            }
+            mUpstream.close();
+        } finally {
+            if (mBody != null && mBodyComplete) {
+                mCachedUri = mUri;
+                mCachedETag = mETag;
+                mCachedLastModified = mLastModified;
+                mCachedBody = mBody.toByteArray();
+            }
+            mBody = null;
+        }
+    }
+
+    private void onBodyRead(byte[] buffer, int offset, int bytesRead) {
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+            mBodyComplete = true;
+            return;
+        }
+        mBody.write(buffer, offset, bytesRead);
+        if (mBodyBytesRemaining != C.LENGTH_UNBOUNDED) {
+            mBodyBytesRemaining -= bytesRead;
+            mBodyComplete = mBodyBytesRemaining == 0;
+        }
+    }
+
+    private void drainBody() {
+        byte[] buffer = new byte[4096];
+        try {
+            while (!mBodyComplete) {
+                onBodyRead(buffer, 0, mUpstream.read(buffer, 0, buffer.length));
+            }
+        } catch (IOException e) {
+            // The body is incomplete, and is not stored.
+        }
+    }
+
+    @Override
+    public String getUri() {
+        return mLastResponseNotModified ? mCachedUri : mUpstream.getUri();
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            // Header names are case insensitive.
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null
+                    && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.kar.mediaservice.upstream;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.util.ManifestFetcher;
+import com.kar.mediaservice.MediaSDKService;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the start of upcoming DASH periods into the {@link SegmentCache} shortly before playback
+ * reaches them, so that the chunk sources find their initialization and first media segments on
+ * disk at the period boundary.
+ * <p/>
+ * For each upcoming period, the initialization segments of all video and audio representations
+ * are loaded, together with the first media segment of every audio representation and of the video
+ * representation that fits the current bandwidth estimate. Segments are stored under
+ * {@link SegmentCache#getCacheKey(android.net.Uri)}, where the chunk sources' loads look them up.
+ * Has no effect unless the segment cache is enabled.
+ * <p/>
+ * {@link #prefetch(Period, long, long, long, Runnable)} also lets renderer builders load the start
+ * of the first period while the rest of the session is being set up.
+ * <p/>
+ * Polling stops once every upcoming period of a static manifest has been prefetched, if the
+ * segment cache is disabled, or on {@link #release()}, which the renderer builder calls when it is
+ * canceled, i.e. when the player is prepared again, reset or released.
+ */
+public final class DashPeriodPrefetcher {
+
+    private static final String TAG = "DashPeriodPrefetcher";
+
+    public static final long DEFAULT_LOOKAHEAD_MS = 10000;
+
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final float BANDWIDTH_FRACTION = 0.75f;
+
+    private final ManifestFetcher<MediaPresentationDescription> mManifestFetcher;
+    private final MediaSDKService mPlayer;
+    private final BandwidthMeter mBandwidthMeter;
+    private final DataSourceFactory mDataSourceFactory;
+    private final Handler mHandler;
+    private final long mLookaheadMs;
+    private final Set<Long> mPrefetchedPeriodStartsMs;
+    private final Runnable mPollRunnable;
+
+    private volatile boolean mReleased;
+
+    /**
+     * @param manifestFetcher The fetcher of the playing manifest, which may refresh it.
+     * @param player          The player, for its playback position.
+     * @param bandwidthMeter  The bandwidth meter of the session, from which the video
+     *                        representation of upcoming periods is selected. May be null.
+     * @param handler         The handler on which to poll the playback position.
+     * @param lookaheadMs     How long before a period starts to load its first segments.
+     */
+    public DashPeriodPrefetcher(ManifestFetcher<MediaPresentationDescription> manifestFetcher,
+                                MediaSDKService player, BandwidthMeter bandwidthMeter,
+                                Handler handler, long lookaheadMs) {
+        mManifestFetcher = manifestFetcher;
+        mPlayer = player;
+        mBandwidthMeter = bandwidthMeter;
+        mDataSourceFactory = player.getDataSourceFactory();
+        mHandler = handler;
+        mLookaheadMs = lookaheadMs;
+        mPrefetchedPeriodStartsMs = new HashSet<>();
+        mPollRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased && poll()) {
+                    mHandler.postDelayed(this, POLL_INTERVAL_MS);
+                }
+            }
+        };
+    }
+
+    public void start() {
+        mHandler.post(mPollRunnable);
+    }
+
+    public void release() {
+        mReleased = true;
+        mHandler.removeCallbacks(mPollRunnable);
+    }
+
+    /**
+     * Prefetches the periods that start within the lookahead, and returns whether to poll again.
+     */
+    private boolean poll() {
+        if (mDataSourceFactory.getSegmentCache() == null) {
+            // The chunk sources' data sources are created without the cache, and stay so.
+            return false;
+        }
+        MediaPresentationDescription manifest = mManifestFetcher.getManifest();
+        if (manifest == null) {
+            return true;
+        }
+        long positionMs = mPlayer.getCurrentPosition();
+        boolean periodsLeft = false;
+        for (int i = 1; i < manifest.getPeriodCount(); i++) {
+            Period period = manifest.getPeriod(i);
+            if (mPrefetchedPeriodStartsMs.contains(period.startMs)) {
+                continue;
+            }
+            if (period.startMs > positionMs && period.startMs - positionMs <= mLookaheadMs) {
+                mPrefetchedPeriodStartsMs.add(period.startMs);
+                prefetch(period);
+            } else {
+                // Including periods already played, which a seek may return to.
+                periodsLeft = true;
+            }
+        }
+        // Only a dynamic manifest may gain periods on refresh.
+        return manifest.dynamic || periodsLeft;
+    }
+
+    private void prefetch(Period period) {
+        prefetch(period, C.UNKNOWN_TIME_US, C.UNKNOWN_TIME_US,
+                mBandwidthMeter == null ? BandwidthMeter.NO_ESTIMATE
+                        : mBandwidthMeter.getBitrateEstimate(), null);
+    }
+
+    /**
+     * Loads the initialization segments of a period and the media segments from which its playback
+     * would start, in the background.
+     *
+     * @param period             The period.
+     * @param periodDurationUs   The duration of the period, or {@link C#UNKNOWN_TIME_US}.
+     * @param positionInPeriodUs The position in the period from which playback would start, or
+     *                           {@link C#UNKNOWN_TIME_US} to load the first media segments.
+     * @param bitrateEstimate    The bandwidth estimate from which to select the video
+     *                           representation, or {@link BandwidthMeter#NO_ESTIMATE}.
+     * @param onComplete         Run once the segments are loaded, or failed to load, on a
+     *                           background thread. May be null.
+     */
+    public void prefetch(Period period, long periodDurationUs, long positionInPeriodUs,
+                         long bitrateEstimate, final Runnable onComplete) {
+        if (mDataSourceFactory.getSegmentCache() == null) {
+            if (onComplete != null) {
+                onComplete.run();
+            }
+            return;
+        }
+        final DataSource dataSource = mDataSourceFactory.createDataSource(null);
+        // Keyed by cache key and range, since DataSpec does not implement equals(). In insertion
+        // order, so that initialization segments are loaded first.
+        final Map<String, DataSpec> dataSpecs = new LinkedHashMap<>();
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            if (adaptationSet.type == AdaptationSet.TYPE_VIDEO) {
+                Representation selected = selectVideoRepresentation(adaptationSet.representations,
+                        bitrateEstimate);
+                for (Representation representation : adaptationSet.representations) {
+                    addSegments(representation, representation == selected, periodDurationUs,
+                            positionInPeriodUs, dataSpecs);
+                }
+            } else if (adaptationSet.type == AdaptationSet.TYPE_AUDIO) {
+                for (Representation representation : adaptationSet.representations) {
+                    addSegments(representation, true, periodDurationUs, positionInPeriodUs,
+                            dataSpecs);
+                }
+            }
+        }
+        UpstreamExecutor.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] buffer = new byte[16 * 1024];
+                    for (DataSpec dataSpec : dataSpecs.values()) {
+                        if (mReleased) {
+                            return;
+                        }
+                        load(dataSource, dataSpec, buffer);
+                    }
+                } finally {
+                    if (onComplete != null) {
+                        onComplete.run();
+                    }
+                }
+            }
+        });
+    }
+
+    private static Representation selectVideoRepresentation(List<Representation> representations,
+                                                             long bitrateEstimate) {
+        Representation lowest = null;
+        Representation selected = null;
+        long maxBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE ? 0
+                : (long) (bitrateEstimate * BANDWIDTH_FRACTION);
+        for (Representation representation : representations) {
+            int bitrate = representation.format.bitrate;
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = representation;
+            }
+            if (bitrate <= maxBitrate && (selected == null || bitrate > selected.format.bitrate)) {
+                selected = representation;
+            }
+        }
+        return selected != null ? selected : lowest;
+    }
+
+    private static void addSegments(Representation representation, boolean mediaSegment,
+                                    long periodDurationUs, long positionInPeriodUs,
+                                    Map<String, DataSpec> dataSpecs) {
+        addDataSpec(representation.getInitializationUri(), dataSpecs);
+        if (!mediaSegment) {
+            return;
+        }
+        DashSegmentIndex index = representation.getIndex();
+        if (index == null) {
+            // A single segment representation, whose index is loaded by the chunk source.
+            return;
+        }
+        int segmentNum = positionInPeriodUs == C.UNKNOWN_TIME_US ? index.getFirstSegmentNum()
+                : index.getSegmentNum(positionInPeriodUs, periodDurationUs);
+        addDataSpec(index.getSegmentUrl(segmentNum), dataSpecs);
+    }
+
+    private static void addDataSpec(RangedUri rangedUri, Map<String, DataSpec> dataSpecs) {
+        if (rangedUri == null) {
+            return;
+        }
+        // Not the representation's cache key, which its segments share.
+        String cacheKey = SegmentCache.getCacheKey(rangedUri.getUri());
+        String key = cacheKey + ':' + rangedUri.start + '-' + rangedUri.length;
+        if (!dataSpecs.containsKey(key)) {
+            dataSpecs.put(key, new DataSpec(rangedUri.getUri(), rangedUri.start, rangedUri.length,
+                    cacheKey));
+        }
+    }
+
+    private static void load(DataSource dataSource, DataSpec dataSpec, byte[] buffer) {
+        try {
+            dataSource.open(dataSpec);
+            while (dataSource.read(buffer, 0, buffer.length) != C.RESULT_END_OF_INPUT) {
+                // Data is written to the cache as it is read.
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Prefetch failed: " + dataSpec.uri, e);
+        } finally {
+            try {
+                dataSource.close();
+            } catch (IOException e) {
+                // Nothing to recover.
+            }
+        }
+    }
+
+}
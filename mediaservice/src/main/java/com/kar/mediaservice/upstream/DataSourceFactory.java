@@ -0,0 +1,211 @@
+package com.kar.mediaservice.upstream;
+
+import android.content.Context;
+
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.kar.mediaservice.MediaSDKService;
+
+import java.util.Arrays;
+
+/**
+ * Creates the {@link DataSource}s that the renderer builders use to load manifests and media, so
+ * that player wide upstream configuration applies to every builder.
+ * <p/>
+ * All HTTP requests go through {@link PooledHttpDataSource}s sharing one
+ * {@link HttpConnectionPool}, so that the tracks of a session, and sessions that follow each
+ * other, reuse keep-alive connections.
+ */
+public class DataSourceFactory {
+
+    public static final float DEFAULT_HEDGE_PERCENTILE = 0.9f;
+
+    private final Context mCtx;
+    private final String mUserAgent;
+    private final HttpConnectionPool mConnectionPool;
+    private final LoadLatencyTracker mLoadLatencyTracker;
+    private final boolean[] mHedgingEnabled;
+
+    private volatile SegmentCache mSegmentCache;
+    private volatile float mHedgePercentile;
+    private volatile int mProgressiveConnectionCount;
+
+    public DataSourceFactory(Context ctx, String userAgent) {
+        this(ctx, userAgent, HttpConnectionPool.getInstance());
+    }
+
+    public DataSourceFactory(Context ctx, String userAgent, HttpConnectionPool connectionPool) {
+        mCtx = ctx;
+        mUserAgent = userAgent;
+        mConnectionPool = connectionPool;
+        mLoadLatencyTracker = new LoadLatencyTracker(MediaSDKService.RENDERER_COUNT);
+        mHedgingEnabled = new boolean[MediaSDKService.RENDERER_COUNT];
+        mHedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        mProgressiveConnectionCount = 1;
+    }
+
+    /**
+     * Restores the configuration set through this class's setters to its defaults: no segment
+     * cache, no hedging and a single connection for progressive streams. The connection pool and
+     * the load statistics are kept.
+     */
+    public synchronized void resetConfiguration() {
+        mSegmentCache = null;
+        Arrays.fill(mHedgingEnabled, false);
+        mHedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        mProgressiveConnectionCount = 1;
+    }
+
+    /**
+     * Sets the cache through which media data is loaded. May be null to disable caching.
+     */
+    public void setSegmentCache(SegmentCache segmentCache) {
+        mSegmentCache = segmentCache;
+    }
+
+    public SegmentCache getSegmentCache() {
+        return mSegmentCache;
+    }
+
+    /**
+     * Enables or disables hedged requests for the data sources subsequently created for
+     * {@code trackType}. See {@link HedgedDataSource}.
+     *
+     * @param trackType A {@link MediaSDKService} TYPE_* constant.
+     */
+    public synchronized void setHedgingEnabled(int trackType, boolean enabled) {
+        mHedgingEnabled[trackType] = enabled;
+    }
+
+    public synchronized boolean isHedgingEnabled(int trackType) {
+        return trackType >= 0 && trackType < mHedgingEnabled.length && mHedgingEnabled[trackType];
+    }
+
+    /**
+     * Sets the percentile of recent response times after which a request is hedged.
+     */
+    public void setHedgePercentile(float percentile) {
+        mHedgePercentile = percentile;
+    }
+
+    /**
+     * Sets the number of connections progressive streams are downloaded over. See
+     * {@link ParallelRangeDataSource}. Defaults to 1, a single connection.
+     */
+    public void setProgressiveConnectionCount(int connectionCount) {
+        mProgressiveConnectionCount = connectionCount;
+    }
+
+    /**
+     * Returns the tracker of recent load latencies, which the {@link HedgedDataSource}s created by
+     * this factory feed with the response times of their network requests.
+     */
+    public LoadLatencyTracker getLoadLatencyTracker() {
+        return mLoadLatencyTracker;
+    }
+
+    /**
+     * Creates a {@link DataSource} for loading media data.
+     *
+     * @param listener An optional listener, typically the bandwidth meter. May be null.
+     */
+    public DataSource createDataSource(TransferListener listener) {
+        return createDataSource(listener, -1);
+    }
+
+    /**
+     * Creates a {@link DataSource} for loading the media data of a track. Every request made
+     * through it must be for a segment.
+     *
+     * @param listener  An optional listener, typically the bandwidth meter. May be null.
+     * @param trackType The {@link MediaSDKService} TYPE_* constant of the track, or -1 if unknown.
+     */
+    public DataSource createDataSource(TransferListener listener, int trackType) {
+        return maybeWrapWithCache(createUncachedDataSource(listener, trackType), true);
+    }
+
+    /**
+     * Creates a {@link DataSource} for an HLS chunk source, which loads media playlists and
+     * encryption keys through it as well as segments. Only segments requested as byte ranges are
+     * cached.
+     *
+     * @param listener  An optional listener, typically the bandwidth meter. May be null.
+     * @param trackType The {@link MediaSDKService} TYPE_* constant of the track, or -1 if unknown.
+     */
+    public DataSource createHlsDataSource(TransferListener listener, int trackType) {
+        return maybeWrapWithCache(createUncachedDataSource(listener, trackType), false);
+    }
+
+    private DataSource createUncachedDataSource(TransferListener listener, int trackType) {
+        DataSource dataSource = new DefaultUriDataSource(mCtx, listener,
+                createHttpDataSource(listener));
+        if (isHedgingEnabled(trackType)) {
+            // The backup request only connects if the pool allows it right away, so that hedging
+            // does not hold up the connects of other loads.
+            DataSource backup = new DefaultUriDataSource(mCtx, listener,
+                    createHttpDataSource(listener, 0));
+            dataSource = new HedgedDataSource(dataSource, backup, mLoadLatencyTracker, trackType,
+                    mHedgePercentile);
+        }
+        return dataSource;
+    }
+
+    /**
+     * Creates a {@link DataSource} for reading a progressive stream, i.e. a single media file.
+     *
+     * @param listener  An optional listener, typically the bandwidth meter. May be null.
+     * @param allocator The allocator of the player, from which data downloaded ahead of the read
+     *                  position is allocated.
+     */
+    public DataSource createProgressiveDataSource(TransferListener listener, Allocator allocator) {
+        UriDataSource dataSource = new DefaultUriDataSource(mCtx, listener,
+                createHttpDataSource(listener));
+        int connectionCount = mProgressiveConnectionCount;
+        if (connectionCount > 1) {
+            return maybeWrapWithCache(new ParallelRangeDataSource(this, listener, dataSource,
+                    allocator, connectionCount, ParallelRangeDataSource.DEFAULT_BLOCK_SIZE), true);
+        }
+        return maybeWrapWithCache(dataSource, true);
+    }
+
+    /**
+     * Creates a {@link UriDataSource} for loading manifests and other small documents, which are
+     * not cached.
+     */
+    public UriDataSource createManifestDataSource() {
+        return new DefaultUriDataSource(mCtx, null, createHttpDataSource(null));
+    }
+
+    /**
+     * Creates an {@link HttpDataSource} on the shared connection pool.
+     *
+     * @param listener An optional listener, typically the bandwidth meter. May be null.
+     */
+    public HttpDataSource createHttpDataSource(TransferListener listener) {
+        return createHttpDataSource(listener, PooledHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates an {@link HttpDataSource} on the shared connection pool.
+     *
+     * @param listener          An optional listener, typically the bandwidth meter. May be null.
+     * @param poolTimeoutMillis How long requests wait for the pool to let them connect, in
+     *                          milliseconds. 0 to fail at once if the pool's limits are reached.
+     */
+    public HttpDataSource createHttpDataSource(TransferListener listener, int poolTimeoutMillis) {
+        return new PooledHttpDataSource(mConnectionPool, mUserAgent, listener,
+                PooledHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                PooledHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, poolTimeoutMillis);
+    }
+
+    private DataSource maybeWrapWithCache(DataSource dataSource, boolean cacheUnboundedRequests) {
+        SegmentCache segmentCache = mSegmentCache;
+        return segmentCache == null ? dataSource
+                : segmentCache.createDataSource(dataSource, cacheUnboundedRequests);
+    }
+
+}
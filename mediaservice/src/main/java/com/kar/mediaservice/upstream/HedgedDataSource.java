@@ -0,0 +1,294 @@
+package com.kar.mediaservice.upstream;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DataSource} that hedges slow requests: if a request has not started responding within a
+ * percentile of recent response times, it is made again on a second source, and whichever
+ * responds first is read while the other is canceled.
+ * <p/>
+ * A request has responded once its source has been opened and the first read has returned. Only
+ * that first read, at most {@link #FIRST_READ_SIZE} bytes, is buffered; the rest of the response
+ * is streamed from the winning source. Until the {@link LoadLatencyTracker} has enough samples to
+ * derive a threshold, requests go straight to the primary source.
+ * <p/>
+ * The tracker is fed with the response times of the requests made through this source, which sits
+ * below any cache, so that cache hits do not lower the threshold.
+ */
+public final class HedgedDataSource implements DataSource {
+
+    /**
+     * The maximum number of bytes read by each source before the request is handed to the reader.
+     */
+    public static final int FIRST_READ_SIZE = 16 * 1024;
+
+    private static final long WAIT_INDEFINITELY = -1;
+
+    private final DataSource mPrimary;
+    private final DataSource mBackup;
+    private final LoadLatencyTracker mTracker;
+    private final int mTrackType;
+    private final float mPercentile;
+    private final Object mLock;
+    private final AtomicInteger mHedgeCount;
+    private final AtomicInteger mBackupWinCount;
+
+    private DataSource mOpenSource;
+    private byte[] mFirstData;
+    private int mFirstDataLength;
+    private boolean mFirstReadEnded;
+    private int mReadPosition;
+
+    /**
+     * @param primary    The source that each request is made to first.
+     * @param backup     The source that slow requests are repeated on. Must not share state with
+     *                   {@code primary}, since both may load at the same time. Should fail rather
+     *                   than wait if no connection is available, since the primary keeps loading.
+     * @param tracker    The tracker of recent response times.
+     * @param trackType  The track type of the loads, as a {@code MediaSDKService} TYPE_* constant.
+     * @param percentile The percentile of recent response times after which a request is hedged.
+     */
+    public HedgedDataSource(DataSource primary, DataSource backup, LoadLatencyTracker tracker,
+                            int trackType, float percentile) {
+        mPrimary = primary;
+        mBackup = backup;
+        mTracker = tracker;
+        mTrackType = trackType;
+        mPercentile = percentile;
+        mLock = new Object();
+        mHedgeCount = new AtomicInteger();
+        mBackupWinCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns the number of requests that were repeated on the backup source.
+     */
+    public int getHedgeCount() {
+        return mHedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedged requests that the backup source responded to first.
+     */
+    public int getBackupWinCount() {
+        return mBackupWinCount.get();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        long startTimeMs = SystemClock.elapsedRealtime();
+        long thresholdMs = mTracker.getPercentileMs(mTrackType, mPercentile);
+        Attempt primary = new Attempt(mPrimary, dataSpec);
+        Attempt winner;
+        if (thresholdMs == LoadLatencyTracker.UNKNOWN) {
+            primary.run();
+            winner = primary;
+        } else {
+            Attempt backup = null;
+            winner = null;
+            start(primary);
+            try {
+                // Responses are never faster than a threshold of 0, so those are hedged at once.
+                if (thresholdMs > 0) {
+                    winner = awaitFirst(primary, null, thresholdMs);
+                }
+                if (winner == null) {
+                    mHedgeCount.incrementAndGet();
+                    backup = start(new Attempt(mBackup, dataSpec));
+                    winner = awaitFirst(primary, backup, WAIT_INDEFINITELY);
+                }
+            } finally {
+                if (primary != winner) {
+                    primary.cancel();
+                }
+                if (backup != null && backup != winner) {
+                    backup.cancel();
+                }
+            }
+            if (winner == backup && winner.mError == null) {
+                mBackupWinCount.incrementAndGet();
+            }
+        }
+
+        if (winner.mError != null) {
+            throw winner.mError;
+        }
+        mTracker.onLoadCompleted(mTrackType, winner.mResponseTimeMs - startTimeMs);
+        mOpenSource = winner.mDataSource;
+        mFirstData = winner.mFirstData;
+        mFirstDataLength = winner.mFirstDataLength;
+        mFirstReadEnded = winner.mFirstReadEnded;
+        mReadPosition = 0;
+        return winner.mLength;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int remaining = mFirstDataLength - mReadPosition;
+        if (remaining == 0) {
+            return mFirstReadEnded ? C.RESULT_END_OF_INPUT
+                    : mOpenSource.read(buffer, offset, readLength);
+        }
+        int bytesRead = Math.min(remaining, readLength);
+        System.arraycopy(mFirstData, mReadPosition, buffer, offset, bytesRead);
+        mReadPosition += bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFirstData = null;
+        mFirstDataLength = 0;
+        if (mOpenSource != null) {
+            DataSource openSource = mOpenSource;
+            mOpenSource = null;
+            openSource.close();
+        }
+    }
+
+    private Attempt start(Attempt attempt) {
+        attempt.mFuture = UpstreamExecutor.getExecutor().submit(attempt);
+        return attempt;
+    }
+
+    /**
+     * Waits for the first of the started attempts to succeed, or for all of them to fail.
+     *
+     * @param timeoutMs The maximum time to wait, or {@link #WAIT_INDEFINITELY}.
+     * @return The attempt that succeeded, the first attempt if all failed, or null on timeout.
+     */
+    private Attempt awaitFirst(Attempt first, Attempt second, long timeoutMs)
+            throws InterruptedIOException {
+        long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (mLock) {
+            while (true) {
+                if (first.mDone && first.mError == null) {
+                    return first;
+                }
+                if (second != null && second.mDone && second.mError == null) {
+                    return second;
+                }
+                if (first.mDone && (second == null || second.mDone)) {
+                    return first;
+                }
+                long waitMs = 0;
+                if (timeoutMs != WAIT_INDEFINITELY) {
+                    waitMs = deadlineMs - SystemClock.elapsedRealtime();
+                    if (waitMs <= 0) {
+                        return null;
+                    }
+                }
+                try {
+                    mLock.wait(waitMs);
+                } catch (InterruptedException e) {
+                    // The loader was canceled.
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            // Closing a canceled or failed load, nothing to recover.
+        }
+    }
+
+    /**
+     * Opens one source and reads the first bytes of the response. If that succeeds, the source is
+     * left open for the rest to be read, unless the attempt is canceled.
+     */
+    private final class Attempt implements Runnable {
+
+        private final DataSource mDataSource;
+        private final DataSpec mDataSpec;
+
+        private volatile boolean mCanceled;
+        private Future<?> mFuture;
+
+        // Guarded by mLock.
+        private boolean mDone;
+        private boolean mOpen;
+        private IOException mError;
+        private long mLength;
+        private byte[] mFirstData;
+        private int mFirstDataLength;
+        private boolean mFirstReadEnded;
+        private long mResponseTimeMs;
+
+        public Attempt(DataSource dataSource, DataSpec dataSpec) {
+            mDataSource = dataSource;
+            mDataSpec = dataSpec;
+        }
+
+        public void cancel() {
+            synchronized (mLock) {
+                mCanceled = true;
+                if (mOpen) {
+                    mOpen = false;
+                    closeQuietly(mDataSource);
+                }
+            }
+            if (mFuture != null) {
+                mFuture.cancel(true);
+            }
+        }
+
+        @Override
+        public void run() {
+            long length = C.LENGTH_UNBOUNDED;
+            byte[] firstData = null;
+            int firstDataLength = 0;
+            boolean firstReadEnded = false;
+            IOException error = null;
+            try {
+                length = mDataSource.open(mDataSpec);
+                if (length == 0) {
+                    firstReadEnded = true;
+                } else {
+                    firstData = new byte[length != C.LENGTH_UNBOUNDED
+                            ? (int) Math.min(length, FIRST_READ_SIZE) : FIRST_READ_SIZE];
+                    int bytesRead = mDataSource.read(firstData, 0, firstData.length);
+                    if (bytesRead == C.RESULT_END_OF_INPUT) {
+                        firstReadEnded = true;
+                    } else {
+                        firstDataLength = bytesRead;
+                    }
+                }
+                if (mCanceled) {
+                    error = new InterruptedIOException();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (mLock) {
+                mOpen = error == null && !mCanceled;
+                if (!mOpen) {
+                    closeQuietly(mDataSource);
+                }
+                mDone = true;
+                mError = error;
+                mLength = length;
+                mFirstData = firstData;
+                mFirstDataLength = firstDataLength;
+                mFirstReadEnded = firstReadEnded;
+                mResponseTimeMs = SystemClock.elapsedRealtime();
+                mLock.notifyAll();
+            }
+        }
+
+    }
+
+}
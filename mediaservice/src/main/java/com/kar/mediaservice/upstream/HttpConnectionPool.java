@@ -0,0 +1,132 @@
+package com.kar.mediaservice.upstream;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide limits on the HTTP connects made by {@link PooledHttpDataSource}s.
+ * <p/>
+ * The platform {@link java.net.HttpURLConnection} keeps idle keep-alive connections in a process
+ * wide pool. This class bounds the number of requests connecting per host and in total, i.e.
+ * waiting for a connection and its response headers, so that bursts of video, audio and text loads
+ * of all players queue for warm connections instead of opening new ones. It does not change the
+ * platform pool, which is shared with the rest of the application: apps that want more idle
+ * connections kept per host than the platform default set the {@code http.maxConnections} system
+ * property themselves.
+ * <p/>
+ * Responses that are being read, or parked on a full buffer, do not count against the limits, so a
+ * request only waits for other connects to complete. Requests still wait a bounded time and fail
+ * if no connect completes, so that the loader retries them.
+ */
+public final class HttpConnectionPool {
+
+    public static final int DEFAULT_MAX_CONNECTS_PER_HOST = 6;
+    public static final int DEFAULT_MAX_CONNECTS = 16;
+
+    private static HttpConnectionPool sInstance;
+
+    private final int mMaxConnectsPerHost;
+    private final int mMaxConnects;
+    // Only hosts with connects in progress have an entry.
+    private final Map<String, Integer> mHostConnectCounts;
+    private final AtomicLong mRequestCount;
+    private final AtomicLong mWaitTimeMs;
+    private int mConnectCount;
+
+    /* package */ HttpConnectionPool(int maxConnectsPerHost, int maxConnects) {
+        mMaxConnectsPerHost = maxConnectsPerHost;
+        mMaxConnects = maxConnects;
+        mHostConnectCounts = new HashMap<>();
+        mRequestCount = new AtomicLong();
+        mWaitTimeMs = new AtomicLong();
+    }
+
+    public static HttpConnectionPool getInstance() {
+        return getInstance(DEFAULT_MAX_CONNECTS_PER_HOST, DEFAULT_MAX_CONNECTS);
+    }
+
+    /**
+     * Returns the process wide pool, creating it if necessary.
+     *
+     * @param maxConnectsPerHost The maximum number of requests connecting to a single host.
+     *                           Ignored if the pool has already been created.
+     * @param maxConnects        The maximum number of requests connecting in total. Ignored if
+     *                           the pool has already been created.
+     */
+    public static synchronized HttpConnectionPool getInstance(int maxConnectsPerHost,
+                                                              int maxConnects) {
+        if (sInstance == null) {
+            sInstance = new HttpConnectionPool(maxConnectsPerHost, maxConnects);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Blocks until a request to {@code host} may connect, or {@code timeoutMs} has elapsed.
+     *
+     * @return Whether the request may connect. If true, {@link #release(String)} must be called
+     *     once its response headers have been received or the connect has failed.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    /* package */ synchronized boolean acquire(String host, long timeoutMs)
+            throws InterruptedException {
+        String key = host == null ? "" : host;
+        long startTimeMs = SystemClock.elapsedRealtime();
+        long remainingMs = timeoutMs;
+        while (mConnectCount >= mMaxConnects || getHostConnectCount(key) >= mMaxConnectsPerHost) {
+            if (remainingMs <= 0) {
+                mWaitTimeMs.addAndGet(timeoutMs);
+                return false;
+            }
+            wait(remainingMs);
+            remainingMs = startTimeMs + timeoutMs - SystemClock.elapsedRealtime();
+        }
+        mConnectCount++;
+        mHostConnectCounts.put(key, getHostConnectCount(key) + 1);
+        mWaitTimeMs.addAndGet(SystemClock.elapsedRealtime() - startTimeMs);
+        mRequestCount.incrementAndGet();
+        return true;
+    }
+
+    /* package */ synchronized void release(String host) {
+        String key = host == null ? "" : host;
+        int hostConnectCount = getHostConnectCount(key) - 1;
+        if (hostConnectCount > 0) {
+            mHostConnectCounts.put(key, hostConnectCount);
+        } else {
+            mHostConnectCounts.remove(key);
+        }
+        mConnectCount--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of requests made through the pool.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the total time requests have waited for the per-host and global limits.
+     */
+    public long getWaitTimeMs() {
+        return mWaitTimeMs.get();
+    }
+
+    /**
+     * Returns the number of hosts with connects in progress.
+     */
+    /* package */ synchronized int getConnectingHostCount() {
+        return mHostConnectCounts.size();
+    }
+
+    private int getHostConnectCount(String key) {
+        Integer count = mHostConnectCounts.get(key);
+        return count == null ? 0 : count;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.kar.mediaservice.upstream;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the latencies of recent chunk loads per track type, e.g. the time until a response
+ * started, to derive the point past which a load is considered slow.
+ * <p/>
+ * Each track type keeps a window of its last {@link #WINDOW_SIZE} latencies. Thread safe.
+ */
+public final class LoadLatencyTracker {
+
+    public static final int WINDOW_SIZE = 32;
+    public static final int MIN_SAMPLES = 8;
+    public static final long UNKNOWN = -1;
+
+    private final long[][] mDurationsMs;
+    private final int[] mSampleCounts;
+    private final long[] mSortScratch;
+
+    /**
+     * @param trackTypeCount The number of track types, see {@code MediaSDKService.RENDERER_COUNT}.
+     */
+    public LoadLatencyTracker(int trackTypeCount) {
+        mDurationsMs = new long[trackTypeCount][WINDOW_SIZE];
+        mSampleCounts = new int[trackTypeCount];
+        mSortScratch = new long[WINDOW_SIZE];
+    }
+
+    /**
+     * Records a completed load. Loads for unknown track types are ignored.
+     */
+    public synchronized void onLoadCompleted(int trackType, long loadDurationMs) {
+        if (trackType < 0 || trackType >= mDurationsMs.length) {
+            return;
+        }
+        mDurationsMs[trackType][mSampleCounts[trackType] % WINDOW_SIZE] = loadDurationMs;
+        mSampleCounts[trackType]++;
+    }
+
+    /**
+     * Returns the load duration at {@code percentile} of the recent loads of {@code trackType}, or
+     * {@link #UNKNOWN} if fewer than {@link #MIN_SAMPLES} loads have been recorded.
+     *
+     * @param percentile A fraction between 0 and 1, e.g. 0.9 for the 90th percentile.
+     */
+    public synchronized long getPercentileMs(int trackType, float percentile) {
+        if (trackType < 0 || trackType >= mDurationsMs.length) {
+            return UNKNOWN;
+        }
+        int count = Math.min(mSampleCounts[trackType], WINDOW_SIZE);
+        if (count < MIN_SAMPLES) {
+            return UNKNOWN;
+        }
+        System.arraycopy(mDurationsMs[trackType], 0, mSortScratch, 0, count);
+        Arrays.sort(mSortScratch, 0, count);
+        int index = Math.min(count - 1, (int) (percentile * count));
+        return mSortScratch[index];
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mSampleCounts, 0);
+    }
+
+}
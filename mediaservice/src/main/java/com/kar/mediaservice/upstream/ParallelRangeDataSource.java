@@ -0,0 +1,514 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link DataSource} for progressive HTTP content that downloads a stream as consecutive blocks
+ * over several connections at once, and returns the blocks in order.
+ * <p/>
+ * The first block of each {@link #open(DataSpec)} is requested as a range. If the response does
+ * not carry a {@code Content-Range} with a known total length, i.e. the server does not support
+ * range requests, the stream is read through the fallback source instead. Non HTTP URIs always
+ * go to the fallback source.
+ * <p/>
+ * At most {@code 2 * connectionCount} blocks are downloaded ahead of the read position. Blocks are
+ * made of allocations from the player's {@link Allocator}, so that the load control counts them
+ * against the buffer.
+ * <p/>
+ * Connections other than the first only connect if the {@link HttpConnectionPool} has room right
+ * away, so that a stream never waits for more than one connect. A connection whose request fails
+ * leaves the rest of its block to the other connections and stops. Once a single connection is
+ * left, it retries its block up to {@link #MAX_RETRY_COUNT} times in a row before the stream fails.
+ */
+public final class ParallelRangeDataSource implements DataSource {
+
+    public static final int DEFAULT_CONNECTION_COUNT = 3;
+    public static final int DEFAULT_BLOCK_SIZE = 512 * 1024;
+
+    /**
+     * The number of times the last connection retries a block without loading any data.
+     */
+    public static final int MAX_RETRY_COUNT = 3;
+
+    private final DataSourceFactory mFactory;
+    private final TransferListener mListener;
+    private final UriDataSource mFallback;
+    private final Allocator mAllocator;
+    private final int mConnectionCount;
+    private final int mBlockSize;
+
+    private DataSource mPassthrough;
+    private Download mDownload;
+
+    public ParallelRangeDataSource(DataSourceFactory factory, TransferListener listener,
+                                   UriDataSource fallback, Allocator allocator) {
+        this(factory, listener, fallback, allocator, DEFAULT_CONNECTION_COUNT, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param factory         Creates the HTTP sources of the connections.
+     * @param listener        An optional listener, typically the bandwidth meter. May be null.
+     * @param fallback        The source for non HTTP URIs and servers without range support.
+     * @param allocator       The allocator of the player, from which blocks are allocated.
+     * @param connectionCount The number of connections to download over.
+     * @param blockSize       The size of each range request.
+     */
+    public ParallelRangeDataSource(DataSourceFactory factory, TransferListener listener,
+                                   UriDataSource fallback, Allocator allocator,
+                                   int connectionCount, int blockSize) {
+        mFactory = factory;
+        mListener = listener;
+        mFallback = fallback;
+        mAllocator = allocator;
+        mConnectionCount = connectionCount;
+        mBlockSize = blockSize;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        String scheme = dataSpec.uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            mPassthrough = mFallback;
+            return mFallback.open(dataSpec);
+        }
+
+        int flags = dataSpec.flags & ~DataSpec.FLAG_ALLOW_GZIP;
+        long probeLength = dataSpec.length == C.LENGTH_UNBOUNDED ? mBlockSize
+                : Math.min(mBlockSize, dataSpec.length);
+        HttpDataSource probe = mFactory.createHttpDataSource(mListener);
+        probe.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, dataSpec.position,
+                probeLength, dataSpec.key, flags));
+        long totalLength = getTotalLength(probe.getResponseHeaders());
+        if (totalLength == C.LENGTH_UNBOUNDED) {
+            probe.close();
+            mPassthrough = mFallback;
+            return mFallback.open(dataSpec);
+        }
+
+        long endPosition = dataSpec.length == C.LENGTH_UNBOUNDED ? totalLength
+                : Math.min(totalLength, dataSpec.position + dataSpec.length);
+        if (endPosition - dataSpec.position <= probeLength) {
+            // The whole stream fits in the probe.
+            mPassthrough = probe;
+            return endPosition - dataSpec.position;
+        }
+        mDownload = new Download(dataSpec, flags, endPosition);
+        mDownload.start(probe);
+        return endPosition - dataSpec.position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        return mPassthrough != null ? mPassthrough.read(buffer, offset, readLength)
+                : mDownload.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mDownload != null) {
+            mDownload.cancel();
+            mDownload = null;
+        }
+        if (mPassthrough != null) {
+            DataSource passthrough = mPassthrough;
+            mPassthrough = null;
+            passthrough.close();
+        }
+    }
+
+    /**
+     * Returns the total length from a {@code Content-Range: bytes <first>-<last>/<total>} header,
+     * or {@link C#LENGTH_UNBOUNDED} if there is none or the total is unknown.
+     */
+    private static long getTotalLength(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return C.LENGTH_UNBOUNDED;
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (!"Content-Range".equalsIgnoreCase(entry.getKey()) || entry.getValue() == null
+                    || entry.getValue().isEmpty()) {
+                continue;
+            }
+            String contentRange = entry.getValue().get(0);
+            int slash = contentRange.lastIndexOf('/');
+            if (slash == -1) {
+                return C.LENGTH_UNBOUNDED;
+            }
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                // The total is "*".
+                return C.LENGTH_UNBOUNDED;
+            }
+        }
+        return C.LENGTH_UNBOUNDED;
+    }
+
+    /**
+     * The state of the stream between an open and a close. Connections still finishing after a
+     * close only touch the state of their own download.
+     */
+    private final class Download {
+
+        private final DataSpec mDataSpec;
+        private final int mFlags;
+        private final long mStartPosition;
+        private final int mBlockCount;
+        private final int mLastBlockLength;
+        private final int mWindowSize;
+        private final Block[] mWindow;
+        private final int mAllocationLength;
+        private final List<Future<?>> mFutures;
+
+        // Guarded by this.
+        private final List<Block> mRetryBlocks;
+        private int mNextBlockIndex;
+        private int mReadBlockIndex;
+        private int mLiveConnectionCount;
+        private int mRetryCount;
+        private IOException mError;
+        private volatile boolean mCanceled;
+
+        // Accessed only by the reading thread.
+        private int mReadOffset;
+
+        public Download(DataSpec dataSpec, int flags, long endPosition) {
+            mDataSpec = dataSpec;
+            mFlags = flags;
+            mStartPosition = dataSpec.position;
+            mBlockCount = (int) ((endPosition - mStartPosition + mBlockSize - 1) / mBlockSize);
+            mLastBlockLength = (int) (endPosition - mStartPosition
+                    - (long) (mBlockCount - 1) * mBlockSize);
+            mWindowSize = 2 * mConnectionCount;
+            mWindow = new Block[mWindowSize];
+            mAllocationLength = mAllocator.getIndividualAllocationLength();
+            mFutures = new ArrayList<>();
+            mRetryBlocks = new ArrayList<>();
+        }
+
+        public void start(HttpDataSource probe) {
+            Block first;
+            synchronized (this) {
+                first = claimBlockLocked();
+                mLiveConnectionCount = mConnectionCount;
+            }
+            for (int i = 0; i < mConnectionCount; i++) {
+                Connection connection = i == 0 ? new Connection(probe, first)
+                        : new Connection(null, null);
+                mFutures.add(UpstreamExecutor.getExecutor().submit(connection));
+            }
+        }
+
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            Block block;
+            int available;
+            synchronized (this) {
+                while (true) {
+                    if (mError != null) {
+                        throw mError;
+                    }
+                    if (mReadBlockIndex == mBlockCount) {
+                        return C.RESULT_END_OF_INPUT;
+                    }
+                    block = mWindow[mReadBlockIndex % mWindowSize];
+                    if (block != null && block.mIndex == mReadBlockIndex
+                            && block.mFilled > mReadOffset) {
+                        available = block.mFilled - mReadOffset;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            // Bytes below mFilled are no longer written to.
+            Allocation allocation = block.mAllocations[mReadOffset / mAllocationLength];
+            int allocationOffset = mReadOffset % mAllocationLength;
+            int bytesRead = Math.min(Math.min(available, readLength),
+                    mAllocationLength - allocationOffset);
+            System.arraycopy(allocation.data, allocation.translateOffset(allocationOffset), buffer,
+                    offset, bytesRead);
+            mReadOffset += bytesRead;
+            if (mReadOffset == block.mLength) {
+                synchronized (this) {
+                    mWindow[mReadBlockIndex % mWindowSize] = null;
+                    releaseBlockLocked(block);
+                    mReadBlockIndex++;
+                    mReadOffset = 0;
+                    notifyAll();
+                }
+            }
+            return bytesRead;
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                mCanceled = true;
+                // Blocks being loaded are released by their connection.
+                for (int i = 0; i < mWindowSize; i++) {
+                    if (mWindow[i] != null && !mWindow[i].mLoading) {
+                        releaseBlockLocked(mWindow[i]);
+                    }
+                    mWindow[i] = null;
+                }
+                mRetryBlocks.clear();
+                notifyAll();
+            }
+            for (Future<?> future : mFutures) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Returns the next block to download, waiting while the window is full, or null if the
+         * calling connection should stop because there are no more blocks or the download was
+         * canceled. Blocks left by failed connections are returned first.
+         */
+        private synchronized Block claimBlock() throws InterruptedException {
+            while (!mCanceled && mRetryBlocks.isEmpty() && mNextBlockIndex < mBlockCount
+                    && mNextBlockIndex >= mReadBlockIndex + mWindowSize) {
+                wait();
+            }
+            Block block = null;
+            if (!mCanceled) {
+                block = mRetryBlocks.isEmpty() ? claimBlockLocked() : claimRetryBlockLocked();
+            }
+            if (block == null) {
+                mLiveConnectionCount--;
+            }
+            return block;
+        }
+
+        private Block claimBlockLocked() {
+            if (mNextBlockIndex == mBlockCount) {
+                return null;
+            }
+            int index = mNextBlockIndex++;
+            int length = index == mBlockCount - 1 ? mLastBlockLength : mBlockSize;
+            Allocation[] allocations =
+                    new Allocation[(length + mAllocationLength - 1) / mAllocationLength];
+            for (int i = 0; i < allocations.length; i++) {
+                allocations[i] = mAllocator.allocate();
+            }
+            Block block = new Block(index, length, allocations);
+            mWindow[index % mWindowSize] = block;
+            return block;
+        }
+
+        private Block claimRetryBlockLocked() {
+            // The block the reader needs soonest.
+            Block first = mRetryBlocks.get(0);
+            for (Block block : mRetryBlocks) {
+                if (block.mIndex < first.mIndex) {
+                    first = block;
+                }
+            }
+            mRetryBlocks.remove(first);
+            first.mLoading = true;
+            return first;
+        }
+
+        /**
+         * Called by a connection that stopped loading {@code block}, completely or not.
+         */
+        private synchronized void onLoadingStopped(Block block) {
+            block.mLoading = false;
+            if (mCanceled) {
+                releaseBlockLocked(block);
+            }
+        }
+
+        /**
+         * Called by a connection whose request for {@code block} failed.
+         *
+         * @return Whether the connection should retry the block, as the last one left.
+         */
+        private synchronized boolean onLoadingFailed(Block block, IOException e) {
+            block.mLoading = false;
+            if (mCanceled) {
+                releaseBlockLocked(block);
+                return false;
+            }
+            if (mLiveConnectionCount > 1) {
+                mLiveConnectionCount--;
+                mRetryBlocks.add(block);
+                notifyAll();
+                return false;
+            }
+            if (mRetryCount == MAX_RETRY_COUNT) {
+                if (mError == null) {
+                    mError = e;
+                    notifyAll();
+                }
+                return false;
+            }
+            mRetryCount++;
+            block.mLoading = true;
+            return true;
+        }
+
+        private void releaseBlockLocked(Block block) {
+            if (!block.mReleased) {
+                block.mReleased = true;
+                mAllocator.release(block.mAllocations);
+            }
+        }
+
+        private synchronized int getFilled(Block block) {
+            return block.mFilled;
+        }
+
+        private synchronized void onBytesLoaded(Block block, int bytesLoaded) {
+            block.mFilled += bytesLoaded;
+            mRetryCount = 0;
+            notifyAll();
+        }
+
+        /**
+         * Downloads blocks over one connection until there are none left, or its request fails
+         * while other connections are left.
+         */
+        private final class Connection implements Runnable {
+
+            private HttpDataSource mSource;
+            private Block mBlock;
+            private boolean mWaitForPool;
+
+            public Connection(HttpDataSource openSource, Block openBlock) {
+                mSource = openSource;
+                mBlock = openBlock;
+                mWaitForPool = openSource != null;
+            }
+
+            @Override
+            public void run() {
+                boolean opened = mSource != null;
+                try {
+                    while (true) {
+                        if (mBlock == null) {
+                            mBlock = claimBlock();
+                            if (mBlock == null) {
+                                return;
+                            }
+                        }
+                        int filled = getFilled(mBlock);
+                        try {
+                            if (!opened) {
+                                openBlock(filled);
+                            }
+                            opened = false;
+                            loadBlock(filled);
+                        } catch (IOException e) {
+                            closeSource();
+                            mSource = null;
+                            opened = false;
+                            Block block = mBlock;
+                            mBlock = null;
+                            if (!onLoadingFailed(block, e)) {
+                                return;
+                            }
+                            // As the last connection, wait for the pool rather than fail again.
+                            mWaitForPool = true;
+                            mBlock = block;
+                            continue;
+                        }
+                        closeSource();
+                        onLoadingStopped(mBlock);
+                        mBlock = null;
+                    }
+                } catch (InterruptedException e) {
+                    // Canceled.
+                } finally {
+                    if (mBlock != null) {
+                        onLoadingStopped(mBlock);
+                    }
+                    if (mSource != null) {
+                        closeSource();
+                    }
+                }
+            }
+
+            /**
+             * Requests the part of the block from {@code filled} on.
+             */
+            private void openBlock(int filled) throws IOException {
+                if (mSource == null) {
+                    mSource = mWaitForPool ? mFactory.createHttpDataSource(mListener)
+                            : mFactory.createHttpDataSource(mListener, 0);
+                }
+                long position = mStartPosition + (long) mBlock.mIndex * mBlockSize + filled;
+                mSource.open(new DataSpec(mDataSpec.uri,
+                        mDataSpec.absoluteStreamPosition + position - mStartPosition, position,
+                        mBlock.mLength - filled, mDataSpec.key, mFlags));
+            }
+
+            private void loadBlock(int filled) throws IOException {
+                while (filled < mBlock.mLength) {
+                    Allocation allocation = mBlock.mAllocations[filled / mAllocationLength];
+                    int allocationOffset = filled % mAllocationLength;
+                    int readLength = Math.min(mBlock.mLength - filled,
+                            mAllocationLength - allocationOffset);
+                    int bytesRead = mSource.read(allocation.data,
+                            allocation.translateOffset(allocationOffset), readLength);
+                    if (bytesRead == C.RESULT_END_OF_INPUT) {
+                        throw new EOFException();
+                    }
+                    filled += bytesRead;
+                    onBytesLoaded(mBlock, bytesRead);
+                    if (mCanceled) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+
+            private void closeSource() {
+                try {
+                    mSource.close();
+                } catch (IOException e) {
+                    // The block is complete or failed, nothing to recover.
+                }
+            }
+
+        }
+
+    }
+
+    private static final class Block {
+
+        public final int mIndex;
+        public final int mLength;
+        public final Allocation[] mAllocations;
+
+        // Guarded by the download.
+        public int mFilled;
+        public boolean mLoading;
+        public boolean mReleased;
+
+        public Block(int index, int length, Allocation[] allocations) {
+            mIndex = index;
+            mLength = length;
+            mAllocations = allocations;
+            mLoading = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * An {@link Allocator} that leases its segments from a shared {@link SegmentPool}.
+ * <p/>
+ * Each player owns one instance so that its load control only sees the bytes allocated on its
+ * behalf, while released segments go straight back to the pool for other players to reuse.
+ */
+public final class PooledAllocator implements Allocator {
+
+    /**
+     * Passed to {@link #setBufferLimit(int)} to lift the limit.
+     */
+    public static final int NO_BUFFER_LIMIT = Integer.MAX_VALUE;
+
+    private final SegmentPool mPool;
+
+    private int mAllocatedCount;
+    private int mBufferLimit;
+    private boolean mReleased;
+
+    public PooledAllocator(SegmentPool pool) {
+        mPool = pool;
+        mBufferLimit = NO_BUFFER_LIMIT;
+        pool.addAllocator();
+    }
+
+    /**
+     * Limits the bytes that the sample sources of its player buffer, on top of their own limits,
+     * e.g. while the player is prepared ahead of playing. Sample sources that load through a load
+     * control only see the limit if it is a {@link BufferLimitLoadControl}.
+     *
+     * @param bufferLimit The limit in bytes, or {@link #NO_BUFFER_LIMIT}.
+     */
+    public synchronized void setBufferLimit(int bufferLimit) {
+        mBufferLimit = bufferLimit;
+        notifyAll();
+    }
+
+    /**
+     * Returns whether the bytes allocated have reached the limit set by
+     * {@link #setBufferLimit(int)}.
+     */
+    public synchronized boolean isBufferLimitReached() {
+        return getTotalBytesAllocated() >= mBufferLimit;
+    }
+
+    /**
+     * Releases this allocator once its player is released. The pool is trimmed when its last
+     * allocator is released.
+     */
+    public synchronized void release() {
+        if (!mReleased) {
+            mReleased = true;
+            mPool.removeAllocator();
+        }
+    }
+
+    /**
+     * Leases a segment from the pool, waiting while the pool's byte budget is used up.
+     */
+    @Override
+    public Allocation allocate() {
+        // Not holding this allocator's lock, so that its segments can be released meanwhile.
+        Allocation allocation = mPool.acquire();
+        synchronized (this) {
+            mAllocatedCount++;
+        }
+        return allocation;
+    }
+
+    @Override
+    public synchronized void release(Allocation allocation) {
+        mPool.release(allocation);
+        mAllocatedCount--;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void release(Allocation[] allocations) {
+        mPool.release(allocations);
+        mAllocatedCount -= allocations.length;
+        notifyAll();
+    }
+
+    /**
+     * Trims the pool so that the bytes pooled and allocated to this allocator do not exceed
+     * {@code targetSize}, the buffer size its load control still needs.
+     */
+    @Override
+    public void trim(int targetSize) {
+        mPool.trim(Math.max(0, targetSize - getTotalBytesAllocated()));
+    }
+
+    @Override
+    public synchronized void blockWhileTotalBytesAllocatedExceeds(int limit)
+            throws InterruptedException {
+        while (getTotalBytesAllocated() > Math.min(limit, mBufferLimit)) {
+            wait();
+        }
+    }
+
+    @Override
+    public synchronized int getTotalBytesAllocated() {
+        return mAllocatedCount * SegmentPool.SEGMENT_SIZE;
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return SegmentPool.SEGMENT_SIZE;
+    }
+
+}
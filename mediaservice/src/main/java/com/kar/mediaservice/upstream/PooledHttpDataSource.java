@@ -0,0 +1,367 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link HttpDataSource} that keeps connections alive for reuse, within the limits of an
+ * {@link HttpConnectionPool}.
+ * <p/>
+ * Unlike {@link com.google.android.exoplayer.upstream.DefaultHttpDataSource}, a response that has
+ * been read to the end is closed without disconnecting, which hands its connection back to the
+ * platform keep-alive pool. Responses closed early are disconnected, since their connection cannot
+ * be reused.
+ */
+public class PooledHttpDataSource implements HttpDataSource {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 8 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 8 * 1000;
+
+    private static final int SKIP_BUFFER_SIZE = 4096;
+
+    private final HttpConnectionPool mPool;
+    private final String mUserAgent;
+    private final TransferListener mListener;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mPoolTimeoutMillis;
+    private final HashMap<String, String> mRequestProperties;
+
+    private DataSpec mDataSpec;
+    private HttpURLConnection mConnection;
+    private InputStream mInputStream;
+    private String mHost;
+    private boolean mHoldsPermit;
+    private boolean mOpened;
+    private byte[] mSkipBuffer;
+
+    private long mResponseLength;
+    private long mBytesToSkip;
+    private long mBytesToRead;
+    private long mBytesSkipped;
+    private long mBytesRead;
+    private boolean mReachedEnd;
+
+    public PooledHttpDataSource(HttpConnectionPool pool, String userAgent,
+                                TransferListener listener) {
+        this(pool, userAgent, listener, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param pool                 The pool whose limits requests are made within.
+     * @param userAgent            The User-Agent string to send with requests.
+     * @param listener             An optional listener, typically the bandwidth meter. May be null.
+     * @param connectTimeoutMillis The connection timeout, in milliseconds. Requests also wait up
+     *                             to this long for the pool to let them connect.
+     * @param readTimeoutMillis    The read timeout, in milliseconds.
+     */
+    public PooledHttpDataSource(HttpConnectionPool pool, String userAgent,
+                                TransferListener listener, int connectTimeoutMillis,
+                                int readTimeoutMillis) {
+        this(pool, userAgent, listener, connectTimeoutMillis, readTimeoutMillis,
+                connectTimeoutMillis);
+    }
+
+    /**
+     * @param pool                 The pool whose limits requests are made within.
+     * @param userAgent            The User-Agent string to send with requests.
+     * @param listener             An optional listener, typically the bandwidth meter. May be null.
+     * @param connectTimeoutMillis The connection timeout, in milliseconds.
+     * @param readTimeoutMillis    The read timeout, in milliseconds.
+     * @param poolTimeoutMillis    How long requests wait for the pool to let them connect, in
+     *                             milliseconds. 0 to fail at once if the pool's limits are reached.
+     */
+    public PooledHttpDataSource(HttpConnectionPool pool, String userAgent,
+                                TransferListener listener, int connectTimeoutMillis,
+                                int readTimeoutMillis, int poolTimeoutMillis) {
+        mPool = pool;
+        mUserAgent = userAgent;
+        mListener = listener;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mPoolTimeoutMillis = poolTimeoutMillis;
+        mRequestProperties = new HashMap<>();
+    }
+
+    @Override
+    public String getUri() {
+        return mConnection == null ? null : mConnection.getURL().toString();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return mConnection == null ? null : mConnection.getHeaderFields();
+    }
+
+    @Override
+    public void setRequestProperty(String name, String value) {
+        synchronized (mRequestProperties) {
+            mRequestProperties.put(name, value);
+        }
+    }
+
+    @Override
+    public void clearRequestProperty(String name) {
+        synchronized (mRequestProperties) {
+            mRequestProperties.remove(name);
+        }
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        synchronized (mRequestProperties) {
+            mRequestProperties.clear();
+        }
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        mDataSpec = dataSpec;
+        mBytesSkipped = 0;
+        mBytesRead = 0;
+        mReachedEnd = false;
+
+        URL url;
+        try {
+            url = new URL(dataSpec.uri.toString());
+        } catch (MalformedURLException e) {
+            throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+        mHost = url.getHost();
+        try {
+            // Permits are only held while connecting, so this waits for other connects at most.
+            if (!mPool.acquire(mHost, mPoolTimeoutMillis)) {
+                throw new HttpDataSourceException(
+                        new SocketTimeoutException("No connection to " + mHost + " available"),
+                        dataSpec, HttpDataSourceException.TYPE_OPEN);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpDataSourceException(new InterruptedIOException(), dataSpec,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+        mHoldsPermit = true;
+
+        int responseCode;
+        try {
+            mConnection = makeConnection(url, dataSpec);
+            responseCode = mConnection.getResponseCode();
+        } catch (IOException e) {
+            closeConnection(false);
+            throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
+                    dataSpec, HttpDataSourceException.TYPE_OPEN);
+        } finally {
+            // The response headers have arrived, and reading the body may take arbitrarily long.
+            releasePermit();
+        }
+
+        if (responseCode < 200 || responseCode > 299) {
+            Map<String, List<String>> headers = mConnection.getHeaderFields();
+            closeConnection(false);
+            throw new InvalidResponseCodeException(responseCode, headers, dataSpec);
+        }
+
+        // A server that ignores the Range header responds with the whole resource.
+        mBytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+        if ((dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0) {
+            mResponseLength = getContentLength(mConnection);
+            if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+                mBytesToRead = dataSpec.length;
+            } else {
+                mBytesToRead = mResponseLength != C.LENGTH_UNBOUNDED
+                        ? mResponseLength - mBytesToSkip : C.LENGTH_UNBOUNDED;
+            }
+        } else {
+            // The content length of a compressed response is not the length of the data read.
+            mResponseLength = C.LENGTH_UNBOUNDED;
+            mBytesToRead = dataSpec.length;
+        }
+
+        try {
+            mInputStream = mConnection.getInputStream();
+        } catch (IOException e) {
+            closeConnection(false);
+            throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+
+        mOpened = true;
+        if (mListener instanceof WarmStartBandwidthMeter
+                && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0) {
+            // Media is never requested compressed, unlike HLS playlists.
+            ((WarmStartBandwidthMeter) mListener).onTransferHost(mConnection.getURL().getHost());
+        }
+        if (mListener != null) {
+            mListener.onTransferStart();
+        }
+        return mBytesToRead;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        try {
+            skipInternal();
+            return readInternal(buffer, offset, readLength);
+        } catch (IOException e) {
+            throw new HttpDataSourceException(e, mDataSpec, HttpDataSourceException.TYPE_READ);
+        }
+    }
+
+    @Override
+    public void close() throws HttpDataSourceException {
+        boolean reusable = mReachedEnd || (mResponseLength != C.LENGTH_UNBOUNDED
+                && mBytesSkipped + mBytesRead == mResponseLength);
+        try {
+            if (mInputStream != null && reusable) {
+                try {
+                    // Closing a fully read stream returns the connection to the keep-alive pool.
+                    mInputStream.close();
+                } catch (IOException e) {
+                    reusable = false;
+                    throw new HttpDataSourceException(e, mDataSpec,
+                            HttpDataSourceException.TYPE_CLOSE);
+                }
+            }
+        } finally {
+            mInputStream = null;
+            closeConnection(reusable);
+            if (mOpened) {
+                mOpened = false;
+                if (mListener != null) {
+                    mListener.onTransferEnd();
+                }
+            }
+        }
+    }
+
+    private HttpURLConnection makeConnection(URL url, DataSpec dataSpec) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        synchronized (mRequestProperties) {
+            for (Map.Entry<String, String> property : mRequestProperties.entrySet()) {
+                connection.setRequestProperty(property.getKey(), property.getValue());
+            }
+        }
+        if (!(dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNBOUNDED)) {
+            String rangeRequest = "bytes=" + dataSpec.position + "-";
+            if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+                rangeRequest += (dataSpec.position + dataSpec.length - 1);
+            }
+            connection.setRequestProperty("Range", rangeRequest);
+        }
+        connection.setRequestProperty("User-Agent", mUserAgent);
+        connection.setRequestProperty("Connection", "keep-alive");
+        if ((dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0) {
+            connection.setRequestProperty("Accept-Encoding", "identity");
+        }
+        connection.setInstanceFollowRedirects(true);
+        connection.connect();
+        return connection;
+    }
+
+    private void skipInternal() throws IOException {
+        if (mBytesSkipped == mBytesToSkip) {
+            return;
+        }
+        if (mSkipBuffer == null) {
+            mSkipBuffer = new byte[SKIP_BUFFER_SIZE];
+        }
+        while (mBytesSkipped != mBytesToSkip) {
+            int readLength = (int) Math.min(mBytesToSkip - mBytesSkipped, mSkipBuffer.length);
+            int read = mInputStream.read(mSkipBuffer, 0, readLength);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+            if (read == -1) {
+                throw new EOFException();
+            }
+            mBytesSkipped += read;
+            if (mListener != null) {
+                mListener.onBytesTransferred(read);
+            }
+        }
+    }
+
+    private int readInternal(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mBytesToRead != C.LENGTH_UNBOUNDED) {
+            long bytesRemaining = mBytesToRead - mBytesRead;
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            readLength = (int) Math.min(readLength, bytesRemaining);
+        }
+        int read = mInputStream.read(buffer, offset, readLength);
+        if (read == -1) {
+            if (mBytesToRead != C.LENGTH_UNBOUNDED && mBytesToRead != mBytesRead) {
+                throw new EOFException();
+            }
+            mReachedEnd = true;
+            return C.RESULT_END_OF_INPUT;
+        }
+        mBytesRead += read;
+        if (mListener != null) {
+            mListener.onBytesTransferred(read);
+        }
+        return read;
+    }
+
+    private void closeConnection(boolean reusable) {
+        if (mConnection != null) {
+            if (!reusable) {
+                mConnection.disconnect();
+            }
+            mConnection = null;
+        }
+        releasePermit();
+    }
+
+    private void releasePermit() {
+        if (mHoldsPermit) {
+            mHoldsPermit = false;
+            mPool.release(mHost);
+        }
+    }
+
+    private static long getContentLength(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange != null) {
+            // Content-Range: bytes <first>-<last>/<total>
+            int dash = contentRange.indexOf('-');
+            int slash = contentRange.indexOf('/');
+            int space = contentRange.indexOf(' ');
+            if (dash > space && slash > dash) {
+                try {
+                    long first = Long.parseLong(contentRange.substring(space + 1, dash).trim());
+                    long last = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+                    return last - first + 1;
+                } catch (NumberFormatException e) {
+                    // Fall back to Content-Length.
+                }
+            }
+        }
+        String contentLength = connection.getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                // Unknown.
+            }
+        }
+        return C.LENGTH_UNBOUNDED;
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.kar.mediaservice.upstream;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process wide, size bounded on-disk cache for media segments.
+ * <p/>
+ * Segments are keyed by their request URL together with their byte range, so partially downloaded
+ * segments are served from disk for the ranges that are present. Once the cache grows past its
+ * maximum size the least recently used spans are evicted.
+ * <p/>
+ * Only segment loads are cached. Requests that allow gzip, which is how HLS chunk sources load
+ * media playlists and encryption keys, always go upstream. So do requests of unbounded length,
+ * unless the whole segment is known to be on disk: a partly cached segment would otherwise be
+ * truncated at, or stitched together from, what happens to be cached.
+ */
+public final class SegmentCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static final String CACHE_DIR_NAME = "media_segments";
+    private static final int MAX_COMPLETE_LENGTHS = 4096;
+
+    private static SegmentCache sInstance;
+
+    private final Cache mCache;
+    private final AtomicLong mHitCount;
+    private final AtomicLong mMissCount;
+    // The lengths of the segments loaded to the end through this cache, by cache key.
+    private final Map<String, Long> mCompleteLengths;
+
+    private SegmentCache(File cacheDir, long maxBytes) {
+        mCache = new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+        mHitCount = new AtomicLong();
+        mMissCount = new AtomicLong();
+        mCompleteLengths = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_COMPLETE_LENGTHS;
+            }
+        };
+    }
+
+    public static SegmentCache getInstance(Context ctx) {
+        return getInstance(ctx, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Returns the process wide cache, creating it if necessary.
+     *
+     * @param ctx      Any context. Only the application context is retained.
+     * @param maxBytes The maximum size of the cache. Ignored if the cache has already been created.
+     */
+    public static synchronized SegmentCache getInstance(Context ctx, long maxBytes) {
+        if (sInstance == null) {
+            File cacheDir = new File(ctx.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+            sInstance = new SegmentCache(cacheDir, maxBytes);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Wraps {@code upstream} so that segment loads are served from the cache where possible, and
+     * data loaded from {@code upstream} is written to the cache. Every request of unbounded length
+     * made through the returned source must be for a segment, whose content never changes.
+     */
+    public DataSource createDataSource(DataSource upstream) {
+        return createDataSource(upstream, true);
+    }
+
+    /**
+     * Wraps {@code upstream} so that segment loads are served from the cache where possible, and
+     * data loaded from {@code upstream} is written to the cache.
+     *
+     * @param cacheUnboundedRequests Whether requests of unbounded length are segment loads. False
+     *                               for sources that also load documents which change in place.
+     */
+    public DataSource createDataSource(DataSource upstream, boolean cacheUnboundedRequests) {
+        return new CountingCacheDataSource(upstream, cacheUnboundedRequests);
+    }
+
+    public Cache getCache() {
+        return mCache;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getCacheSpace() {
+        return mCache.getCacheSpace();
+    }
+
+    /**
+     * Returns the key under which {@code dataSpec} is stored in the cache, which is its URI. The
+     * {@link DataSpec#key} set by DASH chunk sources identifies a representation rather than a
+     * segment, and every segment of a template or list starts at position 0, so it is ignored.
+     */
+    public static String getCacheKey(DataSpec dataSpec) {
+        return getCacheKey(dataSpec.uri);
+    }
+
+    /**
+     * Returns the key under which the data at {@code uri} is stored in the cache.
+     */
+    public static String getCacheKey(Uri uri) {
+        return uri.toString();
+    }
+
+    private synchronized long getCompleteLength(String key) {
+        Long length = mCompleteLengths.get(key);
+        return length != null ? length : C.LENGTH_UNBOUNDED;
+    }
+
+    private synchronized void setCompleteLength(String key, long length) {
+        mCompleteLengths.put(key, length);
+    }
+
+    private final class CountingCacheDataSource implements DataSource {
+
+        private final DataSource mUpstream;
+        private final CacheDataSource mCacheDataSource;
+        private final boolean mCacheUnboundedRequests;
+
+        private DataSource mCurrentDataSource;
+        // The key of an unbounded load from the start of a segment, whose length becomes known once
+        // it has been read to the end.
+        private String mLoadingKey;
+        private long mBytesRead;
+
+        public CountingCacheDataSource(DataSource upstream, boolean cacheUnboundedRequests) {
+            mUpstream = upstream;
+            mCacheDataSource = new CacheDataSource(mCache, upstream, false, true);
+            mCacheUnboundedRequests = cacheUnboundedRequests;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            mLoadingKey = null;
+            mBytesRead = 0;
+            if ((dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0) {
+                // A playlist or key. Segments are never compressed in transit, so that byte ranges
+                // index into them.
+                return openUpstream(dataSpec);
+            }
+            String key = getCacheKey(dataSpec);
+            long length = dataSpec.length;
+            if (length == C.LENGTH_UNBOUNDED) {
+                if (!mCacheUnboundedRequests) {
+                    return openUpstream(dataSpec);
+                }
+                long completeLength = getCompleteLength(key);
+                if (completeLength != C.LENGTH_UNBOUNDED && dataSpec.position < completeLength) {
+                    length = completeLength - dataSpec.position;
+                } else if (dataSpec.position == 0 && mCache.getCachedSpans(key).isEmpty()) {
+                    mLoadingKey = key;
+                } else {
+                    return openUpstream(dataSpec);
+                }
+            }
+            if (length != C.LENGTH_UNBOUNDED && mCache.isCached(key, dataSpec.position, length)) {
+                mHitCount.incrementAndGet();
+            } else {
+                mMissCount.incrementAndGet();
+            }
+            mCurrentDataSource = mCacheDataSource;
+            return mCacheDataSource.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition,
+                    dataSpec.position, length, key, dataSpec.flags));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int bytesRead = mCurrentDataSource.read(buffer, offset, readLength);
+            if (mLoadingKey != null) {
+                if (bytesRead == C.RESULT_END_OF_INPUT) {
+                    // The load may have bypassed the cache, e.g. while another source held it.
+                    if (mBytesRead > 0 && mCache.isCached(mLoadingKey, 0, mBytesRead)) {
+                        setCompleteLength(mLoadingKey, mBytesRead);
+                    }
+                    mLoadingKey = null;
+                } else {
+                    mBytesRead += bytesRead;
+                }
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mLoadingKey = null;
+            if (mCurrentDataSource != null) {
+                DataSource dataSource = mCurrentDataSource;
+                mCurrentDataSource = null;
+                dataSource.close();
+            }
+        }
+
+        private long openUpstream(DataSpec dataSpec) throws IOException {
+            mCurrentDataSource = mUpstream;
+            return mUpstream.open(dataSpec);
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.upstream.Allocation;
+
+import java.util.Arrays;
+
+/**
+ * A process wide pool of fixed size buffer segments, shared by the {@link PooledAllocator} of
+ * every player instance.
+ * <p/>
+ * The bytes allocated to all players together are bounded by a byte budget: once it is used up,
+ * an allocation waits for another to be released. Released segments are kept for reuse up to a
+ * separate pooled byte limit, beyond which they are left to the garbage collector. The pool is
+ * emptied when the last {@link PooledAllocator} is released, and should be trimmed from the
+ * application's {@code onTrimMemory}.
+ */
+public final class SegmentPool {
+
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    /** Two players buffering as much as the renderer builders let them. */
+    public static final long DEFAULT_MAX_BYTES = 640L * SEGMENT_SIZE;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 256L * SEGMENT_SIZE;
+
+    private static SegmentPool sInstance;
+
+    private Allocation[] mPooled;
+    private int mPooledCount;
+    private int mMaxPooledCount;
+    private int mMaxLiveCount;
+    private int mLiveCount;
+    private int mPeakLiveCount;
+    private int mAllocatorCount;
+
+    private SegmentPool(long maxBytes, long maxPooledBytes) {
+        mMaxLiveCount = (int) (maxBytes / SEGMENT_SIZE);
+        mMaxPooledCount = (int) (maxPooledBytes / SEGMENT_SIZE);
+        mPooled = new Allocation[mMaxPooledCount];
+    }
+
+    public static synchronized SegmentPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new SegmentPool(DEFAULT_MAX_BYTES, DEFAULT_MAX_POOLED_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the maximum number of bytes allocated to all players together. It should leave room for
+     * the buffers of every player that loads at the same time, or the later ones stall until the
+     * earlier ones play out.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxLiveCount = (int) (maxBytes / SEGMENT_SIZE);
+        notifyAll();
+    }
+
+    /**
+     * Sets the maximum number of bytes kept in the pool for reuse. Excess pooled segments are
+     * dropped immediately.
+     */
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        int maxPooledCount = (int) (maxPooledBytes / SEGMENT_SIZE);
+        if (mPooledCount > maxPooledCount) {
+            Arrays.fill(mPooled, maxPooledCount, mPooledCount, null);
+            mPooledCount = maxPooledCount;
+        }
+        mPooled = Arrays.copyOf(mPooled, maxPooledCount);
+        mMaxPooledCount = maxPooledCount;
+    }
+
+    /**
+     * Drops all pooled segments, e.g. in response to {@code onTrimMemory}.
+     */
+    public void trim() {
+        trim(0);
+    }
+
+    /**
+     * Drops pooled segments until at most {@code maxPooledBytes} remain pooled.
+     */
+    public synchronized void trim(long maxPooledBytes) {
+        int pooledCount = (int) Math.min(mPooledCount, maxPooledBytes / SEGMENT_SIZE);
+        Arrays.fill(mPooled, pooledCount, mPooledCount, null);
+        mPooledCount = pooledCount;
+    }
+
+    /**
+     * To be called from {@code ComponentCallbacks2.onTrimMemory}. Pooled segments are only kept to
+     * spare the garbage collector, so they are dropped at any trim level.
+     *
+     * @param level The trim level passed to {@code onTrimMemory}.
+     */
+    public void onTrimMemory(int level) {
+        trim();
+    }
+
+    /* package */ synchronized void addAllocator() {
+        mAllocatorCount++;
+    }
+
+    /* package */ synchronized void removeAllocator() {
+        if (--mAllocatorCount == 0) {
+            trim();
+        }
+    }
+
+    /**
+     * Leases a segment, waiting while the byte budget is used up. If the calling thread is
+     * interrupted while waiting, as a canceled load is, the segment is allocated over the budget
+     * and the interrupt is left pending.
+     */
+    /* package */ synchronized Allocation acquire() {
+        while (mLiveCount >= mMaxLiveCount) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mLiveCount++;
+        if (mLiveCount > mPeakLiveCount) {
+            mPeakLiveCount = mLiveCount;
+        }
+        if (mPooledCount > 0) {
+            Allocation allocation = mPooled[--mPooledCount];
+            mPooled[mPooledCount] = null;
+            return allocation;
+        }
+        return new Allocation(new byte[SEGMENT_SIZE], 0);
+    }
+
+    /* package */ synchronized void release(Allocation allocation) {
+        mLiveCount--;
+        notifyAll();
+        // Segments a released player hands back after the pool was emptied are not kept.
+        if (mAllocatorCount > 0 && mPooledCount < mMaxPooledCount) {
+            mPooled[mPooledCount++] = allocation;
+        }
+    }
+
+    /* package */ synchronized void release(Allocation[] allocations) {
+        for (Allocation allocation : allocations) {
+            release(allocation);
+        }
+    }
+
+    public synchronized long getLiveBytes() {
+        return (long) mLiveCount * SEGMENT_SIZE;
+    }
+
+    public synchronized long getPooledBytes() {
+        return (long) mPooledCount * SEGMENT_SIZE;
+    }
+
+    public synchronized long getPeakBytes() {
+        return (long) mPeakLiveCount * SEGMENT_SIZE;
+    }
+
+    /**
+     * Restarts {@link #getPeakBytes()} from the bytes currently live, e.g. to measure one session.
+     */
+    public synchronized void resetPeak() {
+        mPeakLiveCount = mLiveCount;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.kar.mediaservice.upstream;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process wide pool of daemon threads on which data sources run the loads they make on top of
+ * the one requested by the loader thread, such as hedged requests and parallel ranges.
+ */
+public final class UpstreamExecutor {
+
+    private static final String THREAD_NAME_PREFIX = "MediaSDKUpstream:";
+
+    private static ExecutorService sExecutor;
+
+    private UpstreamExecutor() {
+    }
+
+    public static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            THREAD_NAME_PREFIX + mCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.kar.mediaservice.upstream;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+
+/**
+ * A {@link DefaultBandwidthMeter} that reports a stored estimate from a
+ * {@link BandwidthEstimateStore} until it has measured one of its own, and records its estimates
+ * back to the store.
+ * <p/>
+ * Estimates are stored under the host that media is transferred from, as reported by the
+ * {@link PooledHttpDataSource}s of the session through {@link #onTransferHost(String)}.
+ */
+public final class WarmStartBandwidthMeter implements BandwidthMeter,
+        DefaultBandwidthMeter.EventListener {
+
+    private final DefaultBandwidthMeter mMeter;
+    private final BandwidthEstimateStore mStore;
+    private final String mManifestKey;
+    private final long mInitialEstimate;
+    private final DefaultBandwidthMeter.EventListener mEventListener;
+
+    private String mHost;
+    private volatile String mKey;
+
+    /**
+     * @param store         The store to seed from and record to.
+     * @param manifestUrl   The manifest URL of the session.
+     * @param eventHandler  A handler for events. Must not be null, since samples are recorded to
+     *                      the store from the events.
+     * @param eventListener A listener of events. May be null.
+     */
+    public WarmStartBandwidthMeter(BandwidthEstimateStore store, String manifestUrl,
+                                   Handler eventHandler,
+                                   DefaultBandwidthMeter.EventListener eventListener) {
+        mMeter = new DefaultBandwidthMeter(eventHandler, this);
+        mStore = store;
+        mManifestKey = store.getKey(manifestUrl);
+        mKey = store.getSegmentKey(mManifestKey);
+        mInitialEstimate = store.getEstimate(mKey);
+        mEventListener = eventListener;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long bitrateEstimate = mMeter.getBitrateEstimate();
+        return bitrateEstimate == NO_ESTIMATE ? mInitialEstimate : bitrateEstimate;
+    }
+
+    /**
+     * Called before {@link #onTransferStart()} with the host media is about to be transferred
+     * from, after redirects. Requests for playlists and other documents are not reported.
+     */
+    public synchronized void onTransferHost(String host) {
+        if (host.equals(mHost)) {
+            return;
+        }
+        mHost = host;
+        mKey = mStore.getHostKey(host);
+        mStore.putSegmentKey(mManifestKey, mKey);
+    }
+
+    @Override
+    public void onTransferStart() {
+        mMeter.onTransferStart();
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+        mMeter.onBytesTransferred(bytes);
+    }
+
+    @Override
+    public void onTransferEnd() {
+        mMeter.onTransferEnd();
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+        mStore.putEstimate(mKey, bitrate);
+        if (mEventListener != null) {
+            mEventListener.onBandwidthSample(elapsedMs, bytes, bitrate);
+        }
+    }
+
+}
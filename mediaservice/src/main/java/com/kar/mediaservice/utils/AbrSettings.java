@@ -0,0 +1,52 @@
+package com.kar.mediaservice.utils;
+
+import com.kar.mediaservice.MediaSDKService;
+
+/**
+ * Adaptive bitrate settings shared between a player and the format selection of its renderers.
+ * <p/>
+ * Settings may be changed from any thread and are picked up by the next chunk evaluation, without
+ * rebuilding the renderers.
+ */
+public final class AbrSettings {
+
+    private volatile boolean mAdaptive = true;
+    private volatile long mMaxBitrate;
+    private volatile int mAlgorithm = MediaSDKService.ABR_THROUGHPUT;
+
+    public boolean isAdaptive() {
+        return mAdaptive;
+    }
+
+    /**
+     * Enables or disables adaptive selection. When disabled, the highest format within the maximum
+     * bitrate is always selected.
+     */
+    public void setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+    }
+
+    public long getMaxBitrate() {
+        return mMaxBitrate;
+    }
+
+    /**
+     * Sets the maximum bitrate to select, in bits per second, or 0 for no cap.
+     */
+    public void setMaxBitrate(long maxBitrate) {
+        mMaxBitrate = maxBitrate;
+    }
+
+    public int getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * Sets the adaptive algorithm, one of {@link MediaSDKService#ABR_THROUGHPUT} and
+     * {@link MediaSDKService#ABR_BUFFER_BASED}.
+     */
+    public void setAlgorithm(int algorithm) {
+        mAlgorithm = algorithm;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.List;
+
+/**
+ * A {@link FormatEvaluator} that selects formats from the buffer occupancy, following the BOLA
+ * algorithm.
+ * <p/>
+ * Each format is scored as {@code (V * (u + gp) - Q) / S}, where {@code u} is the logarithmic
+ * utility of its bitrate, {@code Q} the buffered duration and {@code S} the size of a segment at
+ * that bitrate. {@code V} and {@code gp} are chosen so that the lowest format is selected at the
+ * minimum buffer level and the highest one at the target buffer level.
+ * <p/>
+ * If a {@link BandwidthMeter} is supplied, its estimate is blended in: it drives the selection
+ * while the buffer is below the minimum level (e.g. at startup), and limits switches to a higher
+ * format than the current one otherwise.
+ */
+public class BufferBasedEvaluator implements FormatEvaluator {
+
+    public static final int DEFAULT_MIN_BUFFER_MS = 10000;
+    public static final int DEFAULT_TARGET_BUFFER_MS = 30000;
+    public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+    private final BandwidthMeter mBandwidthMeter;
+    private final long mMinBufferUs;
+    private final long mTargetBufferUs;
+    private final float mBandwidthFraction;
+
+    public BufferBasedEvaluator() {
+        this(null);
+    }
+
+    /**
+     * @param bandwidthMeter Provides the throughput estimate to blend in. May be null, in which
+     *                       case formats are selected from the buffer occupancy alone.
+     */
+    public BufferBasedEvaluator(BandwidthMeter bandwidthMeter) {
+        this(bandwidthMeter, DEFAULT_MIN_BUFFER_MS, DEFAULT_TARGET_BUFFER_MS,
+                DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * @param bandwidthMeter    Provides the throughput estimate to blend in. May be null.
+     * @param minBufferMs       The buffer level at or below which the lowest format is selected.
+     * @param targetBufferMs    The buffer level at or above which the highest format is selected.
+     *                          Must be greater than {@code minBufferMs}.
+     * @param bandwidthFraction The fraction of the throughput estimate considered usable.
+     */
+    public BufferBasedEvaluator(BandwidthMeter bandwidthMeter, int minBufferMs, int targetBufferMs,
+                                float bandwidthFraction) {
+        mBandwidthMeter = bandwidthMeter;
+        mMinBufferUs = minBufferMs * 1000L;
+        mTargetBufferUs = targetBufferMs * 1000L;
+        mBandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public void enable() {
+        // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+        // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                         Format[] formats, FormatEvaluator.Evaluation evaluation) {
+        Format current = evaluation.format;
+        long bufferedUs = queue.isEmpty() ? 0
+                : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+        Format ideal = determineBufferBasedFormat(formats, bufferedUs);
+
+        long bitrateEstimate = mBandwidthMeter == null ? BandwidthMeter.NO_ESTIMATE
+                : mBandwidthMeter.getBitrateEstimate();
+        if (bitrateEstimate != BandwidthMeter.NO_ESTIMATE) {
+            Format throughputFormat = determineThroughputFormat(formats,
+                    (long) (bitrateEstimate * mBandwidthFraction));
+            if (bufferedUs < mMinBufferUs) {
+                // The buffer level says nothing useful yet, e.g. at startup or after a rebuffer.
+                ideal = throughputFormat;
+            } else if (ideal.bitrate > throughputFormat.bitrate
+                    && (current == null || ideal.bitrate > current.bitrate)) {
+                // Only switch up as far as the throughput allows.
+                ideal = current != null && current.bitrate > throughputFormat.bitrate ? current
+                        : throughputFormat;
+            }
+        }
+
+        if (current != null && ideal != current) {
+            evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+        }
+        evaluation.format = ideal;
+    }
+
+    private Format determineBufferBasedFormat(Format[] formats, long bufferedUs) {
+        Format lowest = formats[0];
+        Format highest = formats[0];
+        for (int i = 1; i < formats.length; i++) {
+            Format format = formats[i];
+            if (format.bitrate < lowest.bitrate) {
+                lowest = format;
+            }
+            if (format.bitrate > highest.bitrate) {
+                highest = format;
+            }
+        }
+        if (lowest.bitrate == highest.bitrate) {
+            return lowest;
+        }
+
+        double lowestBitrate = Math.max(lowest.bitrate, 1);
+        double minBufferSec = mMinBufferUs / 1000000d;
+        double targetBufferSec = mTargetBufferUs / 1000000d;
+        double gp = Math.log(highest.bitrate / lowestBitrate) / (targetBufferSec / minBufferSec - 1);
+        double vp = minBufferSec / gp;
+        double bufferedSec = bufferedUs / 1000000d;
+
+        Format best = lowest;
+        double bestScore = -Double.MAX_VALUE;
+        for (int i = 0; i < formats.length; i++) {
+            Format format = formats[i];
+            double bitrate = Math.max(format.bitrate, 1);
+            double utility = Math.log(bitrate / lowestBitrate) + 1;
+            double score = (vp * (utility + gp) - bufferedSec) / bitrate;
+            if (score > bestScore) {
+                bestScore = score;
+                best = format;
+            }
+        }
+        return best;
+    }
+
+    private static Format determineThroughputFormat(Format[] formats, long effectiveBitrate) {
+        Format best = null;
+        Format lowest = formats[0];
+        for (int i = 0; i < formats.length; i++) {
+            Format format = formats[i];
+            if (format.bitrate <= effectiveBitrate && (best == null || format.bitrate > best.bitrate)) {
+                best = format;
+            }
+            if (format.bitrate < lowest.bitrate) {
+                lowest = format;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+}
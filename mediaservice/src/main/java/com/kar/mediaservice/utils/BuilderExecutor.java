@@ -0,0 +1,33 @@
+package com.kar.mediaservice.utils;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * A process wide background thread on which renderer builders fetch and parse manifests and
+ * construct renderers, keeping that work off the application's main thread.
+ */
+public final class BuilderExecutor {
+
+    private static final String THREAD_NAME = "MediaSDKBuilder";
+
+    private static Handler sHandler;
+
+    private BuilderExecutor() {
+    }
+
+    public static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread(THREAD_NAME);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    public static Looper getLooper() {
+        return getHandler().getLooper();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * A {@link BandwidthMeter} view that applies {@link AbrSettings} to the estimate of another meter.
+ * <p/>
+ * This is how the bitrate cap and fixed mode reach chunk sources that select formats from a
+ * bandwidth estimate rather than a {@link com.google.android.exoplayer.chunk.FormatEvaluator},
+ * such as {@link com.google.android.exoplayer.hls.HlsChunkSource}. Transfers are forwarded to the
+ * wrapped meter unchanged.
+ */
+public final class CappedBandwidthMeter implements BandwidthMeter {
+
+    /**
+     * The fraction of the estimate that {@link com.google.android.exoplayer.hls.HlsChunkSource}
+     * considers usable.
+     */
+    public static final float HLS_BANDWIDTH_FRACTION = 0.8f;
+
+    private final BandwidthMeter mBandwidthMeter;
+    private final AbrSettings mSettings;
+    private final float mBandwidthFraction;
+
+    /**
+     * @param bandwidthMeter    The meter providing the real estimate.
+     * @param settings          The settings to apply.
+     * @param bandwidthFraction The fraction of the estimate that the consumer considers usable, so
+     *                          that a format at exactly the cap can still be selected.
+     */
+    public CappedBandwidthMeter(BandwidthMeter bandwidthMeter, AbrSettings settings,
+                                float bandwidthFraction) {
+        mBandwidthMeter = bandwidthMeter;
+        mSettings = settings;
+        mBandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long maxBitrate = mSettings.getMaxBitrate();
+        long capEstimate = maxBitrate > 0 ? (long) Math.ceil(maxBitrate / mBandwidthFraction)
+                : Integer.MAX_VALUE;
+        if (!mSettings.isAdaptive()) {
+            return capEstimate;
+        }
+        long estimate = mBandwidthMeter.getBitrateEstimate();
+        if (maxBitrate <= 0 || estimate == NO_ESTIMATE) {
+            return estimate;
+        }
+        return Math.min(estimate, capEstimate);
+    }
+
+    @Override
+    public void onTransferStart() {
+        mBandwidthMeter.onTransferStart();
+    }
+
+    @Override
+    public void onBytesTransferred(int bytesTransferred) {
+        mBandwidthMeter.onBytesTransferred(bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd() {
+        mBandwidthMeter.onTransferEnd();
+    }
+
+}
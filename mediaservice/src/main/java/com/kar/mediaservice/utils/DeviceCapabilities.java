@@ -0,0 +1,147 @@
+package com.kar.mediaservice.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaDrm;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.audio.AudioCapabilitiesReceiver;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.util.Util;
+
+/**
+ * A process wide registry of the device capabilities that renderer builders depend on: the
+ * Widevine security level and the audio capabilities.
+ * <p/>
+ * The security level is probed once on the {@link BuilderExecutor} thread, ahead of any renderer
+ * builder, and persisted until the OS build changes. The audio capabilities depend on what the
+ * device is connected to, so they are not persisted but kept up to date by an
+ * {@link AudioCapabilitiesReceiver}.
+ */
+public final class DeviceCapabilities {
+
+    private static final String TAG = "DeviceCapabilities";
+
+    public static final String SECURITY_LEVEL_1 = "L1";
+    public static final String SECURITY_LEVEL_3 = "L3";
+
+    private static final String PREFS_NAME = "media_device_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_SECURITY_LEVEL = "securityLevel";
+
+    private static DeviceCapabilities sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final AudioCapabilitiesReceiver mAudioCapabilitiesReceiver;
+
+    private boolean mProbed;
+    private String mWidevineSecurityLevel;
+    private AudioCapabilities mAudioCapabilities;
+
+    private DeviceCapabilities(Context ctx) {
+        mPrefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mAudioCapabilitiesReceiver = new AudioCapabilitiesReceiver(ctx,
+                new AudioCapabilitiesReceiver.Listener() {
+                    @Override
+                    public void onAudioCapabilitiesChanged(AudioCapabilities audioCapabilities) {
+                        synchronized (DeviceCapabilities.this) {
+                            mAudioCapabilities = audioCapabilities;
+                        }
+                    }
+                });
+        mAudioCapabilities = mAudioCapabilitiesReceiver.register();
+    }
+
+    /**
+     * Returns the process wide registry, creating it and starting the probe if necessary.
+     *
+     * @param ctx Any context. Only the application context is retained.
+     */
+    public static synchronized DeviceCapabilities getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new DeviceCapabilities(ctx.getApplicationContext());
+            BuilderExecutor.getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    sInstance.loadOrProbe();
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the Widevine security level, e.g. {@link #SECURITY_LEVEL_1}, or null if Widevine is
+     * not supported or the level is not yet known.
+     */
+    public synchronized String getWidevineSecurityLevel() {
+        return mWidevineSecurityLevel;
+    }
+
+    /**
+     * Records the Widevine security level read by a renderer builder, if the probe could not
+     * determine it.
+     */
+    public synchronized void setWidevineSecurityLevel(String securityLevel) {
+        if (mWidevineSecurityLevel == null && !TextUtils.isEmpty(securityLevel)) {
+            mWidevineSecurityLevel = securityLevel;
+            if (mProbed) {
+                persist();
+            }
+        }
+    }
+
+    public synchronized AudioCapabilities getAudioCapabilities() {
+        return mAudioCapabilities;
+    }
+
+    private void loadOrProbe() {
+        if (Build.FINGERPRINT.equals(mPrefs.getString(KEY_FINGERPRINT, null))) {
+            synchronized (this) {
+                mWidevineSecurityLevel = mPrefs.getString(KEY_SECURITY_LEVEL, null);
+                mProbed = true;
+            }
+            return;
+        }
+
+        String securityLevel = Util.SDK_INT >= 18 ? probeWidevineSecurityLevel() : null;
+        synchronized (this) {
+            if (mWidevineSecurityLevel == null) {
+                mWidevineSecurityLevel = securityLevel;
+            }
+            mProbed = true;
+            persist();
+        }
+    }
+
+    private void persist() {
+        mPrefs.edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_SECURITY_LEVEL, mWidevineSecurityLevel)
+                .apply();
+    }
+
+    @TargetApi(18)
+    private static String probeWidevineSecurityLevel() {
+        if (!MediaDrm.isCryptoSchemeSupported(StreamingDrmSessionManager.WIDEVINE_UUID)) {
+            return null;
+        }
+        MediaDrm mediaDrm = null;
+        try {
+            mediaDrm = new MediaDrm(StreamingDrmSessionManager.WIDEVINE_UUID);
+            return mediaDrm.getPropertyString("securityLevel");
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to query Widevine", e);
+        } finally {
+            if (mediaDrm != null) {
+                mediaDrm.release();
+            }
+        }
+        return null;
+    }
+
+}
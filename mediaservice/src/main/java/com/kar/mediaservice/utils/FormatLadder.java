@@ -0,0 +1,120 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.chunk.Format;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An immutable ladder of formats sorted by increasing bitrate, for selecting the highest format
+ * within a bitrate in O(log n) without allocating.
+ * <p/>
+ * A ladder is built once per format array, and only contains the formats within its resolution
+ * and frame rate caps. Formats whose size or frame rate is unknown are considered within the caps.
+ * If no format is within the caps, the ladder falls back to the lowest bitrate format.
+ */
+public final class FormatLadder {
+
+    public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
+    public static final float NO_MAX_FRAME_RATE = Float.MAX_VALUE;
+
+    private static final Comparator<Format> INCREASING_BITRATE = new Comparator<Format>() {
+        @Override
+        public int compare(Format a, Format b) {
+            return a.bitrate < b.bitrate ? -1 : a.bitrate == b.bitrate ? 0 : 1;
+        }
+    };
+
+    private final Format[] mSourceFormats;
+    private final Format[] mFormats;
+    private final int[] mBitrates;
+
+    private FormatLadder(Format[] sourceFormats, Format[] formats) {
+        mSourceFormats = sourceFormats;
+        mFormats = formats;
+        mBitrates = new int[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            mBitrates[i] = formats[i].bitrate;
+        }
+    }
+
+    /**
+     * Builds a ladder containing all of {@code formats}.
+     */
+    public static FormatLadder build(Format[] formats) {
+        return build(formats, NO_MAX_SIZE, NO_MAX_SIZE, NO_MAX_FRAME_RATE);
+    }
+
+    /**
+     * Builds a ladder from the formats within the given caps.
+     *
+     * @param formats      The formats, in any order. Must not be empty.
+     * @param maxWidth     The maximum width, or {@link #NO_MAX_SIZE}.
+     * @param maxHeight    The maximum height, or {@link #NO_MAX_SIZE}.
+     * @param maxFrameRate The maximum frame rate, or {@link #NO_MAX_FRAME_RATE}.
+     */
+    public static FormatLadder build(Format[] formats, int maxWidth, int maxHeight,
+                                     float maxFrameRate) {
+        Format[] eligible = new Format[formats.length];
+        int eligibleCount = 0;
+        Format lowest = formats[0];
+        for (Format format : formats) {
+            if (format.bitrate < lowest.bitrate) {
+                lowest = format;
+            }
+            if (format.width <= maxWidth && format.height <= maxHeight
+                    && format.frameRate <= maxFrameRate) {
+                eligible[eligibleCount++] = format;
+            }
+        }
+        if (eligibleCount == 0) {
+            eligible[eligibleCount++] = lowest;
+        }
+        eligible = Arrays.copyOf(eligible, eligibleCount);
+        Arrays.sort(eligible, INCREASING_BITRATE);
+        return new FormatLadder(formats, eligible);
+    }
+
+    /**
+     * Returns whether this ladder was built from {@code formats}. Chunk sources pass the same array
+     * to every evaluation as long as the enabled track does not change.
+     */
+    public boolean isBuiltFrom(Format[] formats) {
+        return formats == mSourceFormats;
+    }
+
+    /**
+     * Returns the highest format with a bitrate within {@code maxBitrate}, the lowest format if
+     * none fits, or the highest format if {@code maxBitrate} is 0 or less.
+     */
+    public Format select(long maxBitrate) {
+        if (maxBitrate <= 0) {
+            return mFormats[mFormats.length - 1];
+        }
+        int low = 0;
+        int high = mBitrates.length - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mBitrates[mid] <= maxBitrate) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mFormats[result];
+    }
+
+    public int size() {
+        return mFormats.length;
+    }
+
+    /**
+     * Returns the format at {@code index}, in order of increasing bitrate.
+     */
+    public Format get(int index) {
+        return mFormats[index];
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+
+import java.util.List;
+
+/**
+ * A fixed selection {@link FormatEvaluator} that picks the highest format within a bitrate,
+ * resolution and frame rate cap.
+ * <p/>
+ * Unlike {@link MaxFixedEvaluator} it does not depend on the order of the formats. The formats are
+ * sorted into a {@link FormatLadder} once per format array, after which each evaluation is a
+ * binary search that does not allocate.
+ */
+public class LadderEvaluator implements FormatEvaluator {
+
+    private final long mMaxBitrate;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final float mMaxFrameRate;
+
+    private FormatLadder mLadder;
+
+    public LadderEvaluator(long maxBitrate) {
+        this(maxBitrate, FormatLadder.NO_MAX_SIZE, FormatLadder.NO_MAX_SIZE,
+                FormatLadder.NO_MAX_FRAME_RATE);
+    }
+
+    /**
+     * @param maxBitrate   The maximum bitrate, or 0 for no cap.
+     * @param maxWidth     The maximum width, or {@link FormatLadder#NO_MAX_SIZE}.
+     * @param maxHeight    The maximum height, or {@link FormatLadder#NO_MAX_SIZE}.
+     * @param maxFrameRate The maximum frame rate, or {@link FormatLadder#NO_MAX_FRAME_RATE}.
+     */
+    public LadderEvaluator(long maxBitrate, int maxWidth, int maxHeight, float maxFrameRate) {
+        mMaxBitrate = maxBitrate;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mMaxFrameRate = maxFrameRate;
+    }
+
+    @Override
+    public void enable() {
+        // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+        mLadder = null;
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                         Format[] formats, FormatEvaluator.Evaluation evaluation) {
+        if (mLadder == null || !mLadder.isBuiltFrom(formats)) {
+            mLadder = FormatLadder.build(formats, mMaxWidth, mMaxHeight, mMaxFrameRate);
+        }
+        evaluation.format = mLadder.select(mMaxBitrate);
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.kar.mediaservice.MediaSDKService;
+
+import java.util.List;
+
+/**
+ * A {@link FormatEvaluator} that follows {@link AbrSettings} on every evaluation, so that the
+ * bitrate cap, the fixed/adaptive mode and the adaptive algorithm can be changed during playback.
+ */
+public class SwitchableFormatEvaluator implements FormatEvaluator {
+
+    private final AbrSettings mSettings;
+    private final FormatEvaluator mThroughputEvaluator;
+    private final FormatEvaluator mBufferBasedEvaluator;
+
+    private FormatLadder mLadder;
+
+    public SwitchableFormatEvaluator(AbrSettings settings, BandwidthMeter bandwidthMeter) {
+        this(settings, new AdaptiveEvaluator(bandwidthMeter),
+                new BufferBasedEvaluator(bandwidthMeter));
+    }
+
+    public SwitchableFormatEvaluator(AbrSettings settings, FormatEvaluator throughputEvaluator,
+                                     FormatEvaluator bufferBasedEvaluator) {
+        mSettings = settings;
+        mThroughputEvaluator = throughputEvaluator;
+        mBufferBasedEvaluator = bufferBasedEvaluator;
+    }
+
+    @Override
+    public void enable() {
+        mThroughputEvaluator.enable();
+        mBufferBasedEvaluator.enable();
+    }
+
+    @Override
+    public void disable() {
+        mThroughputEvaluator.disable();
+        mBufferBasedEvaluator.disable();
+        mLadder = null;
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                         Format[] formats, FormatEvaluator.Evaluation evaluation) {
+        Format previous = evaluation.format;
+        if (mLadder == null || !mLadder.isBuiltFrom(formats)) {
+            mLadder = FormatLadder.build(formats);
+        }
+        long maxBitrate = mSettings.getMaxBitrate();
+        if (!mSettings.isAdaptive()) {
+            evaluation.format = mLadder.select(maxBitrate);
+        } else {
+            FormatEvaluator evaluator = mSettings.getAlgorithm() == MediaSDKService.ABR_BUFFER_BASED
+                    ? mBufferBasedEvaluator : mThroughputEvaluator;
+            evaluator.evaluate(queue, playbackPositionUs, formats, evaluation);
+            if (maxBitrate <= 0 || evaluation.format.bitrate <= maxBitrate) {
+                return;
+            }
+            evaluation.format = mLadder.select(maxBitrate);
+        }
+        if (previous != null && evaluation.format != previous) {
+            evaluation.trigger = Chunk.TRIGGER_MANUAL;
+        }
+    }
+
+}
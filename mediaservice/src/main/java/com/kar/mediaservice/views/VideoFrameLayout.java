@@ -45,8 +45,7 @@ public class VideoFrameLayout extends FrameLayout {
 
         int width = getMeasuredWidth();
         int height = getMeasuredHeight();
-        float viewAspectRatio = (float) width / height;
-        float aspectDeformation = videoAspectRatio / viewAspectRatio - 1;
+        float aspectDeformation = getAspectDeformation(videoAspectRatio, width, height);
         if (Math.abs(aspectDeformation) <= MAX_ASPECT_RATIO_DEFORMATION_FRACTION) {
             // We're within the allowed tolerance.
             return;
@@ -61,4 +60,13 @@ public class VideoFrameLayout extends FrameLayout {
                 MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
     }
 
+    /**
+     * Returns how much wider (positive) or narrower (negative) the video is than a view of the
+     * given size, as a fraction of the view's aspect ratio.
+     */
+    public static float getAspectDeformation(float videoAspectRatio, int width, int height) {
+        float viewAspectRatio = (float) width / height;
+        return videoAspectRatio / viewAspectRatio - 1;
+    }
+
 }
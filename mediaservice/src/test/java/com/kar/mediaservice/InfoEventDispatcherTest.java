@@ -0,0 +1,156 @@
+package com.kar.mediaservice;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link InfoEventDispatcher}'s batching, driven through {@link InfoEventDispatcher#flush()}.
+ */
+public class InfoEventDispatcherTest {
+
+    @Test
+    public void deliversEventsInOrderOnFlush() {
+        InfoEventDispatcher dispatcher = new InfoEventDispatcher(null);
+        RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+        dispatcher.onLoadStarted(0, 100, 1, 0, null, 0, 4000);
+        dispatcher.onLoadCompleted(0, 100, 1, 0, null, 0, 4000, 10, 20);
+        dispatcher.onDecoderInitialized("decoder", 30, 5);
+        assertEquals(0, listener.events.size());
+
+        dispatcher.flush();
+        assertEquals(3, listener.events.size());
+        assertEquals("loadStarted 0 100 4000", listener.events.get(0));
+        assertEquals("loadCompleted 0 100 20", listener.events.get(1));
+        assertEquals("decoderInitialized decoder 5", listener.events.get(2));
+
+        dispatcher.flush();
+        assertEquals(3, listener.events.size());
+    }
+
+    @Test
+    public void mergesHighFrequencyEventsWithinBatch() {
+        InfoEventDispatcher dispatcher = new InfoEventDispatcher(null);
+        RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+        dispatcher.onBandwidthSample(10, 1000, 500000);
+        dispatcher.onDroppedFrames(2, 100);
+        dispatcher.onBandwidthSample(20, 3000, 600000);
+        dispatcher.onDroppedFrames(3, 200);
+        dispatcher.flush();
+        assertEquals(2, listener.events.size());
+        assertEquals("bandwidthSample 30 4000 600000", listener.events.get(0));
+        assertEquals("droppedFrames 5 300", listener.events.get(1));
+
+        dispatcher.onDroppedFrames(1, 50);
+        dispatcher.flush();
+        assertEquals("droppedFrames 1 50", listener.events.get(2));
+    }
+
+    @Test
+    public void growsQueueBeyondInitialCapacity() {
+        InfoEventDispatcher dispatcher = new InfoEventDispatcher(null);
+        RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.onLoadStarted(i, 0, 1, 0, null, 0, 0);
+        }
+        dispatcher.flush();
+        assertEquals(100, listener.events.size());
+        assertEquals("loadStarted 99 0 0", listener.events.get(99));
+    }
+
+    @Test
+    public void fansOutToEachListener() {
+        InfoEventDispatcher dispatcher = new InfoEventDispatcher(null);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        dispatcher.addListener(first);
+        dispatcher.addListener(second);
+        dispatcher.addListener(first);
+        dispatcher.onDroppedFrames(1, 10);
+        dispatcher.flush();
+        assertEquals(1, first.events.size());
+        assertEquals(1, second.events.size());
+
+        dispatcher.removeListener(first);
+        dispatcher.onDroppedFrames(1, 10);
+        dispatcher.flush();
+        assertEquals(1, first.events.size());
+        assertEquals(2, second.events.size());
+    }
+
+    @Test
+    public void dropsEventsWithoutListeners() {
+        InfoEventDispatcher dispatcher = new InfoEventDispatcher(null);
+        RecordingListener listener = new RecordingListener();
+        dispatcher.onDroppedFrames(1, 10);
+        dispatcher.addListener(listener);
+        dispatcher.flush();
+        assertEquals(0, listener.events.size());
+
+        dispatcher.onDroppedFrames(1, 10);
+        dispatcher.clearListeners();
+        dispatcher.addListener(listener);
+        dispatcher.flush();
+        assertEquals(0, listener.events.size());
+    }
+
+    private static final class RecordingListener implements MediaSDKService.InfoListener {
+
+        public final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            events.add("videoFormatEnabled " + mediaTimeMs);
+        }
+
+        @Override
+        public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            events.add("audioFormatEnabled " + mediaTimeMs);
+        }
+
+        @Override
+        public void onDroppedFrames(int count, long elapsed) {
+            events.add("droppedFrames " + count + " " + elapsed);
+        }
+
+        @Override
+        public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+            events.add("bandwidthSample " + elapsedMs + " " + bytes + " " + bitrateEstimate);
+        }
+
+        @Override
+        public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                                  long mediaStartTimeMs, long mediaEndTimeMs) {
+            events.add("loadStarted " + sourceId + " " + length + " " + mediaEndTimeMs);
+        }
+
+        @Override
+        public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                                    Format format, long mediaStartTimeMs, long mediaEndTimeMs,
+                                    long elapsedRealtimeMs, long loadDurationMs) {
+            events.add("loadCompleted " + sourceId + " " + bytesLoaded + " " + loadDurationMs);
+        }
+
+        @Override
+        public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                         long initializationDurationMs) {
+            events.add("decoderInitialized " + decoderName + " " + initializationDurationMs);
+        }
+
+        @Override
+        public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+            events.add("availableRangeChanged " + sourceId);
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.kar.mediaservice;
+
+import com.google.android.exoplayer.ExoPlayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests when {@link MediaQueue} checks again whether to prepare the next item.
+ */
+public class MediaQueueTest {
+
+    private static final long THRESHOLD_MS = MediaQueue.DEFAULT_PRELOAD_THRESHOLD_MS;
+
+    @Test
+    public void waitsUntilThresholdBeforeEnd() {
+        assertEquals(45000, MediaQueue.getPreloadDelayMs(60000, 0, THRESHOLD_MS));
+        assertEquals(5000, MediaQueue.getPreloadDelayMs(60000, 40000, THRESHOLD_MS));
+    }
+
+    @Test
+    public void preloadsAtOnceWithinThreshold() {
+        assertEquals(0, MediaQueue.getPreloadDelayMs(60000, 45000, THRESHOLD_MS));
+        assertEquals(0, MediaQueue.getPreloadDelayMs(60000, 59000, THRESHOLD_MS));
+        // Items shorter than the threshold.
+        assertEquals(0, MediaQueue.getPreloadDelayMs(10000, 0, THRESHOLD_MS));
+    }
+
+    @Test
+    public void waitsForUnknownDuration() {
+        assertEquals(ExoPlayer.UNKNOWN_TIME,
+                MediaQueue.getPreloadDelayMs(ExoPlayer.UNKNOWN_TIME, 0, THRESHOLD_MS));
+    }
+
+}
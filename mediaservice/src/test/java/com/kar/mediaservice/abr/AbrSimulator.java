@@ -0,0 +1,278 @@
+package com.kar.mediaservice.abr;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Drives a {@link FormatEvaluator} against a {@link BandwidthTrace} and a synthetic chunk queue,
+ * without a device or network.
+ * <p/>
+ * The simulation mirrors what a chunk source does: before each chunk load the evaluator is given
+ * the queue of buffered chunks and the playback position, and the selected format's chunk is then
+ * "downloaded" at the speed given by the trace while playback consumes the buffer.
+ */
+public final class AbrSimulator {
+
+    public static final long DEFAULT_SEGMENT_DURATION_MS = 4000;
+    public static final long DEFAULT_CONTENT_DURATION_MS = 10 * 60 * 1000;
+    public static final long DEFAULT_MAX_BUFFER_MS = 30000;
+    public static final long DEFAULT_START_BUFFER_MS = 2500;
+
+    // Simulated chunks are never loaded, but are given an empty source in case they are.
+    private static final DataSource NO_OP_DATA_SOURCE = new DataSource() {
+        @Override
+        public long open(DataSpec dataSpec) {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        @Override
+        public void close() {
+            // Do nothing.
+        }
+    };
+    private static final DataSpec NO_OP_DATA_SPEC = new DataSpec((Uri) null);
+
+    private final Format[] mFormats;
+    private final long mSegmentDurationUs;
+    private final int mSegmentCount;
+    private final long mMaxBufferUs;
+    private final long mStartBufferUs;
+
+    public AbrSimulator(Format[] formats) {
+        this(formats, DEFAULT_SEGMENT_DURATION_MS, DEFAULT_CONTENT_DURATION_MS,
+                DEFAULT_MAX_BUFFER_MS, DEFAULT_START_BUFFER_MS);
+    }
+
+    /**
+     * @param formats           The ladder to select from, in any order.
+     * @param segmentDurationMs The duration of each chunk.
+     * @param contentDurationMs The duration of the simulated content.
+     * @param maxBufferMs       Loading pauses while more than this is buffered.
+     * @param startBufferMs     Playback starts, or resumes after a rebuffer, once this is buffered.
+     */
+    public AbrSimulator(Format[] formats, long segmentDurationMs, long contentDurationMs,
+                        long maxBufferMs, long startBufferMs) {
+        // Chunk sources hand formats to the evaluator in order of decreasing bandwidth.
+        mFormats = Arrays.copyOf(formats, formats.length);
+        Arrays.sort(mFormats, new Format.DecreasingBandwidthComparator());
+        mSegmentDurationUs = segmentDurationMs * 1000;
+        mSegmentCount = (int) ((contentDurationMs + segmentDurationMs - 1) / segmentDurationMs);
+        mMaxBufferUs = maxBufferMs * 1000;
+        mStartBufferUs = startBufferMs * 1000;
+    }
+
+    /**
+     * Simulates playback of the whole content.
+     *
+     * @param evaluator      The evaluator under test. It is enabled and disabled by this method.
+     * @param bandwidthMeter The meter the evaluator reads, which is fed with each simulated load.
+     *                       May be null if the evaluator does not use one.
+     * @param trace          The network conditions.
+     */
+    public SimulationResult run(FormatEvaluator evaluator, SimulatedBandwidthMeter bandwidthMeter,
+                                BandwidthTrace trace) {
+        Playback playback = new Playback();
+        List<SimulatedChunk> queue = new ArrayList<>();
+        FormatEvaluator.Evaluation evaluation = new FormatEvaluator.Evaluation();
+        Format[] chunkFormats = new Format[mSegmentCount];
+        Format previousFormat = null;
+        int switchCount = 0;
+        long bitrateSum = 0;
+        int chunkIndex = 0;
+
+        evaluator.enable();
+        while (chunkIndex < mSegmentCount) {
+            long queueEndUs = queue.isEmpty() ? playback.positionUs
+                    : queue.get(queue.size() - 1).endTimeUs;
+            if (queueEndUs - playback.positionUs > mMaxBufferUs) {
+                playback.advance(queueEndUs - playback.positionUs - mMaxBufferUs, queueEndUs);
+                discardPlayedChunks(queue, playback.positionUs);
+            }
+
+            evaluation.queueSize = queue.size();
+            evaluator.evaluate(queue, playback.positionUs, mFormats, evaluation);
+            while (queue.size() > evaluation.queueSize) {
+                // The evaluator asked for buffered chunks to be replaced.
+                SimulatedChunk discarded = queue.remove(queue.size() - 1);
+                bitrateSum -= discarded.format.bitrate;
+                chunkIndex = discarded.chunkIndex;
+            }
+
+            Format format = evaluation.format;
+            if (previousFormat != null && format != previousFormat) {
+                switchCount++;
+            }
+            previousFormat = format;
+
+            long bytes = format.bitrate * mSegmentDurationUs / 8000000;
+            long downloadMs = trace.getDownloadDurationMs(playback.timeUs / 1000, bytes);
+            queueEndUs = queue.isEmpty() ? playback.positionUs
+                    : queue.get(queue.size() - 1).endTimeUs;
+            playback.advance(downloadMs * 1000, queueEndUs);
+            discardPlayedChunks(queue, playback.positionUs);
+            if (bandwidthMeter != null) {
+                bandwidthMeter.onLoadCompleted(bytes, downloadMs);
+            }
+
+            long startTimeUs = chunkIndex * mSegmentDurationUs;
+            queue.add(new SimulatedChunk(format, startTimeUs, startTimeUs + mSegmentDurationUs,
+                    chunkIndex, evaluation.trigger));
+            bitrateSum += format.bitrate;
+            chunkFormats[chunkIndex] = format;
+            chunkIndex++;
+            playback.maybeStart(queue.get(queue.size() - 1).endTimeUs - playback.positionUs,
+                    chunkIndex == mSegmentCount);
+        }
+        evaluator.disable();
+
+        return new SimulationResult(trace.name, playback.startupDelayUs / 1000,
+                playback.rebufferUs / 1000, playback.rebufferCount, bitrateSum / mSegmentCount,
+                switchCount, chunkFormats);
+    }
+
+    private static void discardPlayedChunks(List<SimulatedChunk> queue, long positionUs) {
+        while (!queue.isEmpty() && queue.get(0).endTimeUs <= positionUs) {
+            queue.remove(0);
+        }
+    }
+
+    private final class Playback {
+
+        public long timeUs;
+        public long positionUs;
+        public boolean playing;
+        public boolean started;
+        public long startupDelayUs;
+        public long rebufferUs;
+        public int rebufferCount;
+
+        /**
+         * Advances the wall clock, playing out buffered media up to {@code bufferEndUs}.
+         */
+        public void advance(long durationUs, long bufferEndUs) {
+            timeUs += durationUs;
+            if (!playing) {
+                if (started) {
+                    rebufferUs += durationUs;
+                }
+                return;
+            }
+            long bufferedUs = bufferEndUs - positionUs;
+            if (durationUs <= bufferedUs) {
+                positionUs += durationUs;
+            } else {
+                positionUs = bufferEndUs;
+                playing = false;
+                rebufferUs += durationUs - bufferedUs;
+                rebufferCount++;
+            }
+        }
+
+        public void maybeStart(long bufferedUs, boolean loadedAll) {
+            if (playing || (bufferedUs < mStartBufferUs && !loadedAll)) {
+                return;
+            }
+            if (!started) {
+                started = true;
+                startupDelayUs = timeUs;
+            }
+            playing = true;
+        }
+
+    }
+
+    private static final class SimulatedChunk extends MediaChunk {
+
+        public SimulatedChunk(Format format, long startTimeUs, long endTimeUs, int chunkIndex,
+                              int trigger) {
+            super(NO_OP_DATA_SOURCE, NO_OP_DATA_SPEC, trigger, format, startTimeUs, endTimeUs,
+                    chunkIndex, Chunk.NO_PARENT_ID);
+        }
+
+        @Override
+        public long bytesLoaded() {
+            return 0;
+        }
+
+        @Override
+        public void cancelLoad() {
+            // Do nothing.
+        }
+
+        @Override
+        public boolean isLoadCanceled() {
+            return false;
+        }
+
+        @Override
+        public void load() {
+            // Do nothing.
+        }
+
+    }
+
+    /**
+     * A {@link BandwidthMeter} fed directly with simulated loads, estimating bandwidth as an
+     * exponentially weighted moving average of per chunk throughput.
+     */
+    public static final class SimulatedBandwidthMeter implements BandwidthMeter {
+
+        private static final double DEFAULT_WEIGHT = 0.3;
+
+        private final double mWeight;
+        private long mBitrateEstimate = NO_ESTIMATE;
+
+        public SimulatedBandwidthMeter() {
+            this(DEFAULT_WEIGHT);
+        }
+
+        public SimulatedBandwidthMeter(double weight) {
+            mWeight = weight;
+        }
+
+        /* package */ void onLoadCompleted(long bytes, long durationMs) {
+            long bitrate = bytes * 8000 / Math.max(durationMs, 1);
+            mBitrateEstimate = mBitrateEstimate == NO_ESTIMATE ? bitrate
+                    : (long) (mWeight * bitrate + (1 - mWeight) * mBitrateEstimate);
+        }
+
+        @Override
+        public long getBitrateEstimate() {
+            return mBitrateEstimate;
+        }
+
+        @Override
+        public void onTransferStart() {
+            // Do nothing.
+        }
+
+        @Override
+        public void onBytesTransferred(int bytesTransferred) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onTransferEnd() {
+            // Do nothing.
+        }
+
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.kar.mediaservice.abr;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.kar.mediaservice.abr.AbrSimulator.SimulatedBandwidthMeter;
+import com.kar.mediaservice.utils.BufferBasedEvaluator;
+import com.kar.mediaservice.utils.LadderEvaluator;
+import com.kar.mediaservice.utils.MaxFixedEvaluator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the format evaluators through {@link AbrSimulator} and checks their QoE figures per trace.
+ */
+public class AbrSimulatorTest {
+
+    private static final Format[] LADDER = new Format[] {
+            videoFormat("240p", 426, 240, 300000),
+            videoFormat("360p", 640, 360, 750000),
+            videoFormat("480p", 854, 480, 1200000),
+            videoFormat("720p", 1280, 720, 2500000),
+            videoFormat("1080p", 1920, 1080, 5000000),
+    };
+
+    private static final int CONSTANT_HIGH = 0;
+    private static final int CONSTANT_LOW = 1;
+    private static final int STEP_DOWN = 2;
+    private static final int OSCILLATING = 3;
+    private static final BandwidthTrace[] TRACES = new BandwidthTrace[] {
+            BandwidthTrace.constant(20000000),
+            BandwidthTrace.constant(1000000),
+            new BandwidthTrace("step-down", new long[] {60000, 60000},
+                    new long[] {8000000, 900000}),
+            new BandwidthTrace("mobile-oscillating", new long[] {5000, 3000, 8000, 2000},
+                    new long[] {3000000, 400000, 1800000, 150000}),
+    };
+
+    @Test
+    public void adaptiveEvaluator() {
+        SimulationResult[] results = runAll(new EvaluatorFactory() {
+            @Override
+            public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+                return new AdaptiveEvaluator(bandwidthMeter);
+            }
+        });
+        assertNoRebuffer(results[CONSTANT_HIGH]);
+        assertEquals(results[CONSTANT_HIGH].toString(), "1080p",
+                lastFormat(results[CONSTANT_HIGH]).id);
+        assertNoRebuffer(results[CONSTANT_LOW]);
+        assertEquals(0, results[CONSTANT_LOW].switchCount);
+        assertEquals(750000, maxBitrate(results[CONSTANT_LOW]));
+        assertNoRebuffer(results[OSCILLATING]);
+        // It keeps its format while 25 seconds are buffered, which a sharp drop drains.
+        assertTrue(results[STEP_DOWN].toString(), results[STEP_DOWN].rebufferCount > 0);
+    }
+
+    @Test
+    public void bufferBasedEvaluator() {
+        SimulationResult[] results = runAll(new EvaluatorFactory() {
+            @Override
+            public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+                return new BufferBasedEvaluator();
+            }
+        });
+        for (SimulationResult result : results) {
+            assertNoRebuffer(result);
+            // Without a buffer, it starts from the lowest format.
+            assertEquals(result.toString(), "240p", result.chunkFormats[0].id);
+        }
+        assertEquals("1080p", lastFormat(results[CONSTANT_HIGH]).id);
+        assertTrue(results[CONSTANT_LOW].averageBitrate <= 1000000);
+        assertEquals(1200000, maxBitrate(results[CONSTANT_LOW]));
+        assertEquals(5000000, maxBitrate(results[STEP_DOWN]));
+        assertTrue(minBitrate(results[STEP_DOWN], 10) <= 750000);
+    }
+
+    @Test
+    public void bufferBasedEvaluatorWithThroughput() {
+        SimulationResult[] results = runAll(new EvaluatorFactory() {
+            @Override
+            public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+                return new BufferBasedEvaluator(bandwidthMeter);
+            }
+        });
+        for (SimulationResult result : results) {
+            assertNoRebuffer(result);
+        }
+        assertEquals("1080p", lastFormat(results[CONSTANT_HIGH]).id);
+        assertTrue(results[CONSTANT_LOW].averageBitrate <= 1000000);
+        // The throughput estimate keeps it from oscillating around the link rate.
+        assertTrue(results[CONSTANT_LOW].toString(), results[CONSTANT_LOW].switchCount < 10);
+        assertTrue(results[OSCILLATING].toString(), results[OSCILLATING].switchCount < 10);
+        assertTrue(minBitrate(results[STEP_DOWN], 10) <= 750000);
+    }
+
+    @Test
+    public void maxFixedEvaluator() {
+        SimulationResult[] results = runAll(new EvaluatorFactory() {
+            @Override
+            public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+                return new MaxFixedEvaluator(1500000);
+            }
+        });
+        for (SimulationResult result : results) {
+            assertEquals(0, result.switchCount);
+            assertEquals(1200000, result.averageBitrate);
+        }
+        assertNoRebuffer(results[CONSTANT_HIGH]);
+        // 480p does not fit a 1 Mbps link.
+        assertTrue(results[CONSTANT_LOW].rebufferCount > 0);
+    }
+
+    @Test
+    public void ladderEvaluator() {
+        SimulationResult[] results = runAll(new EvaluatorFactory() {
+            @Override
+            public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+                return new LadderEvaluator(3000000, 1920, 360, 30);
+            }
+        });
+        for (SimulationResult result : results) {
+            assertNoRebuffer(result);
+            // The 720p bitrate is within the cap, but not its height.
+            assertEquals(0, result.switchCount);
+            assertEquals("360p", lastFormat(result).id);
+            assertEquals(750000, result.averageBitrate);
+        }
+    }
+
+    @Test
+    public void traceDownloadDuration() {
+        BandwidthTrace trace = new BandwidthTrace("two-step", new long[] {1000, 1000},
+                new long[] {8000, 16000});
+        // 1000 bytes at 8 kbps take the whole first period.
+        assertEquals(1000, trace.getDownloadDurationMs(0, 1000));
+        // 3000 bytes need the first period plus the whole second one.
+        assertEquals(2000, trace.getDownloadDurationMs(0, 3000));
+        // The trace repeats.
+        assertEquals(1000, trace.getDownloadDurationMs(2000, 1000));
+        assertTrue(trace.getDownloadDurationMs(1500, 1000) < 1000);
+    }
+
+    @Test
+    public void traceDownloadWaitsOutPeriodsWithoutBandwidth() {
+        BandwidthTrace trace = new BandwidthTrace("outage", new long[] {1000, 1000},
+                new long[] {0, 8000});
+        assertEquals(2000, trace.getDownloadDurationMs(0, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void traceWithoutBandwidthIsRejected() {
+        new BandwidthTrace("dead", new long[] {1000, 1000}, new long[] {0, 0});
+    }
+
+    @Test
+    public void parseSkipsCommentsAndBlankLines() throws IOException {
+        BandwidthTrace trace = BandwidthTrace.parse("parsed", new StringReader(
+                "# durationMs bitsPerSecond\n\n1000 8000\n  1000\t16000  \n"));
+        assertEquals("parsed", trace.name);
+        assertEquals(2000, trace.getDownloadDurationMs(0, 3000));
+        assertEquals(1000, trace.getDownloadDurationMs(2000, 1000));
+    }
+
+    @Test(expected = IOException.class)
+    public void parseRejectsMalformedLines() throws IOException {
+        BandwidthTrace.parse("malformed", new StringReader("1000 8000\n1000\n"));
+    }
+
+    private static SimulationResult[] runAll(EvaluatorFactory factory) {
+        AbrSimulator simulator = new AbrSimulator(LADDER);
+        SimulationResult[] results = new SimulationResult[TRACES.length];
+        for (int i = 0; i < TRACES.length; i++) {
+            // Each trace starts from a cold bandwidth estimate.
+            SimulatedBandwidthMeter bandwidthMeter = new SimulatedBandwidthMeter();
+            results[i] = simulator.run(factory.createEvaluator(bandwidthMeter), bandwidthMeter,
+                    TRACES[i]);
+        }
+        return results;
+    }
+
+    private static void assertNoRebuffer(SimulationResult result) {
+        assertEquals(result.toString(), 0, result.rebufferMs);
+    }
+
+    private static Format lastFormat(SimulationResult result) {
+        return result.chunkFormats[result.chunkFormats.length - 1];
+    }
+
+    private static int maxBitrate(SimulationResult result) {
+        int maxBitrate = 0;
+        for (Format format : result.chunkFormats) {
+            maxBitrate = Math.max(maxBitrate, format.bitrate);
+        }
+        return maxBitrate;
+    }
+
+    /**
+     * Returns the lowest bitrate played from chunk {@code fromIndex} on, i.e. once started up.
+     */
+    private static int minBitrate(SimulationResult result, int fromIndex) {
+        int minBitrate = Integer.MAX_VALUE;
+        for (int i = fromIndex; i < result.chunkFormats.length; i++) {
+            minBitrate = Math.min(minBitrate, result.chunkFormats[i].bitrate);
+        }
+        return minBitrate;
+    }
+
+    private interface EvaluatorFactory {
+        FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter);
+    }
+
+    private static Format videoFormat(String id, int width, int height, int bitrate) {
+        return new Format(id, "video/mp4", width, height, 30, -1, -1, bitrate);
+    }
+
+}
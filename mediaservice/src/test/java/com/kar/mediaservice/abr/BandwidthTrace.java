@@ -0,0 +1,123 @@
+package com.kar.mediaservice.abr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded or synthetic network bandwidth trace, as a sequence of periods with a constant
+ * bandwidth. The trace repeats once its last period has elapsed.
+ */
+public final class BandwidthTrace {
+
+    public final String name;
+
+    private final long[] mDurationsMs;
+    private final long[] mBitrates;
+    private final long mTotalDurationMs;
+
+    /**
+     * @param name        A name for reporting.
+     * @param durationsMs The duration of each period, in milliseconds. Must be positive.
+     * @param bitrates    The bandwidth during each period, in bits per second. Periods without
+     *                    bandwidth are allowed, but not a trace without any.
+     */
+    public BandwidthTrace(String name, long[] durationsMs, long[] bitrates) {
+        if (durationsMs.length == 0 || durationsMs.length != bitrates.length) {
+            throw new IllegalArgumentException("Invalid trace: " + name);
+        }
+        long totalDurationMs = 0;
+        long maxBitrate = 0;
+        for (int i = 0; i < durationsMs.length; i++) {
+            if (durationsMs[i] <= 0 || bitrates[i] < 0) {
+                throw new IllegalArgumentException("Invalid period " + i + " in trace: " + name);
+            }
+            totalDurationMs += durationsMs[i];
+            maxBitrate = Math.max(maxBitrate, bitrates[i]);
+        }
+        if (maxBitrate == 0) {
+            // Nothing would ever finish downloading.
+            throw new IllegalArgumentException("No bandwidth in trace: " + name);
+        }
+        this.name = name;
+        mDurationsMs = durationsMs;
+        mBitrates = bitrates;
+        mTotalDurationMs = totalDurationMs;
+    }
+
+    public static BandwidthTrace constant(long bitrate) {
+        return new BandwidthTrace("constant-" + bitrate / 1000 + "k", new long[] {1000},
+                new long[] {bitrate});
+    }
+
+    /**
+     * Parses a trace with one {@code <durationMs> <bitsPerSecond>} pair per line. Empty lines and
+     * lines starting with {@code #} are ignored.
+     *
+     * @throws IOException If reading fails or a line is not a valid pair.
+     */
+    public static BandwidthTrace parse(String name, Reader reader) throws IOException {
+        List<long[]> periods = new ArrayList<>();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IOException("Invalid line " + lineNumber + " in trace: " + name);
+            }
+            try {
+                periods.add(new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid line " + lineNumber + " in trace: " + name, e);
+            }
+        }
+        long[] durationsMs = new long[periods.size()];
+        long[] bitrates = new long[periods.size()];
+        for (int i = 0; i < periods.size(); i++) {
+            durationsMs[i] = periods.get(i)[0];
+            bitrates[i] = periods.get(i)[1];
+        }
+        return new BandwidthTrace(name, durationsMs, bitrates);
+    }
+
+    /**
+     * Returns the time taken to download {@code bytes} starting at {@code startMs}, in
+     * milliseconds.
+     */
+    public long getDownloadDurationMs(long startMs, long bytes) {
+        double remainingBits = bytes * 8d;
+        long timeMs = startMs % mTotalDurationMs;
+        int period = 0;
+        long periodEndMs = mDurationsMs[0];
+        while (timeMs >= periodEndMs) {
+            periodEndMs += mDurationsMs[++period];
+        }
+        double elapsedMs = 0;
+        while (true) {
+            double periodRemainingMs = periodEndMs - timeMs;
+            double periodBits = mBitrates[period] * periodRemainingMs / 1000d;
+            if (periodBits >= remainingBits) {
+                elapsedMs += remainingBits * 1000d / Math.max(mBitrates[period], 1);
+                return (long) Math.ceil(elapsedMs);
+            }
+            remainingBits -= periodBits;
+            elapsedMs += periodRemainingMs;
+            timeMs = periodEndMs;
+            period = (period + 1) % mDurationsMs.length;
+            if (period == 0) {
+                timeMs = 0;
+                periodEndMs = 0;
+            }
+            periodEndMs += mDurationsMs[period];
+        }
+    }
+
+}
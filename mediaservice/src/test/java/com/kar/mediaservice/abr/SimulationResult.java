@@ -0,0 +1,41 @@
+package com.kar.mediaservice.abr;
+
+import com.google.android.exoplayer.chunk.Format;
+
+import java.util.Locale;
+
+/**
+ * The QoE figures of one {@link AbrSimulator} run.
+ */
+public final class SimulationResult {
+
+    public final String traceName;
+    public final long startupDelayMs;
+    public final long rebufferMs;
+    public final int rebufferCount;
+    public final long averageBitrate;
+    public final int switchCount;
+    /** The format each chunk was played in, in playback order. */
+    public final Format[] chunkFormats;
+
+    public SimulationResult(String traceName, long startupDelayMs, long rebufferMs,
+                            int rebufferCount, long averageBitrate, int switchCount,
+                            Format[] chunkFormats) {
+        this.traceName = traceName;
+        this.startupDelayMs = startupDelayMs;
+        this.rebufferMs = rebufferMs;
+        this.rebufferCount = rebufferCount;
+        this.averageBitrate = averageBitrate;
+        this.switchCount = switchCount;
+        this.chunkFormats = chunkFormats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%-24s startup=%6dms rebuffer=%7dms (%3d) avgBitrate=%6dkbps switches=%4d",
+                traceName, startupDelayMs, rebufferMs, rebufferCount, averageBitrate / 1000,
+                switchCount);
+    }
+
+}
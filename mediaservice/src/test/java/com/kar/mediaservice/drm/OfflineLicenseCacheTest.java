@@ -0,0 +1,202 @@
+package com.kar.mediaservice.drm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link OfflineLicenseCache} against an in-memory store and a stand-in for the license
+ * server.
+ */
+public class OfflineLicenseCacheTest {
+
+    private static final byte[] PSSH_1 = new byte[] {0, 0, 0, 32, 'p', 's', 's', 'h', 1};
+    private static final byte[] PSSH_2 = new byte[] {0, 0, 0, 32, 'p', 's', 's', 'h', 2};
+    private static final String MIME_TYPE = "video/mp4";
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private MapStore mStore;
+    private FakeLicenseServer mServer;
+    private OfflineLicenseCache mCache;
+
+    @Before
+    public void setUp() {
+        mStore = new MapStore();
+        mServer = new FakeLicenseServer();
+        mCache = new OfflineLicenseCache(mStore);
+    }
+
+    @Test
+    public void missLoadsAndStoresLicense() throws Exception {
+        assertNull(mCache.getKeySetId(PSSH_1, mServer));
+        byte[] keySetId = mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        assertEquals(1, mServer.requestCount.get());
+        assertArrayEquals(keySetId, mCache.getKeySetId(PSSH_1, mServer));
+        assertArrayEquals(keySetId, mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer));
+        assertEquals(1, mServer.requestCount.get());
+    }
+
+    @Test
+    public void licensesAreKeyedByInitData() throws Exception {
+        byte[] keySetId1 = mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        byte[] keySetId2 = mCache.getOrLoadKeySetId(PSSH_2, MIME_TYPE, mServer);
+        assertEquals(2, mServer.requestCount.get());
+        assertEquals(keySetId1[0] + 1, keySetId2[0]);
+    }
+
+    @Test
+    public void licenseSurvivesNewCacheInstance() throws Exception {
+        byte[] keySetId = mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        OfflineLicenseCache restarted = new OfflineLicenseCache(mStore);
+        assertArrayEquals(keySetId, restarted.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer));
+        assertEquals(1, mServer.requestCount.get());
+    }
+
+    @Test
+    public void expiringLicenseIsReloaded() throws Exception {
+        mServer.licenseDurationMs = OfflineLicenseCache.MIN_REMAINING_MS / 2;
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        assertNull(mCache.getKeySetId(PSSH_1, mServer));
+        assertEquals(0, mStore.values.size());
+        mServer.licenseDurationMs = HOUR_MS;
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        assertEquals(2, mServer.requestCount.get());
+        assertReleased(1);
+    }
+
+    @Test
+    public void removedLicenseIsReloaded() throws Exception {
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        mCache.removeLicense(PSSH_1, mServer);
+        assertReleased(1);
+        assertNull(new OfflineLicenseCache(mStore).getKeySetId(PSSH_1, mServer));
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        assertEquals(2, mServer.requestCount.get());
+    }
+
+    @Test
+    public void replacedLicenseIsReleased() throws Exception {
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        mCache.putLicense(PSSH_1, mServer.loadLicense(PSSH_1, MIME_TYPE), mServer);
+        assertReleased(1);
+        // Storing the same license again releases nothing.
+        mCache.putLicense(PSSH_1, new OfflineLicenseCache.License(new byte[] {2},
+                System.currentTimeMillis() + HOUR_MS), mServer);
+        assertReleased(1);
+    }
+
+    @Test
+    public void failedLoadIsNotCached() throws Exception {
+        final Exception error = new Exception("license server down");
+        mServer.error = error;
+        try {
+            mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+            fail();
+        } catch (Exception e) {
+            assertSame(error, e);
+        }
+        mServer.error = null;
+        mCache.getOrLoadKeySetId(PSSH_1, MIME_TYPE, mServer);
+        assertEquals(2, mServer.requestCount.get());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneLoad() throws Exception {
+        mServer.responseGate = new CountDownLatch(1);
+        Future<?> prefetch = mCache.prefetch(PSSH_1, MIME_TYPE, mServer);
+        mServer.requestStarted.await(5, TimeUnit.SECONDS);
+        final byte[][] restored = new byte[1][];
+        Thread player = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restored[0] = mCache.getKeySetId(PSSH_1, mServer);
+            }
+        });
+        player.start();
+        mServer.responseGate.countDown();
+        prefetch.get(5, TimeUnit.SECONDS);
+        player.join(5000);
+        assertEquals(1, mServer.requestCount.get());
+        assertArrayEquals(mCache.getKeySetId(PSSH_1, mServer), restored[0]);
+    }
+
+    private void assertReleased(int... keySetIds) {
+        assertEquals(keySetIds.length, mServer.releasedKeySetIds.size());
+        for (int i = 0; i < keySetIds.length; i++) {
+            assertArrayEquals(new byte[] {(byte) keySetIds[i]}, mServer.releasedKeySetIds.get(i));
+        }
+    }
+
+    private static final class MapStore implements OfflineLicenseCache.Store {
+
+        public final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public synchronized void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public synchronized void remove(String key) {
+            values.remove(key);
+        }
+
+    }
+
+    /**
+     * Grants a new license per request, whose key set id is the request count, and records the
+     * licenses released.
+     */
+    private static final class FakeLicenseServer implements OfflineLicenseCache.LicenseLoader {
+
+        public final AtomicInteger requestCount = new AtomicInteger();
+        public final CountDownLatch requestStarted = new CountDownLatch(1);
+        public final List<byte[]> releasedKeySetIds =
+                Collections.synchronizedList(new ArrayList<byte[]>());
+        public volatile long licenseDurationMs = HOUR_MS;
+        public volatile Exception error;
+        public volatile CountDownLatch responseGate;
+
+        @Override
+        public OfflineLicenseCache.License loadLicense(byte[] initData, String mimeType)
+                throws Exception {
+            int count = requestCount.incrementAndGet();
+            requestStarted.countDown();
+            if (responseGate != null) {
+                responseGate.await(5, TimeUnit.SECONDS);
+            }
+            if (error != null) {
+                throw error;
+            }
+            return new OfflineLicenseCache.License(new byte[] {(byte) count},
+                    System.currentTimeMillis() + licenseDurationMs);
+        }
+
+        @Override
+        public void releaseLicense(byte[] keySetId) {
+            releasedKeySetIds.add(keySetId);
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.kar.mediaservice.drm;
+
+import android.media.MediaCrypto;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link OpenNotifyingDrmSessionManager} reports the session opening once.
+ */
+public class OpenNotifyingDrmSessionManagerTest {
+
+    @Test
+    public void notifiesWhenOpenedSynchronously() {
+        FakeDrmSessionManager fake = new FakeDrmSessionManager(DrmSessionManager.STATE_OPENED);
+        CountingListener listener = new CountingListener();
+        DrmSessionManager drmSessionManager = new OpenNotifyingDrmSessionManager(fake, listener);
+        drmSessionManager.open(null);
+        assertEquals(1, listener.count);
+        fake.state = DrmSessionManager.STATE_OPENED_WITH_KEYS;
+        drmSessionManager.getState();
+        drmSessionManager.open(null);
+        assertEquals(1, listener.count);
+    }
+
+    @Test
+    public void notifiesWhenOpenedAfterProvisioning() {
+        FakeDrmSessionManager fake = new FakeDrmSessionManager(DrmSessionManager.STATE_OPENING);
+        CountingListener listener = new CountingListener();
+        DrmSessionManager drmSessionManager = new OpenNotifyingDrmSessionManager(fake, listener);
+        drmSessionManager.open(null);
+        assertEquals(DrmSessionManager.STATE_OPENING, drmSessionManager.getState());
+        assertEquals(0, listener.count);
+        fake.state = DrmSessionManager.STATE_OPENED_WITH_KEYS;
+        assertEquals(DrmSessionManager.STATE_OPENED_WITH_KEYS, drmSessionManager.getState());
+        assertEquals(1, listener.count);
+    }
+
+    @Test
+    public void doesNotNotifyOnError() {
+        FakeDrmSessionManager fake = new FakeDrmSessionManager(DrmSessionManager.STATE_ERROR);
+        CountingListener listener = new CountingListener();
+        DrmSessionManager drmSessionManager = new OpenNotifyingDrmSessionManager(fake, listener);
+        drmSessionManager.open(null);
+        drmSessionManager.getState();
+        drmSessionManager.close();
+        assertEquals(0, listener.count);
+        assertEquals(0, fake.openCount);
+    }
+
+    private static final class CountingListener implements DrmSessionOpenedListener {
+
+        public int count;
+
+        @Override
+        public void onDrmSessionOpened() {
+            count++;
+        }
+
+    }
+
+    private static final class FakeDrmSessionManager implements DrmSessionManager {
+
+        public int state;
+        public int openCount;
+
+        public FakeDrmSessionManager(int stateOnOpen) {
+            state = stateOnOpen;
+        }
+
+        @Override
+        public void open(DrmInitData drmInitData) {
+            openCount++;
+        }
+
+        @Override
+        public void close() {
+            openCount--;
+        }
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public MediaCrypto getMediaCrypto() {
+            return null;
+        }
+
+        @Override
+        public boolean requiresSecureDecoderComponent(String mimeType) {
+            return false;
+        }
+
+        @Override
+        public Exception getError() {
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.kar.mediaservice.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link EventTrace}'s ring buffer and dump format.
+ */
+public class EventTraceTest {
+
+    @Test
+    public void dumpsEntriesOldestFirst() throws IOException {
+        EventTrace trace = new EventTrace(4);
+        trace.record(EventTrace.EVENT_STATE_CHANGED, 1, 3, 0, 0, 0);
+        trace.record(EventTrace.EVENT_LOAD_COMPLETED, 0, 1, 1000, 20, 4000);
+        DataInputStream input = open(trace, 2);
+        assertEntry(input, EventTrace.EVENT_STATE_CHANGED, 1, 3, 0, 0, 0);
+        assertEntry(input, EventTrace.EVENT_LOAD_COMPLETED, 0, 1, 1000, 20, 4000);
+        assertEquals(-1, input.read());
+    }
+
+    @Test
+    public void overwritesOldestEntriesOnceFull() throws IOException {
+        EventTrace trace = new EventTrace(3);
+        for (int i = 0; i < 5; i++) {
+            trace.record(EventTrace.EVENT_SEEK, 0, 0, i, 0, 0);
+        }
+        assertEquals(3, trace.size());
+        DataInputStream input = open(trace, 3);
+        for (int i = 2; i < 5; i++) {
+            assertEntry(input, EventTrace.EVENT_SEEK, 0, 0, i, 0, 0);
+        }
+    }
+
+    @Test
+    public void clearEmptiesTrace() throws IOException {
+        EventTrace trace = new EventTrace(2);
+        trace.record(EventTrace.EVENT_PLAYER_ERROR);
+        trace.record(EventTrace.EVENT_PLAYER_ERROR);
+        trace.record(EventTrace.EVENT_PLAYER_ERROR);
+        trace.clear();
+        trace.record(EventTrace.EVENT_LOAD_ERROR, 2);
+        DataInputStream input = open(trace, 1);
+        assertEntry(input, EventTrace.EVENT_LOAD_ERROR, 2, 0, 0, 0, 0);
+    }
+
+    private static DataInputStream open(EventTrace trace, int expectedCount) throws IOException {
+        DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(trace.toByteArray()));
+        assertEquals(EventTrace.MAGIC, input.readInt());
+        assertEquals(1, input.readByte());
+        assertEquals(expectedCount, input.readInt());
+        return input;
+    }
+
+    private static void assertEntry(DataInputStream input, int type, int int0, int int1,
+                                    long long0, long long1, long long2) throws IOException {
+        assertEquals(type, input.readByte());
+        input.readLong();
+        assertEquals(int0, input.readInt());
+        assertEquals(int1, input.readInt());
+        assertEquals(long0, input.readLong());
+        assertEquals(long1, input.readLong());
+        assertEquals(long2, input.readLong());
+    }
+
+}
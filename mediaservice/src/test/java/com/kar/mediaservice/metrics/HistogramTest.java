@@ -0,0 +1,87 @@
+package com.kar.mediaservice.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link Histogram}'s bucketing and percentile estimates.
+ */
+public class HistogramTest {
+
+    @Test
+    public void valuesFallInInclusiveUpperBoundBuckets() {
+        Histogram histogram = new Histogram(new long[] {10, 20, 40});
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(40);
+        histogram.record(41);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4, snapshot.getBucketCount());
+        assertEquals(1, snapshot.getCountInBucket(0));
+        assertEquals(1, snapshot.getCountInBucket(1));
+        assertEquals(1, snapshot.getCountInBucket(2));
+        assertEquals(1, snapshot.getCountInBucket(3));
+        assertEquals(102, snapshot.getSum());
+        assertEquals(41, snapshot.getMax());
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        Histogram histogram = Histogram.exponential(10, 2, 8);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        // Bounds are 10, 20, 40, 80, 160, ...
+        assertEquals(80, snapshot.getPercentile(0.5));
+        assertEquals(100, snapshot.getPercentile(0.95));
+        assertEquals(10, snapshot.getPercentile(0.01));
+        assertEquals(50, snapshot.getMean());
+    }
+
+    @Test
+    public void overflowPercentileIsMax() {
+        Histogram histogram = new Histogram(new long[] {10});
+        histogram.record(5);
+        histogram.record(500);
+        histogram.record(700);
+        assertEquals(700, histogram.snapshot().getPercentile(0.99));
+    }
+
+    @Test
+    public void resetClearsSnapshot() {
+        Histogram histogram = new Histogram(new long[] {10});
+        histogram.record(5);
+        histogram.reset();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(0.5));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final Histogram histogram = Histogram.exponential(1, 2, 16);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(9999, snapshot.getMax());
+    }
+
+}
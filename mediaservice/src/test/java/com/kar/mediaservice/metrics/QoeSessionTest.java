@@ -0,0 +1,120 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link QoeSession}'s aggregation of a scripted session, and {@link QoeReport}'s encodings.
+ */
+public class QoeSessionTest {
+
+    private static final int BUFFERING = MediaSDKService.STATE_BUFFERING;
+    private static final int READY = MediaSDKService.STATE_READY;
+
+    private QoeSession mSession;
+
+    @Before
+    public void setUp() {
+        mSession = new QoeSession();
+        mSession.start(1000);
+    }
+
+    @Test
+    public void joinTimeIsTimeToFirstPlaying() {
+        mSession.onPlayerStateChanged(true, BUFFERING, 1200);
+        mSession.onPlayerStateChanged(true, READY, 2500);
+        QoeReport report = mSession.end(4500);
+        assertEquals(1500, report.joinTimeMs);
+        assertEquals(2000, report.playTimeMs);
+        assertEquals(3500, report.sessionDurationMs);
+        assertEquals(0, report.rebufferCount);
+    }
+
+    @Test
+    public void stallsAfterJoinAreRebuffers() {
+        mSession.onPlayerStateChanged(true, READY, 1000);
+        mSession.onPlayerStateChanged(true, BUFFERING, 5000);
+        mSession.onPlayerStateChanged(true, READY, 6000);
+        mSession.onPlayerStateChanged(true, BUFFERING, 8000);
+        mSession.onPlayerStateChanged(true, READY, 9000);
+        QoeReport report = mSession.end(10000);
+        assertEquals(2, report.rebufferCount);
+        assertEquals(2000, report.rebufferTimeMs);
+        assertEquals(7000, report.playTimeMs);
+        assertEquals(2f / 9, report.getRebufferRatio(), 0.0001);
+    }
+
+    @Test
+    public void bufferingAfterSeekOrWhilePausedIsNotRebuffering() {
+        mSession.onPlayerStateChanged(true, READY, 1000);
+        mSession.onSeek(2000);
+        mSession.onPlayerStateChanged(true, BUFFERING, 2000);
+        mSession.onPlayerStateChanged(true, READY, 3000);
+        mSession.onPlayerStateChanged(false, BUFFERING, 4000);
+        QoeReport report = mSession.end(5000);
+        assertEquals(0, report.rebufferCount);
+        assertEquals(0, report.rebufferTimeMs);
+        assertEquals(2000, report.playTimeMs);
+    }
+
+    @Test
+    public void averageBitrateIsWeightedByPlayingTime() {
+        mSession.onVideoFormatChanged("low", 1000000, 1000);
+        mSession.onPlayerStateChanged(true, READY, 1000);
+        mSession.onVideoFormatChanged("high", 4000000, 4000);
+        mSession.onVideoFormatChanged("high", 4000000, 4500);
+        QoeReport report = mSession.end(5000);
+        assertEquals((1000000L * 3000 + 4000000L * 1000) / 4000, report.averageBitrate);
+        assertEquals(1, report.switchCount);
+    }
+
+    @Test
+    public void droppedFramesAndBytesAreTotalled() {
+        mSession.onPlayerStateChanged(true, READY, 1000);
+        mSession.onDroppedFrames(3);
+        mSession.onDroppedFrames(2);
+        mSession.onLoadCompleted(MediaSDKService.TYPE_VIDEO, 1000);
+        mSession.onLoadCompleted(MediaSDKService.TYPE_VIDEO, 500);
+        mSession.onLoadCompleted(MediaSDKService.TYPE_AUDIO, 100);
+        QoeReport report = mSession.end(31000);
+        assertEquals(5, report.droppedFrames);
+        assertEquals(10f, report.getDroppedFramesPerMinute(), 0.0001);
+        assertEquals(1500, report.bytesLoaded[MediaSDKService.TYPE_VIDEO]);
+        assertEquals(100, report.bytesLoaded[MediaSDKService.TYPE_AUDIO]);
+    }
+
+    @Test
+    public void endedSessionIsReportedOnce() {
+        mSession.end(2000);
+        assertNull(mSession.end(3000));
+        assertEquals(1000, mSession.getReport(3000).sessionDurationMs);
+    }
+
+    @Test
+    public void binaryEncodingRoundTrips() throws IOException {
+        QoeReport report = new QoeReport(60000, 1200, 55000, 2, 800, 2500000, 3, 17,
+                new long[] {5000000, 600000, 1000, 0});
+        QoeReport decoded = QoeReport.fromByteArray(report.toByteArray());
+        assertEquals(report.toJson(), decoded.toJson());
+        assertArrayEquals(report.bytesLoaded, decoded.bytesLoaded);
+    }
+
+    @Test
+    public void jsonEncoding() {
+        QoeReport report = new QoeReport(10000, 1000, 8000, 1, 2000, 3000000, 2, 4,
+                new long[] {100, 10, 0, 0});
+        assertEquals("{\"sessionMs\":10000,\"joinMs\":1000,\"playMs\":8000,\"rebuffers\":1,"
+                + "\"rebufferMs\":2000,\"rebufferRatio\":0.2000,\"avgBitrate\":3000000,"
+                + "\"switches\":2,\"droppedFrames\":4,\"droppedPerMin\":30.00,"
+                + "\"bytes\":[100,10,0,0]}", report.toJson());
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.kar.mediaservice.metrics;
+
+import com.kar.mediaservice.MediaSDKService;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link StartupTimeline}'s stage bookkeeping.
+ */
+public class StartupTimelineTest {
+
+    private static final long PREPARE_TIME_MS = 1000;
+
+    @Test
+    public void delaysAreRelativeToPrepare() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markStage(StartupTimeline.STAGE_MANIFEST_LOADED, 1200);
+        timeline.markLoadStarted(MediaSDKService.TYPE_VIDEO, 1300);
+        timeline.markLoadCompleted(MediaSDKService.TYPE_VIDEO, 1450);
+        assertEquals(1200, timeline.getStageTimeMs(StartupTimeline.STAGE_MANIFEST_LOADED));
+        assertEquals(200, timeline.getStageDelayMs(StartupTimeline.STAGE_MANIFEST_LOADED));
+        assertEquals(300, timeline.getFirstLoadStartedDelayMs(MediaSDKService.TYPE_VIDEO));
+        assertEquals(450, timeline.getFirstLoadCompletedDelayMs(MediaSDKService.TYPE_VIDEO));
+        assertEquals(StartupTimeline.TIME_UNSET,
+                timeline.getStageDelayMs(StartupTimeline.STAGE_DRM_SESSION_OPENED));
+        assertEquals(StartupTimeline.TIME_UNSET,
+                timeline.getFirstLoadStartedDelayMs(MediaSDKService.TYPE_AUDIO));
+    }
+
+    @Test
+    public void markStageKeepsFirstTime() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markStage(StartupTimeline.STAGE_DRM_SESSION_OPENED, 1100);
+        timeline.markStage(StartupTimeline.STAGE_DRM_SESSION_OPENED, 1500);
+        timeline.markLoadStarted(MediaSDKService.TYPE_AUDIO, 1200);
+        timeline.markLoadStarted(MediaSDKService.TYPE_AUDIO, 1600);
+        assertEquals(100, timeline.getStageDelayMs(StartupTimeline.STAGE_DRM_SESSION_OPENED));
+        assertEquals(200, timeline.getFirstLoadStartedDelayMs(MediaSDKService.TYPE_AUDIO));
+    }
+
+    @Test
+    public void markStageLatestStopsAtFirstFrame() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markStageLatest(StartupTimeline.STAGE_DECODER_INITIALIZED, 1100);
+        timeline.markStageLatest(StartupTimeline.STAGE_DECODER_INITIALIZED, 1300);
+        timeline.markStage(StartupTimeline.STAGE_FIRST_FRAME, 1400);
+        timeline.markStageLatest(StartupTimeline.STAGE_DECODER_INITIALIZED, 5000);
+        assertEquals(300, timeline.getStageDelayMs(StartupTimeline.STAGE_DECODER_INITIALIZED));
+    }
+
+    @Test
+    public void ignoresLoadsOfUnknownTracks() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markLoadStarted(-1, 1100);
+        timeline.markLoadCompleted(MediaSDKService.RENDERER_COUNT, 1100);
+        assertEquals("StartupTimeline[manifest=-1, utcTiming=-1, drmSession=-1, drmKeys=-1, "
+                + "renderers=-1, decoder=-1, firstFrame=-1]", timeline.toString());
+    }
+
+    @Test
+    public void resetStartsNewTimeline() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markStage(StartupTimeline.STAGE_DRM_KEYS_LOADED, 1100);
+        timeline.markLoadStarted(MediaSDKService.TYPE_TEXT, 1100);
+        timeline.reset(2000);
+        assertEquals(2000, timeline.getStageTimeMs(StartupTimeline.STAGE_PREPARE));
+        assertEquals(StartupTimeline.TIME_UNSET,
+                timeline.getStageTimeMs(StartupTimeline.STAGE_DRM_KEYS_LOADED));
+        assertEquals(StartupTimeline.TIME_UNSET,
+                timeline.getFirstLoadStartedDelayMs(MediaSDKService.TYPE_TEXT));
+    }
+
+    @Test
+    public void snapshotIsNotUpdated() {
+        StartupTimeline timeline = newTimeline();
+        timeline.markStage(StartupTimeline.STAGE_MANIFEST_LOADED, 1100);
+        StartupTimeline snapshot = timeline.snapshot();
+        timeline.markStage(StartupTimeline.STAGE_RENDERERS_BUILT, 1200);
+        timeline.reset(3000);
+        assertEquals(100, snapshot.getStageDelayMs(StartupTimeline.STAGE_MANIFEST_LOADED));
+        assertEquals(StartupTimeline.TIME_UNSET,
+                snapshot.getStageDelayMs(StartupTimeline.STAGE_RENDERERS_BUILT));
+    }
+
+    private static StartupTimeline newTimeline() {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.reset(PREPARE_TIME_MS);
+        return timeline;
+    }
+
+}
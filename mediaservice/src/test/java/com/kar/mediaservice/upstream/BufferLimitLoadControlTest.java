@@ -0,0 +1,125 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link BufferLimitLoadControl} and {@link PooledAllocator} hold back loads at the
+ * allocator's buffer limit, e.g. while a player is preloaded.
+ */
+public class BufferLimitLoadControlTest {
+
+    private static final int SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
+
+    private PooledAllocator mAllocator;
+    private FakeLoadControl mWrapped;
+    private BufferLimitLoadControl mLoadControl;
+
+    @Before
+    public void setUp() {
+        mAllocator = new PooledAllocator(SegmentPool.getInstance());
+        mWrapped = new FakeLoadControl(mAllocator);
+        mLoadControl = new BufferLimitLoadControl(mWrapped, mAllocator);
+    }
+
+    @After
+    public void tearDown() {
+        mAllocator.release();
+    }
+
+    @Test
+    public void holdsBackLoadsAtLimit() {
+        mAllocator.setBufferLimit(2 * SEGMENT_SIZE);
+        Allocation first = mAllocator.allocate();
+        assertTrue(mLoadControl.update(this, 0, 0, false));
+        Allocation second = mAllocator.allocate();
+        assertFalse(mLoadControl.update(this, 0, 0, true));
+        // The wrapped load control still sees every update.
+        assertEquals(2, mWrapped.updateCount);
+
+        mAllocator.setBufferLimit(PooledAllocator.NO_BUFFER_LIMIT);
+        assertTrue(mLoadControl.update(this, 0, 0, false));
+        mAllocator.release(new Allocation[] {first, second});
+    }
+
+    @Test
+    public void defersToWrappedBelowLimit() {
+        mWrapped.shouldLoad = false;
+        assertFalse(mLoadControl.update(this, 0, 0, false));
+    }
+
+    @Test
+    public void blockingWaitsForLimitToBeLifted() throws InterruptedException {
+        mAllocator.setBufferLimit(SEGMENT_SIZE);
+        Allocation first = mAllocator.allocate();
+        Allocation second = mAllocator.allocate();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mAllocator.blockWhileTotalBytesAllocatedExceeds(Integer.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    // Fails below.
+                }
+            }
+        });
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+
+        mAllocator.setBufferLimit(PooledAllocator.NO_BUFFER_LIMIT);
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        mAllocator.release(new Allocation[] {first, second});
+    }
+
+    private static final class FakeLoadControl implements LoadControl {
+
+        private final Allocator mAllocator;
+
+        public boolean shouldLoad = true;
+        public int updateCount;
+
+        public FakeLoadControl(Allocator allocator) {
+            mAllocator = allocator;
+        }
+
+        @Override
+        public void register(Object loader, int bufferSizeContribution) {
+            // Do nothing.
+        }
+
+        @Override
+        public void unregister(Object loader) {
+            // Do nothing.
+        }
+
+        @Override
+        public void trimAllocator() {
+            // Do nothing.
+        }
+
+        @Override
+        public Allocator getAllocator() {
+            return mAllocator;
+        }
+
+        @Override
+        public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+                              boolean loading) {
+            updateCount++;
+            return shouldLoad;
+        }
+
+    }
+
+}
@@ -0,0 +1,291 @@
+package com.kar.mediaservice.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ConditionalManifestDataSource} against an in-memory stand-in for an HTTP server.
+ */
+public class ConditionalManifestDataSourceTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final DataSpec MANIFEST_SPEC = new DataSpec((Uri) null);
+
+    private FakeHttpDataSource mServer;
+    private ConditionalManifestDataSource mDataSource;
+
+    @Before
+    public void setUp() {
+        mServer = new FakeHttpDataSource();
+        mDataSource = new ConditionalManifestDataSource(mServer);
+    }
+
+    @Test
+    public void firstRequestIsUnconditionalAndAllowsGzip() throws IOException {
+        mServer.respond("<MPD v1/>", "\"v1\"", null);
+        assertEquals("<MPD v1/>", load());
+        assertNull(mServer.lastRequestProperties.get("If-None-Match"));
+        assertTrue((mServer.lastDataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0);
+    }
+
+    @Test
+    public void notModifiedServesStoredBody() throws IOException {
+        mServer.respond("<MPD v1/>", "\"v1\"", "Tue, 01 Mar 2016 10:00:00 GMT");
+        load();
+        mServer.respondNotModified();
+        assertEquals("<MPD v1/>", load());
+        assertEquals("\"v1\"", mServer.lastRequestProperties.get("If-None-Match"));
+        assertEquals("Tue, 01 Mar 2016 10:00:00 GMT",
+                mServer.lastRequestProperties.get("If-Modified-Since"));
+        assertTrue(mDataSource.isLastResponseNotModified());
+        assertEquals(1, mDataSource.getNotModifiedCount());
+    }
+
+    @Test
+    public void modifiedResponseReplacesStoredBody() throws IOException {
+        mServer.respond("<MPD v1/>", "\"v1\"", null);
+        load();
+        mServer.respond("<MPD v2/>", "\"v2\"", null);
+        assertEquals("<MPD v2/>", load());
+        assertFalse(mDataSource.isLastResponseNotModified());
+        mServer.respondNotModified();
+        load();
+        assertEquals("\"v2\"", mServer.lastRequestProperties.get("If-None-Match"));
+    }
+
+    @Test
+    public void responseWithoutValidatorsIsNotConditional() throws IOException {
+        mServer.respond("<MPD v1/>", null, null);
+        load();
+        load();
+        assertTrue(mServer.lastRequestProperties.isEmpty());
+    }
+
+    @Test
+    public void notModifiedWithoutStoredBodyFails() throws IOException {
+        mServer.respondNotModified();
+        try {
+            mDataSource.open(MANIFEST_SPEC);
+            fail();
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            assertEquals(304, e.responseCode);
+        }
+    }
+
+    @Test
+    public void parserSkipsUnmodifiedManifest() throws IOException {
+        CountingParser countingParser = new CountingParser();
+        UriLoadable.Parser<String> parser = mDataSource.createParser(countingParser);
+        mServer.respond("<MPD v1/>", "\"v1\"", null);
+        String first = parse(parser);
+        mServer.respondNotModified();
+        String second = parse(parser);
+        assertSame(first, second);
+        assertEquals(1, countingParser.parseCount);
+        mServer.respond("<MPD v2/>", "\"v2\"", null);
+        assertEquals("<MPD v2/>", parse(parser));
+        assertEquals(2, countingParser.parseCount);
+    }
+
+    @Test
+    public void bodyOfKnownLengthIsStoredWhenParserStopsBeforeEnd() throws IOException {
+        mServer.respond("<MPD v1/>\n", "\"v1\"", null);
+        assertEquals("<MPD v1/>", parse(new ClosingTagParser()));
+        mServer.respondNotModified();
+        assertEquals("<MPD v1/>\n", load());
+        assertEquals("\"v1\"", mServer.lastRequestProperties.get("If-None-Match"));
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsStoredWhenParserStopsBeforeEnd() throws IOException {
+        // Gzipped responses have no known length.
+        mServer.respond("<MPD v1/>\n", "\"v1\"", null);
+        mServer.unboundedLength = true;
+        assertEquals("<MPD v1/>", parse(new ClosingTagParser()));
+        mServer.respondNotModified();
+        assertEquals("<MPD v1/>\n", load());
+        assertEquals("\"v1\"", mServer.lastRequestProperties.get("If-None-Match"));
+    }
+
+    private String load() throws IOException {
+        mDataSource.open(MANIFEST_SPEC);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4];
+            int bytesRead;
+            while ((bytesRead = mDataSource.read(buffer, 0, buffer.length))
+                    != C.RESULT_END_OF_INPUT) {
+                output.write(buffer, 0, bytesRead);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } finally {
+            mDataSource.close();
+        }
+    }
+
+    private <T> T parse(UriLoadable.Parser<T> parser) throws IOException {
+        // Mirrors UriLoadable, which parses straight from the open data source.
+        mDataSource.open(MANIFEST_SPEC);
+        try {
+            return parser.parse(null, new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] buffer = new byte[1];
+                    int bytesRead = mDataSource.read(buffer, 0, 1);
+                    return bytesRead == C.RESULT_END_OF_INPUT ? -1 : buffer[0] & 0xFF;
+                }
+            });
+        } finally {
+            mDataSource.close();
+        }
+    }
+
+    private static final class CountingParser implements UriLoadable.Parser<String> {
+
+        public int parseCount;
+
+        @Override
+        public String parse(String connectionUrl, InputStream inputStream) throws IOException {
+            parseCount++;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                output.write(b);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        }
+
+    }
+
+    /**
+     * Stops reading at the first closing angle bracket, as XML parsers stop at the end of the
+     * root element without reading to the end of the stream.
+     */
+    private static final class ClosingTagParser implements UriLoadable.Parser<String> {
+
+        @Override
+        public String parse(String connectionUrl, InputStream inputStream) throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                output.write(b);
+                if (b == '>') {
+                    break;
+                }
+            }
+            return new String(output.toByteArray(), UTF_8);
+        }
+
+    }
+
+    /**
+     * Serves a canned response, or a 304 if asked to, and records the last request.
+     */
+    private static final class FakeHttpDataSource implements HttpDataSource {
+
+        private final Map<String, String> mRequestProperties = new HashMap<>();
+
+        public Map<String, String> lastRequestProperties = Collections.emptyMap();
+        public DataSpec lastDataSpec;
+        public boolean unboundedLength;
+
+        private byte[] mBody;
+        private Map<String, List<String>> mHeaders;
+        private boolean mNotModified;
+        private int mReadPosition;
+
+        public void respond(String body, String eTag, String lastModified) {
+            mBody = body.getBytes(UTF_8);
+            mHeaders = new HashMap<>();
+            if (eTag != null) {
+                mHeaders.put("etag", Collections.singletonList(eTag));
+            }
+            if (lastModified != null) {
+                mHeaders.put("Last-Modified", Collections.singletonList(lastModified));
+            }
+            mNotModified = false;
+        }
+
+        public void respondNotModified() {
+            mNotModified = true;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws HttpDataSourceException {
+            lastDataSpec = dataSpec;
+            lastRequestProperties = new HashMap<>(mRequestProperties);
+            if (mNotModified) {
+                throw new InvalidResponseCodeException(304,
+                        new HashMap<String, List<String>>(), dataSpec);
+            }
+            mReadPosition = 0;
+            return unboundedLength ? C.LENGTH_UNBOUNDED : mBody.length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (mReadPosition == mBody.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(readLength, mBody.length - mReadPosition);
+            System.arraycopy(mBody, mReadPosition, buffer, offset, bytesRead);
+            mReadPosition += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() {
+            // Do nothing.
+        }
+
+        @Override
+        public String getUri() {
+            return null;
+        }
+
+        @Override
+        public void setRequestProperty(String name, String value) {
+            mRequestProperties.put(name, value);
+        }
+
+        @Override
+        public void clearRequestProperty(String name) {
+            mRequestProperties.remove(name);
+        }
+
+        @Override
+        public void clearAllRequestProperties() {
+            mRequestProperties.clear();
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return mHeaders;
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.kar.mediaservice.upstream;
+
+import com.google.android.exoplayer.upstream.Allocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SegmentPool}'s byte budget and {@link PooledAllocator#trim(int)}.
+ */
+public class SegmentPoolTest {
+
+    private static final int SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
+
+    private SegmentPool mPool;
+    private PooledAllocator mAllocator;
+
+    @Before
+    public void setUp() {
+        mPool = SegmentPool.getInstance();
+        mPool.trim();
+        mAllocator = new PooledAllocator(mPool);
+    }
+
+    @After
+    public void tearDown() {
+        mAllocator.release();
+        mPool.setMaxBytes(SegmentPool.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void allocationWaitsForBudget() throws InterruptedException {
+        mPool.setMaxBytes(2 * SEGMENT_SIZE);
+        Allocation first = mAllocator.allocate();
+        Allocation second = mAllocator.allocate();
+        final AtomicReference<Allocation> third = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                third.set(mAllocator.allocate());
+            }
+        });
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+
+        mAllocator.release(first);
+        thread.join(1000);
+        assertNotNull(third.get());
+        assertEquals(2 * SEGMENT_SIZE, mAllocator.getTotalBytesAllocated());
+        assertEquals(2 * SEGMENT_SIZE, mPool.getLiveBytes());
+        mAllocator.release(new Allocation[] {second, third.get()});
+    }
+
+    @Test
+    public void interruptedAllocationExceedsBudget() {
+        mPool.setMaxBytes(SEGMENT_SIZE);
+        Allocation first = mAllocator.allocate();
+        Thread.currentThread().interrupt();
+        Allocation second = mAllocator.allocate();
+        // Clears the interrupt, which is left pending for the canceled load.
+        assertTrue(Thread.interrupted());
+        assertEquals(2 * SEGMENT_SIZE, mPool.getLiveBytes());
+        mAllocator.release(new Allocation[] {first, second});
+    }
+
+    @Test
+    public void trimKeepsTargetSizeLessAllocatedBytes() {
+        Allocation[] allocations = new Allocation[4];
+        for (int i = 0; i < allocations.length; i++) {
+            allocations[i] = mAllocator.allocate();
+        }
+        mAllocator.release(allocations);
+        Allocation allocation = mAllocator.allocate();
+        assertEquals(3 * SEGMENT_SIZE, mPool.getPooledBytes());
+
+        mAllocator.trim(3 * SEGMENT_SIZE);
+        assertEquals(2 * SEGMENT_SIZE, mPool.getPooledBytes());
+        mAllocator.release(allocation);
+        mAllocator.trim(0);
+        assertEquals(0, mPool.getPooledBytes());
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link CappedBandwidthMeter} applies the bitrate cap and fixed mode of
+ * {@link AbrSettings} to the wrapped estimate.
+ */
+public class CappedBandwidthMeterTest {
+
+    private static final float FRACTION = CappedBandwidthMeter.HLS_BANDWIDTH_FRACTION;
+
+    private AbrSettings mSettings;
+    private FakeBandwidthMeter mWrapped;
+    private CappedBandwidthMeter mMeter;
+
+    @Before
+    public void setUp() {
+        mSettings = new AbrSettings();
+        mWrapped = new FakeBandwidthMeter();
+        mMeter = new CappedBandwidthMeter(mWrapped, mSettings, FRACTION);
+    }
+
+    @Test
+    public void passesEstimateThroughWithoutCap() {
+        mWrapped.estimate = 5000000;
+        assertEquals(5000000, mMeter.getBitrateEstimate());
+        mWrapped.estimate = BandwidthMeter.NO_ESTIMATE;
+        assertEquals(BandwidthMeter.NO_ESTIMATE, mMeter.getBitrateEstimate());
+    }
+
+    @Test
+    public void capsEstimateSoFormatAtCapIsUsable() {
+        mSettings.setMaxBitrate(2000000);
+        mWrapped.estimate = 5000000;
+        long estimate = mMeter.getBitrateEstimate();
+        assertEquals(2500000, estimate);
+        assertEquals(2000000, (long) (estimate * FRACTION));
+
+        mWrapped.estimate = 1000000;
+        assertEquals(1000000, mMeter.getBitrateEstimate());
+        mWrapped.estimate = BandwidthMeter.NO_ESTIMATE;
+        assertEquals(BandwidthMeter.NO_ESTIMATE, mMeter.getBitrateEstimate());
+    }
+
+    @Test
+    public void reportsCapInFixedMode() {
+        mSettings.setAdaptive(false);
+        mSettings.setMaxBitrate(2000000);
+        mWrapped.estimate = 100000;
+        assertEquals(2500000, mMeter.getBitrateEstimate());
+        mWrapped.estimate = BandwidthMeter.NO_ESTIMATE;
+        assertEquals(2500000, mMeter.getBitrateEstimate());
+        mSettings.setMaxBitrate(0);
+        assertEquals(Integer.MAX_VALUE, mMeter.getBitrateEstimate());
+    }
+
+    @Test
+    public void forwardsTransfers() {
+        mMeter.onTransferStart();
+        mMeter.onBytesTransferred(1000);
+        mMeter.onBytesTransferred(500);
+        mMeter.onTransferEnd();
+        assertEquals(1, mWrapped.transfersStarted);
+        assertEquals(1500, mWrapped.bytesTransferred);
+        assertEquals(1, mWrapped.transfersEnded);
+    }
+
+    private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+        public long estimate = NO_ESTIMATE;
+        public int transfersStarted;
+        public long bytesTransferred;
+        public int transfersEnded;
+
+        @Override
+        public long getBitrateEstimate() {
+            return estimate;
+        }
+
+        @Override
+        public void onTransferStart() {
+            transfersStarted++;
+        }
+
+        @Override
+        public void onBytesTransferred(int bytes) {
+            bytesTransferred += bytes;
+        }
+
+        @Override
+        public void onTransferEnd() {
+            transfersEnded++;
+        }
+
+    }
+
+}
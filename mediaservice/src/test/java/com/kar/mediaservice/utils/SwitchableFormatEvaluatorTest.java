@@ -0,0 +1,149 @@
+package com.kar.mediaservice.utils;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.kar.mediaservice.MediaSDKService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that {@link SwitchableFormatEvaluator} picks up {@link AbrSettings} changes between
+ * evaluations of the same session.
+ */
+public class SwitchableFormatEvaluatorTest {
+
+    private static final Format LOW = newFormat("low", 400000);
+    private static final Format MEDIUM = newFormat("medium", 1200000);
+    private static final Format HIGH = newFormat("high", 3000000);
+    private static final Format[] FORMATS = new Format[] {HIGH, LOW, MEDIUM};
+    private static final List<MediaChunk> QUEUE = Collections.emptyList();
+
+    private AbrSettings mSettings;
+    private FixedEvaluator mThroughputEvaluator;
+    private FixedEvaluator mBufferBasedEvaluator;
+    private SwitchableFormatEvaluator mEvaluator;
+    private FormatEvaluator.Evaluation mEvaluation;
+
+    @Before
+    public void setUp() {
+        mSettings = new AbrSettings();
+        mThroughputEvaluator = new FixedEvaluator(HIGH);
+        mBufferBasedEvaluator = new FixedEvaluator(LOW);
+        mEvaluator = new SwitchableFormatEvaluator(mSettings, mThroughputEvaluator,
+                mBufferBasedEvaluator);
+        mEvaluator.enable();
+        mEvaluation = new FormatEvaluator.Evaluation();
+    }
+
+    @Test
+    public void switchesAlgorithmMidSession() {
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+        mSettings.setAlgorithm(MediaSDKService.ABR_BUFFER_BASED);
+        evaluate();
+        assertSame(LOW, mEvaluation.format);
+        mSettings.setAlgorithm(MediaSDKService.ABR_THROUGHPUT);
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+        assertEquals(2, mThroughputEvaluator.evaluationCount);
+        assertEquals(1, mBufferBasedEvaluator.evaluationCount);
+    }
+
+    @Test
+    public void capsAdaptiveSelectionMidSession() {
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+        mSettings.setMaxBitrate(2000000);
+        evaluate();
+        assertSame(MEDIUM, mEvaluation.format);
+        assertEquals(Chunk.TRIGGER_MANUAL, mEvaluation.trigger);
+        mSettings.setMaxBitrate(0);
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+        assertEquals(Chunk.TRIGGER_ADAPTIVE, mEvaluation.trigger);
+    }
+
+    @Test
+    public void switchesToFixedAndBackMidSession() {
+        evaluate();
+        mSettings.setMaxBitrate(1200000);
+        mSettings.setAdaptive(false);
+        evaluate();
+        assertSame(MEDIUM, mEvaluation.format);
+        assertEquals(Chunk.TRIGGER_MANUAL, mEvaluation.trigger);
+        assertEquals(1, mThroughputEvaluator.evaluationCount);
+
+        // A fixed format below every rung falls back to the lowest one.
+        mSettings.setMaxBitrate(100000);
+        evaluate();
+        assertSame(LOW, mEvaluation.format);
+
+        mSettings.setMaxBitrate(0);
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+
+        mSettings.setAdaptive(true);
+        mSettings.setAlgorithm(MediaSDKService.ABR_BUFFER_BASED);
+        evaluate();
+        assertSame(LOW, mEvaluation.format);
+    }
+
+    @Test
+    public void followsNewFormatsAfterTrackChange() {
+        mSettings.setAdaptive(false);
+        evaluate();
+        assertSame(HIGH, mEvaluation.format);
+        Format[] formats = new Format[] {LOW, MEDIUM};
+        mEvaluator.evaluate(QUEUE, 0, formats, mEvaluation);
+        assertSame(MEDIUM, mEvaluation.format);
+    }
+
+    private void evaluate() {
+        mEvaluator.evaluate(QUEUE, 0, FORMATS, mEvaluation);
+    }
+
+    private static Format newFormat(String id, int bitrate) {
+        return new Format(id, "video/mp4", -1, -1, -1, -1, -1, bitrate);
+    }
+
+    /**
+     * Selects the same format on every evaluation, as an adaptive evaluator would.
+     */
+    private static final class FixedEvaluator implements FormatEvaluator {
+
+        private final Format mFormat;
+
+        public int evaluationCount;
+
+        public FixedEvaluator(Format format) {
+            mFormat = format;
+        }
+
+        @Override
+        public void enable() {
+        }
+
+        @Override
+        public void disable() {
+        }
+
+        @Override
+        public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                             Format[] formats, Evaluation evaluation) {
+            evaluationCount++;
+            evaluation.format = mFormat;
+            evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+        }
+
+    }
+
+}